@@ -0,0 +1,127 @@
+package com.example.springbootwebfluxbasics.benchmark;
+
+import com.example.springbootwebfluxbasics.common.BlockingProperties;
+import com.example.springbootwebfluxbasics.common.BlockingScheduler;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * Bursts of concurrent blocking calls on each app.blocking.scheduler: how many calls actually run at once, the rate
+ * they complete at, and their latency from request to result (queueing included). Two backends:
+ *
+ *   sleep  a 20 ms blocking wait, like a call to a slow remote service; capacity is all down to the scheduler
+ *   jdbc   a 20 ms query through a pool of POOL_SIZE H2 connections; capacity is then capped by the pool
+ *
+ * Latency under load is a distribution rather than a throughput score, so this is a plain main. The virtual scheduler
+ * needs Java 21 and is skipped on older runtimes:
+ *
+ *   ./mvnw -q -Pjava21,jmh test-compile exec:java -Dexec.classpathScope=test \
+ *       -Dexec.mainClass=com.example.springbootwebfluxbasics.benchmark.BlockingSchedulerLoadTest
+ */
+public class BlockingSchedulerLoadTest {
+
+    private static final long CALL_MILLIS = 20;
+    private static final int POOL_SIZE = 32;
+    private static final int ROUNDS = 3;
+    private static final int[] CONCURRENCY = {100, 1_000, 4_000};
+
+    public static void main(String[] args) throws Exception {
+        try (HikariDataSource pool = pool()) {
+            System.out.printf("%-16s %-6s %11s %13s %10s %9s %9s%n",
+                    "scheduler", "calls", "concurrency", "peak running", "calls/s", "p50 ms", "p99 ms");
+            for (BlockingProperties.Kind kind : BlockingProperties.Kind.values()) {
+                BlockingScheduler blocking;
+                try {
+                    blocking = new BlockingScheduler(kind);
+                } catch (IllegalStateException e) {
+                    System.out.printf("%-16s skipped: %s%n", kind, e.getMessage());
+                    continue;
+                }
+                for (int concurrency : CONCURRENCY) {
+                    run(blocking, "sleep", concurrency, () -> {
+                        Thread.sleep(CALL_MILLIS);
+                        return null;
+                    });
+                    run(blocking, "jdbc", concurrency, () -> query(pool));
+                }
+                blocking.destroy();
+            }
+        }
+    }
+
+    private static void run(BlockingScheduler blocking, String calls, int concurrency, Callable<?> call) {
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger peak = new AtomicInteger();
+        Callable<Object> counted = () -> {
+            peak.accumulateAndGet(running.incrementAndGet(), Math::max);
+            try {
+                return call.call();
+            } finally {
+                running.decrementAndGet();
+            }
+        };
+        long[] latencies = new long[concurrency * ROUNDS];
+        AtomicInteger recorded = new AtomicInteger();
+        long started = System.nanoTime();
+        for (int round = 0; round < ROUNDS; round++) {
+            Flux.range(0, concurrency)
+                    .flatMap(i -> Mono.defer(() -> {
+                        long requested = System.nanoTime();
+                        return blocking.call(counted).doOnTerminate(
+                                () -> latencies[recorded.getAndIncrement()] = System.nanoTime() - requested);
+                    }), concurrency)
+                    .blockLast();
+        }
+        long elapsed = System.nanoTime() - started;
+        Arrays.sort(latencies);
+        System.out.printf("%-16s %-6s %,11d %,13d %,10.0f %9.1f %9.1f%n",
+                blocking.kind(), calls, concurrency, peak.get(),
+                latencies.length / (elapsed / 1e9), millis(latencies, 0.50), millis(latencies, 0.99));
+    }
+
+    private static Object query(HikariDataSource pool) throws Exception {
+        try (Connection connection = pool.getConnection();
+             PreparedStatement statement = connection.prepareStatement("SELECT pause(?)")) {
+            statement.setLong(1, CALL_MILLIS);
+            try (ResultSet result = statement.executeQuery()) {
+                result.next();
+                return result.getObject(1);
+            }
+        }
+    }
+
+    private static double millis(long[] sorted, double quantile) {
+        int rank = (int) Math.min(sorted.length - 1, Math.ceil(quantile * sorted.length) - 1);
+        return sorted[rank] / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    // H2 has no sleep function, so the query waits in a Java one
+    private static HikariDataSource pool() throws Exception {
+        HikariConfig config = new HikariConfig();
+        config.setJdbcUrl("jdbc:h2:mem:load;DB_CLOSE_DELAY=-1");
+        config.setUsername("sa");
+        config.setMaximumPoolSize(POOL_SIZE);
+        HikariDataSource pool = new HikariDataSource(config);
+        try (Connection connection = pool.getConnection(); Statement statement = connection.createStatement()) {
+            statement.execute("CREATE ALIAS IF NOT EXISTS pause FOR '"
+                    + BlockingSchedulerLoadTest.class.getName() + ".pause'");
+        }
+        return pool;
+    }
+
+    public static long pause(long millis) throws InterruptedException {
+        Thread.sleep(millis);
+        return millis;
+    }
+}
@@ -0,0 +1,104 @@
+package com.example.springbootwebfluxbasics.benchmark;
+
+import com.example.springbootwebfluxbasics.annotatedcontrollers.Book;
+import com.example.springbootwebfluxbasics.annotatedcontrollers.BookRepository;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+ * BookRepository operations against a pre-filled catalog.
+ * Thread count is a JMH option: -t N for the single-operation benchmarks, -tg R,W for the mixed group.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class BookRepositoryBenchmark {
+
+    @Param({"10000", "1000000"})
+    public int catalogSize;
+
+    private BookRepository repository;
+    private String[] ids;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        repository = new BookRepository();
+        ids = Catalog.fill(repository, catalogSize);
+    }
+
+    @Benchmark
+    public Book findById(Picker picker) {
+        return repository.findById(ids[picker.next(ids.length)]).block();
+    }
+
+    @Benchmark
+    public Long findByAuthor(Picker picker) {
+        return repository.findByAuthor(Catalog.author(picker.next(Catalog.AUTHORS))).count().block();
+    }
+
+    @Benchmark
+    public Long findByGenre(Picker picker) {
+        return repository.findByGenre(Catalog.genre(picker.next(Catalog.GENRES))).take(100).count().block();
+    }
+
+    // One of the ten most common words, each in several percent of all books
+    @Benchmark
+    public Long searchCommon(Picker picker) {
+        return search(Catalog.word(picker.next(10)));
+    }
+
+    // A word from the long tail, in a handful of books
+    @Benchmark
+    public Long searchRare(Picker picker) {
+        return search(Catalog.word(1000 + picker.next(Catalog.WORDS - 1000)));
+    }
+
+    // A mid-frequency word followed by the first letters of another, as typed into a search box
+    @Benchmark
+    public Long searchPrefix(Picker picker) {
+        String partial = Catalog.word(400 + picker.next(8000));
+        return search(Catalog.word(100 + picker.next(900)) + " " + partial.substring(0, 3));
+    }
+
+    private Long search(String query) {
+        return repository.search(query, 10).count().block();
+    }
+
+    // Overwrites an existing book so the catalog size stays fixed
+    @Benchmark
+    public Book update(Picker picker) {
+        int i = picker.next(ids.length);
+        return repository.save(Catalog.book(i)).block();
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(3)
+    public Book mixedRead(Picker picker) {
+        return findById(picker);
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(1)
+    public Book mixedWrite(Picker picker) {
+        return update(picker);
+    }
+}
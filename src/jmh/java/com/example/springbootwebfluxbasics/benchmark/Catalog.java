@@ -0,0 +1,108 @@
+package com.example.springbootwebfluxbasics.benchmark;
+
+import com.example.springbootwebfluxbasics.annotatedcontrollers.Book;
+import com.example.springbootwebfluxbasics.annotatedcontrollers.BookRepository;
+import com.example.springbootwebfluxbasics.functionalendpoints.Product;
+import com.example.springbootwebfluxbasics.functionalendpoints.ProductRepository;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.UUID;
+
+// Deterministic synthetic catalog shared by the benchmarks
+public final class Catalog {
+
+    public static final int CATEGORIES = 100;
+    public static final int AUTHORS = 1000;
+    public static final int GENRES = 20;
+    // Words in book titles and descriptions; word k is used about 1/k as often as the most common one
+    public static final int WORDS = 20_000;
+    private static final int BATCH = 10_000;
+    private static final String[] SYLLABLES = {
+            "ka", "lo", "mi", "ren", "tu", "sa", "vel", "or", "pi", "dan",
+            "es", "gri", "no", "thu", "al", "bre", "zo", "fi", "mor", "quel"};
+
+    private Catalog() {
+    }
+
+    public static String category(int i) {
+        return "Category " + i % CATEGORIES;
+    }
+
+    public static String author(int i) {
+        return "Author " + i % AUTHORS;
+    }
+
+    public static String genre(int i) {
+        return "Genre " + i % GENRES;
+    }
+
+    public static Product product(int i) {
+        return new Product(id(i), "Product number " + i, 10.0 + i % 990, category(i), i % 3 != 0, null);
+    }
+
+    public static Book book(int i) {
+        SplittableRandom random = new SplittableRandom(i);
+        return new Book(id(i + Integer.MIN_VALUE), text(random, 3), author(i), 1900 + i % 125, genre(i),
+                text(random, 12), 5.0 + i % 95, i % 4 != 0, null);
+    }
+
+    // A distinct pronounceable word for each rank, 0 being the most common
+    public static String word(int rank) {
+        StringBuilder word = new StringBuilder();
+        int k = rank;
+        do {
+            word.append(SYLLABLES[k % SYLLABLES.length]);
+            k /= SYLLABLES.length;
+        } while (k > 0);
+        return word.toString();
+    }
+
+    // Zipf-like text: ranks drawn log-uniformly, which gives rank k a frequency close to 1/k
+    private static String text(SplittableRandom random, int words) {
+        StringBuilder text = new StringBuilder();
+        for (int w = 0; w < words; w++) {
+            if (w > 0) {
+                text.append(' ');
+            }
+            text.append(word((int) Math.pow(WORDS, random.nextDouble()) - 1));
+        }
+        return text.toString();
+    }
+
+    // Ids of the generated entities, in generation order
+    public static String[] fill(ProductRepository repository, int size) {
+        String[] ids = new String[size];
+        List<Product> batch = new ArrayList<>(BATCH);
+        for (int i = 0; i < size; i++) {
+            Product product = product(i);
+            ids[i] = product.getId();
+            batch.add(product);
+            if (batch.size() == BATCH || i == size - 1) {
+                repository.saveAll(batch).blockLast();
+                batch = new ArrayList<>(BATCH);
+            }
+        }
+        return ids;
+    }
+
+    public static String[] fill(BookRepository repository, int size) {
+        String[] ids = new String[size];
+        List<Book> batch = new ArrayList<>(BATCH);
+        for (int i = 0; i < size; i++) {
+            Book book = book(i);
+            ids[i] = book.getId();
+            batch.add(book);
+            if (batch.size() == BATCH || i == size - 1) {
+                repository.saveAll(batch).blockLast();
+                batch = new ArrayList<>(BATCH);
+            }
+        }
+        return ids;
+    }
+
+    private static String id(int i) {
+        return new UUID(0x5eed_0000_0000_0000L | i, i * 0x9e3779b97f4a7c15L).toString();
+    }
+}
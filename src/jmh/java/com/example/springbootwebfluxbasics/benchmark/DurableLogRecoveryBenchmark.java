@@ -0,0 +1,90 @@
+package com.example.springbootwebfluxbasics.benchmark;
+
+import com.example.springbootwebfluxbasics.common.DurableLog;
+import com.example.springbootwebfluxbasics.common.PersistenceProperties;
+import com.example.springbootwebfluxbasics.functionalendpoints.Product;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Time to recover a DurableLog of N products, either from a snapshot alone or from log segments alone.
+ * Each measurement is one cold recovery; the data set is written once per trial.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class DurableLogRecoveryBenchmark {
+
+    @Param({"1000000"})
+    public int records;
+
+    @Param({"snapshot", "log"})
+    public String source;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private Path directory;
+    private PersistenceProperties properties;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("durable-log-benchmark");
+        properties = new PersistenceProperties(true, directory.toString(), Duration.ofDays(1), 4096);
+
+        Map<String, Product> products = new ConcurrentHashMap<>();
+        DurableLog<Product> log = new DurableLog<>(directory, "products", Product.class, mapper, properties);
+        log.recover(product -> { }, id -> { });
+        log.start(products::values);
+        CompletableFuture<?> last = null;
+        for (int i = 0; i < records; i++) {
+            Product product = Catalog.product(i);
+            products.put(product.getId(), product);
+            last = log.put(product);
+        }
+        last.join();
+        if (source.equals("snapshot")) {
+            log.snapshot();
+        }
+        log.close();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        FileSystemUtils.deleteRecursively(directory);
+    }
+
+    @Benchmark
+    public int recover() throws IOException {
+        Map<String, Product> recovered = new ConcurrentHashMap<>();
+        DurableLog<Product> log = new DurableLog<>(directory, "products", Product.class, mapper, properties);
+        log.recover(product -> recovered.put(product.getId(), product), recovered::remove);
+        if (recovered.size() != records) {
+            throw new IllegalStateException("Recovered " + recovered.size() + " of " + records + " records");
+        }
+        return recovered.size();
+    }
+}
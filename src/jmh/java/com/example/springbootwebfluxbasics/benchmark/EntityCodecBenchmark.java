@@ -0,0 +1,152 @@
+package com.example.springbootwebfluxbasics.benchmark;
+
+import com.example.springbootwebfluxbasics.annotatedcontrollers.Book;
+import com.example.springbootwebfluxbasics.annotatedcontrollers.BookProtobuf;
+import com.example.springbootwebfluxbasics.common.EntityCodecs;
+import com.example.springbootwebfluxbasics.common.JsonCache;
+import com.example.springbootwebfluxbasics.common.JsonCacheProperties;
+import com.example.springbootwebfluxbasics.common.ProtobufEntityCodec;
+import com.example.springbootwebfluxbasics.functionalendpoints.Product;
+import com.example.springbootwebfluxbasics.functionalendpoints.ProductProtobuf;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.MediaType;
+import org.springframework.util.unit.DataSize;
+import reactor.core.publisher.Flux;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+/*
+ * Encoding and decoding a list of products and of books in each body format, as the endpoints do it. JSON is encoded
+ * fresh (the cache is off), so all four formats pay for the encoding. Sizes of the same bodies come from PayloadSizes.
+ *
+ *   ./mvnw -Pjmh test-compile exec:exec -Djmh.args="EntityCodecBenchmark -prof gc"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EntityCodecBenchmark {
+
+    @Param({"json", "cbor", "smile", "protobuf"})
+    public String format;
+
+    // Entities per body
+    @Param({"1", "100"})
+    public int batchSize;
+
+    private Codecs codecs;
+    private MediaType mediaType;
+    private List<Product> products;
+    private List<Book> books;
+    private byte[] productBody;
+    private byte[] bookBody;
+
+    @Setup
+    public void setUp() {
+        codecs = new Codecs();
+        mediaType = Codecs.MEDIA_TYPES.get(format);
+        products = IntStream.range(0, batchSize).mapToObj(i -> Catalog.product(i).withVersion(1L)).toList();
+        books = IntStream.range(0, batchSize).mapToObj(i -> Catalog.book(i).withVersion(1L)).toList();
+        productBody = codecs.encodeProducts(products, mediaType);
+        bookBody = codecs.encodeBooks(books, mediaType);
+    }
+
+    @Benchmark
+    public byte[] encodeProducts() {
+        return codecs.encodeProducts(products, mediaType);
+    }
+
+    @Benchmark
+    public byte[] encodeBooks() {
+        return codecs.encodeBooks(books, mediaType);
+    }
+
+    @Benchmark
+    public List<Product> decodeProducts() throws Exception {
+        return codecs.decode(productBody, Product.class, mediaType);
+    }
+
+    @Benchmark
+    public List<Book> decodeBooks() throws Exception {
+        return codecs.decode(bookBody, Book.class, mediaType);
+    }
+
+    // Codecs set up as the application does, with plain mappers
+    static final class Codecs {
+
+        static final Map<String, MediaType> MEDIA_TYPES = Map.of(
+                "json", MediaType.APPLICATION_JSON,
+                "cbor", MediaType.APPLICATION_CBOR,
+                "smile", EntityCodecs.SMILE,
+                "protobuf", EntityCodecs.PROTOBUF);
+
+        private final ObjectMapper json = new ObjectMapper();
+        private final ObjectMapper cbor = new ObjectMapper(new CBORFactory());
+        private final ObjectMapper smile = new ObjectMapper(new SmileFactory());
+        private final ProductProtobuf productProtobuf = new ProductProtobuf();
+        private final BookProtobuf bookProtobuf = new BookProtobuf();
+        private final EntityCodecs entityCodecs = new EntityCodecs(cbor, smile,
+                new ProtobufEntityCodec(List.of(productProtobuf, bookProtobuf)));
+        private final JsonCacheProperties uncached = new JsonCacheProperties(false, DataSize.ofMegabytes(1));
+        private final JsonCache<Product> productJson = new JsonCache<>("products", Product.class, json, uncached,
+                new SimpleMeterRegistry());
+        private final JsonCache<Book> bookJson = new JsonCache<>("books", Book.class, json, uncached,
+                new SimpleMeterRegistry());
+
+        byte[] encodeProducts(List<Product> products, MediaType mediaType) {
+            return bytes(entityCodecs.encode(Flux.fromIterable(products), productJson, mediaType,
+                    DefaultDataBufferFactory.sharedInstance));
+        }
+
+        byte[] encodeBooks(List<Book> books, MediaType mediaType) {
+            return bytes(entityCodecs.encode(Flux.fromIterable(books), bookJson, mediaType,
+                    DefaultDataBufferFactory.sharedInstance));
+        }
+
+        @SuppressWarnings("unchecked")
+        <T> List<T> decode(byte[] body, Class<T> type, MediaType mediaType) throws Exception {
+            if (mediaType == EntityCodecs.PROTOBUF) {
+                return (List<T>) (type == Product.class ? productProtobuf : bookProtobuf).decodeDelimited(ByteBuffer.wrap(body));
+            }
+            ObjectMapper mapper = mediaType == EntityCodecs.SMILE ? smile : mediaType == MediaType.APPLICATION_CBOR ? cbor : json;
+            JavaType listType = mapper.getTypeFactory().constructCollectionType(List.class, type);
+            return mapper.readValue(body, listType);
+        }
+
+        private static byte[] bytes(Flux<DataBuffer> buffers) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            buffers.doOnNext(buffer -> {
+                byte[] chunk = new byte[buffer.readableByteCount()];
+                buffer.read(chunk);
+                out.writeBytes(chunk);
+                DataBufferUtils.release(buffer);
+            }).blockLast();
+            return out.toByteArray();
+        }
+    }
+}
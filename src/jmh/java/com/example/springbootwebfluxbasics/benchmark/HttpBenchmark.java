@@ -0,0 +1,212 @@
+package com.example.springbootwebfluxbasics.benchmark;
+
+import com.example.springbootwebfluxbasics.SpringBootWebfluxBasicsApplication;
+import com.example.springbootwebfluxbasics.annotatedcontrollers.BookRepository;
+import com.example.springbootwebfluxbasics.common.EntityVersions;
+import com.example.springbootwebfluxbasics.functionalendpoints.ProductRepository;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.MediaType;
+import org.springframework.http.server.reactive.HttpHandler;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.http.server.reactive.MockServerHttpResponse;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import org.springframework.web.server.adapter.WebHttpHandlerBuilder;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Full request handling (filters, routing, ProductHandler or BookController, codecs) without sockets.
+ * transport=httpHandler drives the application's HttpHandler on the calling thread, which isolates server cost;
+ * transport=webTestClient goes through WebTestClient, which adds a thread hop per request.
+ * Thread count is the JMH -t option.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class HttpBenchmark {
+
+    // Products one page render needs, fetched one request each or in a single multi-get
+    private static final int PAGE_ITEMS = 20;
+
+    @Param({"10000", "100000"})
+    public int catalogSize;
+
+    @Param({"map", "columnar"})
+    public String storage;
+
+    @Param({"httpHandler", "webTestClient"})
+    public String transport;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private ConfigurableApplicationContext context;
+    private HttpHandler handler;
+    private WebTestClient client;
+    private String[] productIds;
+    private String[] productETags;
+    private String ndjsonListETag;
+    private String[] bookIds;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        context = new SpringApplicationBuilder(SpringBootWebfluxBasicsApplication.class)
+                .web(WebApplicationType.NONE)
+                .properties("spring.main.banner-mode=off", "app.products.storage=" + storage,
+                        // One client at full speed; the handlers are what is measured here
+                        "app.admission.enabled=false")
+                .run();
+        handler = WebHttpHandlerBuilder.applicationContext(context).build();
+        client = WebTestClient.bindToApplicationContext(context).build();
+        ProductRepository products = context.getBean(ProductRepository.class);
+        productIds = Catalog.fill(products, catalogSize);
+        productETags = new String[catalogSize];
+        for (int i = 0; i < catalogSize; i++) {
+            productETags[i] = EntityVersions.etag(products.findById(productIds[i]).block().getVersion(),
+                    MediaType.APPLICATION_JSON);
+        }
+        ndjsonListETag = EntityVersions.collectionETag(products.generation(), MediaType.APPLICATION_NDJSON);
+        bookIds = Catalog.fill(context.getBean(BookRepository.class), catalogSize);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public byte[] getProduct(Picker picker) {
+        return get("/products/" + productIds[picker.next(productIds.length)], MediaType.APPLICATION_JSON);
+    }
+
+    // Polling client whose copy is current: 304, nothing encoded
+    @Benchmark
+    public int getProductsOneByOne(Picker picker) {
+        int bytes = 0;
+        for (int n = 0; n < PAGE_ITEMS; n++) {
+            bytes += getProduct(picker).length;
+        }
+        return bytes;
+    }
+
+    @Benchmark
+    public byte[] multiGetProducts(Picker picker) throws Exception {
+        String[] ids = new String[PAGE_ITEMS];
+        for (int n = 0; n < PAGE_ITEMS; n++) {
+            ids[n] = productIds[picker.next(productIds.length)];
+        }
+        return exchange(HttpMethod.POST, "/products/_mget", MediaType.APPLICATION_JSON, null,
+                mapper.writeValueAsBytes(Map.of("ids", ids)));
+    }
+
+    @Benchmark
+    public byte[] getProductNotModified(Picker picker) {
+        int i = picker.next(productIds.length);
+        return exchange(HttpMethod.GET, "/products/" + productIds[i], MediaType.APPLICATION_JSON, productETags[i], null);
+    }
+
+    @Benchmark
+    public byte[] getBook(Picker picker) {
+        return get("/books/" + bookIds[picker.next(bookIds.length)], MediaType.APPLICATION_JSON);
+    }
+
+    @Benchmark
+    public byte[] getProductsPage(Picker picker) {
+        return get("/products?limit=100&after=" + productIds[picker.next(productIds.length)], MediaType.APPLICATION_JSON);
+    }
+
+    @Benchmark
+    public byte[] getBooksPage(Picker picker) {
+        return get("/books?limit=100&after=" + bookIds[picker.next(bookIds.length)], MediaType.APPLICATION_JSON);
+    }
+
+    @Benchmark
+    public byte[] getProductsByCategoryNdjson(Picker picker) {
+        return get("/products/category/" + Catalog.category(picker.next(Catalog.CATEGORIES)), MediaType.APPLICATION_NDJSON);
+    }
+
+    @Benchmark
+    public byte[] getProductsByCategoryNdjsonNotModified(Picker picker) {
+        return exchange(HttpMethod.GET, "/products/category/" + Catalog.category(picker.next(Catalog.CATEGORIES)),
+                MediaType.APPLICATION_NDJSON, ndjsonListETag, null);
+    }
+
+    @Benchmark
+    public byte[] getBooksByAuthorNdjson(Picker picker) {
+        return get("/books/author/" + Catalog.author(picker.next(Catalog.AUTHORS)), MediaType.APPLICATION_NDJSON);
+    }
+
+    @Benchmark
+    public byte[] updateProduct(Picker picker) throws Exception {
+        int i = picker.next(productIds.length);
+        return exchange(HttpMethod.PUT, "/products/" + productIds[i], MediaType.APPLICATION_JSON, null,
+                mapper.writeValueAsBytes(Catalog.product(i)));
+    }
+
+    @Benchmark
+    public byte[] updateBook(Picker picker) throws Exception {
+        int i = picker.next(bookIds.length);
+        return exchange(HttpMethod.PUT, "/books/" + bookIds[i], MediaType.APPLICATION_JSON, null,
+                mapper.writeValueAsBytes(Catalog.book(i)));
+    }
+
+    private byte[] get(String uri, MediaType accept) {
+        return exchange(HttpMethod.GET, uri, accept, null, null);
+    }
+
+    private byte[] exchange(HttpMethod method, String uri, MediaType accept, String ifNoneMatch, byte[] body) {
+        if (transport.equals("webTestClient")) {
+            WebTestClient.RequestBodySpec request = client.method(method).uri(uri).accept(accept);
+            if (ifNoneMatch != null) {
+                request.ifNoneMatch(ifNoneMatch);
+            }
+            if (body != null) {
+                request.contentType(MediaType.APPLICATION_JSON).bodyValue(body);
+            }
+            return request.exchange()
+                    .expectStatus().value(status -> check(method, uri, HttpStatusCode.valueOf(status)))
+                    .expectBody().returnResult().getResponseBody();
+        }
+
+        MockServerHttpRequest.BodyBuilder builder = MockServerHttpRequest.method(method, uri).accept(accept);
+        if (ifNoneMatch != null) {
+            builder.ifNoneMatch(ifNoneMatch);
+        }
+        MockServerHttpRequest request = body == null ? builder.build()
+                : builder.contentType(MediaType.APPLICATION_JSON).body(new String(body, StandardCharsets.UTF_8));
+        MockServerHttpResponse response = new MockServerHttpResponse();
+        handler.handle(request, response).block();
+        // No status set means the default 200
+        if (response.getStatusCode() != null) {
+            check(method, uri, response.getStatusCode());
+        }
+        return response.getBodyAsString().map(string -> string.getBytes(StandardCharsets.UTF_8)).block();
+    }
+
+    private static void check(HttpMethod method, String uri, HttpStatusCode status) {
+        if (!status.is2xxSuccessful() && status.value() != 304) {
+            throw new IllegalStateException(method + " " + uri + " returned " + status);
+        }
+    }
+}
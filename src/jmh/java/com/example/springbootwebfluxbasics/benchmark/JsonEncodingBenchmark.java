@@ -0,0 +1,105 @@
+package com.example.springbootwebfluxbasics.benchmark;
+
+import com.example.springbootwebfluxbasics.annotatedcontrollers.Book;
+import com.example.springbootwebfluxbasics.common.JsonCache;
+import com.example.springbootwebfluxbasics.common.JsonCacheProperties;
+import com.example.springbootwebfluxbasics.functionalendpoints.Product;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.json.Jackson2JsonEncoder;
+import org.springframework.util.unit.DataSize;
+import reactor.core.publisher.Flux;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+// Cost of turning entities into JSON: alone, through the WebFlux encoder, and from the pre-encoded JSON cache
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JsonEncodingBenchmark {
+
+    // Number of entities per encoded response
+    @Param({"1", "100"})
+    public int batchSize;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final Jackson2JsonEncoder encoder = new Jackson2JsonEncoder(mapper);
+    private final JsonCache<Product> cache = new JsonCache<>("products", Product.class, mapper,
+            new JsonCacheProperties(true, DataSize.ofMegabytes(32)), new SimpleMeterRegistry());
+    private List<Product> products;
+    private List<Book> books;
+
+    @Setup
+    public void setUp() {
+        // Stored entities carry a version, which is what the cache is keyed by
+        products = IntStream.range(0, batchSize).mapToObj(i -> Catalog.product(i).withVersion(1L)).toList();
+        books = IntStream.range(0, batchSize).mapToObj(Catalog::book).toList();
+    }
+
+    @Benchmark
+    public byte[] productsObjectMapper() throws Exception {
+        return mapper.writeValueAsBytes(products);
+    }
+
+    @Benchmark
+    public byte[] booksObjectMapper() throws Exception {
+        return mapper.writeValueAsBytes(books);
+    }
+
+    @Benchmark
+    public int productsJsonEncoder() {
+        return encode(products, Product.class, MediaType.APPLICATION_JSON);
+    }
+
+    @Benchmark
+    public int productsNdjsonEncoder() {
+        return encode(products, Product.class, MediaType.APPLICATION_NDJSON);
+    }
+
+    @Benchmark
+    public int productsJsonCache() {
+        return count(cache.encode(Flux.fromIterable(products), MediaType.APPLICATION_JSON, DefaultDataBufferFactory.sharedInstance));
+    }
+
+    @Benchmark
+    public int productsNdjsonCache() {
+        return count(cache.encode(Flux.fromIterable(products), MediaType.APPLICATION_NDJSON, DefaultDataBufferFactory.sharedInstance));
+    }
+
+    private int encode(List<?> values, Class<?> type, MediaType mediaType) {
+        return count(encoder.encode(Flux.fromIterable(values), DefaultDataBufferFactory.sharedInstance,
+                ResolvableType.forClass(type), mediaType, null));
+    }
+
+    private static int count(Flux<DataBuffer> buffers) {
+        return buffers
+                .map(buffer -> {
+                    int size = buffer.readableByteCount();
+                    DataBufferUtils.release(buffer);
+                    return size;
+                })
+                .reduce(0, Integer::sum)
+                .block();
+    }
+}
@@ -0,0 +1,74 @@
+package com.example.springbootwebfluxbasics.benchmark;
+
+import com.example.springbootwebfluxbasics.common.PartitionedMap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/*
+ * PartitionedMap writes as writer threads and partitions are added, alone and while full snapshots are taken.
+ * Run with -t 1, 2, 4, ... for write; compare partitions=1 (every writer on one lock) against 0 (one per core).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class PartitionedMapBenchmark {
+
+    @Param({"1", "0"})
+    public int partitions;
+
+    @Param({"100000"})
+    public int size;
+
+    private PartitionedMap<String> map;
+    private String[] ids;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        map = new PartitionedMap<>(partitions, Map.<String, Function<String, String>>of("group", value -> value));
+        ids = new String[size];
+        for (int i = 0; i < size; i++) {
+            ids[i] = "id-" + i;
+            map.put(ids[i], Catalog.genre(i % Catalog.GENRES));
+        }
+    }
+
+    // Moves an id to another indexed group
+    @Benchmark
+    public String write(Picker picker) {
+        return map.put(ids[picker.next(size)], Catalog.genre(picker.next(Catalog.GENRES)));
+    }
+
+    @Benchmark
+    @Group("snapshotting")
+    @GroupThreads(3)
+    public String snapshottingWrite(Picker picker) {
+        return write(picker);
+    }
+
+    // Takes a snapshot and reads one entity from it, so the cost measured is the cut rather than the iteration
+    @Benchmark
+    @Group("snapshotting")
+    @GroupThreads(1)
+    public String snapshot() {
+        return map.snapshot().iterator().next();
+    }
+}
@@ -0,0 +1,34 @@
+package com.example.springbootwebfluxbasics.benchmark;
+
+import com.example.springbootwebfluxbasics.annotatedcontrollers.Book;
+import com.example.springbootwebfluxbasics.functionalendpoints.Product;
+import org.springframework.http.MediaType;
+
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+/*
+ * Body size of the same products and books in each format, for one entity and for lists. Sizes are not a throughput
+ * number, so this is a plain main; EntityCodecBenchmark has the encode and decode rates.
+ *
+ *   ./mvnw -q -Pjmh test-compile exec:java -Dexec.classpathScope=test \
+ *       -Dexec.mainClass=com.example.springbootwebfluxbasics.benchmark.PayloadSizes
+ */
+public class PayloadSizes {
+
+    public static void main(String[] args) {
+        EntityCodecBenchmark.Codecs codecs = new EntityCodecBenchmark.Codecs();
+        for (int count : new int[]{1, 100, 10_000}) {
+            List<Product> products = IntStream.range(0, count).mapToObj(i -> Catalog.product(i).withVersion(1L)).toList();
+            List<Book> books = IntStream.range(0, count).mapToObj(i -> Catalog.book(i).withVersion(1L)).toList();
+            for (String format : List.of("json", "cbor", "smile", "protobuf")) {
+                MediaType mediaType = EntityCodecBenchmark.Codecs.MEDIA_TYPES.get(format);
+                int productBytes = codecs.encodeProducts(products, mediaType).length;
+                int bookBytes = codecs.encodeBooks(books, mediaType).length;
+                System.out.printf("%,7d x %-9s products %,11d B (%6.1f B each)   books %,11d B (%6.1f B each)%n",
+                        count, format, productBytes, (double) productBytes / count, bookBytes, (double) bookBytes / count);
+            }
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package com.example.springbootwebfluxbasics.benchmark;
+
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.SplittableRandom;
+
+// Per-thread random choice of which entity a benchmark invocation touches
+@State(Scope.Thread)
+public class Picker {
+
+    private final SplittableRandom random = new SplittableRandom();
+
+    public int next(int bound) {
+        return random.nextInt(bound);
+    }
+}
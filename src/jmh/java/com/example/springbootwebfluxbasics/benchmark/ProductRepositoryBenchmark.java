@@ -0,0 +1,145 @@
+package com.example.springbootwebfluxbasics.benchmark;
+
+import com.example.springbootwebfluxbasics.common.BlockingProperties;
+import com.example.springbootwebfluxbasics.common.BlockingScheduler;
+import com.example.springbootwebfluxbasics.common.CacheProperties;
+import com.example.springbootwebfluxbasics.common.DurableLogFactory;
+import com.example.springbootwebfluxbasics.common.EntityStoreFactory;
+import com.example.springbootwebfluxbasics.common.PartitionProperties;
+import com.example.springbootwebfluxbasics.common.PersistenceProperties;
+import com.example.springbootwebfluxbasics.common.StoreProperties;
+import com.example.springbootwebfluxbasics.common.VersionConflictException;
+import com.example.springbootwebfluxbasics.functionalendpoints.ColumnarProductStorage;
+import com.example.springbootwebfluxbasics.functionalendpoints.MapProductStorage;
+import com.example.springbootwebfluxbasics.functionalendpoints.PartitionedProductStorage;
+import com.example.springbootwebfluxbasics.functionalendpoints.Product;
+import com.example.springbootwebfluxbasics.functionalendpoints.ProductRepository;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.r2dbc.core.DatabaseClient;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * ProductRepository operations against a pre-filled catalog.
+ * Thread count is a JMH option: -t N for the single-operation benchmarks, -tg R,W for the mixed group.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class ProductRepositoryBenchmark {
+
+    private static final int HOT_PRODUCTS = 16;
+
+    @Param({"10000", "1000000"})
+    public int catalogSize;
+
+    @Param({"map", "columnar", "partitioned"})
+    public String storage;
+
+    private ProductRepository repository;
+    private String[] ids;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        PersistenceProperties persistence = new PersistenceProperties(false, "data", Duration.ofMinutes(5), 4096);
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        DurableLogFactory logs = new DurableLogFactory(persistence, new ObjectMapper());
+        EntityStoreFactory stores = new EntityStoreFactory(
+                new StoreProperties(StoreProperties.Type.NONE, Duration.ZERO, Duration.ZERO, 1,
+                        StoreProperties.Reads.MEMORY, new StoreProperties.Jdbc("jdbc:h2:mem:bench", "sa", "", 8)),
+                persistence, new CacheProperties(false, 0, 0, Duration.ZERO, Duration.ZERO), registry, List.of(), new DefaultListableBeanFactory().getBeanProvider(DatabaseClient.class),
+                new BlockingScheduler(BlockingProperties.Kind.BOUNDED_ELASTIC));
+        repository = new ProductRepository(logs, stores,
+                switch (storage) {
+                    case "columnar" -> new ColumnarProductStorage();
+                    case "partitioned" -> new PartitionedProductStorage(new PartitionProperties(0));
+                    default -> new MapProductStorage();
+                },
+                registry);
+        ids = Catalog.fill(repository, catalogSize);
+    }
+
+    @Benchmark
+    public Product findById(Picker picker) {
+        return repository.findById(ids[picker.next(ids.length)]).block();
+    }
+
+    @Benchmark
+    public Long findByCategory(Picker picker) {
+        return repository.findByCategory(Catalog.category(picker.next(Catalog.CATEGORIES))).count().block();
+    }
+
+    @Benchmark
+    public Long findCheapest(Picker picker) {
+        return repository.findCheapest(Catalog.category(picker.next(Catalog.CATEGORIES)), 10).count().block();
+    }
+
+    @Benchmark
+    public Long findPage(Picker picker) {
+        return repository.findPage(ids[picker.next(ids.length)], 100).count().block();
+    }
+
+    // Overwrites an existing product so the catalog size stays fixed
+    @Benchmark
+    public Product update(Picker picker) {
+        int i = picker.next(ids.length);
+        return repository.update(ids[i], Catalog.product(i)).block();
+    }
+
+    // Optimistic read-modify-write as PATCH does it: read the version, then compare-and-set against it
+    @Benchmark
+    public Product replace(Picker picker) {
+        return replace(picker.next(ids.length));
+    }
+
+    // Writers racing on a few hot products; a lost race is a conflict, not a retry, so every op is one attempt
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(4)
+    public Product contendedReplace(Picker picker) {
+        return replace(picker.next(HOT_PRODUCTS));
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(3)
+    public Product mixedRead(Picker picker) {
+        return findById(picker);
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(1)
+    public Product mixedWrite(Picker picker) {
+        return update(picker);
+    }
+
+    private Product replace(int i) {
+        Product current = repository.findById(ids[i]).block();
+        return repository.replace(ids[i], Catalog.product(i), current.getVersion())
+                .onErrorResume(VersionConflictException.class, e -> Mono.empty())
+                .block();
+    }
+}
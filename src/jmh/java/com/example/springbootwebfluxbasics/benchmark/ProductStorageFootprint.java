@@ -0,0 +1,49 @@
+package com.example.springbootwebfluxbasics.benchmark;
+
+import com.example.springbootwebfluxbasics.functionalendpoints.ColumnarProductStorage;
+import com.example.springbootwebfluxbasics.functionalendpoints.MapProductStorage;
+import com.example.springbootwebfluxbasics.functionalendpoints.Product;
+import com.example.springbootwebfluxbasics.functionalendpoints.ProductStorage;
+
+import java.lang.management.ManagementFactory;
+import java.util.UUID;
+import java.util.function.Supplier;
+
+/*
+ * Retained heap of N products (default 1,000,000) in each ProductStorage engine.
+ * Products look like decoded request bodies: UUID ids, fresh name/category strings per product.
+ * Footprint is not a throughput number, so this is a plain main rather than a JMH benchmark.
+ *
+ *   ./mvnw -q -Pjmh test-compile exec:java -Dexec.classpathScope=test \
+ *       -Dexec.mainClass=com.example.springbootwebfluxbasics.benchmark.ProductStorageFootprint \
+ *       -Dexec.args="1000000"
+ */
+public class ProductStorageFootprint {
+
+    public static void main(String[] args) {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        measure("map", MapProductStorage::new, count);
+        measure("columnar", ColumnarProductStorage::new, count);
+    }
+
+    private static void measure(String label, Supplier<ProductStorage> factory, int count) {
+        long before = usedHeap();
+        ProductStorage storage = factory.get();
+        for (int i = 0; i < count; i++) {
+            String id = UUID.randomUUID().toString();
+            Product product = new Product(id, "Product number " + i, 10.0 + i % 990,
+                    new String("Category " + i % 100), i % 3 != 0, i + 1L);
+            storage.compute(id, (key, existing) -> product);
+        }
+        long retained = usedHeap() - before;
+        System.out.printf("%-9s %,d products: %,d MB retained, %.1f bytes/product%n",
+                label, storage.size(), retained >> 20, (double) retained / count);
+    }
+
+    private static long usedHeap() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+}
@@ -0,0 +1,124 @@
+package com.example.springbootwebfluxbasics.benchmark;
+
+import com.example.springbootwebfluxbasics.common.BlockingProperties;
+import com.example.springbootwebfluxbasics.common.BlockingScheduler;
+import com.example.springbootwebfluxbasics.common.CacheProperties;
+import com.example.springbootwebfluxbasics.common.DurableLogFactory;
+import com.example.springbootwebfluxbasics.common.EntityStoreFactory;
+import com.example.springbootwebfluxbasics.common.PersistenceProperties;
+import com.example.springbootwebfluxbasics.common.StoreProperties;
+import com.example.springbootwebfluxbasics.functionalendpoints.MapProductStorage;
+import com.example.springbootwebfluxbasics.functionalendpoints.Product;
+import com.example.springbootwebfluxbasics.functionalendpoints.ProductRepository;
+import com.example.springbootwebfluxbasics.functionalendpoints.ProductTable;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.r2dbc.pool.ConnectionPool;
+import io.r2dbc.spi.ConnectionFactories;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.r2dbc.core.DatabaseClient;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// The in-memory repository against the same repository over pooled embedded H2 with reads=store, without and with
+// the cache in front (cached): point lookups, category queries streamed from the indexed column, and writes of BATCH
+// products as one saveAll (multi-row MERGE statements) or as one save each. The catalog fits in the cache, so once warm
+// cached reads only go to the database after a write invalidates them.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class R2dbcStoreBenchmark {
+
+    private static final int CATALOG = 10_000;
+    private static final int BATCH = 64;
+
+    @Param({"memory", "r2dbc", "cached"})
+    public String backend;
+
+    private ConnectionPool pool;
+    private ProductRepository repository;
+    private String[] ids;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        PersistenceProperties persistence = new PersistenceProperties(false, "data", Duration.ofMinutes(5), 4096);
+        StoreProperties.Type type = backend.equals("memory") ? StoreProperties.Type.NONE : StoreProperties.Type.R2DBC;
+        DefaultListableBeanFactory beans = new DefaultListableBeanFactory();
+        if (type == StoreProperties.Type.R2DBC) {
+            pool = (ConnectionPool) ConnectionFactories.get("r2dbc:pool:h2:mem:///bench;DB_CLOSE_DELAY=-1");
+            beans.registerSingleton("databaseClient", DatabaseClient.create(pool));
+        }
+        EntityStoreFactory stores = new EntityStoreFactory(
+                new StoreProperties(type, Duration.ZERO, Duration.ZERO, 128, StoreProperties.Reads.STORE,
+                        new StoreProperties.Jdbc("jdbc:h2:mem:bench", "sa", "", 8)),
+                persistence,
+                new CacheProperties(backend.equals("cached"), 100_000, 1_000_000, Duration.ofSeconds(30),
+                        Duration.ofMinutes(10)),
+                registry, List.of(new ProductTable()), beans.getBeanProvider(DatabaseClient.class),
+                new BlockingScheduler(BlockingProperties.Kind.BOUNDED_ELASTIC));
+        repository = new ProductRepository(new DurableLogFactory(persistence, new ObjectMapper()), stores,
+                new MapProductStorage(), registry);
+        ids = Catalog.fill(repository, CATALOG);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (pool != null) {
+            pool.dispose();
+        }
+    }
+
+    // Memory answers from its map, the others through the loader (no batch window) and the store or cache
+    @Benchmark
+    public Product findById(Picker picker) {
+        return repository.findById(ids[picker.next(ids.length)]).block();
+    }
+
+    @Benchmark
+    public Long findByCategory(Picker picker) {
+        return repository.findByCategory(Catalog.category(picker.next(Catalog.CATEGORIES))).count().block();
+    }
+
+    // Overwrites existing products, so the catalog size stays fixed
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public Product saveAll(Picker picker) {
+        return repository.saveAll(batch(picker)).blockLast();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public Product saveEach(Picker picker) {
+        return Flux.fromIterable(batch(picker)).concatMap(repository::save).blockLast();
+    }
+
+    private List<Product> batch(Picker picker) {
+        List<Product> batch = new ArrayList<>(BATCH);
+        for (int n = 0; n < BATCH; n++) {
+            batch.add(Catalog.product(picker.next(ids.length)));
+        }
+        return batch;
+    }
+}
@@ -0,0 +1,90 @@
+package com.example.springbootwebfluxbasics.benchmark;
+
+import com.example.springbootwebfluxbasics.common.BatchLoader;
+import com.example.springbootwebfluxbasics.common.SimulatedEntityStore;
+import com.example.springbootwebfluxbasics.functionalendpoints.Product;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Fan-in of concurrent point lookups against a store with 1 ms latency: straight to the store, coalesced only, and
+// coalesced and batched. Store calls per fan-in are the roundTrips counter divided by fanIns.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StoreLoaderBenchmark {
+
+    private static final int STORED = 10_000;
+    // Requests in flight together, drawn from a hot set so some of them repeat
+    private static final int FAN_IN = 256;
+    private static final int HOT_SET = 1_000;
+
+    @Param({"direct", "coalesce", "batch"})
+    public String mode;
+
+    private SimulatedEntityStore<Product> store;
+    private BatchLoader<Product> loader;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        store = new SimulatedEntityStore<>("products", Duration.ofMillis(1), registry);
+        store.putAll(Flux.range(0, STORED).map(Catalog::product).map(this::versioned).collectList().block()).block();
+        Duration window = mode.equals("batch") ? Duration.ofMillis(1) : Duration.ZERO;
+        loader = new BatchLoader<>("products", store, window, 128, registry);
+    }
+
+    @Benchmark
+    public Long fanIn(Picker picker, RoundTrips roundTrips) {
+        long before = store.roundTrips();
+        Long found = Flux.range(0, FAN_IN)
+                .flatMap(i -> load(Catalog.product(picker.next(HOT_SET)).getId()), FAN_IN)
+                .count()
+                .block();
+        roundTrips.roundTrips += store.roundTrips() - before;
+        roundTrips.fanIns++;
+        return found;
+    }
+
+    private Mono<Product> load(String id) {
+        return mode.equals("direct") ? store.getAll(List.of(id)).next() : loader.load(id);
+    }
+
+    private Product versioned(Product product) {
+        return product.withVersion(1L);
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class RoundTrips {
+
+        public long roundTrips;
+        public long fanIns;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            roundTrips = 0;
+            fanIns = 0;
+        }
+    }
+}
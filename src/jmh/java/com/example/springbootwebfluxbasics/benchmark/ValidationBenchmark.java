@@ -0,0 +1,75 @@
+package com.example.springbootwebfluxbasics.benchmark;
+
+import com.example.springbootwebfluxbasics.annotatedcontrollers.Book;
+import com.example.springbootwebfluxbasics.annotatedcontrollers.BookValidator;
+import com.example.springbootwebfluxbasics.common.EntityValidation;
+import com.example.springbootwebfluxbasics.common.ValidationProperties;
+import com.example.springbootwebfluxbasics.functionalendpoints.Product;
+import com.example.springbootwebfluxbasics.functionalendpoints.ProductValidator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.validation.Errors;
+import org.springframework.validation.beanvalidation.LocalValidatorFactoryBean;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Request body validation as handlers, services and bulk ingest run it, per engine; run with -prof gc for allocation
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ValidationBenchmark {
+
+    @Param({"PRECOMPILED", "BEAN_VALIDATION"})
+    public ValidationProperties.Engine engine;
+
+    private LocalValidatorFactoryBean beanValidator;
+    private EntityValidation validation;
+    private Product product;
+    private Book book;
+    private Product invalidProduct;
+
+    @Setup
+    public void setUp() {
+        beanValidator = new LocalValidatorFactoryBean();
+        beanValidator.afterPropertiesSet();
+        validation = new EntityValidation(beanValidator, List.of(new ProductValidator(), new BookValidator()),
+                new ValidationProperties(engine));
+        product = Catalog.product(1);
+        book = Catalog.book(1);
+        invalidProduct = new Product(null, "ab", null, null, null, null);
+    }
+
+    @TearDown
+    public void tearDown() {
+        beanValidator.close();
+    }
+
+    @Benchmark
+    public Errors validProduct() {
+        return validation.check(product, "product");
+    }
+
+    @Benchmark
+    public Errors validBook() {
+        return validation.check(book, "book");
+    }
+
+    @Benchmark
+    public Errors invalidProduct() {
+        return validation.check(invalidProduct, "product");
+    }
+}
@@ -2,8 +2,14 @@ package com.example.springbootwebfluxbasics;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceAutoConfiguration;
+import org.springframework.boot.autoconfigure.r2dbc.R2dbcAutoConfiguration;
+import org.springframework.boot.context.properties.ConfigurationPropertiesScan;
 
-@SpringBootApplication
+// No connection factory or DataSource unless a store needs one: the jdbc store pools its own connections, and
+// R2dbcStoreConfiguration brings in R2DBC for app.store.type=r2dbc
+@SpringBootApplication(exclude = {R2dbcAutoConfiguration.class, DataSourceAutoConfiguration.class})
+@ConfigurationPropertiesScan
 public class SpringBootWebfluxBasicsApplication {
 
     public static void main(String[] args) {
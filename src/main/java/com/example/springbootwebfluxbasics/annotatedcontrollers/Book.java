@@ -1,37 +1,45 @@
 package com.example.springbootwebfluxbasics.annotatedcontrollers;
 
+import com.example.springbootwebfluxbasics.common.Versioned;
 import jakarta.validation.constraints.Min;
 import jakarta.validation.constraints.NotBlank;
 import jakarta.validation.constraints.NotNull;
 import jakarta.validation.constraints.Size;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
-import lombok.Data;
-import lombok.NoArgsConstructor;
-
-@Data
-@Builder
-@NoArgsConstructor
+import lombok.Value;
+import lombok.With;
+import lombok.extern.jackson.Jacksonized;
+
+// Immutable: a write stores a new instance, so readers holding this one never see it change
+@Value
+@Builder(toBuilder = true)
+@Jacksonized
 @AllArgsConstructor
-public class Book {
-    private String id;
+public class Book implements Versioned {
+    @With
+    String id;
 
     @NotBlank(message = "Title is required")
     @Size(min = 1, max = 200, message = "Title must be between 1 and 200 characters")
-    private String title;
+    String title;
 
     @NotBlank(message = "Author is required")
-    private String author;
+    String author;
 
     @NotNull(message = "Year is required")
     @Min(value = 1000, message = "Year must be after 1000")
-    private Integer year;
+    Integer year;
 
-    private String genre;
-    private String description;
+    String genre;
+    String description;
 
     @Min(value = 0, message = "Price cannot be negative")
-    private Double price;
+    Double price;
+
+    Boolean available;
 
-    private Boolean available;
+    // Assigned by the repository on every write; backs ETags
+    @With
+    Long version;
 }
\ No newline at end of file
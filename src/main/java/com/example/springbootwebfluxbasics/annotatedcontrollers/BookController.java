@@ -3,16 +3,29 @@ package com.example.springbootwebfluxbasics.annotatedcontrollers;
 import com.example.springbootwebfluxbasics.annotatedcontrollers.Book;
 import com.example.springbootwebfluxbasics.annotatedcontrollers.BookService;
 import jakarta.validation.Valid;
+import com.example.springbootwebfluxbasics.common.BulkItemResult;
+import com.example.springbootwebfluxbasics.common.ChangeEvent;
+import com.example.springbootwebfluxbasics.common.Cursor;
+import com.example.springbootwebfluxbasics.common.EntityCodecs;
+import com.example.springbootwebfluxbasics.common.EntityResponses;
+import com.example.springbootwebfluxbasics.common.EntityVersions;
+import com.example.springbootwebfluxbasics.common.GroupAggregates;
+import com.example.springbootwebfluxbasics.common.JsonMergePatch;
+import com.example.springbootwebfluxbasics.common.MultiGet;
+import com.fasterxml.jackson.databind.JsonNode;
 import lombok.RequiredArgsConstructor;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.bind.support.WebExchangeBindException;
+import org.springframework.web.server.ServerWebExchange;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
-import java.time.Duration;
 import java.util.stream.Collectors;
 
 @RestController
@@ -20,40 +33,151 @@ import java.util.stream.Collectors;
 @RequiredArgsConstructor
 public class BookController {
 
+    private static final int DEFAULT_SEARCH_LIMIT = 10;
+
     private final BookService bookService;
+    // Books are written from their cached JSON bytes rather than encoded on every response
+    private final BookJsonCache jsonCache;
+    private final MultiGet multiGet;
+    private final EntityCodecs codecs;
+
+    // Lists can also be streamed as NDJSON, one book per line, flushed as it is encoded, or sent as CBOR, Smile or
+    // Protobuf
+    @GetMapping(produces = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_NDJSON_VALUE,
+            MediaType.APPLICATION_CBOR_VALUE, EntityCodecs.SMILE_VALUE, EntityCodecs.PROTOBUF_VALUE})
+    public Mono<ResponseEntity<Flux<DataBuffer>>> getAllBooks(@RequestParam(required = false) Integer limit,
+                                                              @RequestParam(required = false) String after,
+                                                              ServerWebExchange exchange) {
+        MediaType mediaType = EntityResponses.listEncoding(exchange.getRequest().getHeaders().getAccept());
+        String etag = collectionETag(mediaType);
+        if (limit == null && after == null) {
+            return Mono.just(listResponse(etag, mediaType).body(encode(bookService.findAllBooks(), mediaType, exchange)));
+        }
 
-    @GetMapping
-    public Flux<Book> getAllBooks() {
-        return bookService.findAllBooks();
+        // Keyset pagination: the next cursor is returned in a Link header
+        int pageSize = Cursor.limit(limit);
+        String afterId = Cursor.decode(after);
+        if (exchange.checkNotModified(etag)) {
+            // Unchanged since the client's copy: answered with 304 without reading the page
+            return Mono.just(ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                    .eTag(etag)
+                    .varyBy(HttpHeaders.ACCEPT)
+                    .build());
+        }
+        return bookService.findBooksPage(afterId, pageSize)
+                .collectList()
+                .map(page -> {
+                    ResponseEntity.BodyBuilder response = listResponse(etag, mediaType);
+                    String next = Cursor.nextLink(exchange.getRequest().getURI(), pageSize, page);
+                    if (next != null) {
+                        response.header(HttpHeaders.LINK, next);
+                    }
+                    return response.body(encode(Flux.fromIterable(page), mediaType, exchange));
+                });
     }
 
     @GetMapping("/{id}")
-    public Mono<ResponseEntity<Book>> getBookById(@PathVariable String id) {
+    public Mono<ResponseEntity<Mono<DataBuffer>>> getBookById(@PathVariable String id, ServerWebExchange exchange) {
+        // A matching If-None-Match gets a 304 before the book is encoded; otherwise its cached bytes are sent as is
+        MediaType mediaType = EntityResponses.entityEncoding(exchange.getRequest().getHeaders().getAccept());
         return bookService.findBookById(id)
-                .map(ResponseEntity::ok)
+                .map(book -> ResponseEntity.ok()
+                        .headers(EntityResponses.entity(book, mediaType))
+                        .body(encode(book, mediaType, exchange)))
                 .defaultIfEmpty(ResponseEntity.notFound().build());
     }
 
-    @GetMapping("/author/{author}")
-    public Flux<Book> getBooksByAuthor(@PathVariable String author) {
-        return bookService.findBooksByAuthor(author);
+    @GetMapping(value = "/author/{author}", produces = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_NDJSON_VALUE,
+            MediaType.APPLICATION_CBOR_VALUE, EntityCodecs.SMILE_VALUE, EntityCodecs.PROTOBUF_VALUE})
+    public ResponseEntity<Flux<DataBuffer>> getBooksByAuthor(@PathVariable String author, ServerWebExchange exchange) {
+        MediaType mediaType = EntityResponses.listEncoding(exchange.getRequest().getHeaders().getAccept());
+        return listResponse(collectionETag(mediaType), mediaType)
+                .body(encode(bookService.findBooksByAuthor(author), mediaType, exchange));
+    }
+
+    @GetMapping(value = "/genre/{genre}", produces = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_NDJSON_VALUE,
+            MediaType.APPLICATION_CBOR_VALUE, EntityCodecs.SMILE_VALUE, EntityCodecs.PROTOBUF_VALUE})
+    public ResponseEntity<Flux<DataBuffer>> getBooksByGenre(@PathVariable String genre, ServerWebExchange exchange) {
+        MediaType mediaType = EntityResponses.listEncoding(exchange.getRequest().getHeaders().getAccept());
+        return listResponse(collectionETag(mediaType), mediaType)
+                .body(encode(bookService.findBooksByGenre(genre), mediaType, exchange));
+    }
+
+    // Full-text search over title and description, best match first; the last word also matches as a prefix
+    @GetMapping(value = "/search", produces = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_NDJSON_VALUE,
+            MediaType.APPLICATION_CBOR_VALUE, EntityCodecs.SMILE_VALUE, EntityCodecs.PROTOBUF_VALUE})
+    public ResponseEntity<Flux<DataBuffer>> searchBooks(@RequestParam String q, @RequestParam(required = false) Integer limit,
+                                                        ServerWebExchange exchange) {
+        int top = limit == null ? DEFAULT_SEARCH_LIMIT : Cursor.limit(limit);
+        MediaType mediaType = EntityResponses.listEncoding(exchange.getRequest().getHeaders().getAccept());
+        return listResponse(collectionETag(mediaType), mediaType)
+                .body(encode(bookService.searchBooks(q, top), mediaType, exchange));
+    }
+
+    // Counts and prices per genre, read from aggregates the repository keeps up to date
+    @GetMapping("/stats")
+    public ResponseEntity<BookStats> getBookStats() {
+        return ResponseEntity.ok()
+                .eTag(collectionETag(MediaType.APPLICATION_JSON))
+                .body(bookService.stats());
     }
 
-    @GetMapping("/genre/{genre}")
-    public Flux<Book> getBooksByGenre(@PathVariable String genre) {
-        return bookService.findBooksByGenre(genre);
+    // Server-Sent Events: the full stats, then at most one delta per ?interval= milliseconds (default 1000) with the
+    // total and the genres that changed
+    @GetMapping(value = "/stats/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<BookStats>> streamBookStats(@RequestParam(required = false) Integer interval) {
+        // mergeSequential subscribes to the deltas up front, so nothing written after the snapshot is read is missed
+        return Flux.mergeSequential(
+                Mono.fromSupplier(bookService::stats).map(stats -> statsEvent("snapshot", stats)),
+                bookService.statsChanges(GroupAggregates.interval(interval)).map(stats -> statsEvent("delta", stats)));
     }
 
+    // The body can be JSON, CBOR, Smile or Protobuf, as its Content-Type says; the response is in the Accept'ed type
     @PostMapping
-    @ResponseStatus(HttpStatus.CREATED)
-    public Mono<Book> createBook(@Valid @RequestBody Book book) {
-        return bookService.createBook(book);
+    public Mono<ResponseEntity<Mono<DataBuffer>>> createBook(@Valid @RequestBody Book book, ServerWebExchange exchange) {
+        MediaType mediaType = EntityResponses.entityEncoding(exchange.getRequest().getHeaders().getAccept());
+        return bookService.createBook(book)
+                .map(created -> ResponseEntity.status(HttpStatus.CREATED)
+                        .headers(EntityResponses.entity(created, mediaType))
+                        .body(encode(created, mediaType, exchange)));
+    }
+
+    // Bulk create from a JSON array or NDJSON body, decoded incrementally; one result per item is streamed back
+    @PostMapping(value = "/_bulk",
+            consumes = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_NDJSON_VALUE},
+            produces = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_NDJSON_VALUE})
+    public Flux<BulkItemResult> bulkCreateBooks(@RequestBody Flux<Book> books) {
+        return bookService.bulkCreateBooks(books);
     }
 
+    // Several books by id in one call: {"ids": [...]} in, the books found plus the ids that were not found out
+    @PostMapping(value = "/_mget",
+            consumes = MediaType.APPLICATION_JSON_VALUE,
+            produces = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_NDJSON_VALUE})
+    public ResponseEntity<Flux<DataBuffer>> multiGetBooks(@RequestBody MultiGet.Request request, ServerWebExchange exchange) {
+        MediaType mediaType = EntityResponses.listMediaType(exchange.getRequest().getHeaders().getAccept());
+        return ResponseEntity.ok()
+                .contentType(mediaType)
+                .body(multiGet.encode(request, bookService::findBooksById, jsonCache, mediaType,
+                        exchange.getResponse().bufferFactory()));
+    }
+
+    // Replaced only while the book is at the version named by If-Match, if any; 412 otherwise
     @PutMapping("/{id}")
-    public Mono<ResponseEntity<Book>> updateBook(@PathVariable String id, @Valid @RequestBody Book book) {
-        return bookService.updateBook(id, book)
-                .map(updatedBook -> ResponseEntity.ok(updatedBook))
+    public Mono<ResponseEntity<Mono<DataBuffer>>> updateBook(@PathVariable String id, @Valid @RequestBody Book book,
+                                                             @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch,
+                                                             ServerWebExchange exchange) {
+        return bookService.updateBook(id, book, EntityVersions.expectedVersion(ifMatch))
+                .map(updatedBook -> written(updatedBook, exchange))
+                .defaultIfEmpty(ResponseEntity.notFound().build());
+    }
+
+    @PatchMapping(value = "/{id}", consumes = {JsonMergePatch.MEDIA_TYPE_VALUE, MediaType.APPLICATION_JSON_VALUE})
+    public Mono<ResponseEntity<Mono<DataBuffer>>> patchBook(@PathVariable String id, @RequestBody JsonNode patch,
+                                                            @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch,
+                                                            ServerWebExchange exchange) {
+        return bookService.patchBook(id, patch, EntityVersions.expectedVersion(ifMatch))
+                .map(patchedBook -> written(patchedBook, exchange))
                 .defaultIfEmpty(ResponseEntity.notFound().build());
     }
 
@@ -69,11 +193,46 @@ public class BookController {
         return bookService.deleteAllBooks();
     }
 
-    // Server-Sent Events endpoint
+    // Server-Sent Events endpoint: snapshot (unless ?snapshot=false), then live changes
     @GetMapping(value = "/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
-    public Flux<Book> streamBooks() {
-        return bookService.findAllBooks()
-                .delayElements(Duration.ofSeconds(1));
+    public Flux<ServerSentEvent<ChangeEvent<Book>>> streamBooks(@RequestParam(defaultValue = "true") boolean snapshot) {
+        return bookService.streamBookChanges(snapshot)
+                .map(event -> ServerSentEvent.builder(event)
+                        .event(event.type().name().toLowerCase())
+                        .build());
+    }
+
+    private static ServerSentEvent<BookStats> statsEvent(String name, BookStats stats) {
+        return ServerSentEvent.builder(stats)
+                .event(name)
+                .build();
+    }
+
+    // The body is only subscribed to when the ETag doesn't match, so a 304 never reads or encodes anything
+    private ResponseEntity.BodyBuilder listResponse(String etag, MediaType mediaType) {
+        return ResponseEntity.ok()
+                .headers(EntityResponses.list(etag, mediaType));
+    }
+
+    // Read before the data, so the tag can only be older than what the body shows, never newer
+    private String collectionETag(MediaType mediaType) {
+        return EntityVersions.collectionETag(bookService.generation(), mediaType);
+    }
+
+    private ResponseEntity<Mono<DataBuffer>> written(Book book, ServerWebExchange exchange) {
+        MediaType mediaType = EntityResponses.entityEncoding(exchange.getRequest().getHeaders().getAccept());
+        return ResponseEntity.ok()
+                .headers(EntityResponses.entity(book, mediaType))
+                .body(encode(book, mediaType, exchange));
+    }
+
+    // Buffers come from the response's factory, so list chunks are allocated from the server's pool
+    private Mono<DataBuffer> encode(Book book, MediaType mediaType, ServerWebExchange exchange) {
+        return codecs.encode(book, jsonCache, mediaType, exchange.getResponse().bufferFactory());
+    }
+
+    private Flux<DataBuffer> encode(Flux<Book> books, MediaType mediaType, ServerWebExchange exchange) {
+        return codecs.encode(books, jsonCache, mediaType, exchange.getResponse().bufferFactory());
     }
 
     // Exception handler for validation errors
@@ -0,0 +1,15 @@
+package com.example.springbootwebfluxbasics.annotatedcontrollers;
+
+import com.example.springbootwebfluxbasics.common.JsonCache;
+import com.example.springbootwebfluxbasics.common.JsonCacheProperties;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.stereotype.Component;
+
+@Component
+public class BookJsonCache extends JsonCache<Book> {
+
+    public BookJsonCache(ObjectMapper mapper, JsonCacheProperties properties, MeterRegistry registry) {
+        super("books", Book.class, mapper, properties, registry);
+    }
+}
@@ -0,0 +1,16 @@
+package com.example.springbootwebfluxbasics.annotatedcontrollers;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+@ConfigurationProperties(prefix = "app.books")
+public record BookProperties(
+        @DefaultValue("map") Storage storage) {
+
+    public enum Storage {
+        // One ConcurrentHashMap, the author and genre indexes kept beside it
+        MAP,
+        // A PartitionedMap with write-locked partitions holding the author and genre indexes in their snapshots
+        PARTITIONED
+    }
+}
@@ -0,0 +1,93 @@
+package com.example.springbootwebfluxbasics.annotatedcontrollers;
+
+import com.example.springbootwebfluxbasics.common.ProtobufSchema;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+
+// message Book in catalog.proto
+@Component
+public class BookProtobuf extends ProtobufSchema<Book> {
+
+    private static final int ID = 1;
+    private static final int TITLE = 2;
+    private static final int AUTHOR = 3;
+    private static final int YEAR = 4;
+    private static final int GENRE = 5;
+    private static final int DESCRIPTION = 6;
+    private static final int PRICE = 7;
+    private static final int AVAILABLE = 8;
+    private static final int VERSION = 9;
+
+    private static final int ID_TAG = stringTag(ID);
+    private static final int TITLE_TAG = stringTag(TITLE);
+    private static final int AUTHOR_TAG = stringTag(AUTHOR);
+    private static final int YEAR_TAG = varintTag(YEAR);
+    private static final int GENRE_TAG = stringTag(GENRE);
+    private static final int DESCRIPTION_TAG = stringTag(DESCRIPTION);
+    private static final int PRICE_TAG = doubleTag(PRICE);
+    private static final int AVAILABLE_TAG = varintTag(AVAILABLE);
+    private static final int VERSION_TAG = varintTag(VERSION);
+
+    public BookProtobuf() {
+        super(Book.class);
+    }
+
+    @Override
+    protected int size(Book book) {
+        return size(ID, book.getId())
+                + size(TITLE, book.getTitle())
+                + size(AUTHOR, book.getAuthor())
+                + size(YEAR, book.getYear())
+                + size(GENRE, book.getGenre())
+                + size(DESCRIPTION, book.getDescription())
+                + size(PRICE, book.getPrice())
+                + size(AVAILABLE, book.getAvailable())
+                + size(VERSION, book.getVersion());
+    }
+
+    @Override
+    protected void write(Book book, CodedOutputStream out) throws IOException {
+        write(out, ID, book.getId());
+        write(out, TITLE, book.getTitle());
+        write(out, AUTHOR, book.getAuthor());
+        write(out, YEAR, book.getYear());
+        write(out, GENRE, book.getGenre());
+        write(out, DESCRIPTION, book.getDescription());
+        write(out, PRICE, book.getPrice());
+        write(out, AVAILABLE, book.getAvailable());
+        write(out, VERSION, book.getVersion());
+    }
+
+    @Override
+    protected Book read(CodedInputStream in) throws IOException {
+        Book.BookBuilder book = Book.builder();
+        int tag;
+        while ((tag = in.readTag()) != 0) {
+            if (tag == ID_TAG) {
+                book.id(in.readString());
+            } else if (tag == TITLE_TAG) {
+                book.title(in.readString());
+            } else if (tag == AUTHOR_TAG) {
+                book.author(in.readString());
+            } else if (tag == YEAR_TAG) {
+                book.year(in.readInt32());
+            } else if (tag == GENRE_TAG) {
+                book.genre(in.readString());
+            } else if (tag == DESCRIPTION_TAG) {
+                book.description(in.readString());
+            } else if (tag == PRICE_TAG) {
+                book.price(in.readDouble());
+            } else if (tag == AVAILABLE_TAG) {
+                book.available(in.readBool());
+            } else if (tag == VERSION_TAG) {
+                book.version(in.readInt64());
+            } else {
+                in.skipField(tag);
+            }
+        }
+        return book.build();
+    }
+}
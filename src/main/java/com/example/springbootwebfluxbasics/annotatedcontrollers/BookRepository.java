@@ -1,26 +1,111 @@
 package com.example.springbootwebfluxbasics.annotatedcontrollers;
 
 import com.example.springbootwebfluxbasics.annotatedcontrollers.Book;
+import com.example.springbootwebfluxbasics.common.BatchLoader;
+import com.example.springbootwebfluxbasics.common.DurableLog;
+import com.example.springbootwebfluxbasics.common.DurableLogFactory;
+import com.example.springbootwebfluxbasics.common.EntityStore;
+import com.example.springbootwebfluxbasics.common.EntityStoreFactory;
+import com.example.springbootwebfluxbasics.common.GroupAggregates;
+import com.example.springbootwebfluxbasics.common.HashIndex;
+import com.example.springbootwebfluxbasics.common.PartitionProperties;
+import com.example.springbootwebfluxbasics.common.PartitionedMap;
+import com.example.springbootwebfluxbasics.common.RepositoryMetrics;
+import com.example.springbootwebfluxbasics.common.TextIndex;
+import com.example.springbootwebfluxbasics.common.VersionedRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Repository;
 import reactor.core.publisher.Flux;
-import reactor.core.publisher.Mono;
 
+import java.time.Duration;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiFunction;
+import java.util.function.Function;
 
 @Repository
-public class BookRepository {
+public class BookRepository extends VersionedRepository<Book> {
 
-    private final Map<String, Book> books = new ConcurrentHashMap<>();
+    private static final String AUTHOR = "author";
+    private static final String GENRE = "genre";
 
+    private final Map<String, Book> books;
+    // The same map when app.books.storage=partitioned, which then indexes author and genre itself; null otherwise
+    private final PartitionedMap<Book> partitioned;
+    // Set unless the partitions or the cache answer findByAuthor and findByGenre
+    private final boolean indexed;
+    private final HashIndex authorIndex = new HashIndex();
+    private final HashIndex genreIndex = new HashIndex();
+    // Per-genre counts and prices
+    private final GroupAggregates aggregates = new GroupAggregates(null);
+    // Full-text index over title and description; title terms count twice
+    private final TextIndex textIndex = new TextIndex(2, 1);
+    private final RepositoryMetrics.Operation authorQueries;
+    private final RepositoryMetrics.Operation genreQueries;
+    private final RepositoryMetrics.Operation searches;
+
+    // Purely in-memory, metrics kept locally
     public BookRepository() {
+        this(null, null, (BatchLoader<Book>) null, false, null, new SimpleMeterRegistry());
+    }
+
+    // In front of a backing store, through a loader that batches lookups missing from memory
+    public BookRepository(EntityStore<Book> store, BatchLoader<Book> loader) {
+        this(null, store, loader, false, null, new SimpleMeterRegistry());
+    }
+
+    // Purely in-memory on partitioned storage, metrics kept locally
+    public BookRepository(PartitionedMap<Book> partitioned) {
+        this(null, null, (BatchLoader<Book>) null, false, partitioned, new SimpleMeterRegistry());
+    }
+
+    @Autowired
+    public BookRepository(DurableLogFactory logs, EntityStoreFactory stores, BookProperties properties,
+                          PartitionProperties partitions, MeterRegistry registry) {
+        this(logs.open("books", Book.class), stores.open("books", Book.class), stores,
+                properties.storage() == BookProperties.Storage.PARTITIONED ? partitioned(partitions.count()) : null,
+                registry);
+    }
+
+    private BookRepository(DurableLog<Book> log, EntityStore<Book> store, EntityStoreFactory stores,
+                           PartitionedMap<Book> partitioned, MeterRegistry registry) {
+        this(log, store, store == null ? null : stores.loader("books", store), store != null && stores.queriesStore(),
+                partitioned, registry);
+    }
+
+    private BookRepository(DurableLog<Book> log, EntityStore<Book> store, BatchLoader<Book> loader,
+                           boolean storeQueries, PartitionedMap<Book> partitioned, MeterRegistry registry) {
+        super("books", log, store, loader, storeQueries, registry);
+        this.books = partitioned != null ? partitioned : new ConcurrentHashMap<>();
+        this.partitioned = partitioned;
+        this.indexed = !cached() && partitioned == null;
+        authorQueries = metrics.operation("findByAuthor");
+        genreQueries = metrics.operation("findByGenre");
+        searches = metrics.operation("search");
+        metrics.size("primary", books::size);
+        if (indexed) {
+            metrics.size("author", authorIndex::size);
+            metrics.size("genre", genreIndex::size);
+        }
+        metrics.size("text", textIndex::size);
+        metrics.memory("text", textIndex::memoryBytes);
+        if (!load()) {
+            seed();
+        }
+    }
+
+    private void seed() {
         // Initialize with some sample books
         String id1 = UUID.randomUUID().toString();
         String id2 = UUID.randomUUID().toString();
         String id3 = UUID.randomUUID().toString();
 
-        books.put(id1, Book.builder()
+        store(Book.builder()
                 .id(id1)
                 .title("The Great Gatsby")
                 .author("F. Scott Fitzgerald")
@@ -29,9 +114,9 @@ public class BookRepository {
                 .description("A novel about the American Dream")
                 .price(14.99)
                 .available(true)
-                .build());
+                .build()).block();
 
-        books.put(id2, Book.builder()
+        store(Book.builder()
                 .id(id2)
                 .title("To Kill a Mockingbird")
                 .author("Harper Lee")
@@ -40,9 +125,9 @@ public class BookRepository {
                 .description("A novel about racial injustice")
                 .price(12.99)
                 .available(true)
-                .build());
+                .build()).block();
 
-        books.put(id3, Book.builder()
+        store(Book.builder()
                 .id(id3)
                 .title("1984")
                 .author("George Orwell")
@@ -51,42 +136,147 @@ public class BookRepository {
                 .description("A novel about a totalitarian future")
                 .price(11.99)
                 .available(true)
-                .build());
+                .build()).block();
     }
 
-    public Flux<Book> findAll() {
-        return Flux.fromIterable(books.values());
+    public Flux<Book> findByAuthor(String author) {
+        if (readsStore()) {
+            return authorQueries.timed(store.findBy(BookTable.AUTHOR, author));
+        }
+        if (partitioned != null) {
+            return authorQueries.timed(Flux.defer(() -> Flux.fromIterable(partitioned.find(AUTHOR, author))));
+        }
+        String key = HashIndex.fold(author);
+        return authorQueries.timed(Flux.fromIterable(authorIndex.get(author))
+                .mapNotNull(books::get)
+                .filter(book -> key.equals(HashIndex.fold(book.getAuthor()))));
     }
 
-    public Mono<Book> findById(String id) {
-        return Mono.justOrEmpty(books.get(id));
+    public Flux<Book> findByGenre(String genre) {
+        if (readsStore()) {
+            return genreQueries.timed(store.findBy(BookTable.GENRE, genre));
+        }
+        if (partitioned != null) {
+            return genreQueries.timed(Flux.defer(() -> Flux.fromIterable(partitioned.find(GENRE, genre))));
+        }
+        String key = HashIndex.fold(genre);
+        return genreQueries.timed(Flux.fromIterable(genreIndex.get(genre))
+                .mapNotNull(books::get)
+                .filter(book -> key.equals(HashIndex.fold(book.getGenre()))));
     }
 
-    public Flux<Book> findByAuthor(String author) {
-        return findAll()
-                .filter(book -> book.getAuthor().equalsIgnoreCase(author));
+    // Best matches for a free-text query over title and description, best first
+    public Flux<Book> search(String query, int limit) {
+        return Flux.defer(() -> {
+                    long started = searches.start();
+                    List<TextIndex.Hit> hits = textIndex.search(query, limit);
+                    searches.stop(started);
+                    return Flux.fromIterable(hits);
+                })
+                .map(TextIndex.Hit::id)
+                .transform(this::resolve);
     }
 
-    public Flux<Book> findByGenre(String genre) {
-        return findAll()
-                .filter(book -> book.getGenre().equalsIgnoreCase(genre));
+    public BookStats stats() {
+        return BookStats.of(aggregates.report());
     }
 
-    public Mono<Book> save(Book book) {
-        if (book.getId() == null) {
-            book.setId(UUID.randomUUID().toString());
+    // The total and the genres written to, at most once per interval and only when something was written
+    public Flux<BookStats> statsChanges(Duration interval) {
+        return aggregates.changes(interval).map(BookStats::of);
+    }
+
+    // Books split over write-locked partitions by id, each indexing its own books by author and genre
+    public static PartitionedMap<Book> partitioned(int partitions) {
+        return new PartitionedMap<>(partitions, Map.<String, Function<Book, String>>of(
+                AUTHOR, Book::getAuthor,
+                GENRE, Book::getGenre));
+    }
+
+    @Override
+    protected Book resident(String id) {
+        return books.get(id);
+    }
+
+    @Override
+    protected Book compute(String id, BiFunction<String, Book, Book> remapping) {
+        return books.compute(id, remapping);
+    }
+
+    @Override
+    protected Iterable<String> residentIds() {
+        return books.keySet();
+    }
+
+    @Override
+    protected Iterable<Book> residents() {
+        return books.values();
+    }
+
+    @Override
+    protected Iterable<Book> snapshot() {
+        return partitioned != null ? partitioned.snapshot() : null;
+    }
+
+    @Override
+    protected Book withId(Book book, String id) {
+        return book.withId(id);
+    }
+
+    @Override
+    protected Book withVersion(Book book, String id, long version) {
+        return book.toBuilder().id(id).version(version).build();
+    }
+
+    // Only moves the book in the indexes whose key changed
+    @Override
+    protected void index(String id, Book existing, Book book) {
+        if (existing == null) {
+            if (indexed) {
+                authorIndex.add(book.getAuthor(), id);
+                genreIndex.add(book.getGenre(), id);
+            }
+            aggregates.add(book.getGenre(), Boolean.TRUE.equals(book.getAvailable()), book.getPrice());
+            textIndex.add(id, book.getTitle(), book.getDescription());
+            return;
+        }
+        boolean genreChanged = !Objects.equals(HashIndex.fold(existing.getGenre()), HashIndex.fold(book.getGenre()));
+        if (indexed) {
+            if (!Objects.equals(HashIndex.fold(existing.getAuthor()), HashIndex.fold(book.getAuthor()))) {
+                authorIndex.remove(existing.getAuthor(), id);
+                authorIndex.add(book.getAuthor(), id);
+            }
+            if (genreChanged) {
+                genreIndex.remove(existing.getGenre(), id);
+                genreIndex.add(book.getGenre(), id);
+            }
+        }
+        if (genreChanged || !Objects.equals(existing.getPrice(), book.getPrice())
+                || !Objects.equals(existing.getAvailable(), book.getAvailable())) {
+            aggregates.remove(existing.getGenre(), Boolean.TRUE.equals(existing.getAvailable()), existing.getPrice());
+            aggregates.add(book.getGenre(), Boolean.TRUE.equals(book.getAvailable()), book.getPrice());
+        }
+        // The text index is the costly one
+        if (!Objects.equals(existing.getTitle(), book.getTitle())
+                || !Objects.equals(existing.getDescription(), book.getDescription())) {
+            textIndex.remove(id, existing.getTitle(), existing.getDescription());
+            textIndex.add(id, book.getTitle(), book.getDescription());
         }
-        books.put(book.getId(), book);
-        return Mono.just(book);
     }
 
-    public Mono<Void> deleteById(String id) {
-        books.remove(id);
-        return Mono.empty();
+    @Override
+    protected void unindex(String id, Book book) {
+        if (indexed) {
+            authorIndex.remove(book.getAuthor(), id);
+            genreIndex.remove(book.getGenre(), id);
+        }
+        aggregates.remove(book.getGenre(), Boolean.TRUE.equals(book.getAvailable()), book.getPrice());
+        textIndex.remove(id, book.getTitle(), book.getDescription());
     }
 
-    public Mono<Void> deleteAll() {
-        books.clear();
-        return Mono.empty();
+    @Override
+    protected void flush() {
+        super.flush();
+        aggregates.flush();
     }
-}
\ No newline at end of file
+}
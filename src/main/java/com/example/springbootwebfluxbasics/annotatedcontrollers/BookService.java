@@ -2,21 +2,43 @@ package com.example.springbootwebfluxbasics.annotatedcontrollers;
 
 import com.example.springbootwebfluxbasics.annotatedcontrollers.Book;
 import com.example.springbootwebfluxbasics.annotatedcontrollers.BookRepository;
+import com.example.springbootwebfluxbasics.common.BulkIngest;
+import com.example.springbootwebfluxbasics.common.BulkItemResult;
+import com.example.springbootwebfluxbasics.common.ChangeEvent;
+import com.example.springbootwebfluxbasics.common.ChangeFeedProperties;
+import com.example.springbootwebfluxbasics.common.EntityValidation;
+import com.example.springbootwebfluxbasics.common.JsonMergePatch;
+import com.fasterxml.jackson.databind.JsonNode;
 import lombok.RequiredArgsConstructor;
 import org.springframework.stereotype.Service;
+import org.springframework.validation.Errors;
+import org.springframework.web.server.ServerWebInputException;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.time.Duration;
+import java.util.List;
+import java.util.stream.Collectors;
+
 @Service
 @RequiredArgsConstructor
 public class BookService {
 
     private final BookRepository bookRepository;
+    private final ChangeFeedProperties feedProperties;
+    private final BulkIngest bulkIngest;
+    private final BookJsonCache jsonCache;
+    private final JsonMergePatch mergePatch;
+    private final EntityValidation validator;
 
     public Flux<Book> findAllBooks() {
         return bookRepository.findAll();
     }
 
+    public Flux<Book> findBooksPage(String afterId, int limit) {
+        return bookRepository.findPage(afterId, limit);
+    }
+
     public Mono<Book> findBookById(String id) {
         return bookRepository.findById(id);
     }
@@ -29,23 +51,75 @@ public class BookService {
         return bookRepository.findByGenre(genre);
     }
 
+    public Flux<Book> findBooksById(List<String> ids) {
+        return bookRepository.findAllById(ids);
+    }
+
+    public Flux<Book> searchBooks(String query, int limit) {
+        return bookRepository.search(query, limit);
+    }
+
+    public BookStats stats() {
+        return bookRepository.stats();
+    }
+
+    public Flux<BookStats> statsChanges(Duration interval) {
+        return bookRepository.statsChanges(interval);
+    }
+
+    public long generation() {
+        return bookRepository.generation();
+    }
+
     public Mono<Book> createBook(Book book) {
         return bookRepository.save(book);
     }
 
-    public Mono<Book> updateBook(String id, Book book) {
-        return bookRepository.findById(id)
-                .flatMap(existingBook -> {
-                    book.setId(id);
-                    return bookRepository.save(book);
-                });
+    public Flux<BulkItemResult> bulkCreateBooks(Flux<Book> books) {
+        return bulkIngest.ingest(books, bookRepository::saveAll, Book::getId);
+    }
+
+    // One compare-and-set on the stored book; expectedVersion comes from If-Match and may be null
+    public Mono<Book> updateBook(String id, Book book, Long expectedVersion) {
+        return bookRepository.replace(id, book, expectedVersion)
+                .doOnNext(updatedBook -> jsonCache.invalidate(id));
+    }
+
+    // JSON Merge Patch, applied to the stored book and written back with compare-and-set against the version it was read at
+    public Mono<Book> patchBook(String id, JsonNode patch, Long expectedVersion) {
+        return mergePatch.patch(bookRepository, id, patch, Book.class, expectedVersion, this::validate)
+                .doOnNext(patchedBook -> jsonCache.invalidate(id));
     }
 
     public Mono<Void> deleteBook(String id) {
-        return bookRepository.deleteById(id);
+        return bookRepository.deleteById(id)
+                .doFinally(signal -> jsonCache.invalidate(id));
     }
 
     public Mono<Void> deleteAllBooks() {
-        return bookRepository.deleteAll();
+        return bookRepository.deleteAll()
+                .doFinally(signal -> jsonCache.invalidateAll());
+    }
+
+    // Optional snapshot of the current books, followed by live changes
+    public Flux<ChangeEvent<Book>> streamBookChanges(boolean snapshot) {
+        Flux<ChangeEvent<Book>> changes = bookRepository.changes(feedProperties.bufferSize(), feedProperties.overflow());
+        Flux<ChangeEvent<Book>> initial = snapshot
+                ? bookRepository.findAll().map(book -> ChangeEvent.snapshot(book.getId(), book))
+                : Flux.empty();
+
+        // mergeSequential subscribes to the live feed up front and holds its events until the snapshot is done
+        return Flux.mergeSequential(initial, changes);
+    }
+
+    // Same message as a rejected request body gets from the controller
+    private void validate(Book book) {
+        Errors errors = validator.check(book, "book");
+        if (errors != null) {
+            throw new ServerWebInputException("Validation errors: " + errors.getFieldErrors()
+                    .stream()
+                    .map(error -> error.getField() + ": " + error.getDefaultMessage())
+                    .collect(Collectors.joining(", ")));
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,24 @@
+package com.example.springbootwebfluxbasics.annotatedcontrollers;
+
+import com.example.springbootwebfluxbasics.common.GroupAggregates;
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.List;
+
+// Catalog-wide and per-genre aggregates, maintained on every write rather than computed from the catalog
+public record BookStats(Genre total, List<Genre> genres) {
+
+    // genre is absent on the total; avgPrice is absent when nothing in the group has a price
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public record Genre(String genre, long count, long available, Double avgPrice) {
+
+        static Genre of(GroupAggregates.Snapshot snapshot) {
+            return new Genre(snapshot.name(), snapshot.count(), snapshot.flagged(), snapshot.avgPrice());
+        }
+    }
+
+    static BookStats of(GroupAggregates.Report report) {
+        return new BookStats(Genre.of(report.total()),
+                report.groups().stream().map(Genre::of).toList());
+    }
+}
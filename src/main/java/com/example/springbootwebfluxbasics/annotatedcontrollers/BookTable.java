@@ -0,0 +1,26 @@
+package com.example.springbootwebfluxbasics.annotatedcontrollers;
+
+import com.example.springbootwebfluxbasics.common.EntityTable;
+import org.springframework.stereotype.Component;
+
+@Component
+public class BookTable extends EntityTable<Book, Book.BookBuilder> {
+
+    public static final String AUTHOR = "author";
+    public static final String GENRE = "genre";
+
+    public BookTable() {
+        super(Book.class, "books", Book::builder, Book.BookBuilder::build);
+        column("id", "VARCHAR(64)", String.class, Book::getId, (book, value) -> book.id((String) value));
+        column("title", "VARCHAR(255)", String.class, Book::getTitle, (book, value) -> book.title((String) value));
+        column("author", "VARCHAR(255)", String.class, Book::getAuthor, (book, value) -> book.author((String) value));
+        column("publication_year", "INTEGER", Integer.class, Book::getYear, (book, value) -> book.year((Integer) value));
+        column("genre", "VARCHAR(255)", String.class, Book::getGenre, (book, value) -> book.genre((String) value));
+        column("description", "VARCHAR(4000)", String.class, Book::getDescription, (book, value) -> book.description((String) value));
+        column("price", "DOUBLE PRECISION", Double.class, Book::getPrice, (book, value) -> book.price((Double) value));
+        column("available", "BOOLEAN", Boolean.class, Book::getAvailable, (book, value) -> book.available((Boolean) value));
+        column("version", "BIGINT", Long.class, Book::getVersion, (book, value) -> book.version((Long) value));
+        index(AUTHOR, Book::getAuthor);
+        index(GENRE, Book::getGenre);
+    }
+}
@@ -0,0 +1,46 @@
+package com.example.springbootwebfluxbasics.annotatedcontrollers;
+
+import com.example.springbootwebfluxbasics.common.EntityValidator;
+import org.springframework.stereotype.Component;
+import org.springframework.validation.Errors;
+
+// Book's constraint annotations as plain code; a change to either has to be made to both
+@Component
+public class BookValidator extends EntityValidator<Book> {
+
+    public BookValidator() {
+        super(Book.class);
+    }
+
+    @Override
+    public boolean isValid(Book book) {
+        return notBlank(book.getTitle())
+                && size(book.getTitle(), 1, 200)
+                && notBlank(book.getAuthor())
+                && book.getYear() != null
+                && min(book.getYear(), 1000)
+                && min(book.getPrice(), 0);
+    }
+
+    @Override
+    protected void rejectInvalid(Book book, Errors errors) {
+        if (!notBlank(book.getTitle())) {
+            reject(errors, "title", "NotBlank", "Title is required");
+        }
+        if (!size(book.getTitle(), 1, 200)) {
+            reject(errors, "title", "Size", "Title must be between 1 and 200 characters", 200, 1);
+        }
+        if (!notBlank(book.getAuthor())) {
+            reject(errors, "author", "NotBlank", "Author is required");
+        }
+        if (book.getYear() == null) {
+            reject(errors, "year", "NotNull", "Year is required");
+        }
+        if (!min(book.getYear(), 1000)) {
+            reject(errors, "year", "Min", "Year must be after 1000", 1000L);
+        }
+        if (!min(book.getPrice(), 0)) {
+            reject(errors, "price", "Min", "Price cannot be negative", 0L);
+        }
+    }
+}
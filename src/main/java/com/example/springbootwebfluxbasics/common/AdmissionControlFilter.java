@@ -0,0 +1,243 @@
+package com.example.springbootwebfluxbasics.common;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.core.Ordered;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.PathContainer;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import org.springframework.web.util.pattern.PathPattern;
+import org.springframework.web.util.pattern.PathPatternParser;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*
+ * Turns requests away before they queue up, so that under a spike the server keeps answering fast (some of them with
+ * a refusal) instead of answering everything late.
+ *
+ * Each request falls into a route class (streams, list queries, everything else by default). A class can cap the
+ * requests it has in flight, and limits each client to a rate with a burst allowance; running past the rate is a 429
+ * with the seconds until the client may try again. Classes marked adaptive share a concurrency limit that follows
+ * latency and event-loop lag (GradientLimiter); being over it, or over a class cap, is a 503. Both refusals are
+ * written without a body and without touching the rest of the chain. Exempt paths (actuator) skip all of it.
+ *
+ * Rates are kept as a GCRA "theoretical arrival time" per client stripe: one long, advanced with a CAS, so the check
+ * is lock-free and needs no refill task.
+ */
+@Component
+public class AdmissionControlFilter implements WebFilter, Ordered {
+
+    private static final String DEFAULT_CLASS = "default";
+
+    private final AdmissionProperties properties;
+    private final List<PathPattern> exempt;
+    // Named classes in configured order, the default class last
+    private final List<RouteClass> classes = new ArrayList<>();
+    private final GradientLimiter limiter;
+    private final long retryAfterSeconds;
+
+    public AdmissionControlFilter(AdmissionProperties properties, EventLoopLagMonitor eventLoop, MeterRegistry registry) {
+        this.properties = properties;
+        this.exempt = properties.exempt().stream().map(PathPatternParser.defaultInstance::parse).toList();
+        this.limiter = new GradientLimiter(properties.limiter(), eventLoop::lagNanos);
+        this.retryAfterSeconds = Math.max(1, properties.retryAfter().toSeconds());
+        for (Map.Entry<String, AdmissionProperties.RouteClass> entry : properties.routes().entrySet()) {
+            classes.add(new RouteClass(entry.getKey(), entry.getValue(), registry));
+        }
+        classes.add(new RouteClass(DEFAULT_CLASS, properties.defaults(), registry));
+        Gauge.builder("http.admission.limit", limiter, GradientLimiter::limit)
+                .description("Current adaptive concurrency limit")
+                .register(registry);
+        Gauge.builder("http.admission.in.flight", limiter, GradientLimiter::inFlight)
+                .description("Requests in flight under the adaptive limit")
+                .register(registry);
+    }
+
+    @Override
+    public int getOrder() {
+        // Just inside RouteMetricsFilter, so refusals still show up in the route metrics
+        return Ordered.HIGHEST_PRECEDENCE + 1;
+    }
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+        if (!properties.enabled()) {
+            return chain.filter(exchange);
+        }
+        ServerHttpRequest request = exchange.getRequest();
+        PathContainer path = request.getPath().pathWithinApplication();
+        for (PathPattern pattern : exempt) {
+            if (pattern.matches(path)) {
+                return chain.filter(exchange);
+            }
+        }
+        RouteClass routeClass = classify(request.getMethod(), path);
+
+        // Capacity before rate, so a 503 doesn't also cost the client a token
+        if (!routeClass.tryAcquire()) {
+            return reject(exchange, HttpStatus.SERVICE_UNAVAILABLE, retryAfterSeconds);
+        }
+        long wait = routeClass.take(clientKey(request));
+        if (wait > 0) {
+            routeClass.release(0, false);
+            routeClass.rateRejected.increment();
+            return reject(exchange, HttpStatus.TOO_MANY_REQUESTS,
+                    Math.max(1, (wait + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1)));
+        }
+        long started = System.nanoTime();
+        return chain.filter(exchange)
+                .doFinally(signal -> routeClass.release(System.nanoTime() - started, signal == SignalType.ON_COMPLETE));
+    }
+
+    private RouteClass classify(HttpMethod method, PathContainer path) {
+        for (RouteClass routeClass : classes) {
+            if (routeClass.matches(method, path)) {
+                return routeClass;
+            }
+        }
+        return classes.get(classes.size() - 1);
+    }
+
+    private String clientKey(ServerHttpRequest request) {
+        String client = request.getHeaders().getFirst(properties.clientHeader());
+        if (client != null) {
+            return client;
+        }
+        InetSocketAddress remote = request.getRemoteAddress();
+        return remote == null || remote.getAddress() == null ? "" : remote.getAddress().getHostAddress();
+    }
+
+    private static Mono<Void> reject(ServerWebExchange exchange, HttpStatus status, long retryAfterSeconds) {
+        ServerHttpResponse response = exchange.getResponse();
+        response.setStatusCode(status);
+        response.getHeaders().set(HttpHeaders.RETRY_AFTER, Long.toString(retryAfterSeconds));
+        return response.setComplete();
+    }
+
+    private record Matcher(HttpMethod method, PathPattern pattern) {
+
+        // "GET /products" or just "/products" for any method
+        static Matcher parse(String spec) {
+            String trimmed = spec.trim();
+            int space = trimmed.indexOf(' ');
+            if (space < 0) {
+                return new Matcher(null, PathPatternParser.defaultInstance.parse(trimmed));
+            }
+            return new Matcher(HttpMethod.valueOf(trimmed.substring(0, space)),
+                    PathPatternParser.defaultInstance.parse(trimmed.substring(space + 1).trim()));
+        }
+    }
+
+    private final class RouteClass {
+
+        final List<Matcher> matchers;
+        final boolean adaptive;
+        final int maxConcurrent;
+        final AtomicInteger active = new AtomicInteger();
+        // GCRA: nanoseconds between tokens, and how far ahead of now a stripe's arrival time may run (the burst)
+        final long interval;
+        final long tolerance;
+        // Theoretical arrival time per stripe, on the clock below; null without a rate limit
+        final AtomicLongArray arrivals;
+        final long origin = System.nanoTime();
+        final Counter rateRejected;
+        final Counter capacityRejected;
+        final Counter overloadRejected;
+
+        RouteClass(String name, AdmissionProperties.RouteClass settings, MeterRegistry registry) {
+            this.matchers = settings.patterns().stream().map(Matcher::parse).toList();
+            this.adaptive = settings.adaptive();
+            this.maxConcurrent = settings.maxConcurrent();
+            if (settings.rate() > 0) {
+                this.interval = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / settings.rate()));
+                this.tolerance = interval * Math.max(0, settings.burst() - 1);
+                this.arrivals = new AtomicLongArray(Integer.highestOneBit(Math.max(1, properties.stripes() - 1)) << 1);
+            } else {
+                this.interval = 0;
+                this.tolerance = 0;
+                this.arrivals = null;
+            }
+            rateRejected = rejections(registry, name, "rate");
+            capacityRejected = rejections(registry, name, "capacity");
+            overloadRejected = rejections(registry, name, "overload");
+        }
+
+        boolean matches(HttpMethod method, PathContainer path) {
+            for (Matcher matcher : matchers) {
+                if ((matcher.method() == null || matcher.method() == method) && matcher.pattern().matches(path)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        boolean tryAcquire() {
+            if (maxConcurrent > 0 && active.incrementAndGet() > maxConcurrent) {
+                active.decrementAndGet();
+                capacityRejected.increment();
+                return false;
+            }
+            if (adaptive && !limiter.tryAcquire()) {
+                if (maxConcurrent > 0) {
+                    active.decrementAndGet();
+                }
+                overloadRejected.increment();
+                return false;
+            }
+            return true;
+        }
+
+        void release(long latencyNanos, boolean completed) {
+            if (maxConcurrent > 0) {
+                active.decrementAndGet();
+            }
+            if (adaptive) {
+                limiter.release(latencyNanos, completed);
+            }
+        }
+
+        // 0 when the client may go ahead, otherwise nanoseconds until it may
+        long take(String client) {
+            if (arrivals == null) {
+                return 0;
+            }
+            int hash = client.hashCode();
+            int stripe = (hash ^ (hash >>> 16)) & (arrivals.length() - 1);
+            long now = System.nanoTime() - origin;
+            while (true) {
+                long arrival = arrivals.get(stripe);
+                long start = Math.max(arrival, now);
+                if (start - now > tolerance) {
+                    return start - now - tolerance;
+                }
+                if (arrivals.compareAndSet(stripe, arrival, start + interval)) {
+                    return 0;
+                }
+            }
+        }
+
+        private static Counter rejections(MeterRegistry registry, String routeClass, String reason) {
+            return Counter.builder("http.admission.rejected")
+                    .description("Requests turned away by admission control")
+                    .tag("class", routeClass)
+                    .tag("reason", reason)
+                    .register(registry);
+        }
+    }
+}
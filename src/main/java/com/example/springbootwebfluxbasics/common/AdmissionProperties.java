@@ -0,0 +1,51 @@
+package com.example.springbootwebfluxbasics.common;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+// Admission control: per-client rate limits per route class, fixed concurrency caps and an adaptive concurrency limit.
+// Off unless app.admission.enabled is set, so existing deployments are not limited without opting in.
+@ConfigurationProperties(prefix = "app.admission")
+public record AdmissionProperties(
+        @DefaultValue("false") boolean enabled,
+        // Requests are attributed to this header's value when present, to the remote address otherwise
+        @DefaultValue("X-Client-Id") String clientHeader,
+        // Never limited, so health checks and scrapes get through during an overload
+        @DefaultValue("/actuator/**") List<String> exempt,
+        // Token buckets per route class; clients hash onto these, so two clients can share one
+        @DefaultValue("4096") int stripes,
+        // Sent with 503s; 429s say when the client's bucket will have a token again
+        @DefaultValue("1s") Duration retryAfter,
+        @DefaultValue Limiter limiter,
+        @DefaultValue RouteClass defaults,
+        // Checked in order before falling back to the defaults
+        Map<String, RouteClass> routes) {
+
+    public AdmissionProperties {
+        routes = routes == null ? Map.of() : routes;
+    }
+
+    // patterns are "/path/{var}" or "GET /path"; a rate of 0 means no rate limit and maxConcurrent 0 no fixed cap.
+    // Adaptive classes share the latency-driven limit; long-lived routes (streams) should opt out and use a cap.
+    public record RouteClass(
+            @DefaultValue List<String> patterns,
+            @DefaultValue("200") double rate,
+            @DefaultValue("400") int burst,
+            @DefaultValue("0") int maxConcurrent,
+            @DefaultValue("true") boolean adaptive) {
+    }
+
+    public record Limiter(
+            @DefaultValue("100") int initialLimit,
+            @DefaultValue("10") int minLimit,
+            @DefaultValue("2000") int maxLimit,
+            // How far recent latency may rise above the baseline before the limit shrinks
+            @DefaultValue("1.5") double tolerance,
+            @DefaultValue("100ms") Duration window,
+            @DefaultValue("50ms") Duration maxEventLoopLag) {
+    }
+}
@@ -0,0 +1,147 @@
+package com.example.springbootwebfluxbasics.common;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Point lookups against an EntityStore, coalesced and batched.
+ *
+ * A load for an id that is already being fetched joins that fetch (single flight), so a burst of requests for one hot
+ * id costs one lookup. Distinct ids requested within one batch window are gathered and fetched with a single getAll,
+ * DataLoader style: the first id of a batch starts the window, and a batch that reaches maxBatchSize goes out at once.
+ * A zero window sends every id on its own, which leaves only the coalescing.
+ *
+ * Nothing is cached: once a fetch completes, the next load of its id goes to the store again. Nor does a load join a
+ * fetch that started before a write to its id: the repository calls written once the store has the write, and loads
+ * from then on fetch afresh, so a caller reads its own writes.
+ */
+public class BatchLoader<T extends Versioned> {
+
+    // One fetch of an id, with the result every load that joined it waits on
+    private record Pending<T>(String id, Sinks.One<T> result) {
+    }
+
+    private final EntityStore<T> store;
+    private final Duration window;
+    private final int maxBatchSize;
+    private final Scheduler scheduler = Schedulers.parallel();
+    // Ids being fetched, each with the result every load of it waits on
+    private final Map<String, Sinks.One<T>> inFlight = new ConcurrentHashMap<>();
+    // Guarded by this; fetches waiting for the window to close
+    private List<Pending<T>> batch = new ArrayList<>();
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final DistributionSummary batchSizes;
+
+    public BatchLoader(String name, EntityStore<T> store, Duration window, int maxBatchSize, MeterRegistry registry) {
+        this.store = store;
+        this.window = window;
+        this.maxBatchSize = maxBatchSize;
+        FunctionCounter.builder("store.loads", loads, LongAdder::sum)
+                .description("Point lookups sent to the batch loader")
+                .tag("store", name)
+                .register(registry);
+        FunctionCounter.builder("store.loads.coalesced", coalesced, LongAdder::sum)
+                .description("Point lookups that joined a fetch already in flight")
+                .tag("store", name)
+                .register(registry);
+        batchSizes = DistributionSummary.builder("store.batch.size")
+                .description("Ids fetched per round trip")
+                .tag("store", name)
+                .register(registry);
+    }
+
+    // Empty when the store has nothing under the id
+    public Mono<T> load(String id) {
+        return Mono.defer(() -> {
+            loads.increment();
+            Sinks.One<T> result = Sinks.one();
+            Sinks.One<T> pending = inFlight.putIfAbsent(id, result);
+            if (pending != null) {
+                coalesced.increment();
+                return pending.asMono();
+            }
+            enqueue(new Pending<>(id, result));
+            return result.asMono();
+        });
+    }
+
+    // Called once a write or delete of the id has reached the store: a fetch still in flight may have read what it
+    // replaced, so the loads from here on no longer join it. Those already joined get its result.
+    public void written(String id) {
+        inFlight.remove(id);
+    }
+
+    private void enqueue(Pending<T> pending) {
+        if (window.isZero()) {
+            fetch(List.of(pending));
+            return;
+        }
+        List<Pending<T>> full = null;
+        boolean opened;
+        synchronized (this) {
+            opened = batch.isEmpty();
+            batch.add(pending);
+            if (batch.size() >= maxBatchSize) {
+                full = batch;
+                batch = new ArrayList<>();
+            }
+        }
+        if (full != null) {
+            fetch(full);
+        } else if (opened) {
+            // A flush left over from a batch that went out full may close this one early, which only makes it smaller
+            scheduler.schedule(this::flush, window.toNanos(), TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private void flush() {
+        List<Pending<T>> fetches;
+        synchronized (this) {
+            if (batch.isEmpty()) {
+                return;
+            }
+            fetches = batch;
+            batch = new ArrayList<>();
+        }
+        fetch(fetches);
+    }
+
+    // An id written while its first fetch was in flight may be in the batch twice, and is asked for once
+    private void fetch(List<Pending<T>> fetches) {
+        List<String> ids = fetches.stream().map(Pending::id).distinct().toList();
+        batchSizes.record(ids.size());
+        store.getAll(ids)
+                .collect(HashMap<String, T>::new, (found, entity) -> found.put(entity.getId(), entity))
+                .subscribe(found -> fetches.forEach(pending -> complete(pending, found.get(pending.id()), null)),
+                        error -> fetches.forEach(pending -> complete(pending, null, error)));
+    }
+
+    // Leaves the in-flight map first, so a load arriving from here on fetches afresh rather than joining a finished one.
+    // Only its own entry: a later fetch of the id may have taken the place of one that written removed.
+    private void complete(Pending<T> pending, T entity, Throwable error) {
+        inFlight.remove(pending.id(), pending.result());
+        Sinks.One<T> result = pending.result();
+        if (error != null) {
+            result.tryEmitError(error);
+        } else if (entity != null) {
+            result.tryEmitValue(entity);
+        } else {
+            result.tryEmitEmpty();
+        }
+    }
+}
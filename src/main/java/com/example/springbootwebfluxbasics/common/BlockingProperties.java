@@ -0,0 +1,18 @@
+package com.example.springbootwebfluxbasics.common;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+// Where blocking calls (a JDBC store, ...) run so that they never hold up an event loop
+@ConfigurationProperties(prefix = "app.blocking")
+public record BlockingProperties(
+        @DefaultValue("bounded-elastic") Kind scheduler) {
+
+    public enum Kind {
+        // Reactor's shared pool of at most ten threads per core, extra tasks queued
+        BOUNDED_ELASTIC,
+        // A virtual thread per task, so in-flight calls are limited by the backend (e.g. its connection pool) rather
+        // than by threads; needs Java 21 (the java21 build profile)
+        VIRTUAL
+    }
+}
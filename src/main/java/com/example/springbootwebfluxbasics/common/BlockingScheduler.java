@@ -0,0 +1,97 @@
+package com.example.springbootwebfluxbasics.common;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.task.VirtualThreadTaskExecutor;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// The Reactor scheduler blocking adapters run their calls on, chosen by app.blocking.scheduler, and how many of those
+// calls are in flight
+@Component
+public class BlockingScheduler implements DisposableBean {
+
+    private final BlockingProperties.Kind kind;
+    private final Scheduler scheduler;
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    @Autowired
+    public BlockingScheduler(BlockingProperties properties, MeterRegistry registry) {
+        this(properties.scheduler());
+        Gauge.builder("blocking.calls.in.flight", inFlight, AtomicInteger::get)
+                .description("Blocking calls started and not yet finished, queued ones included")
+                .tag("scheduler", kind.name().toLowerCase(Locale.ROOT))
+                .register(registry);
+    }
+
+    public BlockingScheduler(BlockingProperties.Kind kind) {
+        this.kind = kind;
+        this.scheduler = create(kind);
+    }
+
+    // Runs the call on the scheduler and emits its result there; a null result completes empty
+    public <T> Mono<T> call(Callable<T> call) {
+        return Mono.defer(() -> {
+            inFlight.incrementAndGet();
+            // Counted out when the call returns, or on cancellation if it never got to run
+            AtomicBoolean finished = new AtomicBoolean();
+            Runnable finish = () -> {
+                if (finished.compareAndSet(false, true)) {
+                    inFlight.decrementAndGet();
+                }
+            };
+            return Mono.fromCallable(() -> {
+                        try {
+                            return call.call();
+                        } finally {
+                            finish.run();
+                        }
+                    })
+                    .subscribeOn(scheduler)
+                    .doOnCancel(finish);
+        });
+    }
+
+    public Scheduler scheduler() {
+        return scheduler;
+    }
+
+    public BlockingProperties.Kind kind() {
+        return kind;
+    }
+
+    public int inFlight() {
+        return inFlight.get();
+    }
+
+    @Override
+    public void destroy() {
+        // The shared bounded elastic pool is not ours to dispose
+        if (kind == BlockingProperties.Kind.VIRTUAL) {
+            scheduler.dispose();
+        }
+    }
+
+    private static Scheduler create(BlockingProperties.Kind kind) {
+        if (kind == BlockingProperties.Kind.BOUNDED_ELASTIC) {
+            return Schedulers.boundedElastic();
+        }
+        VirtualThreadTaskExecutor executor;
+        try {
+            executor = new VirtualThreadTaskExecutor("blocking-");
+        } catch (UnsupportedOperationException e) {
+            throw new IllegalStateException("app.blocking.scheduler=virtual needs Java 21; build with -Pjava21", e);
+        }
+        // Not trampolined: every task gets a virtual thread of its own, so nothing queues behind a blocked call
+        return Schedulers.fromExecutor(executor);
+    }
+}
@@ -0,0 +1,93 @@
+package com.example.springbootwebfluxbasics.common;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.core.NestedExceptionUtils;
+import org.springframework.core.codec.DecodingException;
+import org.springframework.stereotype.Component;
+import org.springframework.validation.Errors;
+import org.springframework.web.server.ServerWebInputException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import reactor.util.function.Tuple2;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+// Validates and writes a decoded stream of items in batches, emitting one result per item in request order
+@Component
+@RequiredArgsConstructor
+public class BulkIngest {
+
+    private final EntityValidation validator;
+    private final BulkProperties properties;
+
+    public <T> Flux<BulkItemResult> ingest(Flux<T> items, Function<List<T>, Flux<T>> saveAll, Function<T, String> idOf) {
+        return Flux.defer(() -> {
+            // A malformed body ends the stream early: everything decoded so far is still written,
+            // then a single ABORTED result reports why the rest was not read
+            AtomicReference<Throwable> decodeError = new AtomicReference<>();
+            Flux<T> decoded = items.onErrorResume(BulkIngest::isDecodeError, e -> {
+                decodeError.set(e);
+                return Flux.empty();
+            });
+
+            return decoded.index()
+                    .buffer(properties.batchSize())
+                    // Keep validation and writes off the event loop that is decoding the request
+                    .flatMapSequential(batch -> Flux.defer(() -> ingestBatch(batch, saveAll, idOf))
+                            .subscribeOn(Schedulers.parallel()), properties.concurrency())
+                    .concatWith(Mono.fromSupplier(decodeError::get)
+                            .map(e -> BulkItemResult.aborted(NestedExceptionUtils.getMostSpecificCause(e).getMessage())));
+        });
+    }
+
+    // Functional endpoints surface DecodingException, annotated controllers wrap it in ServerWebInputException
+    private static boolean isDecodeError(Throwable e) {
+        return e instanceof DecodingException || e instanceof ServerWebInputException;
+    }
+
+    private <T> Flux<BulkItemResult> ingestBatch(List<Tuple2<Long, T>> batch,
+                                                 Function<List<T>, Flux<T>> saveAll,
+                                                 Function<T, String> idOf) {
+        List<String> errors = new ArrayList<>(batch.size());
+        List<T> valid = new ArrayList<>(batch.size());
+        for (Tuple2<Long, T> item : batch) {
+            String error = validate(item.getT2());
+            errors.add(error);
+            if (error == null) {
+                valid.add(item.getT2());
+            }
+        }
+
+        // Ids are assigned by saveAll, and only the copies it returns carry them, so results are built from those,
+        // which come back in the order the valid items were given
+        return saveAll.apply(valid)
+                .collectList()
+                .flatMapMany(saved -> {
+                    List<BulkItemResult> results = new ArrayList<>(batch.size());
+                    int next = 0;
+                    for (int i = 0; i < batch.size(); i++) {
+                        String error = errors.get(i);
+                        results.add(error == null
+                                ? BulkItemResult.created(batch.get(i).getT1(), idOf.apply(saved.get(next++)))
+                                : BulkItemResult.invalid(batch.get(i).getT1(), error));
+                    }
+                    return Flux.fromIterable(results);
+                });
+    }
+
+    private String validate(Object item) {
+        Errors errors = validator.check(item, "item");
+        if (errors == null) {
+            return null;
+        }
+        return errors.getFieldErrors()
+                .stream()
+                .map(error -> error.getField() + ": " + error.getDefaultMessage())
+                .collect(Collectors.joining(", "));
+    }
+}
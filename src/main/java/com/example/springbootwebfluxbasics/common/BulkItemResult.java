@@ -0,0 +1,22 @@
+package com.example.springbootwebfluxbasics.common;
+
+// Outcome of one item of a bulk request, index is its position in the request body
+public record BulkItemResult(Long index, String id, Status status, String error) {
+
+    public enum Status {
+        CREATED, INVALID, ABORTED
+    }
+
+    public static BulkItemResult created(long index, String id) {
+        return new BulkItemResult(index, id, Status.CREATED, null);
+    }
+
+    public static BulkItemResult invalid(long index, String error) {
+        return new BulkItemResult(index, null, Status.INVALID, error);
+    }
+
+    // The body could not be decoded any further, nothing after the last reported index was read
+    public static BulkItemResult aborted(String error) {
+        return new BulkItemResult(null, null, Status.ABORTED, error);
+    }
+}
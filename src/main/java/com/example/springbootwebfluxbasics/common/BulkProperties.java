@@ -0,0 +1,11 @@
+package com.example.springbootwebfluxbasics.common;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+// Bulk ingest tuning: items per repository batch and how many batches are written at once
+@ConfigurationProperties(prefix = "app.bulk")
+public record BulkProperties(
+        @DefaultValue("500") int batchSize,
+        @DefaultValue("4") int concurrency) {
+}
@@ -0,0 +1,20 @@
+package com.example.springbootwebfluxbasics.common;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.time.Duration;
+
+// Bounded cache in front of the backing store, for point lookups and indexed query results; needs app.store.type
+@ConfigurationProperties(prefix = "app.cache")
+public record CacheProperties(
+        @DefaultValue("false") boolean enabled,
+        // Entities cached for point lookups
+        @DefaultValue("100000") long maxEntities,
+        // Query results cached, weighed by the entities they hold
+        @DefaultValue("1000000") long maxQueryWeight,
+        // An entry read this long after it was loaded is reloaded in the background, the old value served meanwhile
+        @DefaultValue("30s") Duration refreshAfter,
+        // An entry not reloaded or written for this long is dropped
+        @DefaultValue("10m") Duration expireAfter) {
+}
@@ -0,0 +1,206 @@
+package com.example.springbootwebfluxbasics.common;
+
+import com.github.benmanes.caffeine.cache.AsyncCacheLoader;
+import com.github.benmanes.caffeine.cache.AsyncLoadingCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineStatsCounter;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*
+ * A bounded cache in front of a slower EntityStore (app.cache.enabled), for point lookups and for the results of the
+ * indexed queries.
+ *
+ * Both caches are Caffeine's, whose admission is frequency aware (W-TinyLFU): a newcomer only displaces a resident once
+ * it has been asked for more often lately, so a burst of one-off lookups cannot flush the hot set. Entities are bounded
+ * by count, query results by weight, one per entity they hold. An entry read after refresh-after is reloaded in the
+ * background while the old value is still served; one left for expire-after is dropped. Concurrent loads of one key
+ * share a fetch, and point lookups missing together are loaded with one getAll.
+ *
+ * Writes go through to the store, then invalidate: the entity itself, the results it now belongs to, and the results
+ * it was cached in before (tracked per id, so a product moving category leaves its old category's result too). A result
+ * loaded from before a write to one of its ids, whose membership was not yet tracked when that write invalidated, is
+ * loaded again rather than cached.
+ *
+ * Meters, tagged cache=<name> and cache=<name>.queries: cache.gets by result (hit, miss), cache.hit.ratio, cache.loads
+ * (a timer, so load latency) by result, cache.evictions by cause, cache.size.
+ */
+public class CachedEntityStore<T extends Versioned> implements EntityStore<T> {
+
+    // One indexed query, by its folded key
+    private record Query(String field, String key) {
+    }
+
+    // A cached query result; the stamp tells one load of a query from the next
+    private record Result<T>(List<T> entities, long stamp) {
+    }
+
+    private static final int STRIPES = 1024;
+
+    private final EntityStore<T> store;
+    private final EntityTable<T, ?> table;
+    private final AsyncLoadingCache<String, T> entities;
+    private final AsyncLoadingCache<Query, Result<T>> queries;
+    // id -> the cached results holding it, with the stamp of the load that put it there
+    private final Map<String, Map<Query, Long>> memberships = new ConcurrentHashMap<>();
+    private final AtomicLong stamps = new AtomicLong();
+    // The stamp of the latest invalidation per stripe of ids; a load stamped before it may have read a replaced entity
+    private final AtomicLongArray invalidated = new AtomicLongArray(STRIPES);
+
+    public CachedEntityStore(String name, EntityStore<T> store, EntityTable<T, ?> table, CacheProperties properties,
+                             MeterRegistry registry) {
+        this.store = store;
+        this.table = table;
+        CaffeineStatsCounter entityStats = new CaffeineStatsCounter(registry, name);
+        this.entities = Caffeine.newBuilder()
+                .maximumSize(properties.maxEntities())
+                .refreshAfterWrite(properties.refreshAfter())
+                .expireAfterWrite(properties.expireAfter())
+                .recordStats(() -> entityStats)
+                .buildAsync(new AsyncCacheLoader<>() {
+                    @Override
+                    public CompletableFuture<? extends T> asyncLoad(String id, Executor executor) {
+                        return store.getAll(List.of(id)).next().toFuture();
+                    }
+
+                    @Override
+                    public CompletableFuture<? extends Map<? extends String, ? extends T>> asyncLoadAll(
+                            Set<? extends String> ids, Executor executor) {
+                        return store.getAll(List.copyOf(ids)).collectMap(Versioned::getId).toFuture();
+                    }
+                });
+        CaffeineStatsCounter queryStats = new CaffeineStatsCounter(registry, name + ".queries");
+        this.queries = Caffeine.newBuilder()
+                .maximumWeight(properties.maxQueryWeight())
+                .<Query, Result<T>>weigher((query, result) -> result.entities().size() + 1)
+                .refreshAfterWrite(properties.refreshAfter())
+                .expireAfterWrite(properties.expireAfter())
+                .recordStats(() -> queryStats)
+                .removalListener(this::forget)
+                .buildAsync((query, executor) -> load(query));
+        entityStats.registerSizeMetric(entities.synchronous());
+        queryStats.registerSizeMetric(queries.synchronous());
+        hitRatio(registry, name, entities);
+        hitRatio(registry, name + ".queries", queries);
+    }
+
+    @Override
+    public Flux<T> getAll(Collection<String> ids) {
+        // The future is shared with concurrent lookups of the same ids, so a cancelled subscriber leaves it running
+        return Mono.fromFuture(() -> entities.getAll(ids), true)
+                .flatMapIterable(Map::values);
+    }
+
+    @Override
+    public Mono<Void> put(T entity) {
+        return store.put(entity).then(Mono.fromRunnable(() -> invalidate(entity.getId(), entity)));
+    }
+
+    @Override
+    public Mono<Void> putAll(List<T> batch) {
+        return store.putAll(batch).then(Mono.fromRunnable(() -> batch.forEach(entity -> invalidate(entity.getId(), entity))));
+    }
+
+    @Override
+    public Mono<Void> delete(String id, long version) {
+        return store.delete(id, version).then(Mono.fromRunnable(() -> invalidate(id, null)));
+    }
+
+    // Not cached: a scan would only push the hot set out
+    @Override
+    public Flux<T> scan() {
+        return store.scan();
+    }
+
+    @Override
+    public Flux<T> findBy(String field, String value) {
+        table.index(field);
+        String key = HashIndex.fold(value);
+        if (key == null) {
+            return Flux.empty();
+        }
+        return Mono.fromFuture(() -> queries.get(new Query(field, key)), true)
+                .flatMapIterable(Result::entities);
+    }
+
+    private CompletableFuture<Result<T>> load(Query query) {
+        long stamp = stamps.incrementAndGet();
+        return store.findBy(query.field(), query.key())
+                .collectList()
+                .toFuture()
+                .thenCompose(found -> {
+                    Result<T> result = new Result<>(found, stamp);
+                    found.forEach(entity -> memberships
+                            .computeIfAbsent(entity.getId(), id -> new ConcurrentHashMap<>())
+                            .put(query, stamp));
+                    // Registered first: a write invalidating after this finds the membership, one before it is seen here
+                    for (T entity : found) {
+                        if (invalidated.get(stripe(entity.getId())) > stamp) {
+                            release(query, result);
+                            return load(query);
+                        }
+                    }
+                    return CompletableFuture.completedFuture(result);
+                });
+    }
+
+    // A result leaving the cache (or replaced by a reload) no longer needs invalidating through its ids
+    private void forget(Query query, Result<T> result, RemovalCause cause) {
+        if (query == null || result == null) {
+            return;
+        }
+        release(query, result);
+    }
+
+    private void release(Query query, Result<T> result) {
+        for (T entity : result.entities()) {
+            memberships.computeIfPresent(entity.getId(), (id, held) -> {
+                // Only this load's membership; a later load of the query has put its own stamp there
+                held.remove(query, result.stamp());
+                return held.isEmpty() ? null : held;
+            });
+        }
+    }
+
+    // After a write has reached the store; entity is null for a delete
+    private void invalidate(String id, T entity) {
+        invalidated.accumulateAndGet(stripe(id), stamps.incrementAndGet(), Math::max);
+        entities.synchronous().invalidate(id);
+        Map<Query, Long> held = memberships.remove(id);
+        if (held != null) {
+            queries.synchronous().invalidateAll(held.keySet());
+        }
+        if (entity != null) {
+            for (String field : table.indexes().keySet()) {
+                String key = table.key(field, entity);
+                if (key != null) {
+                    queries.synchronous().invalidate(new Query(field, key));
+                }
+            }
+        }
+    }
+
+    private static int stripe(String id) {
+        return id.hashCode() & (STRIPES - 1);
+    }
+
+    private static void hitRatio(MeterRegistry registry, String name, AsyncLoadingCache<?, ?> cache) {
+        Gauge.builder("cache.hit.ratio", cache, c -> c.synchronous().stats().hitRate())
+                .description("Share of lookups answered from the cache")
+                .tag("cache", name)
+                .register(registry);
+    }
+}
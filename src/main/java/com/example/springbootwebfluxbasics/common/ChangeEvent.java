@@ -0,0 +1,12 @@
+package com.example.springbootwebfluxbasics.common;
+
+public record ChangeEvent<T>(Type type, String id, T entity) {
+
+    public enum Type {
+        SNAPSHOT, CREATED, UPDATED, DELETED
+    }
+
+    public static <T> ChangeEvent<T> snapshot(String id, T entity) {
+        return new ChangeEvent<>(Type.SNAPSHOT, id, entity);
+    }
+}
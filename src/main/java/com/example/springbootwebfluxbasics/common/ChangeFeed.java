@@ -0,0 +1,29 @@
+package com.example.springbootwebfluxbasics.common;
+
+import reactor.core.publisher.BufferOverflowStrategy;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+
+// Multicasts repository changes to any number of live subscribers
+public class ChangeFeed<T> {
+
+    // Best effort: the sink never waits on a slow subscriber, each one gets its own bounded buffer instead
+    private final Sinks.Many<ChangeEvent<T>> sink = Sinks.many().multicast().directBestEffort();
+    private final SerializedEmitter<ChangeEvent<T>> emitter = new SerializedEmitter<>(sink);
+
+    // Called inside the write's compute, so events for an id are queued in the order its writes were applied
+    public void publish(ChangeEvent.Type type, String id, T entity) {
+        emitter.offer(new ChangeEvent<>(type, id, entity));
+    }
+
+    // Called by the writing thread once the compute has returned; sends what is ready, never waiting on another
+    // emitting thread
+    public void flush() {
+        emitter.drain();
+    }
+
+    public Flux<ChangeEvent<T>> events(int bufferSize, BufferOverflowStrategy overflow) {
+        return sink.asFlux()
+                .onBackpressureBuffer(bufferSize, dropped -> { }, overflow);
+    }
+}
@@ -0,0 +1,13 @@
+package com.example.springbootwebfluxbasics.common;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+import reactor.core.publisher.BufferOverflowStrategy;
+
+// Per-subscriber buffering for the change feed streams. With ERROR a subscriber that falls
+// bufferSize events behind is disconnected and has to reconnect (and re-snapshot).
+@ConfigurationProperties(prefix = "app.feed")
+public record ChangeFeedProperties(
+        @DefaultValue("1024") int bufferSize,
+        @DefaultValue("ERROR") BufferOverflowStrategy overflow) {
+}
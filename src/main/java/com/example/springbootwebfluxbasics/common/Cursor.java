@@ -0,0 +1,60 @@
+package com.example.springbootwebfluxbasics.common;
+
+import org.springframework.web.server.ServerWebInputException;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+
+// Opaque keyset cursors: the token wraps the last id of a page, clients never see the raw key
+public final class Cursor {
+
+    public static final int DEFAULT_LIMIT = 100;
+    public static final int MAX_LIMIT = 1000;
+
+    private Cursor() {
+    }
+
+    public static String encode(String id) {
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(id.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static String decode(String token) {
+        if (token == null || token.isEmpty()) {
+            return null;
+        }
+        try {
+            return new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            throw new ServerWebInputException("Invalid 'after' cursor");
+        }
+    }
+
+    public static int limit(Integer requested) {
+        if (requested == null) {
+            return DEFAULT_LIMIT;
+        }
+        if (requested < 1 || requested > MAX_LIMIT) {
+            throw new ServerWebInputException("'limit' must be between 1 and " + MAX_LIMIT);
+        }
+        return requested;
+    }
+
+    // RFC 8288 Link header pointing at the page after lastId
+    public static String nextLink(URI requestUri, int limit, String lastId) {
+        URI next = UriComponentsBuilder.fromUri(requestUri)
+                .replaceQueryParam("limit", limit)
+                .replaceQueryParam("after", encode(lastId))
+                .build(true)
+                .toUri();
+        return "<" + next.getRawPath() + "?" + next.getRawQuery() + ">; rel=\"next\"";
+    }
+
+    // The link after a full page; null after a short one, which is the last
+    public static String nextLink(URI requestUri, int limit, List<? extends Versioned> page) {
+        return page.size() == limit ? nextLink(requestUri, limit, page.get(page.size() - 1).getId()) : null;
+    }
+}
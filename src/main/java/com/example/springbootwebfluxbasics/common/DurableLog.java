@@ -0,0 +1,532 @@
+package com.example.springbootwebfluxbasics.common;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/*
+ * Append-only redo log for one repository.
+ *
+ * Writers enqueue records and get a future back; a single writer thread drains whatever is queued,
+ * writes it in one go and completes every future after a single fsync (group commit). Periodic snapshots
+ * rotate to a new log segment, write the live set to a memory-mapped file and drop the segments it covers.
+ * Recovery loads the snapshot and replays the segments written after it.
+ *
+ * A record is queued inside the writer's compute, before its value is visible in the live set. Writers therefore
+ * bracket the compute with beginWrite and endWrite, and a snapshot only reads the live set once every write that could
+ * have put a record ahead of its rotation has ended. Otherwise a record could land in a dropped segment while the
+ * snapshot still read the value it replaced. Writers never wait on this; the snapshot thread does.
+ *
+ * Log record:      [int length][int crc32][byte op][payload]  (length and crc cover op + payload)
+ * Snapshot file:   [int magic][long generation] { [int length][int crc32][payload] }* [int -1][long count]
+ */
+public class DurableLog<T> implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(DurableLog.class);
+
+    private static final byte PUT = 1;
+    private static final byte DELETE = 2;
+    private static final byte ROTATE = 3;
+
+    private static final int SNAPSHOT_MAGIC = 0x534E4150;
+    private static final int SNAPSHOT_END = -1;
+    private static final int MAP_WINDOW = 64 << 20;
+    private static final int WRITE_BUFFER = 1 << 20;
+
+    private final Path directory;
+    private final String name;
+    private final ObjectReader reader;
+    private final ObjectWriter writer;
+    private final PersistenceProperties properties;
+    private final BlockingQueue<Append> queue = new LinkedBlockingQueue<>();
+    // Writes between beginWrite and endWrite, counted by the rotation epoch they began in (its low bit)
+    private final AtomicLong[] writing = {new AtomicLong(), new AtomicLong()};
+    private volatile int epoch;
+
+    private volatile boolean running;
+    private volatile long generation;
+    private FileChannel segment;
+    private Thread writerThread;
+    private ScheduledExecutorService snapshots;
+    private Supplier<? extends Iterable<T>> snapshotSource;
+
+    public DurableLog(Path directory, String name, Class<T> type, ObjectMapper mapper, PersistenceProperties properties) {
+        this.directory = directory;
+        this.name = name;
+        this.reader = mapper.readerFor(type);
+        this.writer = mapper.writerFor(type);
+        this.properties = properties;
+    }
+
+    // Completes once the record is on disk; completion is moved off the writer thread so callers can't stall it
+    public static Mono<Void> await(CompletableFuture<?> durable) {
+        if (durable == null || (durable.isDone() && !durable.isCompletedExceptionally())) {
+            return Mono.empty();
+        }
+        return Mono.fromFuture(durable)
+                .publishOn(Schedulers.parallel())
+                .then();
+    }
+
+    public static Mono<Void> awaitAll(List<CompletableFuture<?>> durable) {
+        return durable.isEmpty()
+                ? Mono.empty()
+                : await(CompletableFuture.allOf(durable.toArray(CompletableFuture[]::new)));
+    }
+
+    // Called before the compute that queues a record, and endWrite with what it returns once the compute has returned.
+    // Re-reading the epoch after counting the write means a rotation either sees the count or comes strictly before
+    // the record is queued.
+    public int beginWrite() {
+        while (true) {
+            int current = epoch;
+            writing[current & 1].incrementAndGet();
+            if (epoch == current) {
+                return current;
+            }
+            writing[current & 1].decrementAndGet();
+        }
+    }
+
+    public void endWrite(int writeEpoch) {
+        writing[writeEpoch & 1].decrementAndGet();
+    }
+
+    public CompletableFuture<Void> put(T entity) {
+        try {
+            return enqueue(PUT, writer.writeValueAsBytes(entity));
+        } catch (JsonProcessingException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    public CompletableFuture<Void> delete(String id) {
+        return enqueue(DELETE, id.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // Loads the latest snapshot and replays the log segments written after it; false if there was nothing to load
+    public boolean recover(Consumer<T> onPut, Consumer<String> onDelete) throws IOException {
+        Files.createDirectories(directory);
+        long started = System.nanoTime();
+        long from = 0;
+        long records = 0;
+        boolean existed = Files.exists(snapshotPath());
+
+        if (existed) {
+            long[] header = readSnapshot(onPut);
+            from = header[0];
+            records += header[1];
+        }
+
+        long last = from - 1;
+        for (long segmentGeneration : segmentGenerations()) {
+            existed = true;
+            if (segmentGeneration < from) {
+                Files.deleteIfExists(segmentPath(segmentGeneration));
+                continue;
+            }
+            records += replay(segmentPath(segmentGeneration), onPut, onDelete);
+            last = segmentGeneration;
+        }
+
+        generation = Math.max(from, last + 1);
+        logger.info("Recovered {} records for '{}' in {} ms", records, name,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+        return existed;
+    }
+
+    // Opens a fresh segment, starts the group-commit writer and the periodic snapshots
+    public void start(Supplier<? extends Iterable<T>> snapshotSource) throws IOException {
+        this.snapshotSource = snapshotSource;
+        segment = openSegment(generation);
+        running = true;
+
+        writerThread = new Thread(this::writeLoop, "durable-log-" + name);
+        writerThread.setDaemon(true);
+        writerThread.start();
+
+        snapshots = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "durable-log-snapshot-" + name);
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = properties.snapshotInterval().toMillis();
+        snapshots.scheduleWithFixedDelay(this::snapshotQuietly, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    // Rotates the log, writes the live set to a new snapshot and deletes the segments it replaces
+    public synchronized void snapshot() throws IOException {
+        if (!running) {
+            throw new IllegalStateException("Durable log '" + name + "' is not running");
+        }
+        Append rotate = new Append(ROTATE, null, new CompletableFuture<>());
+        queue.add(rotate);
+        // Writes that begin from here on queue their records after the rotation; the ones that began before may have
+        // queued theirs ahead of it, so the live set is only read once they have all made their values visible
+        int previous = epoch;
+        epoch = previous + 1;
+        while (writing[previous & 1].get() > 0) {
+            LockSupport.parkNanos(10_000);
+        }
+        rotate.done.join();
+        long covered = generation;
+
+        // The live set is read after the rotation, and holds every write logged before it, so replaying segments
+        // >= covered on top of it is enough
+        Path tmp = directory.resolve(name + ".snapshot.tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            MappedWriter out = new MappedWriter(channel);
+            out.ensure(12);
+            out.buffer.putInt(SNAPSHOT_MAGIC);
+            out.buffer.putLong(covered);
+
+            long count = 0;
+            CRC32 crc = new CRC32();
+            for (T entity : snapshotSource.get()) {
+                byte[] payload = writer.writeValueAsBytes(entity);
+                crc.reset();
+                crc.update(payload);
+                out.ensure(8 + payload.length);
+                out.buffer.putInt(payload.length);
+                out.buffer.putInt((int) crc.getValue());
+                out.buffer.put(payload);
+                count++;
+            }
+            out.ensure(12);
+            out.buffer.putInt(SNAPSHOT_END);
+            out.buffer.putLong(count);
+            out.finish();
+        }
+        Files.move(tmp, snapshotPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        for (long segmentGeneration : segmentGenerations()) {
+            if (segmentGeneration < covered) {
+                Files.deleteIfExists(segmentPath(segmentGeneration));
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        if (!running) {
+            return;
+        }
+        snapshots.shutdownNow();
+        running = false;
+        try {
+            writerThread.join();
+            segment.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            logger.warn("Failed to close log segment for '{}'", name, e);
+        }
+    }
+
+    private CompletableFuture<Void> enqueue(byte op, byte[] payload) {
+        Append append = new Append(op, payload, new CompletableFuture<>());
+        if (!running) {
+            append.done.completeExceptionally(new IllegalStateException("Durable log '" + name + "' is not running"));
+            return append.done;
+        }
+        queue.add(append);
+        return append.done;
+    }
+
+    private void writeLoop() {
+        List<Append> batch = new ArrayList<>();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BUFFER);
+        CRC32 crc = new CRC32();
+
+        while (running || !queue.isEmpty()) {
+            Append first;
+            try {
+                first = queue.poll(100, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                continue;
+            }
+            if (first == null) {
+                continue;
+            }
+            batch.add(first);
+            // Everything that queued up while the previous fsync ran shares the next one
+            queue.drainTo(batch, properties.maxBatch() - 1);
+
+            int committed = 0;
+            try {
+                for (int i = 0; i < batch.size(); i++) {
+                    Append append = batch.get(i);
+                    if (append.op == ROTATE) {
+                        flush(buffer);
+                        segment.force(false);
+                        complete(batch, committed, i);
+                        committed = i + 1;
+                        segment.close();
+                        segment = openSegment(++generation);
+                        append.done.complete(null);
+                        continue;
+                    }
+                    write(buffer, crc, append);
+                }
+                flush(buffer);
+                segment.force(false);
+                complete(batch, committed, batch.size());
+            } catch (IOException | RuntimeException e) {
+                logger.error("Failed to append to durable log '{}'", name, e);
+                buffer.clear();
+                for (int i = committed; i < batch.size(); i++) {
+                    batch.get(i).done.completeExceptionally(e);
+                }
+            }
+            batch.clear();
+        }
+    }
+
+    private void write(ByteBuffer buffer, CRC32 crc, Append append) throws IOException {
+        int length = 1 + append.payload.length;
+        crc.reset();
+        crc.update(append.op);
+        crc.update(append.payload);
+
+        if (buffer.remaining() < 8 + length) {
+            flush(buffer);
+        }
+        if (buffer.remaining() < 8 + length) {
+            // Larger than the whole buffer, write it on its own
+            ByteBuffer record = ByteBuffer.allocate(8 + length);
+            record.putInt(length).putInt((int) crc.getValue()).put(append.op).put(append.payload).flip();
+            writeFully(record);
+            return;
+        }
+        buffer.putInt(length).putInt((int) crc.getValue()).put(append.op).put(append.payload);
+    }
+
+    private void flush(ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        writeFully(buffer);
+        buffer.clear();
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            segment.write(buffer);
+        }
+    }
+
+    private void complete(List<Append> batch, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (batch.get(i).op != ROTATE) {
+                batch.get(i).done.complete(null);
+            }
+        }
+    }
+
+    private void snapshotQuietly() {
+        try {
+            snapshot();
+        } catch (IOException | RuntimeException e) {
+            logger.error("Failed to write snapshot for '{}'", name, e);
+        }
+    }
+
+    private long replay(Path path, Consumer<T> onPut, Consumer<String> onDelete) throws IOException {
+        long records = 0;
+        long good = 0;
+        CRC32 crc = new CRC32();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 1 << 16))) {
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException e) {
+                    return records;
+                }
+                byte[] record;
+                int checksum;
+                try {
+                    checksum = in.readInt();
+                    if (length < 1) {
+                        throw new EOFException();
+                    }
+                    record = new byte[length];
+                    in.readFully(record);
+                } catch (EOFException e) {
+                    break;
+                }
+                crc.reset();
+                crc.update(record);
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+
+                if (record[0] == PUT) {
+                    onPut.accept(reader.readValue(record, 1, length - 1));
+                } else if (record[0] == DELETE) {
+                    onDelete.accept(new String(record, 1, length - 1, StandardCharsets.UTF_8));
+                }
+                records++;
+                good += 8 + length;
+            }
+        }
+
+        // A torn write from a crash: keep everything before it and drop the rest
+        logger.warn("Truncating torn tail of {} at offset {}", path, good);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.truncate(good);
+        }
+        return records;
+    }
+
+    private long[] readSnapshot(Consumer<T> onPut) throws IOException {
+        try (FileChannel channel = FileChannel.open(snapshotPath(), StandardOpenOption.READ)) {
+            MappedReader in = new MappedReader(channel);
+            in.ensure(12);
+            if (in.buffer.getInt() != SNAPSHOT_MAGIC) {
+                throw new IOException("Not a snapshot file: " + snapshotPath());
+            }
+            long covered = in.buffer.getLong();
+
+            long count = 0;
+            byte[] payload = new byte[1024];
+            CRC32 crc = new CRC32();
+            while (true) {
+                in.ensure(4);
+                int length = in.buffer.getInt();
+                if (length == SNAPSHOT_END) {
+                    in.ensure(8);
+                    if (in.buffer.getLong() != count) {
+                        throw new IOException("Snapshot record count mismatch in " + snapshotPath());
+                    }
+                    return new long[]{covered, count};
+                }
+                in.ensure(4 + length);
+                int checksum = in.buffer.getInt();
+                if (payload.length < length) {
+                    payload = new byte[Math.max(length, payload.length * 2)];
+                }
+                in.buffer.get(payload, 0, length);
+                crc.reset();
+                crc.update(payload, 0, length);
+                if ((int) crc.getValue() != checksum) {
+                    throw new IOException("Corrupt snapshot record in " + snapshotPath());
+                }
+                onPut.accept(reader.readValue(payload, 0, length));
+                count++;
+            }
+        }
+    }
+
+    private List<Long> segmentGenerations() throws IOException {
+        String prefix = name + "-";
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.map(path -> path.getFileName().toString())
+                    .filter(file -> file.startsWith(prefix) && file.endsWith(".log"))
+                    .map(file -> Long.parseLong(file.substring(prefix.length(), file.length() - 4)))
+                    .sorted()
+                    .toList();
+        }
+    }
+
+    private FileChannel openSegment(long segmentGeneration) throws IOException {
+        return FileChannel.open(segmentPath(segmentGeneration),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private Path segmentPath(long segmentGeneration) {
+        return directory.resolve(name + "-" + segmentGeneration + ".log");
+    }
+
+    private Path snapshotPath() {
+        return directory.resolve(name + ".snapshot");
+    }
+
+    private record Append(byte op, byte[] payload, CompletableFuture<Void> done) {
+    }
+
+    // Writes through a sliding memory-mapped window, growing the file as it goes
+    private static final class MappedWriter {
+
+        private final FileChannel channel;
+        private long base;
+        private MappedByteBuffer buffer;
+
+        MappedWriter(FileChannel channel) throws IOException {
+            this.channel = channel;
+            this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, MAP_WINDOW);
+        }
+
+        void ensure(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                buffer.force();
+                base += buffer.position();
+                buffer = channel.map(FileChannel.MapMode.READ_WRITE, base, Math.max(MAP_WINDOW, bytes));
+            }
+        }
+
+        void finish() throws IOException {
+            buffer.force();
+            channel.truncate(base + buffer.position());
+            channel.force(true);
+        }
+    }
+
+    // Reads through a sliding memory-mapped window so snapshots larger than 2 GB still work
+    private static final class MappedReader {
+
+        private final FileChannel channel;
+        private final long size;
+        private long base;
+        private MappedByteBuffer buffer;
+
+        MappedReader(FileChannel channel) throws IOException {
+            this.channel = channel;
+            this.size = channel.size();
+            this.buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(MAP_WINDOW, size));
+        }
+
+        void ensure(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                base += buffer.position();
+                long window = Math.min(Math.max(MAP_WINDOW, bytes), size - base);
+                if (window < bytes) {
+                    throw new EOFException("Truncated snapshot");
+                }
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, base, window);
+            }
+        }
+    }
+}
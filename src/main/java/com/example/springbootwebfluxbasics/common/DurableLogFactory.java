@@ -0,0 +1,35 @@
+package com.example.springbootwebfluxbasics.common;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.stereotype.Component;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+// Hands out one DurableLog per repository when app.persistence.enabled is set, and closes them on shutdown
+@Component
+@RequiredArgsConstructor
+public class DurableLogFactory implements DisposableBean {
+
+    private final PersistenceProperties properties;
+    private final ObjectMapper mapper;
+    private final List<DurableLog<?>> logs = new CopyOnWriteArrayList<>();
+
+    // Null when persistence is disabled
+    public <T> DurableLog<T> open(String name, Class<T> type) {
+        if (!properties.enabled()) {
+            return null;
+        }
+        DurableLog<T> log = new DurableLog<>(Path.of(properties.directory()), name, type, mapper, properties);
+        logs.add(log);
+        return log;
+    }
+
+    @Override
+    public void destroy() {
+        logs.forEach(DurableLog::close);
+    }
+}
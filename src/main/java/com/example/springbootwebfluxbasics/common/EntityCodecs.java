@@ -0,0 +1,244 @@
+package com.example.springbootwebfluxbasics.common;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.util.ByteArrayBuilder;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import org.reactivestreams.Publisher;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.http.MediaType;
+import org.springframework.http.ReactiveHttpOutputMessage;
+import org.springframework.http.codec.ServerCodecConfigurer;
+import org.springframework.http.codec.cbor.Jackson2CborDecoder;
+import org.springframework.http.codec.cbor.Jackson2CborEncoder;
+import org.springframework.http.codec.json.Jackson2SmileDecoder;
+import org.springframework.http.codec.json.Jackson2SmileEncoder;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.stereotype.Component;
+import org.springframework.util.MimeType;
+import org.springframework.web.reactive.function.BodyInserter;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Binary alternatives to JSON for entity bodies: CBOR and Smile through Jackson (configured like the JSON mapper),
+ * Protobuf through the hand-written ProtobufSchemas.
+ *
+ * Request bodies and anything else Spring encodes itself go through the codecs registered by register(). Entity
+ * responses are written here instead, next to the JSON cache: JSON keeps coming from cached bytes, and a client that
+ * lists a binary type in Accept gets that encoding, made per request. Lists are a CBOR or Smile array written in
+ * chunks from one generator (Spring's CBOR encoder only takes single values), or a stream of delimited Protobuf
+ * messages.
+ */
+@Component
+public class EntityCodecs {
+
+    public static final String SMILE_VALUE = "application/x-jackson-smile";
+    public static final MediaType SMILE = MediaType.parseMediaType(SMILE_VALUE);
+    public static final String PROTOBUF_VALUE = "application/x-protobuf";
+    public static final MediaType PROTOBUF = MediaType.parseMediaType(PROTOBUF_VALUE);
+    private static final MediaType SMILE_STREAM = MediaType.parseMediaType("application/*+x-jackson-smile");
+    public static final List<MediaType> BINARY = List.of(MediaType.APPLICATION_CBOR, SMILE, PROTOBUF);
+
+    // Entities per buffer when a list is encoded, as in JsonCache
+    private static final int CHUNK_ITEMS = 64;
+
+    private final ObjectMapper cbor;
+    private final ObjectMapper smile;
+    private final ProtobufEntityCodec protobuf;
+
+    @Autowired
+    public EntityCodecs(ObjectProvider<Jackson2ObjectMapperBuilder> builders, List<ProtobufSchema<?>> schemas) {
+        this(builders.getObject().factory(new CBORFactory()).build(),
+                builders.getObject().factory(new SmileFactory()).build(),
+                new ProtobufEntityCodec(schemas));
+    }
+
+    public EntityCodecs(ObjectMapper cbor, ObjectMapper smile, ProtobufEntityCodec protobuf) {
+        this.cbor = cbor;
+        this.smile = smile;
+        this.protobuf = protobuf;
+    }
+
+    // Media types are always given: without them the Jackson codecs would claim JSON as well
+    public void register(ServerCodecConfigurer configurer) {
+        configurer.customCodecs().register(new Jackson2CborDecoder(cbor, MediaType.APPLICATION_CBOR));
+        configurer.customCodecs().register(new CborEncoder(cbor));
+        // Smile is among Spring's defaults, with a mapper of its own; this one has the application's settings
+        configurer.defaultCodecs().jackson2SmileDecoder(new Jackson2SmileDecoder(smile, SMILE, SMILE_STREAM));
+        configurer.defaultCodecs().jackson2SmileEncoder(new Jackson2SmileEncoder(smile, SMILE, SMILE_STREAM));
+        configurer.customCodecs().register(protobuf);
+    }
+
+    // The first binary type the client lists, if any; otherwise the JSON type the route picked (JSON or NDJSON)
+    public static MediaType negotiate(List<MediaType> accept, MediaType json) {
+        for (MediaType requested : accept) {
+            for (MediaType binary : BINARY) {
+                if (binary.equalsTypeAndSubtype(requested)) {
+                    return binary;
+                }
+            }
+        }
+        return json;
+    }
+
+    public static boolean isBinary(MediaType mediaType) {
+        for (MediaType binary : BINARY) {
+            if (binary.equalsTypeAndSubtype(mediaType)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public <T extends Versioned> Mono<DataBuffer> encode(T entity, JsonCache<T> json, MediaType mediaType,
+                                                          DataBufferFactory bufferFactory) {
+        if (!isBinary(mediaType)) {
+            return json.encode(entity, bufferFactory);
+        }
+        return Mono.fromSupplier(() -> bufferFactory.wrap(encode(entity, mediaType)));
+    }
+
+    public <T extends Versioned> Flux<DataBuffer> encode(Flux<T> entities, JsonCache<T> json, MediaType mediaType,
+                                                          DataBufferFactory bufferFactory) {
+        if (!isBinary(mediaType)) {
+            return json.encode(entities, mediaType, bufferFactory);
+        }
+        if (PROTOBUF.equalsTypeAndSubtype(mediaType)) {
+            return entities.map(entity -> bufferFactory.wrap(protobuf.encodeDelimited(entity)));
+        }
+        ObjectMapper mapper = mapper(mediaType);
+        return Flux.using(() -> new ArrayWriter(mapper),
+                writer -> Flux.concat(
+                                Mono.fromSupplier(writer::start),
+                                entities.buffer(CHUNK_ITEMS).map(writer::write),
+                                Mono.fromSupplier(writer::end))
+                        .map(bufferFactory::wrap),
+                ArrayWriter::close);
+    }
+
+    // As JsonCache.body, in whichever encoding was negotiated
+    public <T extends Versioned> BodyInserter<T, ReactiveHttpOutputMessage> body(T entity, JsonCache<T> json,
+                                                                                MediaType mediaType) {
+        if (!isBinary(mediaType)) {
+            return json.body(entity);
+        }
+        return (message, context) -> {
+            byte[] bytes = encode(entity, mediaType);
+            message.getHeaders().setContentLength(bytes.length);
+            return message.writeWith(Mono.just(message.bufferFactory().wrap(bytes)));
+        };
+    }
+
+    public <T extends Versioned> BodyInserter<Flux<T>, ReactiveHttpOutputMessage> body(Flux<T> entities, JsonCache<T> json,
+                                                                                      MediaType mediaType) {
+        if (!isBinary(mediaType)) {
+            return json.body(entities, mediaType);
+        }
+        return (message, context) -> message.writeWith(encode(entities, json, mediaType, message.bufferFactory()));
+    }
+
+    private byte[] encode(Object entity, MediaType mediaType) {
+        if (PROTOBUF.equalsTypeAndSubtype(mediaType)) {
+            return protobuf.encode(entity);
+        }
+        try {
+            return mapper(mediaType).writeValueAsBytes(entity);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private ObjectMapper mapper(MediaType mediaType) {
+        return SMILE.equalsTypeAndSubtype(mediaType) ? smile : cbor;
+    }
+
+    // Spring's CBOR encoder takes single values only, but its message writer hands over even those as a publisher
+    private static final class CborEncoder extends Jackson2CborEncoder {
+
+        CborEncoder(ObjectMapper mapper) {
+            super(mapper, MediaType.APPLICATION_CBOR);
+        }
+
+        @Override
+        public Flux<DataBuffer> encode(Publisher<?> inputStream, DataBufferFactory bufferFactory, ResolvableType elementType,
+                                       MimeType mimeType, Map<String, Object> hints) {
+            if (inputStream instanceof Mono<?> mono) {
+                return mono.map(value -> encodeValue(value, bufferFactory, elementType, mimeType, hints)).flux();
+            }
+            return Flux.from(inputStream)
+                    .collectList()
+                    .map(values -> encodeValue(values, bufferFactory,
+                            ResolvableType.forClassWithGenerics(List.class, elementType), mimeType, hints))
+                    .flux();
+        }
+    }
+
+    // One generator for the whole array, drained after every chunk; with Smile, names seen early are back-referenced
+    // for the rest of the response
+    private static final class ArrayWriter {
+
+        private final ObjectMapper mapper;
+        private final ByteArrayBuilder out = new ByteArrayBuilder();
+        private final JsonGenerator generator;
+
+        ArrayWriter(ObjectMapper mapper) throws IOException {
+            this.mapper = mapper;
+            this.generator = mapper.createGenerator(out);
+        }
+
+        byte[] start() {
+            try {
+                generator.writeStartArray();
+                return drain();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        byte[] write(List<?> chunk) {
+            try {
+                for (Object entity : chunk) {
+                    mapper.writeValue(generator, entity);
+                }
+                return drain();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        byte[] end() {
+            try {
+                generator.writeEndArray();
+                return drain();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        void close() {
+            try {
+                generator.close();
+            } catch (IOException e) {
+                // Nothing was left to write
+            }
+        }
+
+        private byte[] drain() throws IOException {
+            generator.flush();
+            byte[] bytes = out.toByteArray();
+            out.reset();
+            return bytes;
+        }
+    }
+}
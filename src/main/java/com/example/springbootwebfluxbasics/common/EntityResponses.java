@@ -0,0 +1,44 @@
+package com.example.springbootwebfluxbasics.common;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+// Encodings and conditional-GET headers for entity and list responses, the same for handlers and controllers
+public final class EntityResponses {
+
+    private EntityResponses() {
+    }
+
+    // NDJSON is flushed one entity at a time, so it is only used when the client asks for it
+    public static MediaType listMediaType(List<MediaType> accept) {
+        boolean ndjson = accept.stream().anyMatch(MediaType.APPLICATION_NDJSON::equalsTypeAndSubtype);
+        return ndjson ? MediaType.APPLICATION_NDJSON : MediaType.APPLICATION_JSON;
+    }
+
+    // A list's encoding: NDJSON or JSON, or CBOR, Smile or Protobuf when the client lists one of them in Accept
+    public static MediaType listEncoding(List<MediaType> accept) {
+        return EntityCodecs.negotiate(accept, listMediaType(accept));
+    }
+
+    // One entity's encoding: JSON, or CBOR, Smile or Protobuf when the client lists one of them in Accept
+    public static MediaType entityEncoding(List<MediaType> accept) {
+        return EntityCodecs.negotiate(accept, MediaType.APPLICATION_JSON);
+    }
+
+    // Tagged with the entity's version in this encoding, so a matching If-None-Match gets a 304 before it is encoded
+    public static Consumer<HttpHeaders> entity(Versioned entity, MediaType mediaType) {
+        return list(EntityVersions.etag(entity.getVersion(), mediaType), mediaType);
+    }
+
+    // etag is read before the data, so it can only be older than what the body shows, never newer
+    public static Consumer<HttpHeaders> list(String etag, MediaType mediaType) {
+        return headers -> {
+            headers.setETag(etag);
+            headers.setVary(List.of(HttpHeaders.ACCEPT));
+            headers.setContentType(mediaType);
+        };
+    }
+}
@@ -0,0 +1,33 @@
+package com.example.springbootwebfluxbasics.common;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.Collection;
+import java.util.List;
+
+/*
+ * A slower system of record behind a repository: another service, a database. Every call is one round trip, so
+ * callers batch where they can.
+ *
+ * Writes to one id may reach the store out of order, so put keeps whichever version is newer and delete only removes
+ * the version it names (or an older one). A delete leaves a tombstone at its version, so a put of that version or an
+ * older one arriving after it is ignored rather than bringing the entity back; a tombstone costs an id and a version.
+ */
+public interface EntityStore<T extends Versioned> {
+
+    // The entities found among the ids, in no particular order; ids with nothing stored are left out
+    Flux<T> getAll(Collection<String> ids);
+
+    Mono<Void> put(T entity);
+
+    Mono<Void> putAll(List<T> entities);
+
+    Mono<Void> delete(String id, long version);
+
+    // Everything stored, streamed
+    Flux<T> scan();
+
+    // The entities whose indexed property matches the value, ignoring case as HashIndex does, streamed
+    Flux<T> findBy(String field, String value);
+}
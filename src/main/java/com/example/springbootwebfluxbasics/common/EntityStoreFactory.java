@@ -0,0 +1,103 @@
+package com.example.springbootwebfluxbasics.common;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+// Hands out the backing store for a repository, and a loader that batches point lookups against it
+@Component
+@RequiredArgsConstructor
+public class EntityStoreFactory implements DisposableBean {
+
+    private final StoreProperties properties;
+    private final PersistenceProperties persistence;
+    private final CacheProperties cache;
+    private final MeterRegistry registry;
+    // How each entity type is laid out in a store
+    private final List<EntityTable<?, ?>> tables;
+    // Only resolved for the r2dbc store type
+    private final ObjectProvider<DatabaseClient> databaseClient;
+    // Runs the jdbc store's calls
+    private final BlockingScheduler blocking;
+    // Shared by the jdbc stores, opened with the first of them
+    private HikariDataSource dataSource;
+
+    // Null when no store is configured; behind a cache when app.cache.enabled is set
+    public <T extends Versioned> EntityStore<T> open(String name, Class<T> type) {
+        if (properties.type() == StoreProperties.Type.NONE) {
+            return null;
+        }
+        if (persistence.enabled()) {
+            // Two systems of record would each have to be recovered from and could disagree
+            throw new IllegalStateException("app.store.type and app.persistence.enabled cannot be used together");
+        }
+        EntityTable<T, ?> table = table(type);
+        EntityStore<T> store = store(name, table);
+        return cache.enabled() ? new CachedEntityStore<>(name, store, table, cache, registry) : store;
+    }
+
+    public <T extends Versioned> BatchLoader<T> loader(String name, EntityStore<T> store) {
+        return new BatchLoader<>(name, store, properties.batchWindow(), properties.maxBatchSize(), registry);
+    }
+
+    // Whether findAll and the indexed queries go to the store rather than to memory
+    public boolean queriesStore() {
+        return properties.type() != StoreProperties.Type.NONE && properties.reads() == StoreProperties.Reads.STORE;
+    }
+
+    private <T extends Versioned> EntityStore<T> store(String name, EntityTable<T, ?> table) {
+        // Repositories warm from the store while they are constructed, so the tables have to exist by then
+        switch (properties.type()) {
+            case R2DBC -> {
+                R2dbcEntityStore<T> store = new R2dbcEntityStore<>(databaseClient.getObject(), table, registry);
+                store.createSchema().block();
+                return store;
+            }
+            case JDBC -> {
+                JdbcEntityStore<T> store = new JdbcEntityStore<>(dataSource(), table, blocking, registry);
+                store.createSchema().block();
+                return store;
+            }
+            default -> {
+                return new SimulatedEntityStore<>(name, table, properties.latency(), registry);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void destroy() {
+        if (dataSource != null) {
+            dataSource.close();
+        }
+    }
+
+    private synchronized HikariDataSource dataSource() {
+        if (dataSource == null) {
+            StoreProperties.Jdbc jdbc = properties.jdbc();
+            HikariConfig config = new HikariConfig();
+            config.setPoolName("store");
+            config.setJdbcUrl(jdbc.url());
+            config.setUsername(jdbc.username());
+            config.setPassword(jdbc.password());
+            config.setMaximumPoolSize(jdbc.maxPoolSize());
+            config.setMetricRegistry(registry);
+            dataSource = new HikariDataSource(config);
+        }
+        return dataSource;
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T extends Versioned> EntityTable<T, ?> table(Class<T> type) {
+        return (EntityTable<T, ?>) tables.stream()
+                .filter(table -> table.type() == type)
+                .findFirst()
+                .orElseThrow(() -> new IllegalStateException("No table layout for " + type.getSimpleName()));
+    }
+}
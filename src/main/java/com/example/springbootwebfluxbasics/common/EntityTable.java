@@ -0,0 +1,208 @@
+package com.example.springbootwebfluxbasics.common;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+
+/*
+ * How an entity type is laid out in a backing store: one column per property, including "id" and "version", and the
+ * properties it can be looked up by (category, author, ...). A relational store keeps a folded copy of each of those
+ * in a "<field>_key" column with an index of its own, so lookups match the way HashIndex does in memory.
+ *
+ * Rows are read into a builder of type B (entities are immutable) and built once every column is set.
+ *
+ * A delete leaves the row behind as a tombstone (deleted = TRUE) at the version deleted, so a put of that version or an
+ * older one reaching the store late finds a newer row and changes nothing. Every select skips tombstones.
+ *
+ * The SQL is written here once for every relational store; each passes in how its driver spells the n-th (1-based)
+ * parameter marker.
+ */
+public abstract class EntityTable<T extends Versioned, B> {
+
+    public record Column<T, B>(String name, String sqlType, Class<?> type, Function<T, ?> getter,
+                               BiConsumer<B, Object> setter) {
+    }
+
+    private static final String KEY_TYPE = "VARCHAR(255)";
+    private static final String DELETED = "deleted";
+    private static final String DELETED_TYPE = "BOOLEAN DEFAULT FALSE NOT NULL";
+
+    private final Class<T> type;
+    private final String name;
+    private final Supplier<B> builder;
+    private final Function<B, T> build;
+    private final List<Column<T, B>> columns = new ArrayList<>();
+    private final Map<String, Function<T, String>> indexes = new LinkedHashMap<>();
+
+    protected EntityTable(Class<T> type, String name, Supplier<B> builder, Function<B, T> build) {
+        this.type = type;
+        this.name = name;
+        this.builder = builder;
+        this.build = build;
+    }
+
+    protected void column(String column, String sqlType, Class<?> javaType, Function<T, ?> getter,
+                          BiConsumer<B, Object> setter) {
+        columns.add(new Column<>(column, sqlType, javaType, getter, setter));
+    }
+
+    protected void index(String field, Function<T, String> getter) {
+        indexes.put(field, getter);
+    }
+
+    public Class<T> type() {
+        return type;
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public List<Column<T, B>> columns() {
+        return Collections.unmodifiableList(columns);
+    }
+
+    public Map<String, Function<T, String>> indexes() {
+        return Collections.unmodifiableMap(indexes);
+    }
+
+    // The lookup key an indexed property is stored and queried under
+    public String key(String field, T entity) {
+        return HashIndex.fold(index(field).apply(entity));
+    }
+
+    public Function<T, String> index(String field) {
+        Function<T, String> getter = indexes.get(field);
+        if (getter == null) {
+            throw new IllegalArgumentException(name + " has no index on " + field);
+        }
+        return getter;
+    }
+
+    // CREATE TABLE, ALTER TABLE and CREATE INDEX statements, each a no-op when its object exists
+    public List<String> schema() {
+        StringJoiner definitions = new StringJoiner(", ");
+        columns.forEach(column -> definitions.add(column.name() + " " + column.sqlType()
+                + (column.name().equals("id") ? " PRIMARY KEY" : "")));
+        indexes.keySet().forEach(field -> definitions.add(keyColumn(field) + " " + KEY_TYPE));
+        definitions.add(DELETED + " " + DELETED_TYPE);
+        List<String> statements = new ArrayList<>();
+        statements.add("CREATE TABLE IF NOT EXISTS " + name + " (" + definitions + ")");
+        // Tables created before deletes left tombstones
+        statements.add("ALTER TABLE " + name + " ADD COLUMN IF NOT EXISTS " + DELETED + " " + DELETED_TYPE);
+        indexes.keySet().forEach(field -> statements.add("CREATE INDEX IF NOT EXISTS " + name + "_" + keyColumn(field)
+                + " ON " + name + " (" + keyColumn(field) + ")"));
+        return statements;
+    }
+
+    // Every column of the rows that are not tombstones, optionally filtered; the where clause may use markers from 1 up
+    public String select(String where) {
+        String select = "SELECT " + String.join(", ", columns.stream().map(Column::name).toList()) + " FROM " + name
+                + " WHERE " + DELETED + " = FALSE";
+        return where == null ? select : select + " AND " + where;
+    }
+
+    public String selectByIds(int count, IntFunction<String> marker) {
+        StringJoiner markers = new StringJoiner(", ");
+        for (int i = 1; i <= count; i++) {
+            markers.add(marker.apply(i));
+        }
+        return select("id IN (" + markers + ")");
+    }
+
+    public String selectByKey(String field, IntFunction<String> marker) {
+        index(field);
+        return select(keyColumn(field) + " = " + marker.apply(1));
+    }
+
+    // Turns the row into a tombstone at the version, unless it holds a newer one, and leaves one where there is no row.
+    // Binds the id, then the version.
+    public String tombstone(IntFunction<String> marker) {
+        return "MERGE INTO " + name + " t USING (VALUES (CAST(" + marker.apply(1) + " AS " + column("id").sqlType()
+                + "), CAST(" + marker.apply(2) + " AS " + column("version").sqlType() + "))) AS s(id, version)"
+                + " ON t.id = s.id"
+                + " WHEN MATCHED AND t.version <= s.version THEN UPDATE SET version = s.version, " + DELETED + " = TRUE"
+                + " WHEN NOT MATCHED THEN INSERT (id, version, " + DELETED + ") VALUES (s.id, s.version, TRUE)";
+    }
+
+    // An upsert of the given number of rows, bound in the order of values(entity) row after row. Rows are matched on
+    // id and only overwritten by a newer version, tombstones included, so the store keeps the newest version however
+    // writes and deletes interleave.
+    public String merge(int rows, IntFunction<String> marker) {
+        List<String> names = new ArrayList<>(columns.stream().map(Column::name).toList());
+        List<String> types = new ArrayList<>(columns.stream().map(Column::sqlType).toList());
+        indexes.keySet().forEach(field -> {
+            names.add(keyColumn(field));
+            types.add(KEY_TYPE);
+        });
+        StringJoiner values = new StringJoiner(", ");
+        int parameter = 1;
+        for (int row = 0; row < rows; row++) {
+            StringJoiner cells = new StringJoiner(", ", "(", ")");
+            for (String sqlType : types) {
+                // Typed, so the database need not infer column types from bare parameters
+                cells.add("CAST(" + marker.apply(parameter++) + " AS " + sqlType + ")");
+            }
+            values.add(cells.toString());
+        }
+        String columnList = String.join(", ", names);
+        StringJoiner updates = new StringJoiner(", ");
+        names.stream().filter(column -> !column.equals("id")).forEach(column -> updates.add(column + " = s." + column));
+        updates.add(DELETED + " = FALSE");
+        return "MERGE INTO " + name + " t USING (VALUES " + values + ") AS s(" + columnList + ")"
+                + " ON t.id = s.id"
+                + " WHEN MATCHED AND t.version < s.version THEN UPDATE SET " + updates
+                + " WHEN NOT MATCHED THEN INSERT (" + columnList + ") VALUES ("
+                + String.join(", ", names.stream().map(column -> "s." + column).toList()) + ")";
+    }
+
+    // One row's parameters for merge: the columns, then the folded keys
+    public List<Object> values(T entity) {
+        List<Object> values = new ArrayList<>(columns.size() + indexes.size());
+        columns.forEach(column -> values.add(column.getter().apply(entity)));
+        indexes.keySet().forEach(field -> values.add(key(field, entity)));
+        return values;
+    }
+
+    // Java types of the values, for binding nulls
+    public List<Class<?>> valueTypes() {
+        List<Class<?>> types = new ArrayList<>(columns.size() + indexes.size());
+        columns.forEach(column -> types.add(column.type()));
+        indexes.keySet().forEach(field -> types.add(String.class));
+        return types;
+    }
+
+    // An entity from a row of select's columns, read by column name and Java type
+    public T read(BiFunction<String, Class<?>, Object> row) {
+        B entity = builder.get();
+        for (Column<T, B> column : columns) {
+            column.setter().accept(entity, row.apply(column.name(), column.type()));
+        }
+        return build.apply(entity);
+    }
+
+    // Newest version per id, first occurrence order; a MERGE may match each target row only once
+    public static <T extends Versioned> List<T> newestPerId(List<T> entities) {
+        Map<String, T> newest = new LinkedHashMap<>();
+        entities.forEach(entity -> newest.merge(entity.getId(), entity,
+                (kept, fresh) -> fresh.getVersion() >= kept.getVersion() ? fresh : kept));
+        return new ArrayList<>(newest.values());
+    }
+
+    private Column<T, B> column(String column) {
+        return columns.stream().filter(c -> c.name().equals(column)).findFirst()
+                .orElseThrow(() -> new IllegalStateException(name + " has no " + column + " column"));
+    }
+
+    private static String keyColumn(String field) {
+        return field + "_key";
+    }
+}
@@ -0,0 +1,58 @@
+package com.example.springbootwebfluxbasics.common;
+
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.annotation.Primary;
+import org.springframework.stereotype.Component;
+import org.springframework.validation.BeanPropertyBindingResult;
+import org.springframework.validation.Errors;
+import org.springframework.validation.Validator;
+
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/*
+ * The application's Validator, for handlers, services, bulk ingest and @Valid alike. With the precompiled engine an
+ * entity that has an EntityValidator is checked by it, anything else still goes to Bean Validation; with the
+ * bean-validation engine everything does.
+ */
+@Component
+@Primary
+public class EntityValidation implements Validator {
+
+    private final Validator beanValidation;
+    // Empty unless the engine is precompiled
+    private final Map<Class<?>, EntityValidator<?>> validators;
+
+    public EntityValidation(@Qualifier("beanValidator") Validator beanValidation, List<EntityValidator<?>> validators,
+                            ValidationProperties properties) {
+        this.beanValidation = beanValidation;
+        this.validators = properties.engine() == ValidationProperties.Engine.PRECOMPILED
+                ? validators.stream().collect(Collectors.toUnmodifiableMap(EntityValidator::type, Function.identity()))
+                : Map.of();
+    }
+
+    // The target's errors, or null when it is valid; with a precompiled validator nothing is allocated for a valid target
+    @SuppressWarnings("unchecked")
+    public Errors check(Object target, String objectName) {
+        EntityValidator<Object> validator = (EntityValidator<Object>) validators.get(target.getClass());
+        if (validator != null && validator.isValid(target)) {
+            return null;
+        }
+        Errors errors = new BeanPropertyBindingResult(target, objectName);
+        validate(target, errors);
+        return errors.hasErrors() ? errors : null;
+    }
+
+    @Override
+    public boolean supports(Class<?> clazz) {
+        return validators.containsKey(clazz) || beanValidation.supports(clazz);
+    }
+
+    @Override
+    public void validate(Object target, Errors errors) {
+        EntityValidator<?> validator = validators.get(target.getClass());
+        (validator != null ? validator : beanValidation).validate(target, errors);
+    }
+}
@@ -0,0 +1,65 @@
+package com.example.springbootwebfluxbasics.common;
+
+import org.springframework.context.support.DefaultMessageSourceResolvable;
+import org.springframework.validation.Errors;
+import org.springframework.validation.Validator;
+
+/*
+ * Hand-written checks for one entity type, standing in for Bean Validation on its annotations. isValid must not
+ * allocate, so a valid entity costs a few field reads. Only an invalid one is walked again to record its errors,
+ * with the codes, arguments and messages Spring's Bean Validation adapter would give them.
+ */
+public abstract class EntityValidator<T> implements Validator {
+
+    private final Class<T> type;
+
+    protected EntityValidator(Class<T> type) {
+        this.type = type;
+    }
+
+    public Class<T> type() {
+        return type;
+    }
+
+    public abstract boolean isValid(T target);
+
+    // Called only when isValid is false; rejects every violated constraint
+    protected abstract void rejectInvalid(T target, Errors errors);
+
+    @Override
+    public boolean supports(Class<?> clazz) {
+        return type.isAssignableFrom(clazz);
+    }
+
+    @Override
+    public void validate(Object target, Errors errors) {
+        T entity = type.cast(target);
+        if (!isValid(entity)) {
+            rejectInvalid(entity, errors);
+        }
+    }
+
+    // Same test as Hibernate Validator's @NotBlank; trim only allocates when there is whitespace to strip
+    protected static boolean notBlank(String value) {
+        return value != null && !value.trim().isEmpty();
+    }
+
+    // @Size on a string: null is valid
+    protected static boolean size(String value, int min, int max) {
+        return value == null || (value.length() >= min && value.length() <= max);
+    }
+
+    // @Min on a number: null is valid, NaN is not
+    protected static boolean min(Number value, long min) {
+        return value == null || value.doubleValue() >= min;
+    }
+
+    // The constraint's attributes other than message, groups and payload, in alphabetical order of their names
+    protected static void reject(Errors errors, String field, String constraint, String message, Object... attributes) {
+        Object[] arguments = new Object[attributes.length + 1];
+        arguments[0] = new DefaultMessageSourceResolvable(
+                new String[] {errors.getObjectName() + "." + field, field}, field);
+        System.arraycopy(attributes, 0, arguments, 1, attributes.length);
+        errors.rejectValue(field, constraint, arguments, message);
+    }
+}
@@ -0,0 +1,107 @@
+package com.example.springbootwebfluxbasics.common;
+
+import org.springframework.http.ETag;
+import org.springframework.http.MediaType;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Versions for one repository's entities, plus a generation for the collection as a whole.
+ *
+ * Versions come from one repository-wide sequence rather than a per-entity counter, so an entity that is deleted
+ * and created again never repeats an earlier version (and ETag). Both counters are seeded from the clock so they
+ * keep increasing across restarts, even for entities whose last versions were never recovered.
+ *
+ * Responses vary by Accept, and each encoding of a version is a different byte body, so the tags tell encodings
+ * apart: JSON has the bare version, every other type the version with its suffix ("17-cbor", "17-ndjson"). A cache
+ * holding one encoding then never revalidates another with it.
+ */
+public class EntityVersions {
+
+    // Versions start from the clock, so they are always positive
+    private static final long UNMATCHABLE = -1;
+    // Tag suffix per encoding other than JSON
+    private static final Map<MediaType, String> SUFFIXES = Map.of(
+            MediaType.APPLICATION_NDJSON, "-ndjson",
+            MediaType.APPLICATION_CBOR, "-cbor",
+            EntityCodecs.SMILE, "-smile",
+            EntityCodecs.PROTOBUF, "-protobuf");
+
+    private final AtomicLong sequence;
+    private final AtomicLong generation;
+
+    public EntityVersions() {
+        long seed = System.currentTimeMillis() * 1000;
+        sequence = new AtomicLong(seed);
+        generation = new AtomicLong(seed);
+    }
+
+    public long next() {
+        return sequence.incrementAndGet();
+    }
+
+    // Keeps the sequence ahead of versions read back during recovery
+    public void observe(Long version) {
+        if (version != null) {
+            sequence.accumulateAndGet(version, Math::max);
+        }
+    }
+
+    // Called once a write is fully applied, so a reader that saw a generation also sees every change before it
+    public void changed() {
+        generation.incrementAndGet();
+    }
+
+    public long generation() {
+        return generation.get();
+    }
+
+    // Strong: one encoding of one version is always the same bytes
+    public static String etag(Long version, MediaType contentType) {
+        return version == null ? null : "\"" + version + suffix(contentType) + "\"";
+    }
+
+    // The version an If-Match header asks to write over: null when there is none or it is "*". A tag of any encoding
+    // names its version. If-Match compares strongly, so weak tags, malformed ones and lists of several map to a
+    // version no entity ever has
+    public static Long expectedVersion(String ifMatch) {
+        if (ifMatch == null || ifMatch.isBlank()) {
+            return null;
+        }
+        List<ETag> tags = ETag.parse(ifMatch);
+        if (tags.size() == 1 && tags.get(0).isWildcard()) {
+            return null;
+        }
+        if (tags.size() != 1 || tags.get(0).weak()) {
+            return UNMATCHABLE;
+        }
+        String tag = tags.get(0).tag();
+        int dash = tag.indexOf('-');
+        if (dash >= 0 && !SUFFIXES.containsValue(tag.substring(dash))) {
+            return UNMATCHABLE;
+        }
+        try {
+            return Long.valueOf(dash < 0 ? tag : tag.substring(0, dash));
+        } catch (NumberFormatException e) {
+            return UNMATCHABLE;
+        }
+    }
+
+    // Weak, since list order is not guaranteed byte for byte; each encoding gets its own tag
+    public static String collectionETag(long generation, MediaType contentType) {
+        return "W/\"" + generation + suffix(contentType) + "\"";
+    }
+
+    private static String suffix(MediaType contentType) {
+        if (contentType != null) {
+            for (Map.Entry<MediaType, String> suffix : SUFFIXES.entrySet()) {
+                if (suffix.getKey().equalsTypeAndSubtype(contentType)) {
+                    return suffix.getValue();
+                }
+            }
+        }
+        return "";
+    }
+}
@@ -0,0 +1,70 @@
+package com.example.springbootwebfluxbasics.common;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.TimeGauge;
+import io.netty.channel.EventLoopGroup;
+import io.netty.util.concurrent.EventExecutor;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.boot.web.reactive.context.ReactiveWebServerInitializedEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.stereotype.Component;
+import reactor.netty.http.HttpResources;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// How late the server's Netty event loops run a task scheduled on them, the worst loop's latest reading. Starts with
+// the web server, so it reads zero when there is none (e.g. a mock server in tests).
+@Component
+public class EventLoopLagMonitor implements ApplicationListener<ReactiveWebServerInitializedEvent>, DisposableBean {
+
+    private static final long PERIOD_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private volatile AtomicLongArray lags = new AtomicLongArray(0);
+    private volatile boolean running;
+
+    public EventLoopLagMonitor(MeterRegistry registry) {
+        TimeGauge.builder("http.event.loop.lag", this, TimeUnit.NANOSECONDS, EventLoopLagMonitor::lagNanos)
+                .description("Delay of a task scheduled on the busiest server event loop")
+                .register(registry);
+    }
+
+    @Override
+    public void onApplicationEvent(ReactiveWebServerInitializedEvent event) {
+        // The loops Reactor Netty serves on by default, which is what Spring Boot's Netty server uses
+        EventLoopGroup group = HttpResources.get().onServer(true);
+        List<EventExecutor> loops = new ArrayList<>();
+        group.forEach(loops::add);
+        lags = new AtomicLongArray(loops.size());
+        running = true;
+        for (int i = 0; i < loops.size(); i++) {
+            schedule(loops.get(i), i);
+        }
+    }
+
+    public long lagNanos() {
+        AtomicLongArray current = lags;
+        long worst = 0;
+        for (int i = 0; i < current.length(); i++) {
+            worst = Math.max(worst, current.get(i));
+        }
+        return worst;
+    }
+
+    @Override
+    public void destroy() {
+        running = false;
+    }
+
+    private void schedule(EventExecutor loop, int index) {
+        long due = System.nanoTime() + PERIOD_NANOS;
+        loop.schedule(() -> {
+            lags.set(index, Math.max(0, System.nanoTime() - due));
+            if (running) {
+                schedule(loop, index);
+            }
+        }, PERIOD_NANOS, TimeUnit.NANOSECONDS);
+    }
+}
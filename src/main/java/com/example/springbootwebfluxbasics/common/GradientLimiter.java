@@ -0,0 +1,107 @@
+package com.example.springbootwebfluxbasics.common;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/*
+ * A concurrency limit that follows latency, in the manner of the Gradient2 limiter from Netflix's concurrency-limits.
+ *
+ * Latencies of completed requests are averaged per window, and a slow moving average of those is the baseline. When
+ * a window's average rises above the baseline by more than the tolerance, the limit shrinks in proportion; otherwise
+ * it grows by about its square root, the queue it allows for. A limit that isn't being used (less than half of it in
+ * flight) doesn't grow. Event-loop lag over its bound shrinks the limit by a tenth per window whatever the latencies
+ * say, since a saturated loop delays the measurements too.
+ *
+ * Acquire and release are a CAS and an adder; the once-per-window update is claimed by one caller with a CAS.
+ */
+public class GradientLimiter {
+
+    // The window average is mixed into the baseline at this weight, so the baseline spans about 20 windows
+    private static final double BASELINE_WEIGHT = 0.05;
+    // Each window moves the limit this far towards its new value
+    private static final double SMOOTHING = 0.2;
+    private static final int MIN_SAMPLES = 10;
+
+    private final AdmissionProperties.Limiter settings;
+    private final LongSupplier eventLoopLag;
+    private final long windowNanos;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final LongAdder latencySum = new LongAdder();
+    private final LongAdder samples = new LongAdder();
+    private final AtomicLong windowEnd = new AtomicLong(System.nanoTime());
+    // Written only by the caller that claimed the window
+    private double baseline;
+    private volatile double limit;
+
+    public GradientLimiter(AdmissionProperties.Limiter settings, LongSupplier eventLoopLag) {
+        this.settings = settings;
+        this.eventLoopLag = eventLoopLag;
+        this.windowNanos = settings.window().toNanos();
+        this.limit = settings.initialLimit();
+    }
+
+    public boolean tryAcquire() {
+        while (true) {
+            int current = inFlight.get();
+            if (current >= (int) limit) {
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    // latencyNanos is only used when sampled, i.e. the request completed normally
+    public void release(long latencyNanos, boolean sampled) {
+        inFlight.decrementAndGet();
+        if (sampled) {
+            latencySum.add(latencyNanos);
+            samples.increment();
+        }
+        long now = System.nanoTime();
+        long end = windowEnd.get();
+        if (now - end >= 0 && windowEnd.compareAndSet(end, now + windowNanos)) {
+            update();
+        }
+    }
+
+    public int limit() {
+        return (int) limit;
+    }
+
+    public int inFlight() {
+        return inFlight.get();
+    }
+
+    private void update() {
+        double current = limit;
+        double next;
+        if (eventLoopLag.getAsLong() > settings.maxEventLoopLag().toNanos()) {
+            next = current * 0.9;
+        } else {
+            // Too few to go on: they carry over into the next window
+            if (samples.sum() < MIN_SAMPLES) {
+                return;
+            }
+            // A sample landing between the two resets is split across windows, which the averages absorb
+            long count = samples.sumThenReset();
+            long sum = latencySum.sumThenReset();
+            double recent = (double) sum / count;
+            baseline = baseline == 0 ? recent : baseline * (1 - BASELINE_WEIGHT) + recent * BASELINE_WEIGHT;
+            if (baseline > 2 * recent) {
+                // Latency has come well down, e.g. after an overload: let the baseline catch up sooner
+                baseline = (baseline + recent) / 2;
+            }
+            double gradient = Math.max(0.5, Math.min(1.0, settings.tolerance() * baseline / recent));
+            next = current * gradient + Math.sqrt(current);
+            if (next > current && inFlight.get() < current / 2) {
+                next = current;
+            }
+            next = current * (1 - SMOOTHING) + next * SMOOTHING;
+        }
+        limit = Math.max(settings.minLimit(), Math.min(settings.maxLimit(), next));
+    }
+}
@@ -0,0 +1,240 @@
+package com.example.springbootwebfluxbasics.common;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/*
+ * Counts and price totals per group (a product category, a book genre) and across all entities, kept up to date by
+ * the repository's write path so that reading them costs the number of groups rather than the size of the catalog.
+ *
+ * Repositories call add and remove from inside their per-id compute, so an entity's contribution moves from one group
+ * to another in step with the entity itself, and flush once the compute has returned. Each group is a set of striped adders, so writers to the same group never
+ * block one another; a reader can catch a write half applied (its count but not yet its price) but never a lasting
+ * drift. Min and max prices come from the repository's sorted price index when it has one.
+ *
+ * Group names are client input, so nothing is kept for a group once it is empty: each group counts its members
+ * exactly, and the write that takes it to zero drops it with the spellings remembered for it. A writer joins a group by
+ * claiming a member slot first, and one that finds the group just dropped starts over with a new one, so no write
+ * lands in a group nobody can see. At most a few spellings are remembered per group; others are folded on every write.
+ */
+public class GroupAggregates {
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public record Snapshot(String name, long count, long flagged, Double minPrice, Double avgPrice, Double maxPrice) {
+    }
+
+    public record Report(Snapshot total, List<Snapshot> groups) {
+    }
+
+    public static final Duration DEFAULT_INTERVAL = Duration.ofSeconds(1);
+    private static final Duration MIN_INTERVAL = Duration.ofMillis(100);
+    private static final Duration MAX_INTERVAL = Duration.ofMinutes(1);
+
+    // Spellings remembered per group
+    private static final int MAX_SPELLINGS = 8;
+
+    // Price sums are kept in fixed point, so adding and later removing the same price always cancels exactly, which
+    // a floating-point sum does not
+    private static final double PRICE_SCALE = 10_000;
+
+    // Null when min and max are not tracked
+    private final RangeIndex prices;
+    private final Group total = new Group(null);
+    // Keyed by folded name; a group is dropped once emptied
+    private final Map<String, Group> groups = new ConcurrentHashMap<>();
+    // The same groups by name as written, so the write path skips folding (and its string) for spellings already seen
+    private final Map<String, Group> spellings = new ConcurrentHashMap<>();
+    private final Sinks.Many<Group> changed = Sinks.many().multicast().directBestEffort();
+    // Changed groups are queued inside compute and emitted by flush, as in ChangeFeed
+    private final SerializedEmitter<Group> emitter = new SerializedEmitter<>(changed);
+
+    public GroupAggregates(RangeIndex prices) {
+        this.prices = prices;
+    }
+
+    public void add(String group, boolean flagged, Double price) {
+        update(group, flagged, price, 1);
+    }
+
+    public void remove(String group, boolean flagged, Double price) {
+        update(group, flagged, price, -1);
+    }
+
+    // Tells subscribers of changes about the groups written since the last flush
+    public void flush() {
+        emitter.drain();
+    }
+
+    // The total and every non-empty group, in name order
+    public Report report() {
+        return new Report(total.snapshot(), snapshots(groups.values().stream(), false));
+    }
+
+    // One report per interval in which something was written, holding the total and only the groups that changed.
+    // Emptied groups are included, with a count of zero, so a subscriber sees them go away.
+    public Flux<Report> changes(Duration interval) {
+        return changed.asFlux()
+                .onBackpressureDrop()
+                .window(interval)
+                .concatMap(window -> window.collect(HashSet<Group>::new, Set::add))
+                .filter(changedGroups -> !changedGroups.isEmpty())
+                .map(changedGroups -> new Report(total.snapshot(), snapshots(changedGroups.stream(), true)));
+    }
+
+    // A client's requested interval in milliseconds, kept to sensible bounds
+    public static Duration interval(Integer millis) {
+        if (millis == null) {
+            return DEFAULT_INTERVAL;
+        }
+        Duration requested = Duration.ofMillis(millis);
+        return requested.compareTo(MIN_INTERVAL) < 0 ? MIN_INTERVAL
+                : requested.compareTo(MAX_INTERVAL) > 0 ? MAX_INTERVAL : requested;
+    }
+
+    private void update(String name, boolean flagged, Double price, int sign) {
+        total.update(flagged, price, sign);
+        Group group = null;
+        if (name != null && sign > 0) {
+            group = join(name);
+            // Most writes repeat the current spelling, and skip the volatile write
+            if (group.name != name) {
+                group.name = name;
+            }
+            group.update(flagged, price, sign);
+        } else if (name != null) {
+            group = find(name);
+            if (group != null) {
+                group.update(flagged, price, sign);
+                leave(group);
+            }
+        }
+        emitter.offer(group == null ? total : group);
+    }
+
+    // The group the name folds to, with a member slot claimed in it
+    private Group join(String name) {
+        while (true) {
+            Group group = spellings.get(name);
+            if (group == null) {
+                group = groups.computeIfAbsent(HashIndex.fold(name), Group::new);
+                remember(name, group);
+            }
+            if (group.claim()) {
+                return group;
+            }
+            // Dropped since it was looked up; it is gone from groups by now
+            spellings.remove(name, group);
+        }
+    }
+
+    // The group of a member being removed, which keeps it from being dropped
+    private Group find(String name) {
+        Group group = spellings.get(name);
+        return group != null ? group : groups.get(HashIndex.fold(name));
+    }
+
+    private void leave(Group group) {
+        if (group.members.decrementAndGet() > 0) {
+            return;
+        }
+        // Only while still empty: a writer claiming a slot meanwhile keeps the group
+        boolean[] dropped = new boolean[1];
+        groups.computeIfPresent(group.key, (key, current) -> {
+            dropped[0] = current == group && group.members.compareAndSet(0, -1);
+            return dropped[0] ? null : current;
+        });
+        if (dropped[0]) {
+            group.spellings.forEach(name -> spellings.remove(name, group));
+        }
+    }
+
+    private void remember(String name, Group group) {
+        if (group.spellings.size() >= MAX_SPELLINGS || !group.spellings.add(name)) {
+            return;
+        }
+        spellings.putIfAbsent(name, group);
+        // Dropped before the spelling went in, so its own cleanup may have missed it
+        if (group.members.get() < 0) {
+            spellings.remove(name, group);
+        }
+    }
+
+    // Groups and spellings held
+    int retained() {
+        return groups.size() + spellings.size();
+    }
+
+    private List<Snapshot> snapshots(Stream<Group> candidates, boolean includeEmpty) {
+        return candidates.filter(group -> group != total)
+                .map(Group::snapshot)
+                .filter(snapshot -> includeEmpty || snapshot.count() > 0)
+                .sorted(Comparator.comparing(Snapshot::name))
+                .toList();
+    }
+
+    private final class Group {
+
+        // Folded name, which is also the group's price index partition; null for the total
+        final String key;
+        final LongAdder count = new LongAdder();
+        final LongAdder flagged = new LongAdder();
+        final LongAdder priced = new LongAdder();
+        final LongAdder priceSum = new LongAdder();
+        // Exact, unlike count, so the last member out can drop the group; -1 once dropped
+        final AtomicLong members = new AtomicLong();
+        final Set<String> spellings = ConcurrentHashMap.newKeySet();
+        // As last written, while the key is the folded form
+        volatile String name;
+
+        Group(String key) {
+            this.key = key;
+        }
+
+        boolean claim() {
+            long current;
+            do {
+                current = members.get();
+                if (current < 0) {
+                    return false;
+                }
+            } while (!members.compareAndSet(current, current + 1));
+            return true;
+        }
+
+        void update(boolean isFlagged, Double price, int sign) {
+            count.add(sign);
+            if (isFlagged) {
+                flagged.add(sign);
+            }
+            if (price != null) {
+                priced.add(sign);
+                priceSum.add(sign * Math.round(price * PRICE_SCALE));
+            }
+        }
+
+        Snapshot snapshot() {
+            long pricedCount = priced.sum();
+            Double average = pricedCount > 0 ? priceSum.sum() / PRICE_SCALE / pricedCount : null;
+            Double min = null;
+            Double max = null;
+            if (prices != null && pricedCount > 0) {
+                min = prices.min(key);
+                max = prices.max(key);
+            }
+            String displayName = key == null ? null : (name != null ? name : key);
+            return new Snapshot(displayName, count.sum(), flagged.sum(), min, average, max);
+        }
+    }
+}
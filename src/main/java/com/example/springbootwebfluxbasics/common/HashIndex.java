@@ -0,0 +1,60 @@
+package com.example.springbootwebfluxbasics.common;
+
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Case-insensitive secondary index from an attribute value to the ids that carry it
+public class HashIndex {
+
+    private final Map<String, Set<String>> entries = new ConcurrentHashMap<>();
+
+    public static String fold(String value) {
+        return value == null ? null : value.toLowerCase(Locale.ROOT);
+    }
+
+    public void add(String value, String id) {
+        String key = fold(value);
+        if (key == null) {
+            return;
+        }
+        entries.compute(key, (k, ids) -> {
+            if (ids == null) {
+                ids = ConcurrentHashMap.newKeySet();
+            }
+            ids.add(id);
+            return ids;
+        });
+    }
+
+    public void remove(String value, String id) {
+        String key = fold(value);
+        if (key == null) {
+            return;
+        }
+        // Drop the bucket once it is empty so the index doesn't keep dead keys around
+        entries.computeIfPresent(key, (k, ids) -> {
+            ids.remove(id);
+            return ids.isEmpty() ? null : ids;
+        });
+    }
+
+    public Set<String> get(String value) {
+        String key = fold(value);
+        if (key == null) {
+            return Collections.emptySet();
+        }
+        return entries.getOrDefault(key, Collections.emptySet());
+    }
+
+    // Number of distinct (folded) values
+    public int size() {
+        return entries.size();
+    }
+
+    public void clear() {
+        entries.clear();
+    }
+}
@@ -0,0 +1,177 @@
+package com.example.springbootwebfluxbasics.common;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntFunction;
+
+/*
+ * The same tables as R2dbcEntityStore, through plain blocking JDBC and a connection pool. Every call runs on the
+ * BlockingScheduler, so how many can be in flight at once is set by that scheduler (and the pool), never by the event
+ * loops. A call holds one pooled connection from start to end; putAll sends its chunks over it one MERGE at a time.
+ *
+ * Query results are read in full on the blocking thread and then emitted, so a ResultSet never crosses threads.
+ */
+public class JdbcEntityStore<T extends Versioned> implements EntityStore<T> {
+
+    // Rows per MERGE, as for R2DBC
+    static final int MAX_ROWS = 256;
+
+    private static final IntFunction<String> MARKER = n -> "?";
+
+    private final DataSource dataSource;
+    private final EntityTable<T, ?> table;
+    private final BlockingScheduler blocking;
+    private final String selectAll;
+    private final String delete;
+    // MERGE text by row count, at most MAX_ROWS of them
+    private final Map<Integer, String> mergeStatements = new ConcurrentHashMap<>();
+    private final LongAdder roundTrips = new LongAdder();
+
+    public JdbcEntityStore(DataSource dataSource, EntityTable<T, ?> table, BlockingScheduler blocking,
+                           MeterRegistry registry) {
+        this.dataSource = dataSource;
+        this.table = table;
+        this.blocking = blocking;
+        this.selectAll = table.select(null);
+        this.delete = table.tombstone(MARKER);
+        FunctionCounter.builder("store.round.trips", roundTrips, LongAdder::sum)
+                .description("Calls made to the backing store")
+                .tag("store", table.name())
+                .register(registry);
+    }
+
+    public Mono<Void> createSchema() {
+        return blocking.call(() -> {
+            try (Connection connection = dataSource.getConnection();
+                 Statement statement = connection.createStatement()) {
+                for (String sql : table.schema()) {
+                    statement.execute(sql);
+                }
+            }
+            return null;
+        }).then();
+    }
+
+    @Override
+    public Flux<T> getAll(Collection<String> ids) {
+        if (ids.isEmpty()) {
+            return Flux.empty();
+        }
+        List<String> distinct = ids.stream().distinct().toList();
+        return query(table.selectByIds(distinct.size(), MARKER), distinct);
+    }
+
+    @Override
+    public Mono<Void> put(T entity) {
+        return putAll(List.of(entity));
+    }
+
+    @Override
+    public Mono<Void> putAll(List<T> entities) {
+        if (entities.isEmpty()) {
+            return Mono.empty();
+        }
+        List<T> rows = EntityTable.newestPerId(entities);
+        return blocking.call(() -> {
+            try (Connection connection = dataSource.getConnection()) {
+                for (int from = 0; from < rows.size(); from += MAX_ROWS) {
+                    merge(connection, rows.subList(from, Math.min(rows.size(), from + MAX_ROWS)));
+                }
+            }
+            return null;
+        }).then();
+    }
+
+    @Override
+    public Mono<Void> delete(String id, long version) {
+        return blocking.call(() -> {
+            roundTrips.increment();
+            try (Connection connection = dataSource.getConnection();
+                 PreparedStatement statement = connection.prepareStatement(delete)) {
+                statement.setString(1, id);
+                statement.setLong(2, version);
+                statement.executeUpdate();
+            }
+            return null;
+        }).then();
+    }
+
+    @Override
+    public Flux<T> scan() {
+        return query(selectAll, List.of());
+    }
+
+    @Override
+    public Flux<T> findBy(String field, String value) {
+        String sql;
+        try {
+            sql = table.selectByKey(field, MARKER);
+        } catch (IllegalArgumentException e) {
+            return Flux.error(e);
+        }
+        return value == null ? Flux.empty() : query(sql, List.of(HashIndex.fold(value)));
+    }
+
+    public long roundTrips() {
+        return roundTrips.sum();
+    }
+
+    private Flux<T> query(String sql, List<?> parameters) {
+        return blocking.call(() -> {
+            roundTrips.increment();
+            List<T> found = new ArrayList<>();
+            try (Connection connection = dataSource.getConnection();
+                 PreparedStatement statement = connection.prepareStatement(sql)) {
+                for (int i = 0; i < parameters.size(); i++) {
+                    statement.setObject(i + 1, parameters.get(i));
+                }
+                try (ResultSet rows = statement.executeQuery()) {
+                    while (rows.next()) {
+                        found.add(decode(rows));
+                    }
+                }
+            }
+            return found;
+        }).flatMapIterable(found -> found);
+    }
+
+    private void merge(Connection connection, List<T> chunk) throws SQLException {
+        roundTrips.increment();
+        String sql = mergeStatements.computeIfAbsent(chunk.size(), rows -> table.merge(rows, MARKER));
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            int index = 1;
+            for (T entity : chunk) {
+                for (Object value : table.values(entity)) {
+                    // The statement casts every parameter, so a null needs no SQL type of its own
+                    statement.setObject(index++, value);
+                }
+            }
+            statement.executeUpdate();
+        }
+    }
+
+    private T decode(ResultSet row) {
+        return table.read((column, type) -> {
+            try {
+                return row.getObject(column, type);
+            } catch (SQLException e) {
+                throw new IllegalStateException("Could not read " + column + " of a " + table.name() + " row", e);
+            }
+        });
+    }
+}
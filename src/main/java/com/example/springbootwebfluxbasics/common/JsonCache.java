@@ -0,0 +1,246 @@
+package com.example.springbootwebfluxbasics.common;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.core.codec.EncodingException;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.http.MediaType;
+import org.springframework.http.ReactiveHttpOutputMessage;
+import org.springframework.web.reactive.function.BodyInserter;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+ * Pre-encoded JSON for one entity type, keyed by id and checked against the entity's version on every read, so bytes
+ * for an older version are never served even if an invalidation is missed. Writers invalidate the id anyway to free
+ * the space early.
+ *
+ * Each fragment ends with a newline, which is valid trailing whitespace in a JSON document, so the same bytes serve both
+ * a single-entity response and a line of NDJSON; JSON arrays copy them without it. The cache is bounded by the summed size of
+ * its entries; past the budget, entries are evicted with a CLOCK sweep (one read since the hand last passed buys an
+ * entry another turn).
+ */
+public class JsonCache<T extends Versioned> {
+
+    // Approximate cost of an entry beyond its bytes: map node, entry object, array header and a share of the id
+    private static final int ENTRY_OVERHEAD = 96;
+    // JSON arrays are assembled this many items to a buffer, rather than written one fragment at a time
+    private static final int CHUNK_ITEMS = 64;
+    private static final byte[] ARRAY_START = {'['};
+    private static final byte[] ARRAY_END = {']'};
+
+    private final ObjectWriter writer;
+    private final boolean enabled;
+    private final long maxBytes;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final AtomicLong weight = new AtomicLong();
+    private final ReentrantLock evicting = new ReentrantLock();
+    // Guarded by evicting; a weakly consistent iterator, so the sweep resumes where it stopped last time
+    private Iterator<Map.Entry<String, Entry>> hand;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public JsonCache(String name, Class<T> type, ObjectMapper mapper, JsonCacheProperties properties, MeterRegistry registry) {
+        this.writer = mapper.writerFor(type);
+        this.enabled = properties.enabled();
+        this.maxBytes = properties.maxBytes().toBytes();
+        FunctionCounter.builder("json.cache.requests", hits, LongAdder::sum)
+                .description("Encodings served from the JSON cache")
+                .tag("cache", name)
+                .tag("result", "hit")
+                .register(registry);
+        FunctionCounter.builder("json.cache.requests", misses, LongAdder::sum)
+                .description("Encodings served from the JSON cache")
+                .tag("cache", name)
+                .tag("result", "miss")
+                .register(registry);
+        FunctionCounter.builder("json.cache.evictions", evictions, LongAdder::sum)
+                .description("Entries evicted to stay within the byte budget")
+                .tag("cache", name)
+                .register(registry);
+        Gauge.builder("json.cache.size", weight, AtomicLong::get)
+                .description("Bytes held by the JSON cache, including per-entry overhead")
+                .baseUnit("bytes")
+                .tag("cache", name)
+                .register(registry);
+    }
+
+    // The entity's JSON followed by a newline; the returned array is shared and must not be modified
+    public byte[] json(T entity) {
+        Long version = entity.getVersion();
+        if (!enabled || version == null) {
+            // Nothing to key an unstored entity by
+            return encode(entity);
+        }
+        Entry entry = entries.get(entity.getId());
+        if (entry != null && entry.version == version) {
+            if (!entry.referenced) {
+                entry.referenced = true;
+            }
+            hits.increment();
+            return entry.json;
+        }
+        misses.increment();
+        byte[] json = encode(entity);
+        put(entity.getId(), new Entry(version, json));
+        return json;
+    }
+
+    public void invalidate(String id) {
+        Entry removed = entries.remove(id);
+        if (removed != null) {
+            weight.addAndGet(-removed.weight());
+        }
+    }
+
+    public void invalidateAll() {
+        entries.keySet().forEach(this::invalidate);
+    }
+
+    // A single entity as a response body; encoding waits until the body is written (so a 304 skips it) and the cached
+    // array is wrapped rather than copied
+    public BodyInserter<T, ReactiveHttpOutputMessage> body(T entity) {
+        return (message, context) -> {
+            byte[] json = json(entity);
+            message.getHeaders().setContentLength(json.length);
+            return message.writeWith(Mono.just(message.bufferFactory().wrap(json)));
+        };
+    }
+
+    // A list as a response body: NDJSON is flushed one line at a time, JSON arrays are written in pooled chunks
+    public BodyInserter<Flux<T>, ReactiveHttpOutputMessage> body(Flux<T> entities, MediaType mediaType) {
+        return (message, context) -> {
+            Flux<DataBuffer> body = encode(entities, mediaType, message.bufferFactory());
+            return isNdjson(mediaType)
+                    ? message.writeAndFlushWith(body.map(Mono::just))
+                    : message.writeWith(body);
+        };
+    }
+
+    public Mono<DataBuffer> encode(T entity, DataBufferFactory bufferFactory) {
+        return Mono.fromSupplier(() -> bufferFactory.wrap(json(entity)));
+    }
+
+    public Flux<DataBuffer> encode(Flux<T> entities, MediaType mediaType, DataBufferFactory bufferFactory) {
+        if (isNdjson(mediaType)) {
+            return entities.map(entity -> bufferFactory.wrap(json(entity)));
+        }
+        return Flux.defer(() -> {
+            boolean[] first = {true};
+            return Flux.concat(
+                    Mono.fromSupplier(() -> bufferFactory.wrap(ARRAY_START)),
+                    entities.buffer(CHUNK_ITEMS).map(chunk -> join(chunk, first, bufferFactory)),
+                    Mono.fromSupplier(() -> bufferFactory.wrap(ARRAY_END)));
+        });
+    }
+
+    // Copies a chunk's fragments, comma separated and without their newlines, into one buffer from the factory's pool
+    private DataBuffer join(List<T> chunk, boolean[] first, DataBufferFactory bufferFactory) {
+        byte[][] fragments = new byte[chunk.size()][];
+        int size = 0;
+        for (int i = 0; i < fragments.length; i++) {
+            fragments[i] = json(chunk.get(i));
+            size += fragments[i].length;
+        }
+        DataBuffer buffer = bufferFactory.allocateBuffer(size);
+        for (byte[] fragment : fragments) {
+            if (first[0]) {
+                first[0] = false;
+            } else {
+                buffer.write((byte) ',');
+            }
+            buffer.write(fragment, 0, fragment.length - 1);
+        }
+        return buffer;
+    }
+
+    private void put(String id, Entry fresh) {
+        entries.compute(id, (key, current) -> {
+            if (current != null && current.version >= fresh.version) {
+                // A reader of a newer version got here first
+                return current;
+            }
+            weight.addAndGet(fresh.weight() - (current == null ? 0 : current.weight()));
+            return fresh;
+        });
+        if (weight.get() > maxBytes) {
+            evict();
+        }
+    }
+
+    private void evict() {
+        // One sweeper at a time; others carry on and the budget is overshot only until it is done
+        if (!evicting.tryLock()) {
+            return;
+        }
+        try {
+            // Two turns of the hand clear every reference bit, so the sweep always ends
+            long steps = 2L * entries.size() + 1;
+            while (weight.get() > maxBytes && steps-- > 0) {
+                if (hand == null || !hand.hasNext()) {
+                    hand = entries.entrySet().iterator();
+                    if (!hand.hasNext()) {
+                        return;
+                    }
+                }
+                Map.Entry<String, Entry> candidate = hand.next();
+                Entry entry = candidate.getValue();
+                if (entry.referenced) {
+                    entry.referenced = false;
+                } else if (entries.remove(candidate.getKey(), entry)) {
+                    weight.addAndGet(-entry.weight());
+                    evictions.increment();
+                }
+            }
+        } finally {
+            evicting.unlock();
+        }
+    }
+
+    private byte[] encode(T entity) {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+            writer.writeValue(out, entity);
+            out.write('\n');
+            return out.toByteArray();
+        } catch (IOException e) {
+            throw new EncodingException("Failed to encode " + entity.getId(), e);
+        }
+    }
+
+    private static boolean isNdjson(MediaType mediaType) {
+        return MediaType.APPLICATION_NDJSON.equalsTypeAndSubtype(mediaType);
+    }
+
+    private static final class Entry {
+
+        final long version;
+        final byte[] json;
+        // Set on a read, cleared as the eviction hand passes
+        volatile boolean referenced;
+
+        Entry(long version, byte[] json) {
+            this.version = version;
+            this.json = json;
+        }
+
+        long weight() {
+            return json.length + ENTRY_OVERHEAD;
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package com.example.springbootwebfluxbasics.common;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+import org.springframework.util.unit.DataSize;
+
+// Pre-encoded JSON per entity version: on/off and how many bytes each entity type may keep
+@ConfigurationProperties(prefix = "app.json-cache")
+public record JsonCacheProperties(
+        @DefaultValue("true") boolean enabled,
+        @DefaultValue("32MB") DataSize maxBytes) {
+}
@@ -0,0 +1,89 @@
+package com.example.springbootwebfluxbasics.common;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebInputException;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.function.Consumer;
+
+// JSON Merge Patch (RFC 7396) applied to a copy of an entity; id and version are the repository's and cannot be patched
+@Component
+@RequiredArgsConstructor
+public class JsonMergePatch {
+
+    public static final String MEDIA_TYPE_VALUE = "application/merge-patch+json";
+    public static final MediaType MEDIA_TYPE = MediaType.parseMediaType(MEDIA_TYPE_VALUE);
+
+    // Attempts at a patch without If-Match before a run of conflicting writes is reported as one
+    private static final int MAX_ATTEMPTS = 8;
+
+    private final ObjectMapper mapper;
+
+    // A patch is re-read and re-applied when a concurrent write lands first, unless the client named the version
+    // it patched with If-Match: then the conflict is the answer
+    private static Retry retryOnConflict(Long expectedVersion) {
+        return Retry.max(expectedVersion == null ? MAX_ATTEMPTS - 1 : 0)
+                .filter(VersionConflictException.class::isInstance)
+                .onRetryExhaustedThrow((spec, signal) -> signal.failure());
+    }
+
+    // Reads the entity, patches a copy and writes it back with compare-and-set against the version it was read at, or
+    // the one named by If-Match; empty when there is no such entity. check throws for a patched entity that is invalid.
+    public <T extends Versioned> Mono<T> patch(VersionedRepository<T> repository, String id, JsonNode patch,
+                                               Class<T> type, Long expectedVersion, Consumer<T> check) {
+        return Mono.defer(() -> repository.findById(id)
+                        .flatMap(existing -> {
+                            T patched = apply(existing, patch, type);
+                            check.accept(patched);
+                            return repository.replace(id, patched,
+                                    expectedVersion == null ? existing.getVersion() : expectedVersion);
+                        }))
+                .retryWhen(retryOnConflict(expectedVersion));
+    }
+
+    // The target is left untouched, it may be the instance the repository holds; id and version are dropped from the patch
+    public <T> T apply(T target, JsonNode patch, Class<T> type) {
+        if (!(patch instanceof ObjectNode members)) {
+            // A non-object patch would replace the entity with a non-object
+            throw new ServerWebInputException("Merge patch must be a JSON object");
+        }
+        members.remove("id");
+        members.remove("version");
+        ObjectNode patched = mapper.valueToTree(target);
+        merge(patched, members);
+        try {
+            return mapper.treeToValue(patched, type);
+        } catch (JsonProcessingException e) {
+            throw new ServerWebInputException("Invalid merge patch: " + e.getOriginalMessage());
+        }
+    }
+
+    // null removes a member, objects merge recursively, anything else replaces
+    private static void merge(ObjectNode target, ObjectNode patch) {
+        Iterator<Map.Entry<String, JsonNode>> members = patch.fields();
+        while (members.hasNext()) {
+            Map.Entry<String, JsonNode> member = members.next();
+            JsonNode value = member.getValue();
+            if (value.isNull()) {
+                target.remove(member.getKey());
+            } else if (value instanceof ObjectNode object && target.get(member.getKey()) instanceof ObjectNode nested) {
+                merge(nested, object);
+            } else if (value instanceof ObjectNode object) {
+                // Merging into a missing or non-object member starts from an empty object, dropping nulls in the patch
+                ObjectNode created = target.putObject(member.getKey());
+                merge(created, object);
+            } else {
+                target.set(member.getKey(), value);
+            }
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.example.springbootwebfluxbasics.common;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.RequiredArgsConstructor;
+import org.springframework.core.codec.EncodingException;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.http.MediaType;
+import org.springframework.http.ReactiveHttpOutputMessage;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.BodyInserter;
+import org.springframework.web.server.ServerWebInputException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+
+/*
+ * Multi-get bodies. The request is {"ids": [...]}; duplicates are dropped and the cap applies to what is left.
+ *
+ * The response streams the found entities in request order from their cached JSON, then lists the ids that were not
+ * found: {"items": [...], "missing": [...]} as JSON, or one line per entity followed by {"missing": [...]} as NDJSON.
+ */
+@Component
+@RequiredArgsConstructor
+public class MultiGet {
+
+    public record Request(List<String> ids) {
+    }
+
+    private static final byte[] ITEMS_START = "{\"items\":".getBytes(StandardCharsets.UTF_8);
+
+    private final MultiGetProperties properties;
+    private final ObjectMapper mapper;
+
+    // find looks the ids up, in the order given. The ids are checked at once, so a bad request fails before the
+    // response starts.
+    public <T extends Versioned> Flux<DataBuffer> encode(Request request, Function<List<String>, Flux<T>> find,
+                                                         JsonCache<T> cache, MediaType mediaType,
+                                                         DataBufferFactory bufferFactory) {
+        List<String> ids = ids(request);
+        return encode(ids, find.apply(ids), cache, mediaType, bufferFactory);
+    }
+
+    // For functional endpoints; NDJSON is flushed one line at a time, as list responses are
+    public <T extends Versioned> BodyInserter<Flux<T>, ReactiveHttpOutputMessage> body(Request request,
+                                                                                      Function<List<String>, Flux<T>> find,
+                                                                                      JsonCache<T> cache, MediaType mediaType) {
+        List<String> ids = ids(request);
+        return (message, context) -> {
+            Flux<DataBuffer> body = encode(ids, find.apply(ids), cache, mediaType, message.bufferFactory());
+            return MediaType.APPLICATION_NDJSON.equalsTypeAndSubtype(mediaType)
+                    ? message.writeAndFlushWith(body.map(Mono::just))
+                    : message.writeWith(body);
+        };
+    }
+
+    // Distinct ids in request order
+    private List<String> ids(Request request) {
+        if (request == null || request.ids() == null) {
+            throw new ServerWebInputException("Request body must be {\"ids\": [...]}");
+        }
+        Set<String> ids = new LinkedHashSet<>(request.ids());
+        if (ids.contains(null)) {
+            throw new ServerWebInputException("Ids must not be null");
+        }
+        if (ids.size() > properties.maxIds()) {
+            throw new ServerWebInputException("At most " + properties.maxIds() + " ids per call, got " + ids.size());
+        }
+        return new ArrayList<>(ids);
+    }
+
+    private <T extends Versioned> Flux<DataBuffer> encode(List<String> ids, Flux<T> found, JsonCache<T> cache,
+                                                          MediaType mediaType, DataBufferFactory bufferFactory) {
+        return Flux.defer(() -> {
+            Set<String> seen = new HashSet<>();
+            Flux<DataBuffer> items = cache.encode(found.doOnNext(entity -> seen.add(entity.getId())), mediaType, bufferFactory);
+            // Subscribed once every item has gone out, so seen is complete
+            Mono<DataBuffer> missing = Mono.fromSupplier(() -> bufferFactory.wrap(missing(ids, seen, mediaType)));
+            if (MediaType.APPLICATION_NDJSON.equalsTypeAndSubtype(mediaType)) {
+                return Flux.concat(items, missing);
+            }
+            return Flux.concat(Mono.fromSupplier(() -> bufferFactory.wrap(ITEMS_START)), items, missing);
+        });
+    }
+
+    private byte[] missing(List<String> ids, Set<String> seen, MediaType mediaType) {
+        List<String> missing = ids.stream().filter(id -> !seen.contains(id)).toList();
+        try {
+            String list = mapper.writeValueAsString(missing);
+            return (MediaType.APPLICATION_NDJSON.equalsTypeAndSubtype(mediaType)
+                    ? "{\"missing\":" + list + "}\n"
+                    : ",\"missing\":" + list + "}").getBytes(StandardCharsets.UTF_8);
+        } catch (JsonProcessingException e) {
+            throw new EncodingException("Failed to encode missing ids", e);
+        }
+    }
+}
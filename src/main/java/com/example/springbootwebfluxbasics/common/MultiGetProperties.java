@@ -0,0 +1,10 @@
+package com.example.springbootwebfluxbasics.common;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+// Multi-get (/products/_mget, /books/_mget): the most ids one call may ask for
+@ConfigurationProperties(prefix = "app.mget")
+public record MultiGetProperties(
+        @DefaultValue("1000") int maxIds) {
+}
@@ -0,0 +1,10 @@
+package com.example.springbootwebfluxbasics.common;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+// How many partitions the partitioned storage engines split their entities into; 0 means one per core
+@ConfigurationProperties(prefix = "app.partitions")
+public record PartitionProperties(
+        @DefaultValue("0") int count) {
+}
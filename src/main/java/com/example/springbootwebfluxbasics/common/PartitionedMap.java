@@ -0,0 +1,350 @@
+package com.example.springbootwebfluxbasics.common;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/*
+ * A map from id to entity split into partitions by id hash, each written by one caller at a time and read lock-free.
+ *
+ * A partition's entities and its secondary indexes live together in an immutable Snapshot (PersistentMaps), published
+ * through one volatile field. Readers take the current snapshot and never wait or retry; every snapshot is consistent
+ * on its own, so an index entry always agrees with its entity.
+ *
+ * Writes to a partition are serialized by a lock of its own rather than handed to a writer thread. Each caller runs
+ * its own remapping under it, on its own thread, and publishes the result before releasing it, so a remapping's side
+ * effects never run on behalf of another caller (the repositories' index, log and change-feed calls in particular) and
+ * an exception it throws is simply thrown. Writes to different partitions never touch the same memory, and a caller
+ * waits only for the writes to its partition ahead of it, parked rather than spinning. A remapping must not block or
+ * write to another partition.
+ *
+ * A snapshot of every partition takes no lock and never holds up a writer (see snapshot()).
+ *
+ * Indexed lookups scatter to every partition and gather what each snapshot holds under the key.
+ */
+public class PartitionedMap<V> extends AbstractMap<String, V> {
+
+    // One partition's state at a point in time; index i maps folded key -> id -> entity for the i-th indexed property
+    public record Snapshot<V>(PersistentMap<String, V> entities, List<PersistentMap<String, PersistentMap<String, V>>> indexes) {
+    }
+
+    // A partition publishing no write
+    private static final long IDLE = Long.MAX_VALUE;
+
+    private final PartitionedMap<V>.Partition[] partitions;
+    private final List<String> indexNames;
+    private final List<Function<V, String>> indexGetters;
+    // Advanced by each snapshot() to split the writes it holds from those it does not
+    private volatile long epoch;
+    // Copied on open and close, which are rare next to writes
+    private volatile Cut[] cuts = new Cut[0];
+
+    // Zero partitions means one per available core
+    public PartitionedMap(int partitions, Map<String, Function<V, String>> indexes) {
+        int count = partitions > 0 ? partitions : Runtime.getRuntime().availableProcessors();
+        this.indexNames = List.copyOf(indexes.keySet());
+        this.indexGetters = indexNames.stream().map(indexes::get).toList();
+        List<PersistentMap<String, PersistentMap<String, V>>> emptyIndexes = indexNames.stream()
+                .map(name -> PersistentMap.<String, PersistentMap<String, V>>empty())
+                .toList();
+        @SuppressWarnings("unchecked")
+        PartitionedMap<V>.Partition[] created = new PartitionedMap.Partition[count];
+        this.partitions = created;
+        for (int i = 0; i < count; i++) {
+            this.partitions[i] = new Partition(i, new Snapshot<>(PersistentMap.empty(), emptyIndexes));
+        }
+    }
+
+    public int partitions() {
+        return partitions.length;
+    }
+
+    @Override
+    public V get(Object id) {
+        return id instanceof String key ? partition(key).published.entities().get(key) : null;
+    }
+
+    @Override
+    public boolean containsKey(Object id) {
+        return get(id) != null;
+    }
+
+    // Atomic per id, as ConcurrentHashMap.compute: the function sees the current entity (or null) and returns the new
+    // one (or null to remove). An exception it throws reaches the caller and leaves the entity as it was.
+    @Override
+    public V compute(String id, BiFunction<? super String, ? super V, ? extends V> remapping) {
+        return partition(id).write(id, remapping);
+    }
+
+    @Override
+    public V computeIfPresent(String id, BiFunction<? super String, ? super V, ? extends V> remapping) {
+        return compute(id, (key, existing) -> existing == null ? null : remapping.apply(key, existing));
+    }
+
+    @Override
+    public V put(String id, V value) {
+        Object[] previous = new Object[1];
+        compute(id, (key, existing) -> {
+            previous[0] = existing;
+            return value;
+        });
+        return cast(previous[0]);
+    }
+
+    @Override
+    public V remove(Object id) {
+        if (!(id instanceof String key)) {
+            return null;
+        }
+        Object[] previous = new Object[1];
+        compute(key, (k, existing) -> {
+            previous[0] = existing;
+            return null;
+        });
+        return cast(previous[0]);
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (Partition partition : partitions) {
+            size += partition.published.entities().size();
+        }
+        return size;
+    }
+
+    // Entities whose indexed property folds to the same key as the value, gathered from every partition
+    public List<V> find(String index, String value) {
+        int i = indexNames.indexOf(index);
+        if (i < 0) {
+            throw new IllegalArgumentException("No index on " + index);
+        }
+        String key = HashIndex.fold(value);
+        List<V> found = new ArrayList<>();
+        if (key == null) {
+            return found;
+        }
+        for (Partition partition : partitions) {
+            PersistentMap<String, V> matches = partition.published.indexes().get(i).get(key);
+            if (matches != null) {
+                matches.values().forEach(found::add);
+            }
+        }
+        return found;
+    }
+
+    // Every entity as of one cut: each write that began publishing before the call, and none that began after it.
+    //
+    // The call advances the epoch and waits out the publishes already under way, which are a few field writes each and
+    // run no remapping, so it never waits on a lock or on a writer's own code and can be called from inside a
+    // remapping. Each partition's root as of the cut is then either the one the first later write to it replaced,
+    // which that write hands to the cut before publishing, or the one still published when the call reads it.
+    // Writers never wait; while no snapshot is being taken they do one extra volatile read per write. Iterating the
+    // result never sees a later write; versions it holds stay reachable as long as it does.
+    public Iterable<V> snapshot() {
+        Cut cut = open();
+        try {
+            for (int i = 0; i < partitions.length; i++) {
+                cut.roots.compareAndSet(i, null, partitions[i].published);
+            }
+        } finally {
+            close(cut);
+        }
+        List<PersistentMap<String, V>> roots = new ArrayList<>(partitions.length);
+        for (int i = 0; i < partitions.length; i++) {
+            roots.add(cast(cut.roots.get(i).entities()));
+        }
+        // A plain iterator rather than a flatMapped stream, whose iterator buffers a whole partition at a time
+        return () -> new Iterator<>() {
+            private int next;
+            private Iterator<V> current = Collections.emptyIterator();
+
+            @Override
+            public boolean hasNext() {
+                while (!current.hasNext() && next < roots.size()) {
+                    current = roots.get(next++).values().iterator();
+                }
+                return current.hasNext();
+            }
+
+            @Override
+            public V next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return current.next();
+            }
+        };
+    }
+
+    private synchronized Cut open() {
+        Cut cut = new Cut(epoch + 1, partitions.length);
+        Cut[] opened = Arrays.copyOf(cuts, cuts.length + 1);
+        opened[opened.length - 1] = cut;
+        cuts = opened;
+        // Published after the cut, so a writer that reads the new epoch also finds the cut
+        epoch = cut.epoch;
+        for (Partition partition : partitions) {
+            while (partition.publishing < cut.epoch) {
+                Thread.yield();
+            }
+        }
+        return cut;
+    }
+
+    private synchronized void close(Cut cut) {
+        cuts = Arrays.stream(cuts).filter(other -> other != cut).toArray(Cut[]::new);
+    }
+
+    // Weakly consistent, like ConcurrentHashMap's views: each partition is read from its snapshot when reached
+    @Override
+    public Set<Entry<String, V>> entrySet() {
+        return new AbstractSet<>() {
+            @Override
+            public Iterator<Entry<String, V>> iterator() {
+                return new Iterator<>() {
+                    private int next;
+                    private Iterator<Entry<String, V>> current = Collections.emptyIterator();
+
+                    @Override
+                    public boolean hasNext() {
+                        while (!current.hasNext() && next < partitions.length) {
+                            current = partitions[next++].published.entities().iterator();
+                        }
+                        return current.hasNext();
+                    }
+
+                    @Override
+                    public Entry<String, V> next() {
+                        if (!hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+                        return current.next();
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return PartitionedMap.this.size();
+            }
+        };
+    }
+
+    private Partition partition(String id) {
+        int h = id.hashCode();
+        return partitions[Math.floorMod(h ^ (h >>> 16), partitions.length)];
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <V> V cast(Object value) {
+        return (V) value;
+    }
+
+    // The partition roots of one snapshot() call, filled in as of its epoch
+    private static final class Cut {
+
+        final long epoch;
+        final AtomicReferenceArray<Snapshot<?>> roots;
+
+        Cut(long epoch, int partitions) {
+            this.epoch = epoch;
+            this.roots = new AtomicReferenceArray<>(partitions);
+        }
+    }
+
+    private final class Partition {
+
+        volatile Snapshot<V> published;
+        // The epoch the write now publishing read, or IDLE
+        volatile long publishing = IDLE;
+        // Held by the caller whose write is being applied; reentrant for a remapping writing to its own partition
+        final ReentrantLock writer = new ReentrantLock();
+        // Only touched under the lock: the snapshot being built, published when the outermost write returns
+        Snapshot<V> working;
+
+        final int index;
+
+        Partition(int index, Snapshot<V> initial) {
+            this.index = index;
+            this.published = initial;
+        }
+
+        V write(String id, BiFunction<? super String, ? super V, ? extends V> remapping) {
+            writer.lock();
+            boolean outermost = writer.getHoldCount() == 1;
+            try {
+                if (outermost) {
+                    working = published;
+                }
+                return apply(id, remapping);
+            } finally {
+                if (outermost) {
+                    // A failed remapping left working as it was, but writes it made to this partition stay
+                    publish();
+                    working = null;
+                }
+                writer.unlock();
+            }
+        }
+
+        private void publish() {
+            long at;
+            do {
+                at = epoch;
+                publishing = at;
+            } while (epoch != at);
+            try {
+                // Cuts opened since the write before this one, by a snapshot call it did not begin ahead of, hold the
+                // root this write replaces; the first such write to the partition hands it over
+                Cut[] open = cuts;
+                for (Cut cut : open) {
+                    if (cut.epoch <= at) {
+                        cut.roots.compareAndSet(index, null, published);
+                    }
+                }
+                published = working;
+            } finally {
+                publishing = IDLE;
+            }
+        }
+
+        private V apply(String id, BiFunction<? super String, ? super V, ? extends V> remapping) {
+            V existing = working.entities().get(id);
+            V updated = remapping.apply(id, existing);
+            if (updated == existing) {
+                return updated;
+            }
+            List<PersistentMap<String, PersistentMap<String, V>>> indexes = new ArrayList<>(working.indexes());
+            for (int i = 0; i < indexes.size(); i++) {
+                PersistentMap<String, PersistentMap<String, V>> index = indexes.get(i);
+                String oldKey = existing == null ? null : HashIndex.fold(indexGetters.get(i).apply(existing));
+                String newKey = updated == null ? null : HashIndex.fold(indexGetters.get(i).apply(updated));
+                if (oldKey != null && !oldKey.equals(newKey)) {
+                    index = index.put(oldKey, index.get(oldKey).remove(id));
+                    if (index.get(oldKey).isEmpty()) {
+                        index = index.remove(oldKey);
+                    }
+                }
+                if (newKey != null) {
+                    PersistentMap<String, V> ids = index.get(newKey);
+                    index = index.put(newKey, (ids == null ? PersistentMap.<String, V>empty() : ids).put(id, updated));
+                }
+                indexes.set(i, index);
+            }
+            working = new Snapshot<>(working.entities().put(id, updated), List.copyOf(indexes));
+            return updated;
+        }
+    }
+}
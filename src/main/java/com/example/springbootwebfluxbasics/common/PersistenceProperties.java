@@ -0,0 +1,15 @@
+package com.example.springbootwebfluxbasics.common;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.time.Duration;
+
+// Optional durability for the in-memory repositories: an append-only log per repository plus periodic snapshots
+@ConfigurationProperties(prefix = "app.persistence")
+public record PersistenceProperties(
+        @DefaultValue("false") boolean enabled,
+        @DefaultValue("data") String directory,
+        @DefaultValue("5m") Duration snapshotInterval,
+        @DefaultValue("4096") int maxBatch) {
+}
@@ -0,0 +1,353 @@
+package com.example.springbootwebfluxbasics.common;
+
+import java.util.AbstractMap;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/*
+ * An immutable hash map (a hash array mapped trie). put and remove return a new map that shares everything but the
+ * path to the changed entry with the old one, so a write costs a handful of small array copies and every map ever
+ * returned stays a valid, unchanging snapshot. Readers need no locks: whoever holds a map holds a point-in-time view.
+ *
+ * Each node covers 5 bits of the key's hash and keeps its entries and children in one array of pairs: (key, value)
+ * for an entry, (null, child) for a child node. Keys whose whole hash collides share a collision node.
+ */
+public final class PersistentMap<K, V> implements Iterable<Map.Entry<K, V>> {
+
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+    private static final PersistentMap<?, ?> EMPTY = new PersistentMap<>(BitmapNode.EMPTY, 0);
+
+    private final Node root;
+    private final int size;
+
+    private PersistentMap(Node root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <K, V> PersistentMap<K, V> empty() {
+        return (PersistentMap<K, V>) EMPTY;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(K key) {
+        return (V) root.find(key, hash(key), 0);
+    }
+
+    public boolean containsKey(K key) {
+        return get(key) != null;
+    }
+
+    // Null values are not stored; putting one is a remove
+    public PersistentMap<K, V> put(K key, V value) {
+        if (value == null) {
+            return remove(key);
+        }
+        boolean[] added = new boolean[1];
+        Node updated = root.put(key, hash(key), 0, value, added);
+        return updated == root ? this : new PersistentMap<>(updated, added[0] ? size + 1 : size);
+    }
+
+    public PersistentMap<K, V> remove(K key) {
+        Node updated = root.remove(key, hash(key), 0);
+        if (updated == root) {
+            return this;
+        }
+        return size == 1 ? empty() : new PersistentMap<>(updated == null ? BitmapNode.EMPTY : updated, size - 1);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public Iterator<Map.Entry<K, V>> iterator() {
+        return new EntryIterator<>(root);
+    }
+
+    public Iterable<V> values() {
+        return () -> {
+            Iterator<Map.Entry<K, V>> entries = iterator();
+            return new Iterator<>() {
+                @Override
+                public boolean hasNext() {
+                    return entries.hasNext();
+                }
+
+                @Override
+                public V next() {
+                    return entries.next().getValue();
+                }
+            };
+        };
+    }
+
+    public Iterable<K> keys() {
+        return () -> {
+            Iterator<Map.Entry<K, V>> entries = iterator();
+            return new Iterator<>() {
+                @Override
+                public boolean hasNext() {
+                    return entries.hasNext();
+                }
+
+                @Override
+                public K next() {
+                    return entries.next().getKey();
+                }
+            };
+        };
+    }
+
+    private static int hash(Object key) {
+        int h = key.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    private abstract static sealed class Node permits BitmapNode, CollisionNode {
+
+        // Pairs: (key, value) for an entry, (null, child) for a child node
+        final Object[] array;
+
+        Node(Object[] array) {
+            this.array = array;
+        }
+
+        abstract Object find(Object key, int hash, int shift);
+
+        abstract Node put(Object key, int hash, int shift, Object value, boolean[] added);
+
+        // Null when the node is left empty
+        abstract Node remove(Object key, int hash, int shift);
+    }
+
+    private static final class BitmapNode extends Node {
+
+        static final BitmapNode EMPTY = new BitmapNode(0, new Object[0]);
+
+        final int bitmap;
+
+        BitmapNode(int bitmap, Object[] array) {
+            super(array);
+            this.bitmap = bitmap;
+        }
+
+        @Override
+        Object find(Object key, int hash, int shift) {
+            int bit = bit(hash, shift);
+            if ((bitmap & bit) == 0) {
+                return null;
+            }
+            int i = 2 * index(bit);
+            Object k = array[i];
+            if (k == null) {
+                return ((Node) array[i + 1]).find(key, hash, shift + BITS);
+            }
+            return key.equals(k) ? array[i + 1] : null;
+        }
+
+        @Override
+        Node put(Object key, int hash, int shift, Object value, boolean[] added) {
+            int bit = bit(hash, shift);
+            int i = 2 * index(bit);
+            if ((bitmap & bit) == 0) {
+                added[0] = true;
+                Object[] inserted = new Object[array.length + 2];
+                System.arraycopy(array, 0, inserted, 0, i);
+                inserted[i] = key;
+                inserted[i + 1] = value;
+                System.arraycopy(array, i, inserted, i + 2, array.length - i);
+                return new BitmapNode(bitmap | bit, inserted);
+            }
+            Object k = array[i];
+            Object v = array[i + 1];
+            if (k == null) {
+                Node child = (Node) v;
+                Node updated = child.put(key, hash, shift + BITS, value, added);
+                return updated == child ? this : with(i + 1, null, updated);
+            }
+            if (key.equals(k)) {
+                return v == value ? this : with(i + 1, k, value);
+            }
+            // Two keys under one bit: both move down a level
+            added[0] = true;
+            return with(i + 1, null, pair(shift + BITS, k, hash(k), v, key, hash, value));
+        }
+
+        @Override
+        Node remove(Object key, int hash, int shift) {
+            int bit = bit(hash, shift);
+            if ((bitmap & bit) == 0) {
+                return this;
+            }
+            int i = 2 * index(bit);
+            Object k = array[i];
+            if (k == null) {
+                Node child = (Node) array[i + 1];
+                Node updated = child.remove(key, hash, shift + BITS);
+                if (updated == child) {
+                    return this;
+                }
+                return updated == null ? without(bit, i) : with(i + 1, null, updated);
+            }
+            return key.equals(k) ? without(bit, i) : this;
+        }
+
+        private Node with(int valueIndex, Object key, Object value) {
+            Object[] copy = array.clone();
+            copy[valueIndex - 1] = key;
+            copy[valueIndex] = value;
+            return new BitmapNode(bitmap, copy);
+        }
+
+        private Node without(int bit, int i) {
+            if (bitmap == bit) {
+                return null;
+            }
+            Object[] removed = new Object[array.length - 2];
+            System.arraycopy(array, 0, removed, 0, i);
+            System.arraycopy(array, i + 2, removed, i, array.length - i - 2);
+            return new BitmapNode(bitmap ^ bit, removed);
+        }
+
+        private int index(int bit) {
+            return Integer.bitCount(bitmap & (bit - 1));
+        }
+
+        private static int bit(int hash, int shift) {
+            return 1 << ((hash >>> shift) & MASK);
+        }
+
+        private static Node pair(int shift, Object k1, int h1, Object v1, Object k2, int h2, Object v2) {
+            if (h1 == h2) {
+                return new CollisionNode(h1, new Object[]{k1, v1, k2, v2});
+            }
+            boolean[] ignored = new boolean[1];
+            return EMPTY.put(k1, h1, shift, v1, ignored).put(k2, h2, shift, v2, ignored);
+        }
+    }
+
+    private static final class CollisionNode extends Node {
+
+        final int hash;
+
+        CollisionNode(int hash, Object[] array) {
+            super(array);
+            this.hash = hash;
+        }
+
+        @Override
+        Object find(Object key, int hash, int shift) {
+            int i = indexOf(key);
+            return i < 0 ? null : array[i + 1];
+        }
+
+        @Override
+        Node put(Object key, int hash, int shift, Object value, boolean[] added) {
+            if (hash != this.hash) {
+                // A different hash reached this node: put both under a bitmap node at this level
+                Node parent = new BitmapNode(BitmapNode.bit(this.hash, shift), new Object[]{null, this});
+                return parent.put(key, hash, shift, value, added);
+            }
+            int i = indexOf(key);
+            if (i >= 0) {
+                if (array[i + 1] == value) {
+                    return this;
+                }
+                Object[] copy = array.clone();
+                copy[i + 1] = value;
+                return new CollisionNode(hash, copy);
+            }
+            added[0] = true;
+            Object[] grown = Arrays.copyOf(array, array.length + 2);
+            grown[array.length] = key;
+            grown[array.length + 1] = value;
+            return new CollisionNode(hash, grown);
+        }
+
+        @Override
+        Node remove(Object key, int hash, int shift) {
+            int i = indexOf(key);
+            if (i < 0) {
+                return this;
+            }
+            if (array.length == 2) {
+                return null;
+            }
+            Object[] removed = new Object[array.length - 2];
+            System.arraycopy(array, 0, removed, 0, i);
+            System.arraycopy(array, i + 2, removed, i, array.length - i - 2);
+            return new CollisionNode(hash, removed);
+        }
+
+        private int indexOf(Object key) {
+            for (int i = 0; i < array.length; i += 2) {
+                if (key.equals(array[i])) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+
+    // Depth first over the pair arrays, one frame per node on the current path
+    private static final class EntryIterator<K, V> implements Iterator<Map.Entry<K, V>> {
+
+        private final Deque<Object[]> arrays = new ArrayDeque<>();
+        private final Deque<Integer> positions = new ArrayDeque<>();
+        private Map.Entry<K, V> next;
+
+        EntryIterator(Node root) {
+            arrays.push(root.array);
+            positions.push(0);
+            advance();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Map.Entry<K, V> next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            Map.Entry<K, V> current = next;
+            advance();
+            return current;
+        }
+
+        @SuppressWarnings("unchecked")
+        private void advance() {
+            next = null;
+            while (!arrays.isEmpty()) {
+                Object[] array = arrays.peek();
+                int position = positions.pop();
+                if (position >= array.length) {
+                    arrays.pop();
+                    continue;
+                }
+                positions.push(position + 2);
+                Object key = array[position];
+                if (key == null) {
+                    arrays.push(((Node) array[position + 1]).array);
+                    positions.push(0);
+                } else {
+                    next = new AbstractMap.SimpleImmutableEntry<>((K) key, (V) array[position + 1]);
+                    return;
+                }
+            }
+        }
+    }
+}
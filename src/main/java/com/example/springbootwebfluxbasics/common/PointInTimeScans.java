@@ -0,0 +1,136 @@
+package com.example.springbootwebfluxbasics.common;
+
+import reactor.core.publisher.Flux;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Function;
+
+/*
+ * Point-in-time scans over storage that can only be iterated weakly consistently (map and columnar), by keeping the
+ * versions writes replace for as long as a scan may still need them.
+ *
+ * While a scan is open, each write to an id the scan has not yet passed records the entity it replaces or removes (or
+ * that the id was absent) with it, once per id, from inside its compute and so before the new version is visible. The
+ * scan walks the repository's ordered ids and its recorded ids together in id order. For each id it reads storage
+ * first, then its record: a record holds what the id had when the scan opened, and without one nothing has changed it
+ * since. Each id is passed once, so it is yielded at most once however often it is written meanwhile.
+ *
+ * Writers never wait for a scan, and do one volatile read while none is open. Writes behind a scan's cursor record
+ * nothing with it, a record that lands just as the cursor moves past its id is taken back by its writer, and a scan
+ * drops each record as it passes its id and all of them once it completes or is cancelled. A scan therefore holds at
+ * most one old version per id still ahead of it, only until it moves past that id.
+ */
+public class PointInTimeScans<V> {
+
+    // Recorded for an id that had no entity when the scan opened
+    private static final Object ABSENT = new Object();
+
+    // Copied on open and close, which are rare next to writes
+    private volatile Scan[] open = new Scan[0];
+
+    // Called inside compute, before the new version is visible; existing is null when the write creates the id
+    public void replacing(String id, V existing) {
+        Scan[] scans = open;
+        for (Scan scan : scans) {
+            if (scan.behind(id)) {
+                continue;
+            }
+            scan.replaced.putIfAbsent(id, existing == null ? ABSENT : existing);
+            // The cursor moved past the id meanwhile, after reading it from storage before this write publishes
+            if (scan.behind(id)) {
+                scan.replaced.remove(id);
+            }
+        }
+    }
+
+    // Every entity as of subscription, in id order; current reads what storage holds under an id now
+    public Flux<V> scan(NavigableSet<String> ids, Function<String, V> current) {
+        return Flux.using(this::openScan, scan -> Flux.fromIterable(() -> iterator(scan, ids, current)), this::close);
+    }
+
+    private synchronized Scan openScan() {
+        Scan scan = new Scan();
+        Scan[] scans = Arrays.copyOf(open, open.length + 1);
+        scans[scans.length - 1] = scan;
+        open = scans;
+        return scan;
+    }
+
+    private synchronized void close(Scan scan) {
+        open = Arrays.stream(open).filter(other -> other != scan).toArray(Scan[]::new);
+    }
+
+    // Records held by the scans open now
+    int recorded() {
+        return Arrays.stream(open).mapToInt(scan -> scan.replaced.size()).sum();
+    }
+
+    private static final class Scan {
+
+        // id -> what it held when the scan opened, for the ids ahead of the cursor written since
+        final ConcurrentSkipListMap<String, Object> replaced = new ConcurrentSkipListMap<>();
+
+        // The id the scan is reading, or null before the first; it has finished with every id before it
+        volatile String cursor;
+
+        boolean behind(String id) {
+            String at = cursor;
+            return at != null && at.compareTo(id) > 0;
+        }
+    }
+
+    private static <V> Iterator<V> iterator(Scan scan, NavigableSet<String> ids, Function<String, V> current) {
+        ConcurrentSkipListMap<String, Object> replaced = scan.replaced;
+        return new Iterator<>() {
+            private String passed;
+            private V next;
+
+            @Override
+            public boolean hasNext() {
+                while (next == null) {
+                    String live = passed == null ? ids.ceiling("") : ids.higher(passed);
+                    String changed = passed == null ? replaced.ceilingKey("") : replaced.higherKey(passed);
+                    if (live == null && changed == null) {
+                        return false;
+                    }
+                    passed = live == null || changed != null && changed.compareTo(live) < 0 ? changed : live;
+                    // Published before the id is read, so a write that finds its id behind the cursor knows the scan
+                    // is done with it
+                    scan.cursor = passed;
+                    next = at(passed);
+                }
+                return true;
+            }
+
+            @Override
+            public V next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                V result = next;
+                next = null;
+                return result;
+            }
+
+            // Storage before the record: a write records before it publishes, so a version read with no record
+            // behind it was written before the scan opened, or by a write already under way then
+            private V at(String id) {
+                V value = current.apply(id);
+                Object recorded = replaced.remove(id);
+                if (recorded == null) {
+                    return value;
+                }
+                return recorded == ABSENT ? null : cast(recorded);
+            }
+        };
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <V> V cast(Object value) {
+        return (V) value;
+    }
+}
@@ -0,0 +1,125 @@
+package com.example.springbootwebfluxbasics.common;
+
+import org.reactivestreams.Publisher;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.codec.DecodingException;
+import org.springframework.core.codec.Decoder;
+import org.springframework.core.codec.Encoder;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.util.MimeType;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+// application/x-protobuf for the entity types that have a ProtobufSchema, registered as both encoder and decoder.
+// A Mono is one bare message, a Flux a stream of length-delimited ones, as Spring's own Protobuf codecs do it.
+public class ProtobufEntityCodec implements Encoder<Object>, Decoder<Object> {
+
+    private static final List<MimeType> MIME_TYPES = List.of(EntityCodecs.PROTOBUF);
+    // Bodies are decoded whole, so they are capped like any other aggregated body
+    private static final int MAX_IN_MEMORY_SIZE = 256 * 1024;
+
+    private final Map<Class<?>, ProtobufSchema<?>> schemas;
+
+    public ProtobufEntityCodec(List<ProtobufSchema<?>> schemas) {
+        this.schemas = schemas.stream().collect(Collectors.toUnmodifiableMap(ProtobufSchema::type, Function.identity()));
+    }
+
+    public byte[] encode(Object entity) {
+        return schema(entity.getClass()).encode(entity);
+    }
+
+    public byte[] encodeDelimited(Object entity) {
+        return schema(entity.getClass()).encodeDelimited(entity);
+    }
+
+    @Override
+    public boolean canEncode(ResolvableType elementType, MimeType mimeType) {
+        return schemas.containsKey(elementType.toClass()) && supports(mimeType);
+    }
+
+    @Override
+    public Flux<DataBuffer> encode(Publisher<?> inputStream, DataBufferFactory bufferFactory, ResolvableType elementType,
+                                   MimeType mimeType, Map<String, Object> hints) {
+        if (inputStream instanceof Mono<?> mono) {
+            return Flux.from(mono.map(entity -> bufferFactory.wrap(encode(entity))));
+        }
+        return Flux.from(inputStream).map(entity -> bufferFactory.wrap(encodeDelimited(entity)));
+    }
+
+    @Override
+    public DataBuffer encodeValue(Object value, DataBufferFactory bufferFactory, ResolvableType valueType,
+                                  MimeType mimeType, Map<String, Object> hints) {
+        return bufferFactory.wrap(encode(value));
+    }
+
+    @Override
+    public List<MimeType> getEncodableMimeTypes() {
+        return MIME_TYPES;
+    }
+
+    @Override
+    public boolean canDecode(ResolvableType elementType, MimeType mimeType) {
+        return schemas.containsKey(elementType.toClass()) && supports(mimeType);
+    }
+
+    @Override
+    public Flux<Object> decode(Publisher<DataBuffer> inputStream, ResolvableType elementType, MimeType mimeType,
+                               Map<String, Object> hints) {
+        ProtobufSchema<?> schema = schema(elementType.toClass());
+        return DataBufferUtils.join(inputStream, MAX_IN_MEMORY_SIZE)
+                .flatMapIterable(buffer -> read(buffer, schema::decodeDelimited));
+    }
+
+    @Override
+    public Mono<Object> decodeToMono(Publisher<DataBuffer> inputStream, ResolvableType elementType, MimeType mimeType,
+                                     Map<String, Object> hints) {
+        ProtobufSchema<?> schema = schema(elementType.toClass());
+        return DataBufferUtils.join(inputStream, MAX_IN_MEMORY_SIZE)
+                .map(buffer -> read(buffer, schema::decode));
+    }
+
+    @Override
+    public Object decode(DataBuffer buffer, ResolvableType targetType, MimeType mimeType, Map<String, Object> hints) {
+        return read(buffer, schema(targetType.toClass())::decode);
+    }
+
+    @Override
+    public List<MimeType> getDecodableMimeTypes() {
+        return MIME_TYPES;
+    }
+
+    private interface Reader<R> {
+        R read(ByteBuffer buffer) throws IOException;
+    }
+
+    private static <R> R read(DataBuffer buffer, Reader<R> reader) {
+        try {
+            // Copied out, since a joined body can still be several buffers underneath (a Netty composite)
+            byte[] bytes = new byte[buffer.readableByteCount()];
+            buffer.read(bytes);
+            return reader.read(ByteBuffer.wrap(bytes));
+        } catch (IOException e) {
+            throw new DecodingException("Invalid Protobuf body: " + e.getMessage(), e);
+        } finally {
+            DataBufferUtils.release(buffer);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private ProtobufSchema<Object> schema(Class<?> type) {
+        return (ProtobufSchema<Object>) schemas.get(type);
+    }
+
+    private static boolean supports(MimeType mimeType) {
+        return mimeType == null || EntityCodecs.PROTOBUF.isCompatibleWith(mimeType);
+    }
+}
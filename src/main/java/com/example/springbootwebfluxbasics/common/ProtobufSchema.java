@@ -0,0 +1,146 @@
+package com.example.springbootwebfluxbasics.common;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.WireFormat;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * One entity type as a Protobuf message (src/main/proto/catalog.proto), written against protobuf-java's coded streams
+ * rather than generated classes, so the entity itself is what gets encoded, with no message object in between. The
+ * size is computed first and every message is written into an exactly sized array.
+ *
+ * Null properties are absent fields. Readers skip fields they don't know, or that come with an unexpected wire type,
+ * so a newer writer's messages still decode.
+ */
+public abstract class ProtobufSchema<T> {
+
+    private final Class<T> type;
+
+    protected ProtobufSchema(Class<T> type) {
+        this.type = type;
+    }
+
+    public Class<T> type() {
+        return type;
+    }
+
+    protected abstract int size(T entity);
+
+    protected abstract void write(T entity, CodedOutputStream out) throws IOException;
+
+    // Reads fields up to the end of the input or of the current limit
+    protected abstract T read(CodedInputStream in) throws IOException;
+
+    public byte[] encode(T entity) {
+        return encode(entity, false);
+    }
+
+    // Preceded by the message size, as one element of a list
+    public byte[] encodeDelimited(T entity) {
+        return encode(entity, true);
+    }
+
+    public T decode(ByteBuffer buffer) throws IOException {
+        return read(CodedInputStream.newInstance(buffer));
+    }
+
+    public List<T> decodeDelimited(ByteBuffer buffer) throws IOException {
+        CodedInputStream in = CodedInputStream.newInstance(buffer);
+        List<T> entities = new ArrayList<>();
+        while (!in.isAtEnd()) {
+            int limit = in.pushLimit(in.readRawVarint32());
+            entities.add(read(in));
+            in.popLimit(limit);
+        }
+        return entities;
+    }
+
+    private byte[] encode(T entity, boolean delimited) {
+        int size = size(entity);
+        byte[] bytes = new byte[(delimited ? CodedOutputStream.computeUInt32SizeNoTag(size) : 0) + size];
+        CodedOutputStream out = CodedOutputStream.newInstance(bytes);
+        try {
+            if (delimited) {
+                out.writeUInt32NoTag(size);
+            }
+            write(entity, out);
+            out.checkNoSpaceLeft();
+        } catch (IOException e) {
+            // Only thrown when size and write disagree
+            throw new UncheckedIOException(e);
+        }
+        return bytes;
+    }
+
+    protected static int tag(int field, int wireType) {
+        return field << 3 | wireType;
+    }
+
+    protected static int stringTag(int field) {
+        return tag(field, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+    }
+
+    protected static int varintTag(int field) {
+        return tag(field, WireFormat.WIRETYPE_VARINT);
+    }
+
+    protected static int doubleTag(int field) {
+        return tag(field, WireFormat.WIRETYPE_FIXED64);
+    }
+
+    protected static int size(int field, String value) {
+        return value == null ? 0 : CodedOutputStream.computeStringSize(field, value);
+    }
+
+    protected static int size(int field, Double value) {
+        return value == null ? 0 : CodedOutputStream.computeDoubleSize(field, value);
+    }
+
+    protected static int size(int field, Boolean value) {
+        return value == null ? 0 : CodedOutputStream.computeBoolSize(field, value);
+    }
+
+    protected static int size(int field, Integer value) {
+        return value == null ? 0 : CodedOutputStream.computeInt32Size(field, value);
+    }
+
+    protected static int size(int field, Long value) {
+        return value == null ? 0 : CodedOutputStream.computeInt64Size(field, value);
+    }
+
+    protected static void write(CodedOutputStream out, int field, String value) throws IOException {
+        if (value != null) {
+            out.writeString(field, value);
+        }
+    }
+
+    protected static void write(CodedOutputStream out, int field, Double value) throws IOException {
+        if (value != null) {
+            out.writeDouble(field, value);
+        }
+    }
+
+    protected static void write(CodedOutputStream out, int field, Boolean value) throws IOException {
+        if (value != null) {
+            out.writeBool(field, value);
+        }
+    }
+
+    protected static void write(CodedOutputStream out, int field, Integer value) throws IOException {
+        if (value != null) {
+            out.writeInt32(field, value);
+        }
+    }
+
+    protected static void write(CodedOutputStream out, int field, Long value) throws IOException {
+        if (value != null) {
+            out.writeInt64(field, value);
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package com.example.springbootwebfluxbasics.common;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.r2dbc.spi.Readable;
+import org.springframework.r2dbc.core.DatabaseClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntFunction;
+
+/*
+ * An EntityStore in a relational database, reached through R2DBC and a pooled connection factory.
+ *
+ * Each entity is a row of its table's columns plus a folded "<field>_key" column per indexed property, so findBy is an
+ * index lookup. Writes are MERGE statements that only replace a row with a newer version, and a delete leaves a
+ * tombstone row at its version, keeping the store's newest-version-wins contract however writes and deletes to one id
+ * interleave; putAll sends up to MAX_ROWS entities per statement as one multi-row VALUES list. Reads stream rows as
+ * the driver decodes them.
+ *
+ * The schema is created when the store is opened, if it is not there yet.
+ */
+public class R2dbcEntityStore<T extends Versioned> implements EntityStore<T> {
+
+    // Rows per MERGE; keeps statements (and their bind counts) bounded for large batches
+    static final int MAX_ROWS = 256;
+
+    private static final IntFunction<String> MARKER = n -> "$" + n;
+
+    private final DatabaseClient client;
+    private final EntityTable<T, ?> table;
+    private final List<Class<?>> valueTypes;
+    private final String selectAll;
+    private final String delete;
+    // MERGE text by row count, at most MAX_ROWS of them
+    private final Map<Integer, String> mergeStatements = new ConcurrentHashMap<>();
+    private final LongAdder roundTrips = new LongAdder();
+
+    public R2dbcEntityStore(DatabaseClient client, EntityTable<T, ?> table, MeterRegistry registry) {
+        this.client = client;
+        this.table = table;
+        this.valueTypes = table.valueTypes();
+        this.selectAll = table.select(null);
+        this.delete = table.tombstone(MARKER);
+        FunctionCounter.builder("store.round.trips", roundTrips, LongAdder::sum)
+                .description("Calls made to the backing store")
+                .tag("store", table.name())
+                .register(registry);
+    }
+
+    public Mono<Void> createSchema() {
+        return Flux.fromIterable(table.schema()).concatMap(sql -> client.sql(sql).then()).then();
+    }
+
+    @Override
+    public Flux<T> getAll(Collection<String> ids) {
+        if (ids.isEmpty()) {
+            return Flux.empty();
+        }
+        List<String> distinct = ids.stream().distinct().toList();
+        return Flux.defer(() -> {
+            roundTrips.increment();
+            DatabaseClient.GenericExecuteSpec spec = client.sql(table.selectByIds(distinct.size(), MARKER));
+            for (int i = 0; i < distinct.size(); i++) {
+                spec = spec.bind(i, distinct.get(i));
+            }
+            return spec.map(this::decode).all();
+        });
+    }
+
+    @Override
+    public Mono<Void> put(T entity) {
+        return putAll(List.of(entity));
+    }
+
+    @Override
+    public Mono<Void> putAll(List<T> entities) {
+        if (entities.isEmpty()) {
+            return Mono.empty();
+        }
+        List<T> rows = EntityTable.newestPerId(entities);
+        List<List<T>> chunks = new ArrayList<>();
+        for (int from = 0; from < rows.size(); from += MAX_ROWS) {
+            chunks.add(rows.subList(from, Math.min(rows.size(), from + MAX_ROWS)));
+        }
+        return Flux.fromIterable(chunks).concatMap(this::merge).then();
+    }
+
+    @Override
+    public Mono<Void> delete(String id, long version) {
+        return Mono.defer(() -> {
+            roundTrips.increment();
+            return client.sql(delete)
+                    .bind(0, id)
+                    .bind(1, version)
+                    .then();
+        });
+    }
+
+    @Override
+    public Flux<T> scan() {
+        return Flux.defer(() -> {
+            roundTrips.increment();
+            return client.sql(selectAll).map(this::decode).all();
+        });
+    }
+
+    @Override
+    public Flux<T> findBy(String field, String value) {
+        String sql;
+        try {
+            sql = table.selectByKey(field, MARKER);
+        } catch (IllegalArgumentException e) {
+            return Flux.error(e);
+        }
+        if (value == null) {
+            return Flux.empty();
+        }
+        return Flux.defer(() -> {
+            roundTrips.increment();
+            return client.sql(sql)
+                    .bind(0, HashIndex.fold(value))
+                    .map(this::decode)
+                    .all();
+        });
+    }
+
+    public long roundTrips() {
+        return roundTrips.sum();
+    }
+
+    private Mono<Void> merge(List<T> chunk) {
+        return Mono.defer(() -> {
+            roundTrips.increment();
+            DatabaseClient.GenericExecuteSpec spec = client.sql(
+                    mergeStatements.computeIfAbsent(chunk.size(), rows -> table.merge(rows, MARKER)));
+            int index = 0;
+            for (T entity : chunk) {
+                List<Object> values = table.values(entity);
+                for (int i = 0; i < values.size(); i++, index++) {
+                    Object value = values.get(i);
+                    spec = value == null ? spec.bindNull(index, valueTypes.get(i)) : spec.bind(index, value);
+                }
+            }
+            return spec.then();
+        });
+    }
+
+    private T decode(Readable row) {
+        return table.read(row::get);
+    }
+}
@@ -0,0 +1,19 @@
+package com.example.springbootwebfluxbasics.common;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.r2dbc.R2dbcAutoConfiguration;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+
+/*
+ * The R2DBC connection factory and DatabaseClient behind app.store.type=r2dbc, and only that store type.
+ *
+ * The application excludes R2DBC's auto-configuration so that the other store types open no pool at startup; this
+ * imports it back, configured by the spring.r2dbc properties, when the r2dbc store is selected. It is imported as a
+ * plain configuration because an exclusion also removes it from @ImportAutoConfiguration.
+ */
+@Configuration(proxyBeanMethods = false)
+@ConditionalOnProperty(prefix = "app.store", name = "type", havingValue = "r2dbc")
+@Import(R2dbcAutoConfiguration.class)
+public class R2dbcStoreConfiguration {
+}
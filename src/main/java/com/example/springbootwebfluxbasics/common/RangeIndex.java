@@ -0,0 +1,116 @@
+package com.example.springbootwebfluxbasics.common;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+// Concurrent sorted index of (value, id) pairs, kept both globally and per partition (e.g. category)
+public class RangeIndex {
+
+    private static final NavigableSet<Entry> EMPTY = Collections.emptyNavigableSet();
+    // Bound every entry: NaN sorts above positive infinity
+    private static final Entry LOWEST = new Entry(Double.NEGATIVE_INFINITY, null);
+    private static final Entry HIGHEST = new Entry(Double.NaN, "\uffff");
+
+    private final NavigableSet<Entry> all = new ConcurrentSkipListSet<>();
+    private final Map<String, NavigableSet<Entry>> partitions = new ConcurrentHashMap<>();
+    // Kept alongside the skip list, whose size() is a full traversal
+    private final AtomicInteger size = new AtomicInteger();
+
+    public void add(String partition, Double value, String id) {
+        if (value == null) {
+            return;
+        }
+        Entry entry = new Entry(value, id);
+        if (all.add(entry)) {
+            size.incrementAndGet();
+        }
+        String key = HashIndex.fold(partition);
+        if (key != null) {
+            partitions.compute(key, (k, entries) -> {
+                if (entries == null) {
+                    entries = new ConcurrentSkipListSet<>();
+                }
+                entries.add(entry);
+                return entries;
+            });
+        }
+    }
+
+    public void remove(String partition, Double value, String id) {
+        if (value == null) {
+            return;
+        }
+        Entry entry = new Entry(value, id);
+        if (all.remove(entry)) {
+            size.decrementAndGet();
+        }
+        String key = HashIndex.fold(partition);
+        if (key != null) {
+            partitions.computeIfPresent(key, (k, entries) -> {
+                entries.remove(entry);
+                return entries.isEmpty() ? null : entries;
+            });
+        }
+    }
+
+    // Ids whose value lies in [min, max], ascending; a null partition means the whole index
+    public Stream<String> range(String partition, double min, double max) {
+        NavigableSet<Entry> entries = entries(partition);
+        if (min > max) {
+            return Stream.empty();
+        }
+        // Null-id sentinels bracket every entry in [min, max]
+        return entries.subSet(new Entry(min, null), true, new Entry(Math.nextUp(max), null), false)
+                .stream()
+                .map(Entry::id);
+    }
+
+    // Smallest and largest values in a partition (null for the whole index), or null when it is empty
+    public Double min(String partition) {
+        Entry first = entries(partition).ceiling(LOWEST);
+        return first == null ? null : first.value();
+    }
+
+    public Double max(String partition) {
+        Entry last = entries(partition).floor(HIGHEST);
+        return last == null ? null : last.value();
+    }
+
+    public int size() {
+        return size.get();
+    }
+
+    public void clear() {
+        all.clear();
+        partitions.clear();
+        size.set(0);
+    }
+
+    private NavigableSet<Entry> entries(String partition) {
+        if (partition == null) {
+            return all;
+        }
+        return partitions.getOrDefault(HashIndex.fold(partition), EMPTY);
+    }
+
+    // Ordered by value, then id; a null id sorts before every real id
+    private record Entry(double value, String id) implements Comparable<Entry> {
+
+        @Override
+        public int compareTo(Entry other) {
+            int byValue = Double.compare(value, other.value);
+            if (byValue != 0) {
+                return byValue;
+            }
+            if (id == null || other.id == null) {
+                return id == null ? (other.id == null ? 0 : -1) : 1;
+            }
+            return id.compareTo(other.id);
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.example.springbootwebfluxbasics.common;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+// Meters for one repository: per-operation call counts and latency, plus size gauges, all registered up front
+public class RepositoryMetrics {
+
+    // One call in 64 is timed. A lookup takes tens of nanoseconds, so timing every call would cost several times the lookup
+    private static final int SAMPLE_MASK = 63;
+
+    private final MeterRegistry registry;
+    private final String repository;
+
+    public RepositoryMetrics(MeterRegistry registry, String repository) {
+        this.registry = registry;
+        this.repository = repository;
+    }
+
+    public Operation operation(String name) {
+        return new Operation(name);
+    }
+
+    // Entries in an index (or the entity count, for index "primary"), sampled when scraped
+    public void size(String index, Supplier<Number> size) {
+        Gauge.builder("repository.size", size)
+                .description("Entries held by a repository index")
+                .tag("repository", repository)
+                .tag("index", index)
+                .register(registry);
+    }
+
+    // Approximate heap held by an index, sampled when scraped
+    public void memory(String index, Supplier<Number> bytes) {
+        Gauge.builder("repository.index.memory", bytes)
+                .description("Approximate heap held by a repository index")
+                .baseUnit("bytes")
+                .tag("repository", repository)
+                .tag("index", index)
+                .register(registry);
+    }
+
+    public final class Operation {
+
+        private final LongAdder calls = new LongAdder();
+        private final Timer timer;
+
+        private Operation(String name) {
+            FunctionCounter.builder("repository.calls", calls, LongAdder::sum)
+                    .description("Repository operations invoked")
+                    .tag("repository", repository)
+                    .tag("operation", name)
+                    .register(registry);
+            timer = Timer.builder("repository.operations")
+                    .description("Latency of a sample of repository operations")
+                    .tag("repository", repository)
+                    .tag("operation", name)
+                    .register(registry);
+        }
+
+        // Counts the call; returns its start time when it is sampled for timing, 0 otherwise
+        public long start() {
+            calls.increment();
+            return (ThreadLocalRandom.current().nextInt() & SAMPLE_MASK) == 0 ? System.nanoTime() : 0;
+        }
+
+        public void stop(long started) {
+            if (started != 0) {
+                timer.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+            }
+        }
+
+        // Sampled calls are timed from subscription to termination, so lazy results include the subscriber's time per item
+        public <T> Flux<T> timed(Flux<T> flux) {
+            if (start() == 0) {
+                return flux;
+            }
+            return Flux.defer(() -> {
+                long started = System.nanoTime();
+                return flux.doFinally(signal -> stop(started));
+            });
+        }
+
+        public <T> Mono<T> timed(Mono<T> mono) {
+            if (start() == 0) {
+                return mono;
+            }
+            return Mono.defer(() -> {
+                long started = System.nanoTime();
+                return mono.doFinally(signal -> stop(started));
+            });
+        }
+    }
+}
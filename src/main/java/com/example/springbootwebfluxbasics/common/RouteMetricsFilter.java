@@ -0,0 +1,271 @@
+package com.example.springbootwebfluxbasics.common;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.http.Outcome;
+import org.reactivestreams.Publisher;
+import org.springframework.core.Ordered;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.server.reactive.ServerHttpResponseDecorator;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.HandlerMapping;
+import org.springframework.web.reactive.function.server.RouterFunctions;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.ServerWebExchangeDecorator;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import org.springframework.web.util.pattern.PathPattern;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+
+import java.time.Duration;
+import java.util.AbstractMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/*
+ * Latency, outcome and response size per route, for functional routes and annotated mappings alike.
+ * The route is the matched path pattern, so meters are bounded by the number of routes. Meters are registered
+ * the first time a route/method/outcome is seen and cached, so a request only does map lookups, never tag building.
+ *
+ * Requests in flight are counted per route too. The route is only known once routing has stored the matched pattern
+ * in the exchange's attributes, so the filter watches for that and counts the request from then on, moving it along
+ * as nested routers refine the pattern; a request still being routed, or matching nothing, is not counted.
+ */
+@Component
+public class RouteMetricsFilter implements WebFilter, Ordered {
+
+    private static final String UNKNOWN_ROUTE = "UNKNOWN";
+
+    private final MeterRegistry registry;
+    private final Map<String, Map<HttpMethod, RouteMeters>> routes = new ConcurrentHashMap<>();
+
+    public RouteMetricsFilter(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    @Override
+    public int getOrder() {
+        // Outermost, so time spent in every other filter is included
+        return Ordered.HIGHEST_PRECEDENCE;
+    }
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+        RecordingResponse response = new RecordingResponse(exchange);
+        Map<String, Object> attributes = new RoutingAttributes(exchange.getAttributes(), response);
+        ServerWebExchange recorded = new ServerWebExchangeDecorator(exchange.mutate().response(response).build()) {
+            @Override
+            public Map<String, Object> getAttributes() {
+                return attributes;
+            }
+        };
+        return chain.filter(recorded)
+                .doOnError(response::failed)
+                .doFinally(response);
+    }
+
+    // The matched pattern, or null before routing has found one
+    private static String route(Map<String, Object> attributes) {
+        Object pattern = attributes.get(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+        if (pattern == null) {
+            // Router functions served without a handler mapping only set their own attribute
+            pattern = attributes.get(RouterFunctions.MATCHING_PATTERN_ATTRIBUTE);
+        }
+        return pattern instanceof PathPattern matched ? matched.getPatternString() : null;
+    }
+
+    private RouteMeters meters(ServerWebExchange exchange) {
+        String route = route(exchange.getAttributes());
+        return meters(route == null ? UNKNOWN_ROUTE : route, exchange.getRequest().getMethod());
+    }
+
+    private RouteMeters meters(String route, HttpMethod method) {
+        Map<HttpMethod, RouteMeters> byMethod = routes.get(route);
+        if (byMethod == null) {
+            byMethod = routes.computeIfAbsent(route, key -> new ConcurrentHashMap<>());
+        }
+        RouteMeters meters = byMethod.get(method);
+        if (meters == null) {
+            meters = byMethod.computeIfAbsent(method, key -> new RouteMeters(route, key));
+        }
+        return meters;
+    }
+
+    private final class RouteMeters {
+
+        private final String route;
+        private final String method;
+        private final AtomicReferenceArray<Timer> timers = new AtomicReferenceArray<>(Outcome.values().length);
+        private final DistributionSummary responseSize;
+        private final AtomicInteger active = new AtomicInteger();
+
+        RouteMeters(String route, HttpMethod method) {
+            this.route = route;
+            this.method = method.name();
+            Gauge.builder("http.route.active", active, AtomicInteger::get)
+                    .description("Requests currently being handled per route")
+                    .tag("route", route)
+                    .tag("method", this.method)
+                    .register(registry);
+            this.responseSize = DistributionSummary.builder("http.route.response.size")
+                    .description("Response body size per route")
+                    .baseUnit("bytes")
+                    .tag("route", route)
+                    .tag("method", this.method)
+                    .publishPercentileHistogram()
+                    .minimumExpectedValue(64.0)
+                    .maximumExpectedValue(64.0 * 1024 * 1024)
+                    .register(registry);
+        }
+
+        Timer timer(Outcome outcome) {
+            Timer timer = timers.get(outcome.ordinal());
+            if (timer == null) {
+                // Registering twice is harmless, the registry hands back the existing meter
+                timer = Timer.builder("http.route.requests")
+                        .description("Request latency per route and outcome")
+                        .tag("route", route)
+                        .tag("method", method)
+                        .tag("outcome", outcome.name())
+                        .publishPercentileHistogram()
+                        .minimumExpectedValue(Duration.ofNanos(50_000))
+                        .maximumExpectedValue(Duration.ofSeconds(30))
+                        .register(registry);
+                timers.set(outcome.ordinal(), timer);
+            }
+            return timer;
+        }
+    }
+
+    // The exchange's own attributes, telling the response each time routing stores a matched pattern
+    private static final class RoutingAttributes extends AbstractMap<String, Object> {
+
+        private final Map<String, Object> attributes;
+        private final RecordingResponse response;
+
+        RoutingAttributes(Map<String, Object> attributes, RecordingResponse response) {
+            this.attributes = attributes;
+            this.response = response;
+        }
+
+        @Override
+        public Object put(String key, Object value) {
+            Object previous = attributes.put(key, value);
+            if (HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE.equals(key)
+                    || RouterFunctions.MATCHING_PATTERN_ATTRIBUTE.equals(key)) {
+                String route = route(attributes);
+                if (route != null) {
+                    response.routed(route);
+                }
+            }
+            return previous;
+        }
+
+        @Override
+        public Object get(Object key) {
+            return attributes.get(key);
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return attributes.containsKey(key);
+        }
+
+        @Override
+        public Object remove(Object key) {
+            return attributes.remove(key);
+        }
+
+        @Override
+        public Set<Entry<String, Object>> entrySet() {
+            return attributes.entrySet();
+        }
+    }
+
+    // Counts body bytes as they are written and records everything once the exchange terminates
+    private final class RecordingResponse extends ServerHttpResponseDecorator implements Consumer<SignalType> {
+
+        private final ServerWebExchange exchange;
+        private final long started = System.nanoTime();
+        private long bytes;
+        private Throwable error;
+        // Where the request is counted as in flight; null until routing has matched it
+        private RouteMeters routed;
+        private boolean finished;
+
+        RecordingResponse(ServerWebExchange exchange) {
+            super(exchange.getResponse());
+            this.exchange = exchange;
+        }
+
+        @Override
+        public Mono<Void> writeWith(Publisher<? extends DataBuffer> body) {
+            if (body instanceof Mono<? extends DataBuffer> mono) {
+                return super.writeWith(mono.doOnNext(this::count));
+            }
+            return super.writeWith(Flux.from(body).doOnNext(this::count));
+        }
+
+        @Override
+        public Mono<Void> writeAndFlushWith(Publisher<? extends Publisher<? extends DataBuffer>> body) {
+            return super.writeAndFlushWith(Flux.from(body).map(chunk -> Flux.from(chunk).doOnNext(this::count)));
+        }
+
+        private void count(DataBuffer buffer) {
+            bytes += buffer.readableByteCount();
+        }
+
+        void failed(Throwable error) {
+            this.error = error;
+        }
+
+        // Routing stored a pattern; synchronized with accept, so a request is never left counted under a route
+        synchronized void routed(String route) {
+            RouteMeters meters = meters(route, exchange.getRequest().getMethod());
+            if (finished || meters == routed) {
+                return;
+            }
+            if (routed != null) {
+                routed.active.decrementAndGet();
+            }
+            meters.active.incrementAndGet();
+            routed = meters;
+        }
+
+        @Override
+        public synchronized void accept(SignalType signal) {
+            finished = true;
+            if (routed != null) {
+                routed.active.decrementAndGet();
+            }
+            RouteMeters meters = meters(exchange);
+            meters.timer(outcome(signal)).record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+            meters.responseSize.record(bytes);
+        }
+
+        private Outcome outcome(SignalType signal) {
+            if (signal == SignalType.CANCEL) {
+                return Outcome.UNKNOWN;
+            }
+            // Errors are turned into responses after the filter chain, so derive the status they will get
+            HttpStatusCode status = getDelegate().getStatusCode();
+            if (error != null && !isCommitted()) {
+                status = error instanceof ResponseStatusException statusError
+                        ? statusError.getStatusCode() : HttpStatusCode.valueOf(500);
+            }
+            return status == null ? Outcome.SUCCESS : Outcome.forStatus(status.value());
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.example.springbootwebfluxbasics.common;
+
+import reactor.core.publisher.Sinks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * Feeds a multicast sink from many writers without ever spinning on it.
+ *
+ * Writers offer from inside their per-id compute, which only appends to a lock-free queue, so values enter the queue
+ * in the order the writes were applied. Emitting happens in drain, called by the same thread once the compute has
+ * returned, which marks what that thread offered as ready. Whichever thread gets there first emits the queue up to the
+ * first value whose writer has not drained yet, so no value goes out before its write is visible, and the others
+ * return at once; the writer holding that value back emits the rest when it drains. Only one thread emits at a time,
+ * so the sink never sees concurrent calls and needs no retry loop.
+ */
+public class SerializedEmitter<T> {
+
+    private final Sinks.Many<T> sink;
+    private final Queue<Pending<T>> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger draining = new AtomicInteger();
+    // What this thread offered since it last drained
+    private final ThreadLocal<List<Pending<T>>> offered = ThreadLocal.withInitial(ArrayList::new);
+
+    public SerializedEmitter(Sinks.Many<T> sink) {
+        this.sink = sink;
+    }
+
+    // Nothing is queued while nobody listens
+    public void offer(T value) {
+        if (sink.currentSubscriberCount() > 0) {
+            Pending<T> entry = new Pending<>(value);
+            offered.get().add(entry);
+            pending.offer(entry);
+        }
+    }
+
+    public void drain() {
+        List<Pending<T>> mine = offered.get();
+        for (Pending<T> entry : mine) {
+            entry.ready = true;
+        }
+        mine.clear();
+        if (draining.getAndIncrement() != 0) {
+            return;
+        }
+        int missed = 1;
+        do {
+            Pending<T> head;
+            while ((head = pending.peek()) != null && head.ready) {
+                pending.poll();
+                // A best-effort sink drops for subscribers without demand, and only fails once they are all gone
+                sink.tryEmitNext(head.value);
+            }
+            missed = draining.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    private static final class Pending<T> {
+
+        final T value;
+        volatile boolean ready;
+
+        Pending(T value) {
+            this.value = value;
+        }
+    }
+}
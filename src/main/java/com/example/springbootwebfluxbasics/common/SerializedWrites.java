@@ -0,0 +1,35 @@
+package com.example.springbootwebfluxbasics.common;
+
+import reactor.core.publisher.Mono;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/*
+ * Runs asynchronous writes one at a time per id, for repositories that keep no copy of an entity to compute under.
+ *
+ * Each write starts once the one before it to the same id has completed, whether it succeeded or not, so a write that
+ * reads the current version from the store sees what the previous write left there. Writes to different ids never
+ * wait for one another. Only ids with a write in flight hold an entry.
+ */
+public class SerializedWrites {
+
+    // id -> completed once the last write queued for it has
+    private final Map<String, CompletableFuture<Void>> tails = new ConcurrentHashMap<>();
+
+    // Queued at once rather than on subscription, as the repositories' other writes are; a subscriber cancelling
+    // leaves the write running
+    public <R> Mono<R> run(String id, Supplier<Mono<R>> write) {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        CompletableFuture<Void> previous = tails.put(id, done);
+        CompletableFuture<R> result = (previous == null ? CompletableFuture.<Void>completedFuture(null) : previous)
+                .thenCompose(ignored -> write.get().toFuture());
+        result.whenComplete((value, error) -> {
+            tails.remove(id, done);
+            done.complete(null);
+        });
+        return Mono.fromFuture(result, true);
+    }
+}
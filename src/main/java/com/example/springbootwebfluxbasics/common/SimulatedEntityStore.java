@@ -0,0 +1,102 @@
+package com.example.springbootwebfluxbasics.common;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+// Stand-in for a remote store: a map that answers each call after a fixed delay and counts the round trips.
+// It holds the instances it is given, as the in-memory repositories do, and a tombstone for each id deleted.
+public class SimulatedEntityStore<T extends Versioned> implements EntityStore<T> {
+
+    // The newest version written to an id; entity is null once it was deleted at that version
+    private record Stored<T>(long version, T entity) {
+    }
+
+    private final Map<String, Stored<T>> entities = new ConcurrentHashMap<>();
+    // Null when findBy is not needed
+    private final EntityTable<T, ?> table;
+    private final Duration latency;
+    private final LongAdder roundTrips = new LongAdder();
+
+    public SimulatedEntityStore(String name, Duration latency, MeterRegistry registry) {
+        this(name, null, latency, registry);
+    }
+
+    public SimulatedEntityStore(String name, EntityTable<T, ?> table, Duration latency, MeterRegistry registry) {
+        this.table = table;
+        this.latency = latency;
+        FunctionCounter.builder("store.round.trips", roundTrips, LongAdder::sum)
+                .description("Calls made to the backing store")
+                .tag("store", name)
+                .register(registry);
+    }
+
+    @Override
+    public Flux<T> getAll(Collection<String> ids) {
+        return delay().thenMany(Flux.fromIterable(ids).mapNotNull(this::live));
+    }
+
+    @Override
+    public Mono<Void> put(T entity) {
+        return delay().then(Mono.fromRunnable(() -> store(entity)));
+    }
+
+    @Override
+    public Mono<Void> putAll(List<T> batch) {
+        return delay().then(Mono.fromRunnable(() -> batch.forEach(this::store)));
+    }
+
+    @Override
+    public Mono<Void> delete(String id, long version) {
+        return delay().then(Mono.fromRunnable(() -> entities.merge(id, new Stored<>(version, null),
+                (stored, tombstone) -> stored.version() <= version ? tombstone : stored)));
+    }
+
+    @Override
+    public Flux<T> scan() {
+        return delay().thenMany(Flux.defer(() -> Flux.fromIterable(entities.values())
+                .mapNotNull(Stored::entity)));
+    }
+
+    // A full scan, as a store without secondary indexes would do
+    @Override
+    public Flux<T> findBy(String field, String value) {
+        if (table == null) {
+            return Flux.error(new UnsupportedOperationException("No table layout to look up " + field + " by"));
+        }
+        String key = HashIndex.fold(value);
+        return scan().filter(entity -> key != null && key.equals(table.key(field, entity)));
+    }
+
+    public long roundTrips() {
+        return roundTrips.sum();
+    }
+
+    // A rewrite of the stored version replaces it, but never a tombstone at that version
+    private void store(T entity) {
+        entities.merge(entity.getId(), new Stored<>(entity.getVersion(), entity),
+                (stored, fresh) -> fresh.version() > stored.version()
+                        || fresh.version() == stored.version() && stored.entity() != null ? fresh : stored);
+    }
+
+    private T live(String id) {
+        Stored<T> stored = entities.get(id);
+        return stored == null ? null : stored.entity();
+    }
+
+    // Counted on subscription, as a real call would be made
+    private Mono<Long> delay() {
+        return Mono.defer(() -> {
+            roundTrips.increment();
+            return latency.isZero() ? Mono.just(0L) : Mono.delay(latency);
+        });
+    }
+}
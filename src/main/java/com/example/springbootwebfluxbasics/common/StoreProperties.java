@@ -0,0 +1,44 @@
+package com.example.springbootwebfluxbasics.common;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.time.Duration;
+
+// Optional backing store behind the repositories, and how point lookups that miss in memory are batched against it
+@ConfigurationProperties(prefix = "app.store")
+public record StoreProperties(
+        @DefaultValue("none") Type type,
+        @DefaultValue("2ms") Duration latency,
+        @DefaultValue("1ms") Duration batchWindow,
+        @DefaultValue("128") int maxBatchSize,
+        @DefaultValue("memory") Reads reads,
+        @DefaultValue Jdbc jdbc) {
+
+    public enum Type {
+        // Repositories are the system of record, as before
+        NONE,
+        // An in-process stand-in that answers every call after a fixed latency
+        SIMULATED,
+        // Tables in the database behind spring.r2dbc.url
+        R2DBC,
+        // The same tables through blocking JDBC (app.store.jdbc), called on the app.blocking scheduler
+        JDBC
+    }
+
+    public enum Reads {
+        // Queries are answered from the repositories' in-memory indexes, warmed from the store; with app.cache enabled,
+        // lookups, findAll and the category, author and genre queries read through the cache instead
+        MEMORY,
+        // Lookups, findAll and the category, author and genre queries read the store (through app.cache when enabled)
+        STORE
+    }
+
+    // Pool size bounds the JDBC calls that actually reach the database; further ones wait for a connection
+    public record Jdbc(
+            @DefaultValue("jdbc:h2:mem:catalog;DB_CLOSE_DELAY=-1") String url,
+            @DefaultValue("sa") String username,
+            @DefaultValue("") String password,
+            @DefaultValue("32") int maxPoolSize) {
+    }
+}
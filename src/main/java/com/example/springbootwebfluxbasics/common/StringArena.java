@@ -0,0 +1,110 @@
+package com.example.springbootwebfluxbasics.common;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/*
+ * Append-only pool of UTF-8 strings stored in fixed-size byte[] chunks instead of one String object each.
+ * A reference packs (offset << 16 | length), so a single string is limited to 65535 bytes.
+ * Space freed by release() is only tracked; callers compact by copying live strings into a new arena.
+ * Single writer (callers hold their own lock); get() is safe from any thread for references already handed out.
+ */
+public class StringArena {
+
+    public static final long NULL = -1;
+
+    private static final int CHUNK_BITS = 20;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    public static final int MAX_LENGTH = 0xFFFF;
+
+    private byte[][] chunks = {new byte[CHUNK_SIZE]};
+    private long top;
+    private long released;
+
+    public long add(String value) {
+        return add(encode(value));
+    }
+
+    // Bytes from encode, so a caller can find out a string does not fit before it changes anything
+    public long add(byte[] bytes) {
+        if (bytes == null) {
+            return NULL;
+        }
+        fit(bytes);
+
+        int chunk = (int) (top >>> CHUNK_BITS);
+        int offset = (int) (top & (CHUNK_SIZE - 1));
+        if (offset + bytes.length > CHUNK_SIZE) {
+            // Strings never straddle chunks, the tail of the current one is skipped
+            released += CHUNK_SIZE - offset;
+            chunk++;
+            offset = 0;
+            top = (long) chunk << CHUNK_BITS;
+        }
+        if (chunk == chunks.length) {
+            byte[][] grown = Arrays.copyOf(chunks, chunks.length * 2);
+            grown[chunk] = new byte[CHUNK_SIZE];
+            chunks = grown;
+        } else if (chunks[chunk] == null) {
+            chunks[chunk] = new byte[CHUNK_SIZE];
+        }
+
+        System.arraycopy(bytes, 0, chunks[chunk], offset, bytes.length);
+        long reference = (top << 16) | bytes.length;
+        top += bytes.length;
+        return reference;
+    }
+
+    // The UTF-8 form of a string the arena can hold, null for null
+    public static byte[] encode(String value) {
+        if (value == null) {
+            return null;
+        }
+        return fit(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static byte[] fit(byte[] bytes) {
+        if (bytes.length > MAX_LENGTH) {
+            throw new IllegalArgumentException("String longer than " + MAX_LENGTH + " bytes");
+        }
+        return bytes;
+    }
+
+    public String get(long reference) {
+        if (reference == NULL) {
+            return null;
+        }
+        long offset = reference >>> 16;
+        byte[] chunk = chunks[(int) (offset >>> CHUNK_BITS)];
+        return new String(chunk, (int) (offset & (CHUNK_SIZE - 1)), (int) (reference & MAX_LENGTH), StandardCharsets.UTF_8);
+    }
+
+    public boolean matches(long reference, byte[] bytes) {
+        if (reference == NULL || (int) (reference & MAX_LENGTH) != bytes.length) {
+            return false;
+        }
+        long offset = reference >>> 16;
+        byte[] chunk = chunks[(int) (offset >>> CHUNK_BITS)];
+        int from = (int) (offset & (CHUNK_SIZE - 1));
+        return Arrays.equals(chunk, from, from + bytes.length, bytes, 0, bytes.length);
+    }
+
+    public void release(long reference) {
+        if (reference != NULL) {
+            released += reference & MAX_LENGTH;
+        }
+    }
+
+    // Bytes reserved in chunks so far, and how many of them are no longer referenced
+    public long allocatedBytes() {
+        return ((top >>> CHUNK_BITS) + 1) * CHUNK_SIZE;
+    }
+
+    public long usedBytes() {
+        return top;
+    }
+
+    public long releasedBytes() {
+        return released;
+    }
+}
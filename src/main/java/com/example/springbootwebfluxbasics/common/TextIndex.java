@@ -0,0 +1,437 @@
+package com.example.springbootwebfluxbasics.common;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * In-memory inverted index over a few text fields per id, ranked with BM25.
+ *
+ * Text is split on anything that is not a letter or digit and lowercased; common English stop words are dropped.
+ * Each field has a weight, applied by counting its terms that many times. Every id gets a dense doc number, and
+ * a term's postings are (doc, term frequency) pairs in two int arrays. Appends write past the end that readers can
+ * see and then publish a new size; removals copy. So a query reads whatever block it finds without locking, and
+ * writers to different terms never contend.
+ *
+ * The last query term also matches as a prefix, so a search can be run while the user is still typing.
+ *
+ * A removed id's doc number is only handed out again once every query that could have read a posting for it has
+ * finished, so a query never scores one entity's postings under another's id. Queries are counted by the epoch they
+ * began in, as DurableLog counts its writes: a number released in one epoch is retired, and becomes free two epoch
+ * flips later, each flip waiting for nothing but taking place only once the older epoch has no query left.
+ */
+public class TextIndex {
+
+    public record Hit(String id, float score) {
+    }
+
+    private static final float K1 = 1.2f;
+    private static final float B = 0.75f;
+    // Terms a trailing prefix may expand to, taken in term order
+    private static final int MAX_EXPANSIONS = 32;
+    private static final Set<String> STOP_WORDS = Set.of(
+            "a", "an", "and", "are", "as", "at", "be", "but", "by", "for", "if", "in", "into", "is", "it", "no",
+            "not", "of", "on", "or", "such", "that", "the", "their", "then", "there", "these", "they", "this", "to",
+            "was", "will", "with");
+    // Rough heap cost of a term beyond its postings: map and skip list nodes, the string and the postings object
+    private static final int TERM_OVERHEAD = 160;
+    // Rough cost of an id in the id-to-doc map
+    private static final int DOC_OVERHEAD = 64;
+
+    private final int[] fieldWeights;
+    private final Map<String, Postings> postings = new ConcurrentHashMap<>();
+    // Same terms, sorted, for prefix expansion; kept in step inside postings.compute
+    private final NavigableSet<String> terms = new ConcurrentSkipListSet<>();
+    private final Map<String, Integer> docs = new ConcurrentHashMap<>();
+    // Doc number to id and length; grown and written under the index's monitor, read without it
+    private volatile DocTable table = new DocTable(new String[1024], new int[1024]);
+    private int nextDoc;
+    // Doc numbers no query can still be scoring, reused first
+    private int[] freeDocs = new int[64];
+    private int freeCount;
+    // Released in the current epoch, then waiting out the queries of the previous one
+    private int[] retiredDocs = new int[64];
+    private int retiredCount;
+    private int[] waitingDocs = new int[64];
+    private int waitingCount;
+    // Queries between beginQuery and endQuery, counted by the epoch they began in (its low bit)
+    private final AtomicLong[] querying = {new AtomicLong(), new AtomicLong()};
+    private volatile int epoch;
+    private final AtomicInteger liveDocs = new AtomicInteger();
+    private final AtomicLong totalLength = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    // Per-thread score accumulators, one slot per doc, so a query allocates no per-hit objects
+    private final ThreadLocal<Scratch> scratch = ThreadLocal.withInitial(Scratch::new);
+
+    // One weight per field, in the order fields are passed to add and remove
+    public TextIndex(int... fieldWeights) {
+        this.fieldWeights = fieldWeights.clone();
+        bytes.set(table.bytes());
+    }
+
+    public static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        if (text == null) {
+            return tokens;
+        }
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean wordChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                tokens.add(HashIndex.fold(text.substring(start, i)));
+                start = -1;
+            }
+        }
+        return tokens;
+    }
+
+    public void add(String id, String... fields) {
+        Map<String, Integer> frequencies = frequencies(fields);
+        if (frequencies.isEmpty()) {
+            return;
+        }
+        int length = frequencies.values().stream().mapToInt(Integer::intValue).sum();
+        int doc = allocate(id, length);
+        docs.put(id, doc);
+        frequencies.forEach((term, frequency) -> postings.compute(term, (key, list) -> {
+            if (list == null) {
+                list = new Postings();
+                terms.add(key);
+                bytes.addAndGet(TERM_OVERHEAD + 2L * key.length());
+            }
+            bytes.addAndGet(list.add(doc, frequency));
+            return list;
+        }));
+        liveDocs.incrementAndGet();
+        totalLength.addAndGet(length);
+    }
+
+    // The fields must be the ones the id was added with
+    public void remove(String id, String... fields) {
+        Integer doc = docs.remove(id);
+        if (doc == null) {
+            return;
+        }
+        for (String term : frequencies(fields).keySet()) {
+            postings.computeIfPresent(term, (key, list) -> {
+                bytes.addAndGet(list.remove(doc));
+                if (list.size() > 0) {
+                    return list;
+                }
+                terms.remove(key);
+                bytes.addAndGet(-(TERM_OVERHEAD + 2L * key.length()));
+                return null;
+            });
+        }
+        liveDocs.decrementAndGet();
+        totalLength.addAndGet(-release(doc));
+    }
+
+    // The best-scoring ids for the query, best first
+    public List<Hit> search(String query, int limit) {
+        List<String> tokens = tokenize(query);
+        int docCount = liveDocs.get();
+        if (tokens.isEmpty() || limit <= 0 || docCount == 0) {
+            return List.of();
+        }
+        int queryEpoch = beginQuery();
+        DocTable snapshot = table;
+        float averageLength = (float) totalLength.get() / docCount;
+        Scratch accumulator = scratch.get();
+        accumulator.ensureCapacity(snapshot.ids.length);
+        try {
+            for (int i = 0; i < tokens.size() - 1; i++) {
+                if (!STOP_WORDS.contains(tokens.get(i))) {
+                    score(postings.get(tokens.get(i)), docCount, averageLength, snapshot, accumulator);
+                }
+            }
+            String prefix = tokens.get(tokens.size() - 1);
+            Iterator<String> expansions = terms.tailSet(prefix, true).iterator();
+            for (int n = 0; n < MAX_EXPANSIONS && expansions.hasNext(); n++) {
+                String term = expansions.next();
+                if (!term.startsWith(prefix)) {
+                    break;
+                }
+                score(postings.get(term), docCount, averageLength, snapshot, accumulator);
+            }
+            return accumulator.top(limit, snapshot);
+        } finally {
+            accumulator.reset();
+            querying[queryEpoch & 1].decrementAndGet();
+        }
+    }
+
+    public int size() {
+        return postings.size();
+    }
+
+    // Approximate heap held by the index: postings arrays, per-term and per-doc overhead and the doc table
+    public long memoryBytes() {
+        return bytes.get() + (long) docs.size() * DOC_OVERHEAD;
+    }
+
+    private void score(Postings list, int docCount, float averageLength, DocTable snapshot, Scratch accumulator) {
+        if (list == null) {
+            return;
+        }
+        Block block = list.block;
+        float idf = (float) Math.log(1 + (docCount - block.size + 0.5) / (block.size + 0.5));
+        for (int i = 0; i < block.size; i++) {
+            int doc = block.docs[i];
+            // A doc added after the snapshot was taken is left for the next query
+            if (doc >= snapshot.lengths.length) {
+                continue;
+            }
+            float frequency = block.frequencies[i];
+            float norm = K1 * (1 - B + B * snapshot.lengths[doc] / averageLength);
+            accumulator.add(doc, idf * frequency * (K1 + 1) / (frequency + norm));
+        }
+    }
+
+    private Map<String, Integer> frequencies(String... fields) {
+        Map<String, Integer> frequencies = new HashMap<>();
+        for (int f = 0; f < fields.length; f++) {
+            int weight = f < fieldWeights.length ? fieldWeights[f] : 1;
+            for (String token : tokenize(fields[f])) {
+                if (!STOP_WORDS.contains(token)) {
+                    frequencies.merge(token, weight, Integer::sum);
+                }
+            }
+        }
+        return frequencies;
+    }
+
+    // Re-reading the epoch after counting the query means a flip either sees the count or comes strictly before the
+    // query reads any posting
+    private int beginQuery() {
+        while (true) {
+            int current = epoch;
+            querying[current & 1].incrementAndGet();
+            if (epoch == current) {
+                return current;
+            }
+            querying[current & 1].decrementAndGet();
+        }
+    }
+
+    private synchronized int allocate(String id, int length) {
+        if (freeCount == 0) {
+            reclaim();
+        }
+        int doc = freeCount > 0 ? freeDocs[--freeCount] : nextDoc++;
+        DocTable current = table;
+        if (doc >= current.ids.length) {
+            int capacity = current.ids.length * 2;
+            current = new DocTable(Arrays.copyOf(current.ids, capacity), Arrays.copyOf(current.lengths, capacity));
+            bytes.addAndGet(current.bytes() / 2);
+        }
+        current.ids[doc] = id;
+        current.lengths[doc] = length;
+        // Written after the slot, so a reader that finds the doc in a posting also finds its length
+        table = current;
+        return doc;
+    }
+
+    // Retires the doc number and returns the doc's length. Its postings are gone by now, so only a query already
+    // running can still score the number; it finds no id for it and drops it.
+    private synchronized int release(int doc) {
+        DocTable current = table;
+        int length = current.lengths[doc];
+        current.ids[doc] = null;
+        current.lengths[doc] = 0;
+        retiredDocs = push(retiredDocs, retiredCount++, doc);
+        return length;
+    }
+
+    // Flips the epoch once no query of the previous one is left: the numbers waiting on those queries are free, and
+    // the ones retired since wait on the queries of the epoch now ending. Nothing happens while such a query runs.
+    private void reclaim() {
+        int current = epoch;
+        if (retiredCount + waitingCount == 0 || querying[(current - 1) & 1].get() > 0) {
+            return;
+        }
+        for (int i = 0; i < waitingCount; i++) {
+            freeDocs = push(freeDocs, freeCount++, waitingDocs[i]);
+        }
+        int[] emptied = waitingDocs;
+        waitingDocs = retiredDocs;
+        waitingCount = retiredCount;
+        retiredDocs = emptied;
+        retiredCount = 0;
+        epoch = current + 1;
+    }
+
+    private static int[] push(int[] docs, int count, int doc) {
+        if (count == docs.length) {
+            docs = Arrays.copyOf(docs, count * 2);
+        }
+        docs[count] = doc;
+        return docs;
+    }
+
+    private record DocTable(String[] ids, int[] lengths) {
+
+        long bytes() {
+            return 8L * ids.length;
+        }
+    }
+
+    // An immutable view: entries below size never change once published
+    private record Block(int[] docs, int[] frequencies, int size) {
+    }
+
+    // Written only inside postings.compute for its term, so writers are serialized per term
+    private static final class Postings {
+
+        private static final Block EMPTY = new Block(new int[4], new int[4], 0);
+
+        volatile Block block = EMPTY;
+
+        int size() {
+            return block.size;
+        }
+
+        // Returns the change in bytes held
+        long add(int doc, int frequency) {
+            Block current = block;
+            long grown = 0;
+            int[] docs = current.docs;
+            int[] frequencies = current.frequencies;
+            if (current.size == docs.length || current == EMPTY) {
+                int capacity = Math.max(4, current.size * 2);
+                docs = Arrays.copyOf(docs, capacity);
+                frequencies = Arrays.copyOf(frequencies, capacity);
+                grown = 8L * (capacity - (current == EMPTY ? 0 : current.docs.length));
+            }
+            docs[current.size] = doc;
+            frequencies[current.size] = frequency;
+            block = new Block(docs, frequencies, current.size + 1);
+            return grown;
+        }
+
+        // Copies, since queries may be reading the current arrays
+        long remove(int doc) {
+            Block current = block;
+            for (int i = 0; i < current.size; i++) {
+                if (current.docs[i] == doc) {
+                    int capacity = Math.max(4, current.size - 1 + (current.size - 1) / 4);
+                    int[] docs = new int[capacity];
+                    int[] frequencies = new int[capacity];
+                    System.arraycopy(current.docs, 0, docs, 0, i);
+                    System.arraycopy(current.docs, i + 1, docs, i, current.size - i - 1);
+                    System.arraycopy(current.frequencies, 0, frequencies, 0, i);
+                    System.arraycopy(current.frequencies, i + 1, frequencies, i, current.size - i - 1);
+                    block = new Block(docs, frequencies, current.size - 1);
+                    return 8L * (capacity - current.docs.length);
+                }
+            }
+            return 0;
+        }
+    }
+
+    // Dense scores by doc number plus the list of docs touched, cleared after every query
+    private static final class Scratch {
+
+        float[] scores = new float[0];
+        int[] touched = new int[1024];
+        int touchedCount;
+
+        void ensureCapacity(int docs) {
+            if (scores.length < docs) {
+                scores = new float[docs];
+            }
+        }
+
+        void add(int doc, float score) {
+            if (scores[doc] == 0) {
+                if (touchedCount == touched.length) {
+                    touched = Arrays.copyOf(touched, touchedCount * 2);
+                }
+                touched[touchedCount++] = doc;
+            }
+            scores[doc] += score;
+        }
+
+        // Bounded min-heap over the touched docs
+        List<Hit> top(int limit, DocTable snapshot) {
+            int[] heap = new int[Math.min(limit, touchedCount)];
+            int size = 0;
+            for (int t = 0; t < touchedCount; t++) {
+                int doc = touched[t];
+                if (snapshot.ids[doc] == null) {
+                    continue;
+                }
+                if (size < heap.length) {
+                    heap[size] = doc;
+                    siftUp(heap, size++);
+                } else if (scores[doc] > scores[heap[0]]) {
+                    heap[0] = doc;
+                    siftDown(heap, size);
+                }
+            }
+            Hit[] hits = new Hit[size];
+            while (size > 0) {
+                int doc = heap[0];
+                hits[size - 1] = new Hit(snapshot.ids[doc], scores[doc]);
+                heap[0] = heap[--size];
+                siftDown(heap, size);
+            }
+            return Arrays.asList(hits);
+        }
+
+        void reset() {
+            for (int t = 0; t < touchedCount; t++) {
+                scores[touched[t]] = 0;
+            }
+            touchedCount = 0;
+        }
+
+        private void siftUp(int[] heap, int i) {
+            while (i > 0) {
+                int parent = (i - 1) / 2;
+                if (scores[heap[i]] >= scores[heap[parent]]) {
+                    return;
+                }
+                swap(heap, i, parent);
+                i = parent;
+            }
+        }
+
+        private void siftDown(int[] heap, int size) {
+            int i = 0;
+            while (true) {
+                int smallest = i;
+                int left = 2 * i + 1;
+                int right = left + 1;
+                if (left < size && scores[heap[left]] < scores[heap[smallest]]) {
+                    smallest = left;
+                }
+                if (right < size && scores[heap[right]] < scores[heap[smallest]]) {
+                    smallest = right;
+                }
+                if (smallest == i) {
+                    return;
+                }
+                swap(heap, i, smallest);
+                i = smallest;
+            }
+        }
+
+        private static void swap(int[] heap, int i, int j) {
+            int doc = heap[i];
+            heap[i] = heap[j];
+            heap[j] = doc;
+        }
+    }
+}
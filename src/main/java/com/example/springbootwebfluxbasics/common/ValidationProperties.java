@@ -0,0 +1,15 @@
+package com.example.springbootwebfluxbasics.common;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+// Which validator checks request bodies: hand-written checks for known entities, or Bean Validation for everything
+@ConfigurationProperties(prefix = "app.validation")
+public record ValidationProperties(
+        @DefaultValue("precompiled") Engine engine) {
+
+    public enum Engine {
+        PRECOMPILED,
+        BEAN_VALIDATION
+    }
+}
@@ -0,0 +1,12 @@
+package com.example.springbootwebfluxbasics.common;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+// A compare-and-set write found the entity at another version than the one it was based on
+public class VersionConflictException extends ResponseStatusException {
+
+    public VersionConflictException(String id, long expected, Long actual) {
+        super(HttpStatus.PRECONDITION_FAILED, "Expected version " + expected + " of " + id + " but found " + actual);
+    }
+}
@@ -0,0 +1,9 @@
+package com.example.springbootwebfluxbasics.common;
+
+// An entity with an id and a repository-assigned version, so anything derived from it can be cached per version
+public interface Versioned {
+
+    String getId();
+
+    Long getVersion();
+}
@@ -0,0 +1,560 @@
+package com.example.springbootwebfluxbasics.common;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import reactor.core.publisher.BufferOverflowStrategy;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.function.BiFunction;
+import java.util.function.UnaryOperator;
+
+/*
+ * What the product and book repositories share: versioned writes applied in memory under a per-id compute, and to the
+ * durable log or the backing store behind it; the ordered ids behind paging and point-in-time findAll; the change feed;
+ * and reads and writes through the cache when the store is behind one.
+ *
+ * A repository supplies its primary storage (resident, compute and the rest), how to copy an entity under an id and a
+ * version, and its own indexes: index and unindex run wherever the ids and scans are maintained, inside the compute
+ * or, while cached, in the id's serialized write. Subclasses call load() once their own fields are set, and seed an
+ * empty repository when it returns false.
+ */
+public abstract class VersionedRepository<T extends Versioned> {
+
+    // Ordered id index backing keyset pagination
+    private final NavigableSet<String> ids = new ConcurrentSkipListSet<>();
+    // Versions replaced while a findAll is streaming, on storages without snapshots of their own
+    private final PointInTimeScans<T> scans = new PointInTimeScans<>();
+    private final ChangeFeed<T> changeFeed = new ChangeFeed<>();
+    private final EntityVersions versions = new EntityVersions();
+    private final String name;
+    // Null unless app.persistence.enabled is set
+    private final DurableLog<T> log;
+    // Null unless app.store.type is set; the store is then the system of record and memory is warmed from it, or only
+    // indexed from it when it is cached
+    protected final EntityStore<T> store;
+    protected final BatchLoader<T> loader;
+    // Set when app.store.reads=store: lookups, findAll and the indexed queries read the store instead of memory
+    private final boolean storeQueries;
+    // Set when the store is behind app.cache: memory then keeps no entities, only the ordered ids and the subclass's
+    // own indexes, rebuilt from the store at startup. Lookups and the indexed queries go through the cache, and each
+    // write reads the entity it replaces from there.
+    private final boolean cached;
+    // Orders the writes to an id while cached, as there is no resident entity to compute under
+    private final SerializedWrites serialized = new SerializedWrites();
+    protected final RepositoryMetrics metrics;
+    private final RepositoryMetrics.Operation lookups;
+    private final RepositoryMetrics.Operation multiLookups;
+    private final RepositoryMetrics.Operation pages;
+    private final RepositoryMetrics.Operation writes;
+    private final RepositoryMetrics.Operation deletes;
+
+    protected VersionedRepository(String name, DurableLog<T> log, EntityStore<T> store, BatchLoader<T> loader,
+                                  boolean storeQueries, MeterRegistry registry) {
+        this.name = name;
+        this.log = log;
+        this.store = store;
+        this.loader = loader;
+        this.storeQueries = storeQueries;
+        this.cached = store instanceof CachedEntityStore;
+        this.metrics = new RepositoryMetrics(registry, name);
+        lookups = metrics.operation("findById");
+        multiLookups = metrics.operation("findAllById");
+        pages = metrics.operation("findPage");
+        writes = metrics.operation("write");
+        deletes = metrics.operation("delete");
+    }
+
+    // The entity held in memory under the id, or null
+    protected abstract T resident(String id);
+
+    // Atomic per id, as ConcurrentHashMap.compute
+    protected abstract T compute(String id, BiFunction<String, T, T> remapping);
+
+    protected abstract Iterable<String> residentIds();
+
+    protected abstract Iterable<T> residents();
+
+    // A copy of the entity under the id given
+    protected abstract T withId(T entity, String id);
+
+    // A copy of the entity under the id and version given
+    protected abstract T withVersion(T entity, String id, long version);
+
+    // Runs inside compute, or while cached in the id's serialized write, after the ids and scans are updated. existing
+    // is null for a new id.
+    protected abstract void index(String id, T existing, T entity);
+
+    protected abstract void unindex(String id, T entity);
+
+    // Every resident entity as of one instant, for storages that keep snapshots of their own; null to scan the ids
+    protected Iterable<T> snapshot() {
+        return null;
+    }
+
+    // Throws IllegalArgumentException for an entity the storage cannot hold; called before the write's compute
+    protected void check(String id, T entity) {
+    }
+
+    // Sends what was queued inside compute: the change events here, a subclass's aggregate updates with them
+    protected void flush() {
+        changeFeed.flush();
+    }
+
+    // Whether lookups and the indexed queries read the store rather than memory
+    protected boolean readsStore() {
+        return storeQueries || cached;
+    }
+
+    protected boolean cached() {
+        return cached;
+    }
+
+    // The entities under the ids, in their order: from memory, or through the cache while cached
+    protected Flux<T> resolve(Flux<String> found) {
+        return cached ? found.flatMapSequential(loader::load) : found.mapNotNull(this::resident);
+    }
+
+    // Rebuilds, warms or recovers memory from the store or the log; false if there was nothing to load
+    protected boolean load() {
+        return cached ? rebuild(store) : store != null ? warm(store) : log != null && recover(log);
+    }
+
+    public Flux<T> findAll() {
+        if (readsStore()) {
+            return store.scan();
+        }
+        // Taken at subscription either way, so a slow consumer streams one point in time
+        return Flux.defer(() -> {
+            Iterable<T> snapshot = snapshot();
+            return snapshot != null ? Flux.fromIterable(snapshot) : scans.scan(ids, this::resident);
+        });
+    }
+
+    // One page in id order, starting strictly after the given id (or from the start when null)
+    public Flux<T> findPage(String afterId, int limit) {
+        Flux<String> page = Flux.fromStream(() -> (afterId == null ? ids : ids.tailSet(afterId, false)).stream());
+        if (cached) {
+            return pages.timed(page.take(limit).flatMapSequential(loader::load, Math.max(limit, 1)));
+        }
+        return pages.timed(page
+                .mapNotNull(this::resident)
+                .take(limit));
+    }
+
+    public Mono<T> findById(String id) {
+        if (readsStore()) {
+            return lookups.timed(loader.load(id));
+        }
+        long started = lookups.start();
+        T entity = resident(id);
+        lookups.stop(started);
+        if (entity != null || loader == null) {
+            return Mono.justOrEmpty(entity);
+        }
+        // Not in memory, but another writer may have put it in the store
+        return loader.load(id).map(this::install);
+    }
+
+    // The entities found among the ids, in the same order. Memory is read in one pass; with a store, ids missing from
+    // memory are loaded together, in as few batches as the loader allows.
+    public Flux<T> findAllById(List<String> ids) {
+        if (readsStore()) {
+            return multiLookups.timed(Flux.fromIterable(ids).flatMapSequential(loader::load, Math.max(ids.size(), 1)));
+        }
+        return Flux.defer(() -> {
+            long started = multiLookups.start();
+            List<T> found = new ArrayList<>(ids.size());
+            boolean missed = false;
+            for (String id : ids) {
+                T entity = resident(id);
+                missed |= entity == null;
+                found.add(entity);
+            }
+            multiLookups.stop(started);
+            if (!missed || loader == null) {
+                found.removeIf(Objects::isNull);
+                return Flux.fromIterable(found);
+            }
+            return Flux.range(0, ids.size())
+                    .flatMapSequential(i -> found.get(i) != null
+                            ? Mono.just(found.get(i))
+                            : loader.load(ids.get(i)).map(this::install), ids.size());
+        });
+    }
+
+    public Mono<T> save(T entity) {
+        return store(entity.getId() == null ? withId(entity, UUID.randomUUID().toString()) : entity);
+    }
+
+    // Compare-and-set: writes only over an existing entity, and only while it is still at expectedVersion when one
+    // is given. Empty when there is no such entity, VersionConflictException when it has moved on.
+    public Mono<T> replace(String id, T entity, Long expectedVersion) {
+        if (cached) {
+            return writeThrough(id, existing -> {
+                if (existing == null) {
+                    return null;
+                }
+                if (expectedVersion != null && !expectedVersion.equals(existing.getVersion())) {
+                    throw new VersionConflictException(id, expectedVersion, existing.getVersion());
+                }
+                return versioned(id, entity);
+            });
+        }
+        try {
+            check(id, entity);
+        } catch (IllegalArgumentException e) {
+            return Mono.error(e);
+        }
+        long started = writes.start();
+        CompletableFuture<?>[] durable = new CompletableFuture<?>[1];
+        List<T> replaced = new ArrayList<>(1);
+        try {
+            logged(id, (key, existing) -> {
+                if (existing == null) {
+                    return null;
+                }
+                if (expectedVersion != null && !expectedVersion.equals(existing.getVersion())) {
+                    // Leaves the stored entity as it is
+                    throw new VersionConflictException(key, expectedVersion, existing.getVersion());
+                }
+                T written = versioned(key, entity);
+                replaced.add(written);
+                durable[0] = apply(key, existing, written, true);
+                return written;
+            });
+        } catch (VersionConflictException e) {
+            return Mono.error(e);
+        } finally {
+            flush();
+            writes.stop(started);
+        }
+        if (replaced.isEmpty()) {
+            return Mono.empty();
+        }
+        versions.changed();
+        return DurableLog.await(durable[0])
+                .thenReturn(replaced.get(0));
+    }
+
+    // Batch write used by bulk ingest, returns the saved entities in the order given
+    public Flux<T> saveAll(List<T> batch) {
+        if (cached) {
+            // Each entity is written on its own, after reading the version it replaces
+            return Flux.concat(batch.stream().map(this::save).toList());
+        }
+        try {
+            // All or nothing: no entity of the batch is written if the storage cannot hold one of them
+            batch.forEach(entity -> check(entity.getId(), entity));
+        } catch (IllegalArgumentException e) {
+            return Flux.error(e);
+        }
+        List<CompletableFuture<?>> durable = new ArrayList<>();
+        List<T> written = new ArrayList<>(batch.size());
+        for (T entity : batch) {
+            written.add(write(entity.getId() == null ? withId(entity, UUID.randomUUID().toString()) : entity,
+                    store == null, durable));
+        }
+        if (store != null) {
+            // One round trip for the batch; the store keeps the newest version if these race other writes
+            durable.add(store.putAll(written)
+                    .doOnTerminate(() -> written.forEach(entity -> loader.written(entity.getId())))
+                    .toFuture());
+        }
+        return DurableLog.awaitAll(durable)
+                .thenMany(Flux.fromIterable(written));
+    }
+
+    public Mono<Void> deleteById(String id) {
+        if (cached) {
+            return removeThrough(id);
+        }
+        return DurableLog.await(remove(id, null));
+    }
+
+    public Mono<Void> deleteAll() {
+        if (cached) {
+            // Memory holds nothing the store does not
+            return store.scan()
+                    .flatMap(stored -> removeThrough(stored.getId()))
+                    .then();
+        }
+        // Removed one by one so the indexes stay exact and subscribers see every delete
+        Mono<Void> inMemory = Mono.defer(() -> {
+            List<CompletableFuture<?>> durable = new ArrayList<>();
+            residentIds().forEach(id -> addIfPresent(durable, remove(id, null)));
+            return DurableLog.awaitAll(durable);
+        });
+        if (store == null) {
+            return inMemory;
+        }
+        // The store may hold entities other writers put there that memory never saw, so it is scanned too
+        return Mono.defer(() -> {
+            List<CompletableFuture<?>> durable = new ArrayList<>();
+            return store.scan()
+                    .doOnNext(stored -> addIfPresent(durable, remove(stored.getId(), stored)))
+                    .then(Mono.defer(() -> DurableLog.awaitAll(durable)));
+        }).then(inMemory);
+    }
+
+    // Live create/update/delete events, each subscriber buffering at most bufferSize of them
+    public Flux<ChangeEvent<T>> changes(int bufferSize, BufferOverflowStrategy overflow) {
+        return changeFeed.events(bufferSize, overflow);
+    }
+
+    // Moves on with every create, update and delete; read it before the data to tag a collection response
+    public long generation() {
+        return versions.generation();
+    }
+
+    protected Mono<T> store(T entity) {
+        if (cached) {
+            return writeThrough(entity.getId(), existing -> versioned(entity.getId(), entity));
+        }
+        try {
+            check(entity.getId(), entity);
+        } catch (IllegalArgumentException e) {
+            return Mono.error(e);
+        }
+        List<CompletableFuture<?>> durable = new ArrayList<>(1);
+        T written = write(entity, true, durable);
+        return DurableLog.awaitAll(durable)
+                .thenReturn(written);
+    }
+
+    // Applies the write in memory and returns the version stored; the future of its log record or store write, if
+    // there is one, goes to durable
+    private T write(T entity, boolean persist, List<CompletableFuture<?>> durable) {
+        long started = writes.start();
+        List<T> written = new ArrayList<>(1);
+        CompletableFuture<?>[] pending = new CompletableFuture<?>[1];
+        logged(entity.getId(), (id, existing) -> {
+            T versioned = versioned(id, entity);
+            written.add(versioned);
+            pending[0] = apply(id, existing, versioned, persist);
+            return versioned;
+        });
+        flush();
+        addIfPresent(durable, pending[0]);
+        versions.changed();
+        writes.stop(started);
+        return written.get(0);
+    }
+
+    // The caller's entity is never stored: each write stores a new instance under the next version
+    private T versioned(String id, T entity) {
+        return withVersion(entity, id, versions.next());
+    }
+
+    // Runs inside compute, under the id's lock
+    private CompletableFuture<?> apply(String id, T existing, T entity, boolean persist) {
+        track(id, existing, entity);
+        CompletableFuture<?> durable = null;
+        if (persist && store != null) {
+            durable = written(id, store.put(entity)).toFuture();
+        } else if (persist && log != null) {
+            // Enqueued under the same per-id lock, so the log sees writes to an id in the order they were applied
+            durable = log.put(entity);
+        }
+        // Only queued here; the event goes out in flush, after compute has returned
+        changeFeed.publish(existing == null ? ChangeEvent.Type.CREATED : ChangeEvent.Type.UPDATED, id, entity);
+        return durable;
+    }
+
+    // stored is what a store scan found under the id, or null; it is deleted from the store even when memory never
+    // held the id, and at whichever of the two versions is newer
+    private CompletableFuture<?> remove(String id, T stored) {
+        long started = deletes.start();
+        CompletableFuture<?>[] durable = new CompletableFuture<?>[1];
+        boolean[] removed = new boolean[1];
+        logged(id, (key, existing) -> {
+            T deleted = existing == null || stored != null && stored.getVersion() > existing.getVersion()
+                    ? stored : existing;
+            if (deleted == null) {
+                return null;
+            }
+            if (existing != null) {
+                untrack(key, existing);
+            }
+            if (store != null) {
+                durable[0] = written(key, store.delete(key, deleted.getVersion())).toFuture();
+            } else if (log != null) {
+                durable[0] = log.delete(key);
+            }
+            changeFeed.publish(ChangeEvent.Type.DELETED, key, deleted);
+            removed[0] = true;
+            return null;
+        });
+        flush();
+        if (removed[0]) {
+            versions.changed();
+        }
+        deletes.stop(started);
+        return durable[0];
+    }
+
+    // A write while cached, once the writes to the id queued before it have reached the store. next turns the entity
+    // read through the cache (null when there is none) into the one to store, or into null to leave it as it is.
+    private Mono<T> writeThrough(String id, UnaryOperator<T> next) {
+        return serialized.run(id, () -> store.getAll(List.of(id))
+                .collectList()
+                .flatMap(found -> {
+                    T existing = found.isEmpty() ? null : found.get(0);
+                    T written = next.apply(existing);
+                    if (written == null) {
+                        return Mono.empty();
+                    }
+                    long started = writes.start();
+                    // Stored first, which also invalidates the cached entity and the results it moves between: the
+                    // indexes and subscribers never see a write the store refused
+                    return written(id, store.put(written))
+                            .then(Mono.fromCallable(() -> {
+                                track(id, existing, written);
+                                changeFeed.publish(existing == null ? ChangeEvent.Type.CREATED : ChangeEvent.Type.UPDATED,
+                                        id, written);
+                                flush();
+                                versions.changed();
+                                writes.stop(started);
+                                return written;
+                            }));
+                }));
+    }
+
+    private Mono<Void> removeThrough(String id) {
+        return serialized.run(id, () -> store.getAll(List.of(id))
+                .next()
+                .flatMap(existing -> {
+                    long started = deletes.start();
+                    return written(id, store.delete(id, existing.getVersion()))
+                            .then(Mono.fromRunnable(() -> {
+                                untrack(id, existing);
+                                changeFeed.publish(ChangeEvent.Type.DELETED, id, existing);
+                                flush();
+                                versions.changed();
+                                deletes.stop(started);
+                            }));
+                }));
+    }
+
+    // The ids and indexes of everything stored, without keeping the entities; false if the store was empty
+    private boolean rebuild(EntityStore<T> store) {
+        long loaded = store.scan()
+                .doOnNext(entity -> {
+                    versions.observe(entity.getVersion());
+                    track(entity.getId(), null, entity);
+                })
+                .count()
+                .block();
+        return loaded > 0;
+    }
+
+    // Loads everything stored into memory and the indexes; false if the store was empty
+    private boolean warm(EntityStore<T> store) {
+        long loaded = store.scan()
+                .doOnNext(entity -> compute(entity.getId(), (id, existing) -> {
+                    versions.observe(entity.getVersion());
+                    track(id, existing, entity);
+                    return entity;
+                }))
+                .count()
+                .block();
+        return loaded > 0;
+    }
+
+    // An entity some other writer put in the store: kept and indexed as if it had been there at startup, unless a
+    // local write to the id got in first
+    private T install(T entity) {
+        boolean[] installed = new boolean[1];
+        T resident = compute(entity.getId(), (id, existing) -> {
+            if (existing != null) {
+                return existing;
+            }
+            versions.observe(entity.getVersion());
+            track(id, null, entity);
+            installed[0] = true;
+            return entity;
+        });
+        flush();
+        if (installed[0]) {
+            versions.changed();
+        }
+        return resident;
+    }
+
+    private boolean recover(DurableLog<T> log) {
+        try {
+            // Replayed records go straight into memory, they are already in the log
+            boolean recovered = log.recover(
+                    entity -> compute(entity.getId(), (id, existing) -> {
+                        // Records written before versions existed get one now
+                        if (entity.getVersion() == null) {
+                            T versioned = versioned(id, entity);
+                            track(id, existing, versioned);
+                            return versioned;
+                        }
+                        versions.observe(entity.getVersion());
+                        track(id, existing, entity);
+                        return entity;
+                    }),
+                    id -> compute(id, (key, existing) -> {
+                        if (existing != null) {
+                            untrack(key, existing);
+                        }
+                        return null;
+                    }));
+            log.start(this::residents);
+            return recovered;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to recover " + name, e);
+        }
+    }
+
+    // Index maintenance happens inside compute (or, while cached, in the id's serialized write) so it is serialized per
+    // id. An update leaves the id in the ordered set, so a page being read never loses it.
+    private void track(String id, T existing, T entity) {
+        scans.replacing(id, existing);
+        if (existing == null) {
+            ids.add(id);
+        }
+        index(id, existing, entity);
+    }
+
+    private void untrack(String id, T entity) {
+        scans.replacing(id, entity);
+        ids.remove(id);
+        unindex(id, entity);
+    }
+
+    // The compute of every write that may log a record. While it runs, a snapshot cannot drop the segment the record
+    // went to, as the value it holds may not be visible yet.
+    private T logged(String id, BiFunction<String, T, T> remapping) {
+        if (log == null) {
+            return compute(id, remapping);
+        }
+        int epoch = log.beginWrite();
+        try {
+            return compute(id, remapping);
+        } finally {
+            log.endWrite(epoch);
+        }
+    }
+
+    // Once the store has the write, or has refused it, loads of the id stop joining a fetch that may have read before it
+    private Mono<Void> written(String id, Mono<Void> write) {
+        return write.doOnTerminate(() -> loader.written(id));
+    }
+
+    private static void addIfPresent(List<CompletableFuture<?>> futures, CompletableFuture<?> future) {
+        if (future != null) {
+            futures.add(future);
+        }
+    }
+}
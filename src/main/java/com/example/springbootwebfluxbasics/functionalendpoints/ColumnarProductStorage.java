@@ -0,0 +1,448 @@
+package com.example.springbootwebfluxbasics.functionalendpoints;
+
+import com.example.springbootwebfluxbasics.common.StringArena;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.UUID;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.BiFunction;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+
+/*
+ * Column-per-field product storage for very large catalogs (app.products.storage=columnar).
+ *
+ * Each product occupies one slot across primitive columns: prices in a double[] (NaN = null), categories
+ * dictionary-encoded into an int[], inStock as two bitsets (value, known), versions in a long[] (0 = null),
+ * names in a pooled StringArena.
+ * Ids in canonical UUID form are stored as two longs, anything else goes to the arena. An open-addressing
+ * int table maps ids to slots. Products are materialized on read, nothing per product lives on the heap.
+ *
+ * Computes on one id are serialized by a striped lock, and the remapping runs under that alone, so its side effects
+ * never hold up writes to other ids. The row it returns is encoded before anything changes, then copied into the
+ * columns under a StampedLock write lock; reads are optimistic and fall back to the read lock on conflict.
+ */
+@Component
+@ConditionalOnProperty(name = "app.products.storage", havingValue = "columnar")
+public class ColumnarProductStorage implements ProductStorage {
+
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final int NO_CATEGORY = -1;
+    private static final int COMPACT_THRESHOLD = 8 << 20;
+    private static final int STRIPES = 64;
+
+    private final StampedLock lock = new StampedLock();
+    private final ReentrantLock[] stripes = new ReentrantLock[STRIPES];
+
+    private long[] idHigh = new long[INITIAL_CAPACITY];
+    private long[] idLow = new long[INITIAL_CAPACITY];
+    private int[] hashes = new int[INITIAL_CAPACITY];
+    private long[] names = new long[INITIAL_CAPACITY];
+    private double[] prices = new double[INITIAL_CAPACITY];
+    private int[] categories = new int[INITIAL_CAPACITY];
+    private long[] versions = new long[INITIAL_CAPACITY];
+    private long[] live = new long[INITIAL_CAPACITY / 64];
+    private long[] textIds = new long[INITIAL_CAPACITY / 64];
+    private long[] inStock = new long[INITIAL_CAPACITY / 64];
+    private long[] inStockKnown = new long[INITIAL_CAPACITY / 64];
+
+    private String[] dictionary = new String[16];
+    private final Map<String, Integer> codes = new HashMap<>();
+    private StringArena arena = new StringArena();
+
+    // id -> slot + 1, 0 marks an empty bucket; kept at most half full
+    private int[] table = new int[INITIAL_CAPACITY * 2];
+    private int[] freeSlots = new int[16];
+    private int freeCount;
+    private volatile int highWater;
+    private volatile int size;
+
+    {
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+    }
+
+    @Override
+    public Product get(String id) {
+        return get(Key.of(id));
+    }
+
+    private Product get(Key key) {
+        return read(() -> {
+            int slot = find(key);
+            return slot < 0 ? null : materialize(slot);
+        });
+    }
+
+    @Override
+    public Product compute(String id, BiFunction<String, Product, Product> remapping) {
+        Key key = Key.of(id);
+        ReentrantLock stripe = stripes[key.hash & (STRIPES - 1)];
+        stripe.lock();
+        try {
+            // Only computes on this id change its slot, and they wait on the stripe
+            Product existing = get(key);
+            Product updated = remapping.apply(id, existing);
+            if (updated == null && existing == null) {
+                return null;
+            }
+            // Throws before any column changes; callers run check first so it cannot happen after their side effects
+            byte[] name = updated == null ? null : StringArena.encode(updated.getName());
+            if (existing == null && key.text != null) {
+                StringArena.fit(key.text);
+            }
+            long stamp = lock.writeLock();
+            try {
+                // Writes to other ids may have moved the table since, so the slot is looked up again
+                int slot = find(key);
+                if (updated == null) {
+                    free(slot);
+                } else {
+                    if (slot < 0) {
+                        slot = allocate(key);
+                    }
+                    write(slot, updated, name);
+                }
+                compactIfNeeded();
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+            return updated;
+        } finally {
+            stripe.unlock();
+        }
+    }
+
+    @Override
+    public void check(String id, Product product) {
+        StringArena.encode(id);
+        StringArena.encode(product.getName());
+    }
+
+    @Override
+    public Iterable<Product> values() {
+        return () -> new SlotIterator<>(slot -> read(() -> isSet(live, slot) ? materialize(slot) : null));
+    }
+
+    @Override
+    public Iterable<String> ids() {
+        return () -> new SlotIterator<>(slot -> read(() -> isSet(live, slot) ? idOf(slot) : null));
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    // Optimistic read, retried under the read lock if a writer got in the way (or left us a torn view)
+    private <R> R read(Supplier<R> reader) {
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            try {
+                R result = reader.get();
+                if (lock.validate(stamp)) {
+                    return result;
+                }
+            } catch (RuntimeException e) {
+                // Inconsistent snapshot of the columns, fall through to the locked read
+            }
+        }
+        stamp = lock.readLock();
+        try {
+            return reader.get();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    private Product materialize(int slot) {
+        double price = prices[slot];
+        int category = categories[slot];
+        return new Product(
+                idOf(slot),
+                arena.get(names[slot]),
+                Double.isNaN(price) ? null : price,
+                category == NO_CATEGORY ? null : dictionary[category],
+                isSet(inStockKnown, slot) ? isSet(inStock, slot) : null,
+                versions[slot] == 0 ? null : versions[slot]);
+    }
+
+    private String idOf(int slot) {
+        return isSet(textIds, slot) ? arena.get(idHigh[slot]) : new UUID(idHigh[slot], idLow[slot]).toString();
+    }
+
+    private int find(Key key) {
+        int[] buckets = table;
+        int mask = buckets.length - 1;
+        int index = key.hash & mask;
+        for (int probes = 0; probes < buckets.length; probes++) {
+            int entry = buckets[index];
+            if (entry == 0) {
+                return -1;
+            }
+            int slot = entry - 1;
+            if (hashes[slot] == key.hash && matches(slot, key)) {
+                return slot;
+            }
+            index = (index + 1) & mask;
+        }
+        return -1;
+    }
+
+    private boolean matches(int slot, Key key) {
+        boolean text = isSet(textIds, slot);
+        if (key.text == null) {
+            return !text && idHigh[slot] == key.high && idLow[slot] == key.low;
+        }
+        return text && arena.matches(idHigh[slot], key.text);
+    }
+
+    private int allocate(Key key) {
+        int slot;
+        if (freeCount > 0) {
+            slot = freeSlots[--freeCount];
+        } else {
+            slot = highWater;
+            ensureCapacity(slot + 1);
+        }
+
+        if (key.text == null) {
+            idHigh[slot] = key.high;
+            idLow[slot] = key.low;
+            setBit(textIds, slot, false);
+        } else {
+            idHigh[slot] = arena.add(key.text);
+            setBit(textIds, slot, true);
+        }
+        hashes[slot] = key.hash;
+        names[slot] = StringArena.NULL;
+        setBit(live, slot, true);
+
+        if ((size + 1) * 2 > table.length) {
+            rehash(table.length * 2);
+        }
+        insert(table, slot);
+        if (slot == highWater) {
+            highWater = slot + 1;
+        }
+        size++;
+        return slot;
+    }
+
+    private void write(int slot, Product product, byte[] name) {
+        arena.release(names[slot]);
+        names[slot] = arena.add(name);
+        prices[slot] = product.getPrice() == null ? Double.NaN : product.getPrice();
+        categories[slot] = encode(product.getCategory());
+        setBit(inStockKnown, slot, product.getInStock() != null);
+        setBit(inStock, slot, Boolean.TRUE.equals(product.getInStock()));
+        versions[slot] = product.getVersion() == null ? 0 : product.getVersion();
+    }
+
+    private void free(int slot) {
+        remove(table, slot);
+        arena.release(names[slot]);
+        names[slot] = StringArena.NULL;
+        if (isSet(textIds, slot)) {
+            arena.release(idHigh[slot]);
+        }
+        setBit(live, slot, false);
+        if (freeCount == freeSlots.length) {
+            freeSlots = Arrays.copyOf(freeSlots, freeCount * 2);
+        }
+        freeSlots[freeCount++] = slot;
+        size--;
+    }
+
+    private int encode(String category) {
+        if (category == null) {
+            return NO_CATEGORY;
+        }
+        Integer code = codes.get(category);
+        if (code == null) {
+            code = codes.size();
+            if (code == dictionary.length) {
+                dictionary = Arrays.copyOf(dictionary, code * 2);
+            }
+            dictionary[code] = category;
+            codes.put(category, code);
+        }
+        return code;
+    }
+
+    private void insert(int[] buckets, int slot) {
+        int mask = buckets.length - 1;
+        int index = hashes[slot] & mask;
+        while (buckets[index] != 0) {
+            index = (index + 1) & mask;
+        }
+        buckets[index] = slot + 1;
+    }
+
+    // Linear probing delete with backward shift, so lookups never need tombstones
+    private void remove(int[] buckets, int slot) {
+        int mask = buckets.length - 1;
+        int hole = hashes[slot] & mask;
+        while (buckets[hole] != slot + 1) {
+            hole = (hole + 1) & mask;
+        }
+        buckets[hole] = 0;
+
+        int index = hole;
+        while (true) {
+            index = (index + 1) & mask;
+            int entry = buckets[index];
+            if (entry == 0) {
+                return;
+            }
+            int home = hashes[entry - 1] & mask;
+            boolean stays = hole <= index ? hole < home && home <= index : hole < home || home <= index;
+            if (!stays) {
+                buckets[hole] = entry;
+                buckets[index] = 0;
+                hole = index;
+            }
+        }
+    }
+
+    private void rehash(int capacity) {
+        int[] buckets = new int[capacity];
+        for (int slot = 0; slot < highWater; slot++) {
+            if (isSet(live, slot)) {
+                insert(buckets, slot);
+            }
+        }
+        table = buckets;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= idHigh.length) {
+            return;
+        }
+        int grown = idHigh.length * 2;
+        idHigh = Arrays.copyOf(idHigh, grown);
+        idLow = Arrays.copyOf(idLow, grown);
+        hashes = Arrays.copyOf(hashes, grown);
+        names = Arrays.copyOf(names, grown);
+        prices = Arrays.copyOf(prices, grown);
+        categories = Arrays.copyOf(categories, grown);
+        versions = Arrays.copyOf(versions, grown);
+        live = Arrays.copyOf(live, grown / 64);
+        textIds = Arrays.copyOf(textIds, grown / 64);
+        inStock = Arrays.copyOf(inStock, grown / 64);
+        inStockKnown = Arrays.copyOf(inStockKnown, grown / 64);
+    }
+
+    // Rewrites the arena once more than half of it is garbage from updates and deletes
+    private void compactIfNeeded() {
+        long garbage = arena.releasedBytes();
+        if (garbage < COMPACT_THRESHOLD || garbage * 2 < arena.usedBytes()) {
+            return;
+        }
+        StringArena compacted = new StringArena();
+        for (int slot = 0; slot < highWater; slot++) {
+            if (!isSet(live, slot)) {
+                continue;
+            }
+            names[slot] = compacted.add(arena.get(names[slot]));
+            if (isSet(textIds, slot)) {
+                idHigh[slot] = compacted.add(arena.get(idHigh[slot]));
+            }
+        }
+        arena = compacted;
+    }
+
+    private static boolean isSet(long[] bits, int index) {
+        return (bits[index >>> 6] & (1L << index)) != 0;
+    }
+
+    private static void setBit(long[] bits, int index, boolean value) {
+        if (value) {
+            bits[index >>> 6] |= 1L << index;
+        } else {
+            bits[index >>> 6] &= ~(1L << index);
+        }
+    }
+
+    // A parsed id: canonical lowercase UUIDs become two longs, other ids keep their UTF-8 bytes
+    private record Key(String id, long high, long low, byte[] text, int hash) {
+
+        static Key of(String id) {
+            long[] uuid = parseUuid(id);
+            if (uuid != null) {
+                return new Key(id, uuid[0], uuid[1], null, spread(Long.hashCode(uuid[0] ^ (uuid[1] * 0x9E3779B97F4A7C15L))));
+            }
+            return new Key(id, 0, 0, id.getBytes(StandardCharsets.UTF_8), spread(id.hashCode()));
+        }
+
+        private static int spread(int hash) {
+            hash *= 0x9E3779B9;
+            return hash ^ (hash >>> 16);
+        }
+
+        // Only the exact form UUID.toString() produces, so decoding gives back the same string
+        private static long[] parseUuid(String id) {
+            if (id.length() != 36 || id.charAt(8) != '-' || id.charAt(13) != '-'
+                    || id.charAt(18) != '-' || id.charAt(23) != '-') {
+                return null;
+            }
+            long high = 0;
+            long low = 0;
+            for (int i = 0; i < 36; i++) {
+                if (i == 8 || i == 13 || i == 18 || i == 23) {
+                    continue;
+                }
+                char c = id.charAt(i);
+                int digit = c >= '0' && c <= '9' ? c - '0' : c >= 'a' && c <= 'f' ? c - 'a' + 10 : -1;
+                if (digit < 0) {
+                    return null;
+                }
+                if (i < 18) {
+                    high = (high << 4) | digit;
+                } else {
+                    low = (low << 4) | digit;
+                }
+            }
+            return new long[]{high, low};
+        }
+    }
+
+    // Walks slots up to the current high-water mark, skipping free ones
+    private final class SlotIterator<T> implements Iterator<T> {
+
+        private final IntFunction<T> reader;
+        private int slot;
+        private T next;
+
+        SlotIterator(IntFunction<T> reader) {
+            this.reader = reader;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (next == null && slot < highWater) {
+                next = reader.apply(slot++);
+            }
+            return next != null;
+        }
+
+        @Override
+        public T next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            T result = next;
+            next = null;
+            return result;
+        }
+    }
+}
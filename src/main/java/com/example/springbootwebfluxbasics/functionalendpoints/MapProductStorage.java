@@ -0,0 +1,41 @@
+package com.example.springbootwebfluxbasics.functionalendpoints;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiFunction;
+
+// Default storage: the products themselves in a ConcurrentHashMap
+@Component
+@ConditionalOnProperty(name = "app.products.storage", havingValue = "map", matchIfMissing = true)
+public class MapProductStorage implements ProductStorage {
+
+    private final Map<String, Product> products = new ConcurrentHashMap<>();
+
+    @Override
+    public Product get(String id) {
+        return products.get(id);
+    }
+
+    @Override
+    public Product compute(String id, BiFunction<String, Product, Product> remapping) {
+        return products.compute(id, remapping);
+    }
+
+    @Override
+    public Iterable<Product> values() {
+        return products.values();
+    }
+
+    @Override
+    public Iterable<String> ids() {
+        return products.keySet();
+    }
+
+    @Override
+    public int size() {
+        return products.size();
+    }
+}
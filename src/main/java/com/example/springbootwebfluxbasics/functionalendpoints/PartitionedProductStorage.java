@@ -0,0 +1,72 @@
+package com.example.springbootwebfluxbasics.functionalendpoints;
+
+import com.example.springbootwebfluxbasics.common.PartitionProperties;
+import com.example.springbootwebfluxbasics.common.PartitionedMap;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+// Products split over write-locked partitions by id (app.products.storage=partitioned); each partition indexes its
+// own products by category, so category queries are answered here by scatter-gather
+@Component
+@ConditionalOnProperty(name = "app.products.storage", havingValue = "partitioned")
+public class PartitionedProductStorage implements ProductStorage {
+
+    private static final String CATEGORY = "category";
+
+    private final PartitionedMap<Product> products;
+
+    public PartitionedProductStorage(PartitionProperties properties) {
+        this.products = new PartitionedMap<>(properties.count(),
+                Map.<String, Function<Product, String>>of(CATEGORY, Product::getCategory));
+    }
+
+    @Override
+    public Product get(String id) {
+        return products.get(id);
+    }
+
+    @Override
+    public Product compute(String id, BiFunction<String, Product, Product> remapping) {
+        return products.compute(id, remapping);
+    }
+
+    @Override
+    public Iterable<Product> values() {
+        return products.values();
+    }
+
+    @Override
+    public Iterable<String> ids() {
+        return products.keySet();
+    }
+
+    @Override
+    public boolean snapshots() {
+        return true;
+    }
+
+    @Override
+    public Iterable<Product> snapshot() {
+        return products.snapshot();
+    }
+
+    @Override
+    public int size() {
+        return products.size();
+    }
+
+    @Override
+    public boolean indexesCategory() {
+        return true;
+    }
+
+    @Override
+    public List<Product> byCategory(String category) {
+        return products.find(CATEGORY, category);
+    }
+}
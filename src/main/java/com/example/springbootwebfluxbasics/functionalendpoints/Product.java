@@ -1,27 +1,35 @@
 package com.example.springbootwebfluxbasics.functionalendpoints;
 
+import com.example.springbootwebfluxbasics.common.Versioned;
 import jakarta.validation.constraints.NotBlank;
 import jakarta.validation.constraints.NotNull;
 import jakarta.validation.constraints.Size;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
-import lombok.Data;
-import lombok.NoArgsConstructor;
+import lombok.Value;
+import lombok.With;
+import lombok.extern.jackson.Jacksonized;
 
-@Data
-@Builder
-@NoArgsConstructor
+// Immutable: a write stores a new instance, so readers holding this one never see it change
+@Value
+@Builder(toBuilder = true)
+@Jacksonized
 @AllArgsConstructor
-public class Product {
-    private String id;
+public class Product implements Versioned {
+    @With
+    String id;
 
     @NotBlank(message = "Product name is required")
     @Size(min = 3, max = 100, message = "Product name must be between 3 and 100 characters")
-    private String name;
+    String name;
 
     @NotNull(message = "Product price is required")
-    private Double price;
+    Double price;
 
-    private String category;
-    private Boolean inStock;
+    String category;
+    Boolean inStock;
+
+    // Assigned by the repository on every write; backs ETags
+    @With
+    Long version;
 }
\ No newline at end of file
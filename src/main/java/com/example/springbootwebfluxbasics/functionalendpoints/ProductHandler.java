@@ -2,12 +2,26 @@ package com.example.springbootwebfluxbasics.functionalendpoints;
 
 import com.example.springbootwebfluxbasics.functionalendpoints.Product;
 import com.example.springbootwebfluxbasics.functionalendpoints.ProductRepository;
+import com.example.springbootwebfluxbasics.common.BulkIngest;
+import com.example.springbootwebfluxbasics.common.BulkItemResult;
+import com.example.springbootwebfluxbasics.common.ChangeEvent;
+import com.example.springbootwebfluxbasics.common.ChangeFeedProperties;
+import com.example.springbootwebfluxbasics.common.EntityCodecs;
+import com.example.springbootwebfluxbasics.common.EntityResponses;
+import com.example.springbootwebfluxbasics.common.Cursor;
+import com.example.springbootwebfluxbasics.common.EntityValidation;
+import com.example.springbootwebfluxbasics.common.EntityVersions;
+import com.example.springbootwebfluxbasics.common.GroupAggregates;
+import com.example.springbootwebfluxbasics.common.JsonMergePatch;
+import com.example.springbootwebfluxbasics.common.MultiGet;
+import com.fasterxml.jackson.databind.JsonNode;
 import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.stereotype.Component;
-import org.springframework.validation.BeanPropertyBindingResult;
 import org.springframework.validation.Errors;
-import org.springframework.validation.Validator;
+import org.springframework.web.reactive.function.BodyInserters;
 import org.springframework.web.reactive.function.server.ServerRequest;
 import org.springframework.web.reactive.function.server.ServerResponse;
 import org.springframework.web.server.ServerWebInputException;
@@ -15,67 +29,155 @@ import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 import java.net.URI;
-import java.time.Duration;
-
-import static org.springframework.web.reactive.function.BodyInserters.fromValue;
 
 @Component
 @RequiredArgsConstructor
 public class ProductHandler {
 
     private final ProductRepository repository;
-    private final Validator validator;
+    private final EntityValidation validator;
+    private final ChangeFeedProperties feedProperties;
+    private final BulkIngest bulkIngest;
+    private final ProductJsonCache jsonCache;
+    private final JsonMergePatch mergePatch;
+    private final MultiGet multiGet;
+    private final EntityCodecs codecs;
 
     public Mono<ServerResponse> getAllProducts(ServerRequest request) {
+        if (request.queryParam("limit").isPresent() || request.queryParam("after").isPresent()) {
+            return getProductPage(request);
+        }
+        MediaType mediaType = EntityResponses.listEncoding(request.headers().accept());
+        String etag = collectionETag(mediaType);
         Flux<Product> products = repository.findAll();
         return ServerResponse.ok()
-                .contentType(MediaType.APPLICATION_JSON)
-                .body(products, Product.class);
+                .headers(EntityResponses.list(etag, mediaType))
+                .body(codecs.body(products, jsonCache, mediaType));
+    }
+
+    // Keyset pagination: ?limit=N&after=<cursor>, the next cursor is returned in a Link header
+    private Mono<ServerResponse> getProductPage(ServerRequest request) {
+        int limit = Cursor.limit(request.queryParam("limit").map(this::parseLimit).orElse(null));
+        String after = Cursor.decode(request.queryParam("after").orElse(null));
+        MediaType mediaType = EntityResponses.listEncoding(request.headers().accept());
+        String etag = collectionETag(mediaType);
+
+        // The page is only read when the client's copy is stale
+        return request.checkNotModified(etag).switchIfEmpty(Mono.defer(() -> repository.findPage(after, limit)
+                .collectList()
+                .flatMap(page -> {
+                    ServerResponse.BodyBuilder response = ServerResponse.ok()
+                            .headers(EntityResponses.list(etag, mediaType));
+                    String next = Cursor.nextLink(request.uri(), limit, page);
+                    if (next != null) {
+                        response.header(HttpHeaders.LINK, next);
+                    }
+                    return response.body(codecs.body(Flux.fromIterable(page), jsonCache, mediaType));
+                })));
     }
 
     public Mono<ServerResponse> getProductById(ServerRequest request) {
         String id = request.pathVariable("id");
+        MediaType mediaType = EntityResponses.entityEncoding(request.headers().accept());
         Mono<Product> productMono = repository.findById(id);
 
+        // A matching If-None-Match gets a 304 before the product is encoded; otherwise its cached bytes are sent as is
         return productMono
                 .flatMap(product -> ServerResponse.ok()
-                        .contentType(MediaType.APPLICATION_JSON)
-                        .body(fromValue(product)))
+                        .headers(EntityResponses.entity(product, mediaType))
+                        .body(codecs.body(product, jsonCache, mediaType)))
                 .switchIfEmpty(ServerResponse.notFound().build());
     }
 
+    // Several products by id in one call: {"ids": [...]} in, the products found plus the ids that were not found out
+    public Mono<ServerResponse> multiGetProducts(ServerRequest request) {
+        MediaType mediaType = EntityResponses.listMediaType(request.headers().accept());
+        return request.bodyToMono(MultiGet.Request.class)
+                .switchIfEmpty(Mono.error(() -> new ServerWebInputException("Request body is required")))
+                .flatMap(body -> ServerResponse.ok()
+                        .contentType(mediaType)
+                        .body(multiGet.body(body, repository::findAllById, jsonCache, mediaType)));
+    }
+
     public Mono<ServerResponse> getProductsByCategory(ServerRequest request) {
         String category = request.pathVariable("category");
+        MediaType mediaType = EntityResponses.listEncoding(request.headers().accept());
+        String etag = collectionETag(mediaType);
         Flux<Product> products = repository.findByCategory(category);
 
         return ServerResponse.ok()
-                .contentType(MediaType.APPLICATION_JSON)
-                .body(products, Product.class);
+                .headers(EntityResponses.list(etag, mediaType))
+                .body(codecs.body(products, jsonCache, mediaType));
+    }
+
+    public Mono<ServerResponse> getProductsByPriceRange(ServerRequest request) {
+        double min = doubleParam(request, "min", Double.NEGATIVE_INFINITY);
+        double max = doubleParam(request, "max", Double.POSITIVE_INFINITY);
+        int limit = intParam(request, "limit", Integer.MAX_VALUE);
+        MediaType mediaType = EntityResponses.entityEncoding(request.headers().accept());
+        String etag = collectionETag(mediaType);
+        Flux<Product> products = repository.findByPriceRange(request.queryParam("category").orElse(null), min, max)
+                .take(limit);
+
+        return ServerResponse.ok()
+                .headers(EntityResponses.list(etag, mediaType))
+                .body(codecs.body(products, jsonCache, mediaType));
+    }
+
+    public Mono<ServerResponse> getCheapestProducts(ServerRequest request) {
+        int limit = intParam(request, "limit", 10);
+        MediaType mediaType = EntityResponses.entityEncoding(request.headers().accept());
+        String etag = collectionETag(mediaType);
+        Flux<Product> products = repository.findCheapest(request.queryParam("category").orElse(null), limit);
+
+        return ServerResponse.ok()
+                .headers(EntityResponses.list(etag, mediaType))
+                .body(codecs.body(products, jsonCache, mediaType));
     }
 
+    // The body can be JSON, CBOR, Smile or Protobuf, as its Content-Type says; the response is in the Accept'ed type
     public Mono<ServerResponse> createProduct(ServerRequest request) {
+        MediaType mediaType = EntityResponses.entityEncoding(request.headers().accept());
         Mono<Product> productMono = request.bodyToMono(Product.class)
                 .doOnNext(this::validate);
 
         return productMono
                 .flatMap(repository::save)
                 .flatMap(product -> ServerResponse.created(URI.create("/products/" + product.getId()))
-                        .contentType(MediaType.APPLICATION_JSON)
-                        .body(fromValue(product)));
+                        .headers(EntityResponses.entity(product, mediaType))
+                        .body(codecs.body(product, jsonCache, mediaType)));
+    }
+
+    // Bulk create from a JSON array or NDJSON body, decoded incrementally; one result per item is streamed back
+    public Mono<ServerResponse> bulkCreateProducts(ServerRequest request) {
+        Flux<BulkItemResult> results = bulkIngest.ingest(request.bodyToFlux(Product.class),
+                repository::saveAll, Product::getId);
+
+        return ServerResponse.ok()
+                .contentType(EntityResponses.listMediaType(request.headers().accept()))
+                .body(results, BulkItemResult.class);
     }
 
+    // Replaces the stored product in one compare-and-set, only while it is at the version named by If-Match, if any
     public Mono<ServerResponse> updateProduct(ServerRequest request) {
         String id = request.pathVariable("id");
-        Mono<Product> existingProductMono = repository.findById(id);
-        Mono<Product> newProductMono = request.bodyToMono(Product.class)
-                .doOnNext(this::validate);
+        Long expectedVersion = expectedVersion(request);
 
-        return existingProductMono
-                .flatMap(existingProduct -> newProductMono
-                        .flatMap(newProduct -> repository.update(id, newProduct)))
-                .flatMap(product -> ServerResponse.ok()
-                        .contentType(MediaType.APPLICATION_JSON)
-                        .body(fromValue(product)))
+        return request.bodyToMono(Product.class)
+                .doOnNext(this::validate)
+                .flatMap(product -> repository.replace(id, product, expectedVersion))
+                .flatMap(product -> written(request, id, product))
+                .switchIfEmpty(ServerResponse.notFound().build());
+    }
+
+    // JSON Merge Patch, applied to the stored product and written back with compare-and-set against the version it was read at
+    public Mono<ServerResponse> patchProduct(ServerRequest request) {
+        String id = request.pathVariable("id");
+        Long expectedVersion = expectedVersion(request);
+
+        return request.bodyToMono(JsonNode.class)
+                .flatMap(patch -> mergePatch.patch(repository, id, patch, Product.class, expectedVersion, this::validate))
+                .flatMap(product -> written(request, id, product))
                 .switchIfEmpty(ServerResponse.notFound().build());
     }
 
@@ -85,31 +187,121 @@ public class ProductHandler {
 
         return productMono
                 .flatMap(product -> repository.deleteById(id)
+                        .doFinally(signal -> jsonCache.invalidate(id))
                         .then(ServerResponse.noContent().build()))
                 .switchIfEmpty(ServerResponse.notFound().build());
     }
 
     public Mono<ServerResponse> deleteAllProducts(ServerRequest request) {
         return repository.deleteAll()
+                .doFinally(signal -> jsonCache.invalidateAll())
                 .then(ServerResponse.noContent().build());
     }
 
-    // Stream products with Server-Sent Events
+    // Stream products with Server-Sent Events: an optional snapshot, then live changes
     public Mono<ServerResponse> streamProducts(ServerRequest request) {
-        Flux<Product> productStream = repository.findAll()
-                .delayElements(Duration.ofSeconds(1));
+        boolean snapshot = request.queryParam("snapshot").map(Boolean::parseBoolean).orElse(true);
+        Flux<ChangeEvent<Product>> changes = repository.changes(feedProperties.bufferSize(), feedProperties.overflow());
+        Flux<ChangeEvent<Product>> initial = snapshot
+                ? repository.findAll().map(product -> ChangeEvent.snapshot(product.getId(), product))
+                : Flux.empty();
+
+        // mergeSequential subscribes to the live feed up front and holds its events until the snapshot is done
+        Flux<ServerSentEvent<ChangeEvent<Product>>> events = Flux.mergeSequential(initial, changes)
+                .map(event -> ServerSentEvent.builder(event)
+                        .event(event.type().name().toLowerCase())
+                        .build());
+
+        return ServerResponse.ok()
+                .contentType(MediaType.TEXT_EVENT_STREAM)
+                .body(BodyInserters.fromServerSentEvents(events));
+    }
+
+    // Counts and prices per category, read from aggregates the repository keeps up to date
+    public Mono<ServerResponse> getProductStats(ServerRequest request) {
+        String etag = collectionETag(MediaType.APPLICATION_JSON);
+        return request.checkNotModified(etag).switchIfEmpty(Mono.defer(() -> ServerResponse.ok()
+                .eTag(etag)
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(repository.stats())));
+    }
+
+    // Server-Sent Events: the full stats, then at most one delta per ?interval= milliseconds (default 1000) with the
+    // total and the categories that changed
+    public Mono<ServerResponse> streamProductStats(ServerRequest request) {
+        Integer millis = request.queryParam("interval").isPresent() ? intParam(request, "interval", 0) : null;
+        Flux<ProductStats> deltas = repository.statsChanges(GroupAggregates.interval(millis));
+        // mergeSequential subscribes to the deltas up front, so nothing written after the snapshot is read is missed
+        Flux<ServerSentEvent<ProductStats>> events = Flux.mergeSequential(
+                Mono.fromSupplier(repository::stats).map(stats -> statsEvent("snapshot", stats)),
+                deltas.map(stats -> statsEvent("delta", stats)));
 
         return ServerResponse.ok()
                 .contentType(MediaType.TEXT_EVENT_STREAM)
-                .body(productStream, Product.class);
+                .body(BodyInserters.fromServerSentEvents(events));
+    }
+
+    private static ServerSentEvent<ProductStats> statsEvent(String name, ProductStats stats) {
+        return ServerSentEvent.builder(stats)
+                .event(name)
+                .build();
+    }
+
+    private Mono<ServerResponse> written(ServerRequest request, String id, Product product) {
+        jsonCache.invalidate(id);
+        MediaType mediaType = EntityResponses.entityEncoding(request.headers().accept());
+        return ServerResponse.ok()
+                .headers(EntityResponses.entity(product, mediaType))
+                .body(codecs.body(product, jsonCache, mediaType));
+    }
+
+    // Several If-Match headers are read as one list
+    private Long expectedVersion(ServerRequest request) {
+        return EntityVersions.expectedVersion(String.join(",", request.headers().header(HttpHeaders.IF_MATCH)));
+    }
+
+    // Read before the data, so the tag can only be older than what the body shows, never newer
+    private String collectionETag(MediaType mediaType) {
+        return EntityVersions.collectionETag(repository.generation(), mediaType);
+    }
+
+    private Integer parseLimit(String value) {
+        try {
+            return Integer.valueOf(value);
+        } catch (NumberFormatException e) {
+            throw new ServerWebInputException("Query parameter 'limit' must be an integer");
+        }
+    }
+
+    private double doubleParam(ServerRequest request, String name, double defaultValue) {
+        try {
+            double value = request.queryParam(name).map(Double::parseDouble).orElse(defaultValue);
+            if (Double.isNaN(value)) {
+                throw new NumberFormatException();
+            }
+            return value;
+        } catch (NumberFormatException e) {
+            throw new ServerWebInputException("Query parameter '" + name + "' must be a number");
+        }
+    }
+
+    private int intParam(ServerRequest request, String name, int defaultValue) {
+        try {
+            int value = request.queryParam(name).map(Integer::parseInt).orElse(defaultValue);
+            if (value < 0) {
+                throw new NumberFormatException();
+            }
+            return value;
+        } catch (NumberFormatException e) {
+            throw new ServerWebInputException("Query parameter '" + name + "' must be a non-negative integer");
+        }
     }
 
     // Validate the product
     private void validate(Product product) {
-        Errors errors = new BeanPropertyBindingResult(product, "product");
-        validator.validate(product, errors);
+        Errors errors = validator.check(product, "product");
 
-        if (errors.hasErrors()) {
+        if (errors != null) {
             throw new ServerWebInputException(errors.toString());
         }
     }
@@ -0,0 +1,15 @@
+package com.example.springbootwebfluxbasics.functionalendpoints;
+
+import com.example.springbootwebfluxbasics.common.JsonCache;
+import com.example.springbootwebfluxbasics.common.JsonCacheProperties;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.stereotype.Component;
+
+@Component
+public class ProductJsonCache extends JsonCache<Product> {
+
+    public ProductJsonCache(ObjectMapper mapper, JsonCacheProperties properties, MeterRegistry registry) {
+        super("products", Product.class, mapper, properties, registry);
+    }
+}
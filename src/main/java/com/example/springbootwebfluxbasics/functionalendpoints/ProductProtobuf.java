@@ -0,0 +1,75 @@
+package com.example.springbootwebfluxbasics.functionalendpoints;
+
+import com.example.springbootwebfluxbasics.common.ProtobufSchema;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+
+// message Product in catalog.proto
+@Component
+public class ProductProtobuf extends ProtobufSchema<Product> {
+
+    private static final int ID = 1;
+    private static final int NAME = 2;
+    private static final int PRICE = 3;
+    private static final int CATEGORY = 4;
+    private static final int IN_STOCK = 5;
+    private static final int VERSION = 6;
+
+    private static final int ID_TAG = stringTag(ID);
+    private static final int NAME_TAG = stringTag(NAME);
+    private static final int PRICE_TAG = doubleTag(PRICE);
+    private static final int CATEGORY_TAG = stringTag(CATEGORY);
+    private static final int IN_STOCK_TAG = varintTag(IN_STOCK);
+    private static final int VERSION_TAG = varintTag(VERSION);
+
+    public ProductProtobuf() {
+        super(Product.class);
+    }
+
+    @Override
+    protected int size(Product product) {
+        return size(ID, product.getId())
+                + size(NAME, product.getName())
+                + size(PRICE, product.getPrice())
+                + size(CATEGORY, product.getCategory())
+                + size(IN_STOCK, product.getInStock())
+                + size(VERSION, product.getVersion());
+    }
+
+    @Override
+    protected void write(Product product, CodedOutputStream out) throws IOException {
+        write(out, ID, product.getId());
+        write(out, NAME, product.getName());
+        write(out, PRICE, product.getPrice());
+        write(out, CATEGORY, product.getCategory());
+        write(out, IN_STOCK, product.getInStock());
+        write(out, VERSION, product.getVersion());
+    }
+
+    @Override
+    protected Product read(CodedInputStream in) throws IOException {
+        Product.ProductBuilder product = Product.builder();
+        int tag;
+        while ((tag = in.readTag()) != 0) {
+            if (tag == ID_TAG) {
+                product.id(in.readString());
+            } else if (tag == NAME_TAG) {
+                product.name(in.readString());
+            } else if (tag == PRICE_TAG) {
+                product.price(in.readDouble());
+            } else if (tag == CATEGORY_TAG) {
+                product.category(in.readString());
+            } else if (tag == IN_STOCK_TAG) {
+                product.inStock(in.readBool());
+            } else if (tag == VERSION_TAG) {
+                product.version(in.readInt64());
+            } else {
+                in.skipField(tag);
+            }
+        }
+        return product.build();
+    }
+}
@@ -1,84 +1,234 @@
 package com.example.springbootwebfluxbasics.functionalendpoints;
 
-import com.example.springbootwebfluxbasics.functionalendpoints.Product;
+import com.example.springbootwebfluxbasics.common.BatchLoader;
+import com.example.springbootwebfluxbasics.common.DurableLog;
+import com.example.springbootwebfluxbasics.common.DurableLogFactory;
+import com.example.springbootwebfluxbasics.common.EntityStore;
+import com.example.springbootwebfluxbasics.common.EntityStoreFactory;
+import com.example.springbootwebfluxbasics.common.GroupAggregates;
+import com.example.springbootwebfluxbasics.common.HashIndex;
+import com.example.springbootwebfluxbasics.common.RangeIndex;
+import com.example.springbootwebfluxbasics.common.RepositoryMetrics;
+import com.example.springbootwebfluxbasics.common.VersionedRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Repository;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
-import java.util.Map;
+import java.time.Duration;
+import java.util.Objects;
 import java.util.UUID;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiFunction;
 
 @Repository
-public class ProductRepository {
+public class ProductRepository extends VersionedRepository<Product> {
 
-    private final Map<String, Product> products = new ConcurrentHashMap<>();
+    private final ProductStorage products;
+    // Set unless the storage or the cache answers findByCategory
+    private final boolean categoryIndexed;
+    private final HashIndex categoryIndex = new HashIndex();
+    private final RangeIndex priceIndex = new RangeIndex();
+    // Per-category counts and prices; min and max are read from the price index
+    private final GroupAggregates aggregates = new GroupAggregates(priceIndex);
+    private final RepositoryMetrics.Operation categoryQueries;
+    private final RepositoryMetrics.Operation priceQueries;
 
+    // Purely in-memory, map storage, metrics kept locally
     public ProductRepository() {
+        this(null, null, (BatchLoader<Product>) null, false, new MapProductStorage(), new SimpleMeterRegistry());
+    }
+
+    // Purely in-memory on the given storage, metrics kept locally
+    public ProductRepository(ProductStorage storage) {
+        this(null, null, (BatchLoader<Product>) null, false, storage, new SimpleMeterRegistry());
+    }
+
+    // In front of a backing store, through a loader that batches lookups missing from memory
+    public ProductRepository(EntityStore<Product> store, BatchLoader<Product> loader) {
+        this(null, store, loader, false, new MapProductStorage(), new SimpleMeterRegistry());
+    }
+
+    @Autowired
+    public ProductRepository(DurableLogFactory logs, EntityStoreFactory stores, ProductStorage storage,
+                             MeterRegistry registry) {
+        this(logs.open("products", Product.class), stores.open("products", Product.class), stores, storage, registry);
+    }
+
+    private ProductRepository(DurableLog<Product> log, EntityStore<Product> store, EntityStoreFactory stores,
+                              ProductStorage storage, MeterRegistry registry) {
+        this(log, store, store == null ? null : stores.loader("products", store), store != null && stores.queriesStore(),
+                storage, registry);
+    }
+
+    private ProductRepository(DurableLog<Product> log, EntityStore<Product> store, BatchLoader<Product> loader,
+                              boolean storeQueries, ProductStorage storage, MeterRegistry registry) {
+        super("products", log, store, loader, storeQueries, registry);
+        this.categoryIndexed = !cached() && !storage.indexesCategory();
+        this.products = storage;
+        categoryQueries = metrics.operation("findByCategory");
+        priceQueries = metrics.operation("findByPriceRange");
+        metrics.size("primary", storage::size);
+        if (categoryIndexed) {
+            metrics.size("category", categoryIndex::size);
+        }
+        metrics.size("price", priceIndex::size);
+        if (!load()) {
+            seed();
+        }
+    }
+
+    private void seed() {
         // Initialize with some products
         String id1 = UUID.randomUUID().toString();
         String id2 = UUID.randomUUID().toString();
         String id3 = UUID.randomUUID().toString();
 
-        products.put(id1, Product.builder()
+        store(Product.builder()
                 .id(id1)
                 .name("Laptop")
                 .price(1299.99)
                 .category("Electronics")
                 .inStock(true)
-                .build());
+                .build()).block();
 
-        products.put(id2, Product.builder()
+        store(Product.builder()
                 .id(id2)
                 .name("Smartphone")
                 .price(899.99)
                 .category("Electronics")
                 .inStock(true)
-                .build());
+                .build()).block();
 
-        products.put(id3, Product.builder()
+        store(Product.builder()
                 .id(id3)
                 .name("Coffee Maker")
                 .price(99.99)
                 .category("Kitchen")
                 .inStock(false)
-                .build());
+                .build()).block();
     }
 
-    public Flux<Product> findAll() {
-        return Flux.fromIterable(products.values());
+    public Flux<Product> findByCategory(String category) {
+        if (readsStore()) {
+            return categoryQueries.timed(store.findBy(ProductTable.CATEGORY, category));
+        }
+        if (products.indexesCategory()) {
+            return categoryQueries.timed(Flux.defer(() -> Flux.fromIterable(products.byCategory(category))));
+        }
+        String key = HashIndex.fold(category);
+        return categoryQueries.timed(Flux.fromIterable(categoryIndex.get(category))
+                .mapNotNull(products::get)
+                .filter(product -> key.equals(HashIndex.fold(product.getCategory()))));
     }
 
-    public Mono<Product> findById(String id) {
-        return Mono.justOrEmpty(products.get(id));
+    // Products priced in [min, max], cheapest first; category may be null to search the whole catalog
+    public Flux<Product> findByPriceRange(String category, double min, double max) {
+        String key = HashIndex.fold(category);
+        return priceQueries.timed(resolve(Flux.fromStream(() -> priceIndex.range(category, min, max)))
+                .filter(product -> product.getPrice() != null
+                        && product.getPrice() >= min && product.getPrice() <= max)
+                .filter(product -> key == null || key.equals(HashIndex.fold(product.getCategory()))));
     }
 
-    public Flux<Product> findByCategory(String category) {
-        return findAll().filter(product ->
-                category.equalsIgnoreCase(product.getCategory()));
+    public Flux<Product> findCheapest(String category, int limit) {
+        return findByPriceRange(category, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY)
+                .take(limit);
     }
 
-    public Mono<Product> save(Product product) {
-        if (product.getId() == null) {
-            product.setId(UUID.randomUUID().toString());
-        }
-        products.put(product.getId(), product);
-        return Mono.just(product);
+    public Mono<Product> update(String id, Product product) {
+        return store(product.withId(id));
     }
 
-    public Mono<Product> update(String id, Product product) {
-        product.setId(id);
-        products.put(id, product);
-        return Mono.just(product);
+    public ProductStats stats() {
+        return ProductStats.of(aggregates.report());
+    }
+
+    // The total and the categories written to, at most once per interval and only when something was written
+    public Flux<ProductStats> statsChanges(Duration interval) {
+        return aggregates.changes(interval).map(ProductStats::of);
     }
 
-    public Mono<Void> deleteById(String id) {
-        products.remove(id);
-        return Mono.empty();
+    @Override
+    protected Product resident(String id) {
+        return products.get(id);
+    }
+
+    @Override
+    protected Product compute(String id, BiFunction<String, Product, Product> remapping) {
+        return products.compute(id, remapping);
+    }
+
+    @Override
+    protected Iterable<String> residentIds() {
+        return products.ids();
+    }
+
+    @Override
+    protected Iterable<Product> residents() {
+        return products.values();
+    }
+
+    @Override
+    protected Iterable<Product> snapshot() {
+        return products.snapshots() ? products.snapshot() : null;
+    }
+
+    @Override
+    protected void check(String id, Product product) {
+        products.check(id, product);
+    }
+
+    @Override
+    protected Product withId(Product product, String id) {
+        return product.withId(id);
+    }
+
+    @Override
+    protected Product withVersion(Product product, String id, long version) {
+        return product.toBuilder().id(id).version(version).build();
+    }
+
+    // Only moves the product in the indexes whose key changed
+    @Override
+    protected void index(String id, Product existing, Product product) {
+        if (existing == null) {
+            if (categoryIndexed) {
+                categoryIndex.add(product.getCategory(), id);
+            }
+            priceIndex.add(product.getCategory(), product.getPrice(), id);
+            aggregates.add(product.getCategory(), Boolean.TRUE.equals(product.getInStock()), product.getPrice());
+            return;
+        }
+        boolean categoryChanged = !Objects.equals(HashIndex.fold(existing.getCategory()), HashIndex.fold(product.getCategory()));
+        boolean priceChanged = !Objects.equals(existing.getPrice(), product.getPrice());
+        if (categoryChanged && categoryIndexed) {
+            categoryIndex.remove(existing.getCategory(), id);
+            categoryIndex.add(product.getCategory(), id);
+        }
+        if (categoryChanged || priceChanged) {
+            priceIndex.remove(existing.getCategory(), existing.getPrice(), id);
+            priceIndex.add(product.getCategory(), product.getPrice(), id);
+        }
+        if (categoryChanged || priceChanged || !Objects.equals(existing.getInStock(), product.getInStock())) {
+            aggregates.remove(existing.getCategory(), Boolean.TRUE.equals(existing.getInStock()), existing.getPrice());
+            aggregates.add(product.getCategory(), Boolean.TRUE.equals(product.getInStock()), product.getPrice());
+        }
+    }
+
+    @Override
+    protected void unindex(String id, Product product) {
+        if (categoryIndexed) {
+            categoryIndex.remove(product.getCategory(), id);
+        }
+        priceIndex.remove(product.getCategory(), product.getPrice(), id);
+        aggregates.remove(product.getCategory(), Boolean.TRUE.equals(product.getInStock()), product.getPrice());
     }
 
-    public Mono<Void> deleteAll() {
-        products.clear();
-        return Mono.empty();
+    @Override
+    protected void flush() {
+        super.flush();
+        aggregates.flush();
     }
-}
\ No newline at end of file
+}
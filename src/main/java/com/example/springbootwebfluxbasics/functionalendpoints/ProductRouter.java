@@ -1,5 +1,7 @@
 package com.example.springbootwebfluxbasics.functionalendpoints;
 
+import com.example.springbootwebfluxbasics.common.EntityCodecs;
+import com.example.springbootwebfluxbasics.common.JsonMergePatch;
 import com.example.springbootwebfluxbasics.functionalendpoints.ProductHandler;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -13,14 +15,27 @@ import static org.springframework.web.reactive.function.server.RequestPredicates
 @Configuration
 public class ProductRouter {
 
+    // Products come as JSON or any of the binary encodings, lists of them also as NDJSON
+    private static final MediaType[] ENTITY_TYPES = {MediaType.APPLICATION_JSON,
+            MediaType.APPLICATION_CBOR, EntityCodecs.SMILE, EntityCodecs.PROTOBUF};
+    private static final MediaType[] LIST_TYPES = {MediaType.APPLICATION_JSON, MediaType.APPLICATION_NDJSON,
+            MediaType.APPLICATION_CBOR, EntityCodecs.SMILE, EntityCodecs.PROTOBUF};
+
     @Bean
     public RouterFunction<ServerResponse> route(ProductHandler handler) {
         return RouterFunctions
-                .route(GET("/products").and(accept(MediaType.APPLICATION_JSON)), handler::getAllProducts)
-                .andRoute(GET("/products/{id}").and(accept(MediaType.APPLICATION_JSON)), handler::getProductById)
-                .andRoute(GET("/products/category/{category}").and(accept(MediaType.APPLICATION_JSON)), handler::getProductsByCategory)
-                .andRoute(POST("/products").and(accept(MediaType.APPLICATION_JSON)), handler::createProduct)
-                .andRoute(PUT("/products/{id}").and(accept(MediaType.APPLICATION_JSON)), handler::updateProduct)
+                .route(GET("/products").and(accept(LIST_TYPES)), handler::getAllProducts)
+                .andRoute(GET("/products/price").and(accept(ENTITY_TYPES)), handler::getProductsByPriceRange)
+                .andRoute(GET("/products/cheapest").and(accept(ENTITY_TYPES)), handler::getCheapestProducts)
+                .andRoute(GET("/products/stats").and(accept(MediaType.APPLICATION_JSON)), handler::getProductStats)
+                .andRoute(GET("/products/stats/stream").and(accept(MediaType.TEXT_EVENT_STREAM)), handler::streamProductStats)
+                .andRoute(GET("/products/{id}").and(accept(ENTITY_TYPES)), handler::getProductById)
+                .andRoute(GET("/products/category/{category}").and(accept(LIST_TYPES)), handler::getProductsByCategory)
+                .andRoute(POST("/products").and(accept(ENTITY_TYPES)), handler::createProduct)
+                .andRoute(POST("/products/_mget").and(contentType(MediaType.APPLICATION_JSON)), handler::multiGetProducts)
+                .andRoute(POST("/products/_bulk").and(contentType(MediaType.APPLICATION_JSON, MediaType.APPLICATION_NDJSON)), handler::bulkCreateProducts)
+                .andRoute(PUT("/products/{id}").and(accept(ENTITY_TYPES)), handler::updateProduct)
+                .andRoute(PATCH("/products/{id}").and(contentType(JsonMergePatch.MEDIA_TYPE, MediaType.APPLICATION_JSON)), handler::patchProduct)
                 .andRoute(DELETE("/products/{id}"), handler::deleteProduct)
                 .andRoute(DELETE("/products"), handler::deleteAllProducts)
                 .andRoute(GET("/products/stream").and(accept(MediaType.TEXT_EVENT_STREAM)), handler::streamProducts);
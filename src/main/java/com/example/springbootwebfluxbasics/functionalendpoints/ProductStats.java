@@ -0,0 +1,25 @@
+package com.example.springbootwebfluxbasics.functionalendpoints;
+
+import com.example.springbootwebfluxbasics.common.GroupAggregates;
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.List;
+
+// Catalog-wide and per-category aggregates, maintained on every write rather than computed from the catalog
+public record ProductStats(Category total, List<Category> categories) {
+
+    // category is absent on the total; prices are absent when nothing in the group has one
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public record Category(String category, long count, long inStock, Double minPrice, Double avgPrice, Double maxPrice) {
+
+        static Category of(GroupAggregates.Snapshot snapshot) {
+            return new Category(snapshot.name(), snapshot.count(), snapshot.flagged(),
+                    snapshot.minPrice(), snapshot.avgPrice(), snapshot.maxPrice());
+        }
+    }
+
+    static ProductStats of(GroupAggregates.Report report) {
+        return new ProductStats(Category.of(report.total()),
+                report.groups().stream().map(Category::of).toList());
+    }
+}
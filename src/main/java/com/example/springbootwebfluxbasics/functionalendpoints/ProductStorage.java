@@ -0,0 +1,45 @@
+package com.example.springbootwebfluxbasics.functionalendpoints;
+
+import java.util.List;
+import java.util.function.BiFunction;
+
+// Primary id -> product storage behind ProductRepository, selected with app.products.storage
+public interface ProductStorage {
+
+    Product get(String id);
+
+    // Atomic per id: the function sees the current product (or null) and returns the new one (or null to remove)
+    Product compute(String id, BiFunction<String, Product, Product> remapping);
+
+    // Throws IllegalArgumentException for a product this storage cannot hold. Writes call it before their compute, so
+    // a rejected product leaves no index entry, log record or change event behind.
+    default void check(String id, Product product) {
+    }
+
+    // Weakly consistent views, they never fail under concurrent writes
+    Iterable<Product> values();
+
+    Iterable<String> ids();
+
+    // Storages that take their own point-in-time snapshots hand them out, the repository scans the rest at one instant
+    default boolean snapshots() {
+        return false;
+    }
+
+    // Every product as of one instant, when snapshots
+    default Iterable<Product> snapshot() {
+        throw new UnsupportedOperationException();
+    }
+
+    int size();
+
+    // Storages that keep their own category index answer findByCategory, the repository indexes the rest
+    default boolean indexesCategory() {
+        return false;
+    }
+
+    // Products whose category folds to the same key, when indexesCategory
+    default List<Product> byCategory(String category) {
+        throw new UnsupportedOperationException();
+    }
+}
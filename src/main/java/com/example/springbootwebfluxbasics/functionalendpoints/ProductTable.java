@@ -0,0 +1,21 @@
+package com.example.springbootwebfluxbasics.functionalendpoints;
+
+import com.example.springbootwebfluxbasics.common.EntityTable;
+import org.springframework.stereotype.Component;
+
+@Component
+public class ProductTable extends EntityTable<Product, Product.ProductBuilder> {
+
+    public static final String CATEGORY = "category";
+
+    public ProductTable() {
+        super(Product.class, "products", Product::builder, Product.ProductBuilder::build);
+        column("id", "VARCHAR(64)", String.class, Product::getId, (product, value) -> product.id((String) value));
+        column("name", "VARCHAR(255)", String.class, Product::getName, (product, value) -> product.name((String) value));
+        column("price", "DOUBLE PRECISION", Double.class, Product::getPrice, (product, value) -> product.price((Double) value));
+        column("category", "VARCHAR(255)", String.class, Product::getCategory, (product, value) -> product.category((String) value));
+        column("in_stock", "BOOLEAN", Boolean.class, Product::getInStock, (product, value) -> product.inStock((Boolean) value));
+        column("version", "BIGINT", Long.class, Product::getVersion, (product, value) -> product.version((Long) value));
+        index(CATEGORY, Product::getCategory);
+    }
+}
@@ -0,0 +1,34 @@
+package com.example.springbootwebfluxbasics.functionalendpoints;
+
+import com.example.springbootwebfluxbasics.common.EntityValidator;
+import org.springframework.stereotype.Component;
+import org.springframework.validation.Errors;
+
+// Product's constraint annotations as plain code; a change to either has to be made to both
+@Component
+public class ProductValidator extends EntityValidator<Product> {
+
+    public ProductValidator() {
+        super(Product.class);
+    }
+
+    @Override
+    public boolean isValid(Product product) {
+        return notBlank(product.getName())
+                && size(product.getName(), 3, 100)
+                && product.getPrice() != null;
+    }
+
+    @Override
+    protected void rejectInvalid(Product product, Errors errors) {
+        if (!notBlank(product.getName())) {
+            reject(errors, "name", "NotBlank", "Product name is required");
+        }
+        if (!size(product.getName(), 3, 100)) {
+            reject(errors, "name", "Size", "Product name must be between 3 and 100 characters", 100, 3);
+        }
+        if (product.getPrice() == null) {
+            reject(errors, "price", "NotNull", "Product price is required");
+        }
+    }
+}
@@ -1,7 +1,11 @@
 package com.example.springbootwebfluxbasics.functionalendpoints;
 
+import com.example.springbootwebfluxbasics.common.EntityCodecs;
+import com.example.springbootwebfluxbasics.common.EntityValidation;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.codec.ServerCodecConfigurer;
 import org.springframework.validation.Validator;
 import org.springframework.validation.beanvalidation.LocalValidatorFactoryBean;
 import org.springframework.web.reactive.config.EnableWebFlux;
@@ -11,8 +15,30 @@ import org.springframework.web.reactive.config.WebFluxConfigurer;
 @EnableWebFlux
 public class WebFluxConfig implements WebFluxConfigurer {
 
+    // Looked up lazily, it needs the Bean Validation bean declared here
+    private final ObjectProvider<EntityValidation> validation;
+    private final ObjectProvider<EntityCodecs> codecs;
+
+    public WebFluxConfig(ObjectProvider<EntityValidation> validation, ObjectProvider<EntityCodecs> codecs) {
+        this.validation = validation;
+        this.codecs = codecs;
+    }
+
+    // Bean Validation, used directly or as the fallback of EntityValidation depending on app.validation.engine
     @Bean
-    public Validator validator() {
+    public LocalValidatorFactoryBean beanValidator() {
         return new LocalValidatorFactoryBean();
     }
-}
\ No newline at end of file
+
+    // @Valid arguments go through the same validator as everything else
+    @Override
+    public Validator getValidator() {
+        return validation.getObject();
+    }
+
+    // CBOR, Smile and Protobuf alongside JSON, for request bodies and anything Spring encodes itself
+    @Override
+    public void configureHttpMessageCodecs(ServerCodecConfigurer configurer) {
+        codecs.getObject().register(configurer);
+    }
+}
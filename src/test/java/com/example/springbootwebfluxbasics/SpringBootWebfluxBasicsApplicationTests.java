@@ -1,13 +1,44 @@
 package com.example.springbootwebfluxbasics;
 
+import io.r2dbc.spi.ConnectionFactory;
 import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.builder.SpringApplicationBuilder;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.r2dbc.core.DatabaseClient;
+
+import javax.sql.DataSource;
+
+import static org.assertj.core.api.Assertions.assertThat;
 
 @SpringBootTest
 class SpringBootWebfluxBasicsApplicationTests {
 
+    @Autowired
+    private ApplicationContext context;
+
     @Test
     void contextLoads() {
     }
 
+    @Test
+    void noDatabaseConnectionsAreConfiguredWithoutAStoreThatNeedsThem() {
+        assertThat(context.getBeanNamesForType(ConnectionFactory.class)).isEmpty();
+        assertThat(context.getBeanNamesForType(DataSource.class)).isEmpty();
+    }
+
+    @Test
+    void theR2dbcProfileGetsAConnectionFactoryAndNoDataSource() {
+        try (ConfigurableApplicationContext r2dbc = new SpringApplicationBuilder(SpringBootWebfluxBasicsApplication.class)
+                .profiles("r2dbc")
+                .properties("server.port=0")
+                .run()) {
+            assertThat(r2dbc.getBeanNamesForType(ConnectionFactory.class)).hasSize(1);
+            assertThat(r2dbc.getBeanNamesForType(DatabaseClient.class)).hasSize(1);
+            assertThat(r2dbc.getBeanNamesForType(DataSource.class)).isEmpty();
+        }
+    }
+
 }
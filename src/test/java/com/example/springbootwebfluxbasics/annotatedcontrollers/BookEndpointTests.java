@@ -0,0 +1,344 @@
+package com.example.springbootwebfluxbasics.annotatedcontrollers;
+
+import com.example.springbootwebfluxbasics.common.BulkItemResult;
+import com.example.springbootwebfluxbasics.common.Cursor;
+import com.example.springbootwebfluxbasics.common.JsonMergePatch;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.reactive.AutoConfigureWebTestClient;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.reactive.server.EntityExchangeResult;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import reactor.core.publisher.Flux;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+
+@SpringBootTest(properties = "app.admission.enabled=false")
+@AutoConfigureWebTestClient
+class BookEndpointTests {
+
+    private static final Pattern NEXT = Pattern.compile("<([^>]+)>; rel=\"next\"");
+
+    @Autowired
+    private WebTestClient client;
+    @Autowired
+    private BookRepository repository;
+
+    @BeforeEach
+    void setUp() {
+        repository.deleteAll().block();
+        Flux.range(10, 25)
+                .concatMap(i -> repository.save(book("b" + i, "Book " + i, i % 2 == 0 ? "Ursula Le Guin" : "Iain Banks",
+                        i % 3 == 0 ? "Fantasy" : "Science Fiction")))
+                .blockLast();
+    }
+
+    @Test
+    void pagesFollowTheLinkHeaderThroughEveryBookInIdOrder() {
+        List<String> seen = new ArrayList<>();
+        String next = "/books?limit=10";
+        int pages = 0;
+        while (next != null) {
+            EntityExchangeResult<List<Book>> page = client.get().uri(next)
+                    .accept(MediaType.APPLICATION_JSON)
+                    .exchange()
+                    .expectStatus().isOk()
+                    .expectBodyList(Book.class).returnResult();
+            page.getResponseBody().forEach(book -> seen.add(book.getId()));
+            next = nextLink(page.getResponseHeaders());
+            pages++;
+        }
+
+        assertThat(pages).isEqualTo(3);
+        assertThat(seen).hasSize(25).isSorted().doesNotHaveDuplicates();
+    }
+
+    @Test
+    void cursorResumesStrictlyAfterTheLastIdOfThePage() {
+        client.get().uri("/books?limit=3&after={after}", Cursor.encode("b20"))
+                .accept(MediaType.APPLICATION_JSON)
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().value(HttpHeaders.LINK, link -> assertThat(link).contains("after=" + Cursor.encode("b23")))
+                .expectBodyList(Book.class)
+                .value(page -> assertThat(page).extracting(Book::getId).containsExactly("b21", "b22", "b23"));
+    }
+
+    @Test
+    void limitsOutsideTheAllowedRangeAndBrokenCursorsAreRejected() {
+        for (String query : List.of("limit=0", "limit=1001", "after=%25%25")) {
+            client.get().uri("/books?" + query)
+                    .accept(MediaType.APPLICATION_JSON)
+                    .exchange()
+                    .expectStatus().isBadRequest();
+        }
+    }
+
+    @Test
+    void listsAreStreamedAsNdjsonOneBookPerLine() {
+        assertThat(ndjson("/books")).hasSize(25);
+        // 8 of the ids are multiples of 3
+        assertThat(ndjson("/books/genre/FANTASY")).hasSize(8).allSatisfy(book -> assertThat(book.getGenre()).isEqualTo("Fantasy"));
+        assertThat(ndjson("/books/author/ursula le guin")).hasSize(13);
+
+        String body = client.get().uri("/books/author/Iain Banks")
+                .accept(MediaType.APPLICATION_NDJSON)
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentTypeCompatibleWith(MediaType.APPLICATION_NDJSON)
+                .expectBody(String.class).returnResult().getResponseBody();
+        assertThat(body).doesNotStartWith("[");
+        assertThat(body.split("\\n")).hasSize(12).allSatisfy(line -> assertThat(line).startsWith("{").endsWith("}"));
+    }
+
+    @Test
+    void ndjsonPagesHonourLimitAndCursor() {
+        EntityExchangeResult<byte[]> first = client.get().uri("/books?limit=6")
+                .accept(MediaType.APPLICATION_NDJSON)
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentTypeCompatibleWith(MediaType.APPLICATION_NDJSON)
+                .expectBody().returnResult();
+        String next = nextLink(first.getResponseHeaders());
+        assertThat(next).contains("after=" + Cursor.encode("b15"));
+
+        assertThat(ndjson(next)).extracting(Book::getId).containsExactly("b16", "b17", "b18", "b19", "b20", "b21");
+        assertThat(ndjson("/books?limit=6&after=" + Cursor.encode("b31"))).extracting(Book::getId)
+                .containsExactly("b32", "b33", "b34");
+    }
+
+    @Test
+    void bulkJsonArrayReportsInvalidBooksInPlaceAndWritesTheRest() {
+        List<Book> items = List.of(
+                book("n1", "Excession", "Iain Banks", "Science Fiction"),
+                book("n2", "", "Iain Banks", "Science Fiction"),
+                book("n3", "The Dispossessed", "Ursula Le Guin", "Science Fiction"),
+                book("n4", "Lathe", null, "Fantasy"));
+
+        List<BulkItemResult> results = client.post().uri("/books/_bulk")
+                .contentType(MediaType.APPLICATION_JSON)
+                .accept(MediaType.APPLICATION_JSON)
+                .bodyValue(items)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBodyList(BulkItemResult.class).returnResult().getResponseBody();
+
+        assertThat(results).extracting(BulkItemResult::index, BulkItemResult::id, BulkItemResult::status).containsExactly(
+                tuple(0L, "n1", BulkItemResult.Status.CREATED),
+                tuple(1L, null, BulkItemResult.Status.INVALID),
+                tuple(2L, "n3", BulkItemResult.Status.CREATED),
+                tuple(3L, null, BulkItemResult.Status.INVALID));
+        assertThat(results.get(3).error()).contains("author");
+        assertThat(repository.findAllById(List.of("n1", "n2", "n3", "n4")).map(Book::getId).collectList().block())
+                .containsExactly("n1", "n3");
+    }
+
+    @Test
+    void bulkNdjsonWithAMalformedLineEndsWithAnAbort() {
+        String body = """
+                {"id":"n5","title":"Matter","author":"Iain Banks","year":2008}
+                {"id":"n6","title":
+                """;
+
+        List<BulkItemResult> results = client.post().uri("/books/_bulk")
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .accept(MediaType.APPLICATION_NDJSON)
+                .bodyValue(body)
+                .exchange()
+                .expectStatus().isOk()
+                .returnResult(BulkItemResult.class)
+                .getResponseBody()
+                .collectList().block();
+
+        assertThat(results).extracting(BulkItemResult::status)
+                .containsExactly(BulkItemResult.Status.CREATED, BulkItemResult.Status.ABORTED);
+        assertThat(repository.findById("n5").block()).isNotNull();
+    }
+
+    @Test
+    void writesWithAStaleIfMatchAreRejectedWith412AndChangeNothing() {
+        String stale = client.get().uri("/books/b10")
+                .exchange()
+                .expectStatus().isOk()
+                .returnResult(Book.class).getResponseHeaders().getETag();
+        String current = client.patch().uri("/books/b10")
+                .contentType(JsonMergePatch.MEDIA_TYPE)
+                .header(HttpHeaders.IF_MATCH, stale)
+                .bodyValue("{\"year\":1974}")
+                .exchange()
+                .expectStatus().isOk()
+                .returnResult(Book.class).getResponseHeaders().getETag();
+        assertThat(current).isNotEqualTo(stale);
+
+        client.put().uri("/books/b10")
+                .header(HttpHeaders.IF_MATCH, stale)
+                .bodyValue(book(null, "Overwritten", "Iain Banks", "Fantasy"))
+                .exchange()
+                .expectStatus().isEqualTo(HttpStatus.PRECONDITION_FAILED);
+        client.patch().uri("/books/b10")
+                .contentType(JsonMergePatch.MEDIA_TYPE)
+                .header(HttpHeaders.IF_MATCH, stale)
+                .bodyValue("{\"year\":1999}")
+                .exchange()
+                .expectStatus().isEqualTo(HttpStatus.PRECONDITION_FAILED);
+
+        Book stored = repository.findById("b10").block();
+        assertThat(stored.getTitle()).isEqualTo("Book 10");
+        assertThat(stored.getYear()).isEqualTo(1974);
+        client.put().uri("/books/b10")
+                .header(HttpHeaders.IF_MATCH, current)
+                .bodyValue(book(null, "Overwritten", "Iain Banks", "Fantasy"))
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().value(HttpHeaders.ETAG, etag -> assertThat(etag).isNotEqualTo(current));
+    }
+
+    @Test
+    void aBookIsTaggedPerEncodingAndRevalidatedWithoutItsBody() {
+        String etag = client.get().uri("/books/b13")
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().valueEquals(HttpHeaders.VARY, HttpHeaders.ACCEPT)
+                .expectHeader().contentType(MediaType.APPLICATION_JSON)
+                .returnResult(byte[].class).getResponseHeaders().getETag();
+        assertThat(etag).isEqualTo("\"" + repository.findById("b13").block().getVersion() + "\"");
+
+        client.get().uri("/books/b13")
+                .header(HttpHeaders.IF_NONE_MATCH, etag)
+                .exchange()
+                .expectStatus().isNotModified();
+        client.get().uri("/books/b13")
+                .accept(MediaType.APPLICATION_CBOR)
+                .header(HttpHeaders.IF_NONE_MATCH, etag)
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentType(MediaType.APPLICATION_CBOR)
+                .expectHeader().value(HttpHeaders.ETAG, cbor -> assertThat(cbor).endsWith("-cbor\""));
+    }
+
+    @Test
+    void multiGetReturnsTheBooksFoundInRequestOrderAndListsTheRest() {
+        client.post().uri("/books/_mget")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(Map.of("ids", List.of("b20", "gone", "b11", "b20")))
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.items[*].id").isEqualTo(List.of("b20", "b11"))
+                .jsonPath("$.missing").isEqualTo(List.of("gone"));
+        client.post().uri("/books/_mget")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue("{}")
+                .exchange()
+                .expectStatus().isBadRequest();
+    }
+
+    @Test
+    void mergePatchWithNullRemovesTheFieldAndKeepsTheRest() {
+        client.patch().uri("/books/b12")
+                .contentType(JsonMergePatch.MEDIA_TYPE)
+                .bodyValue("{\"genre\":null,\"available\":false}")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(Book.class)
+                .value(patched -> {
+                    assertThat(patched.getGenre()).isNull();
+                    assertThat(patched.getAvailable()).isFalse();
+                    assertThat(patched.getTitle()).isEqualTo("Book 12");
+                });
+
+        Book stored = repository.findById("b12").block();
+        assertThat(stored.getGenre()).isNull();
+        assertThat(stored.getAuthor()).isEqualTo("Ursula Le Guin");
+        assertThat(ndjson("/books/genre/FANTASY")).extracting(Book::getId).hasSize(7).doesNotContain("b12");
+    }
+
+    @Test
+    void concurrentWritesAtTheSameIfMatchLetExactlyOneThrough() throws Exception {
+        String etag = client.get().uri("/books/b13")
+                .exchange()
+                .expectStatus().isOk()
+                .returnResult(Book.class).getResponseHeaders().getETag();
+        int writers = 8;
+        CountDownLatch start = new CountDownLatch(1);
+        List<CompletableFuture<HttpStatusCode>> statuses = new ArrayList<>();
+        for (int i = 0; i < writers; i++) {
+            int writer = i;
+            statuses.add(CompletableFuture.supplyAsync(() -> {
+                await(start);
+                return client.patch().uri("/books/b13")
+                        .contentType(JsonMergePatch.MEDIA_TYPE)
+                        .header(HttpHeaders.IF_MATCH, etag)
+                        .bodyValue("{\"title\":\"Writer " + writer + "\"}")
+                        .exchange()
+                        .returnResult(Book.class).getStatus();
+            }));
+        }
+        start.countDown();
+
+        List<HttpStatusCode> results = new ArrayList<>();
+        for (CompletableFuture<HttpStatusCode> status : statuses) {
+            results.add(status.get(10, TimeUnit.SECONDS));
+        }
+        assertThat(results).filteredOn(HttpStatus.OK::equals).hasSize(1);
+        assertThat(results).filteredOn(HttpStatus.PRECONDITION_FAILED::equals).hasSize(writers - 1);
+        assertThat(repository.findById("b13").block().getTitle()).startsWith("Writer ");
+    }
+
+    private List<Book> ndjson(String uri) {
+        return client.get().uri(uri)
+                .accept(MediaType.APPLICATION_NDJSON)
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentTypeCompatibleWith(MediaType.APPLICATION_NDJSON)
+                .returnResult(Book.class)
+                .getResponseBody()
+                .collectList().block();
+    }
+
+    static String nextLink(HttpHeaders headers) {
+        String link = headers.getFirst(HttpHeaders.LINK);
+        if (link == null) {
+            return null;
+        }
+        Matcher matcher = NEXT.matcher(link);
+        assertThat(matcher.find()).isTrue();
+        return matcher.group(1);
+    }
+
+    static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static Book book(String id, String title, String author, String genre) {
+        return Book.builder()
+                .id(id)
+                .title(title)
+                .author(author)
+                .year(2000)
+                .genre(genre)
+                .price(10.0)
+                .available(true)
+                .build();
+    }
+}
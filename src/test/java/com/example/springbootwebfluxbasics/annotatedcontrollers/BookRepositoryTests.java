@@ -0,0 +1,137 @@
+package com.example.springbootwebfluxbasics.annotatedcontrollers;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import reactor.test.StepVerifier;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class BookRepositoryTests {
+
+    private BookRepository repository;
+
+    @BeforeEach
+    void setUp() {
+        repository = new BookRepository();
+        repository.deleteAll().block();
+    }
+
+    @Test
+    void findByAuthorIsCaseInsensitive() {
+        repository.save(book("1", "Dune", "Frank Herbert", "Science Fiction")).block();
+        repository.save(book("2", "Emma", "Jane Austen", "Classic")).block();
+
+        StepVerifier.create(repository.findByAuthor("FRANK HERBERT").map(Book::getId))
+                .expectNext("1")
+                .verifyComplete();
+    }
+
+    @Test
+    void indexesFollowUpdatesAndDeletes() {
+        repository.save(book("1", "Dune", "Frank Herbert", "Science Fiction")).block();
+        repository.save(book("1", "Dune", "Frank Herbert", "Classic")).block();
+
+        StepVerifier.create(repository.findByGenre("science fiction")).verifyComplete();
+        StepVerifier.create(repository.findByGenre("classic").map(Book::getId))
+                .expectNext("1")
+                .verifyComplete();
+
+        repository.deleteById("1").block();
+        StepVerifier.create(repository.findByAuthor("frank herbert")).verifyComplete();
+    }
+
+    @Test
+    void pagesSeeEveryBookOnceWhileItIsBeingUpdated() throws Exception {
+        for (int i = 100; i < 400; i++) {
+            repository.save(book("b" + i, "Book " + i, "Iain Banks", "Science Fiction")).block();
+        }
+
+        AtomicBoolean reading = new AtomicBoolean(true);
+        Thread writer = new Thread(() -> {
+            for (int round = 0; reading.get(); round++) {
+                for (int i = 100; i < 400; i++) {
+                    repository.save(book("b" + i, "Book " + i + " v" + round, "Iain Banks",
+                            round % 2 == 0 ? "Classic" : "Science Fiction")).block();
+                }
+            }
+        });
+        writer.start();
+        try {
+            for (int pass = 0; pass < 20; pass++) {
+                List<String> seen = new ArrayList<>();
+                String after = null;
+                List<String> page;
+                do {
+                    page = repository.findPage(after, 29).map(Book::getId).collectList().block();
+                    seen.addAll(page);
+                    after = page.isEmpty() ? null : page.get(page.size() - 1);
+                } while (page.size() == 29);
+                assertThat(seen).hasSize(300).isSorted().doesNotHaveDuplicates();
+            }
+        } finally {
+            reading.set(false);
+            writer.join();
+        }
+        // The author never changed and stays indexed once; the genre and title followed the last write
+        assertThat(repository.findByAuthor("iain banks").count().block()).isEqualTo(300);
+        assertThat(repository.findByGenre("classic").count().block() + repository.findByGenre("science fiction").count().block())
+                .isEqualTo(300);
+    }
+
+    @Test
+    void findAllSeesEveryBookAsOfOneInstantWhileTheyAreRewritten() throws Exception {
+        for (int i = 100; i < 400; i++) {
+            repository.save(book("b" + i, "0", "Iain Banks", "Science Fiction")).block();
+        }
+
+        // Each round rewrites the books in id order, titled with the round number
+        AtomicBoolean reading = new AtomicBoolean(true);
+        Thread writer = new Thread(() -> {
+            for (int round = 1; reading.get(); round++) {
+                for (int i = 100; i < 400; i++) {
+                    repository.save(book("b" + i, String.valueOf(round), "Iain Banks", "Science Fiction")).block();
+                }
+            }
+        });
+        writer.start();
+        try {
+            for (int pass = 0; pass < 20; pass++) {
+                List<Book> scanned = new ArrayList<>();
+                for (Book book : repository.findAll().toIterable(1)) {
+                    scanned.add(book);
+                    Thread.yield();
+                }
+                // One instant: a prefix at some round, the rest one round behind
+                List<Integer> rounds = scanned.stream().map(book -> Integer.valueOf(book.getTitle())).toList();
+                assertThat(scanned).extracting(Book::getId).hasSize(300).isSorted().doesNotHaveDuplicates();
+                assertThat(rounds).isSortedAccordingTo(Comparator.reverseOrder());
+                assertThat(rounds.get(0) - rounds.get(rounds.size() - 1)).isBetween(0, 1);
+            }
+        } finally {
+            reading.set(false);
+            writer.join();
+        }
+    }
+
+    @Test
+    void booksWithoutGenreAreSkipped() {
+        repository.save(book("1", "Untitled", "Anonymous", null)).block();
+
+        StepVerifier.create(repository.findByGenre("classic")).verifyComplete();
+    }
+
+    private Book book(String id, String title, String author, String genre) {
+        return Book.builder()
+                .id(id)
+                .title(title)
+                .author(author)
+                .year(2000)
+                .genre(genre)
+                .build();
+    }
+}
@@ -0,0 +1,98 @@
+package com.example.springbootwebfluxbasics.common;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import org.springframework.web.reactive.function.server.RouterFunctions;
+import org.springframework.web.reactive.function.server.ServerResponse;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AdmissionControlFilterTests {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final AdmissionProperties properties = new AdmissionProperties(true, "X-Client-Id", List.of("/actuator/**"),
+            64, Duration.ofSeconds(2),
+            new AdmissionProperties.Limiter(100, 10, 2000, 1.5, Duration.ofMillis(100), Duration.ofMillis(50)),
+            new AdmissionProperties.RouteClass(List.of(), 1, 2, 0, true),
+            Map.of("slow", new AdmissionProperties.RouteClass(List.of("GET /slow"), 0, 0, 1, false)));
+    private final WebTestClient client = WebTestClient
+            .bindToRouterFunction(RouterFunctions.route()
+                    .GET("/items", request -> ServerResponse.ok().bodyValue("items"))
+                    .GET("/slow", request -> Mono.delay(Duration.ofMillis(300)).then(ServerResponse.ok().bodyValue("slow")))
+                    .GET("/actuator/health", request -> ServerResponse.ok().bodyValue("UP"))
+                    .build())
+            .webFilter(new AdmissionControlFilter(properties, new EventLoopLagMonitor(registry), registry))
+            .build();
+
+    @Test
+    void clientsPastTheirBurstAreToldWhenToComeBack() {
+        get("/items", "a").expectStatus().isOk();
+        get("/items", "a").expectStatus().isOk();
+        get("/items", "a").expectStatus().isEqualTo(HttpStatus.TOO_MANY_REQUESTS)
+                .expectHeader().valueEquals(HttpHeaders.RETRY_AFTER, "1");
+
+        // Another client has its own bucket, and health checks are never limited
+        get("/items", "b").expectStatus().isOk();
+        for (int i = 0; i < 5; i++) {
+            get("/actuator/health", "a").expectStatus().isOk();
+        }
+        assertThat(registry.get("http.admission.rejected").tags("class", "default", "reason", "rate").counter().count())
+                .isEqualTo(1);
+    }
+
+    @Test
+    void routeClassCapsItsRequestsInFlight() {
+        // Held open by a concurrent request, the one slot turns the next one away with the configured Retry-After
+        Mono.fromRunnable(() -> get("/slow", "a").expectStatus().isOk()).subscribeOn(Schedulers.boundedElastic()).subscribe();
+        Mono.delay(Duration.ofMillis(100)).block();
+        get("/slow", "b").expectStatus().isEqualTo(HttpStatus.SERVICE_UNAVAILABLE)
+                .expectHeader().valueEquals(HttpHeaders.RETRY_AFTER, "2");
+        assertThat(registry.get("http.admission.rejected").tags("class", "slow", "reason", "capacity").counter().count())
+                .isEqualTo(1);
+    }
+
+    @Test
+    void limitShrinksWhenLatencyRisesOrTheEventLoopLags() {
+        long[] lag = {0};
+        GradientLimiter limiter = new GradientLimiter(properties.limiter(), () -> lag[0]);
+
+        window(limiter, 1_000_000);
+        window(limiter, 1_000_000);
+        int steady = limiter.limit();
+        // Ten times the baseline latency; each window's samples are judged when the next one starts
+        window(limiter, 10_000_000);
+        window(limiter, 10_000_000);
+        assertThat(limiter.limit()).isLessThan(steady);
+
+        int slowed = limiter.limit();
+        lag[0] = Duration.ofMillis(200).toNanos();
+        window(limiter, 1_000_000);
+        assertThat(limiter.limit()).isLessThan(slowed).isGreaterThanOrEqualTo(10);
+    }
+
+    // A window's worth of requests, all in flight together, each taking latencyNanos
+    private static void window(GradientLimiter limiter, long latencyNanos) {
+        int requests = limiter.limit();
+        for (int i = 0; i < requests; i++) {
+            assertThat(limiter.tryAcquire()).isTrue();
+        }
+        assertThat(limiter.tryAcquire()).isFalse();
+        Mono.delay(Duration.ofMillis(110)).block();
+        for (int i = 0; i < requests; i++) {
+            limiter.release(latencyNanos, true);
+        }
+    }
+
+    private WebTestClient.ResponseSpec get(String path, String clientId) {
+        return client.get().uri(path).header("X-Client-Id", clientId).exchange();
+    }
+}
@@ -0,0 +1,159 @@
+package com.example.springbootwebfluxbasics.common;
+
+import com.example.springbootwebfluxbasics.functionalendpoints.MapProductStorage;
+import com.example.springbootwebfluxbasics.functionalendpoints.Product;
+import com.example.springbootwebfluxbasics.functionalendpoints.ProductRepository;
+import com.example.springbootwebfluxbasics.functionalendpoints.ProductTable;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class BatchLoaderTests {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final SimulatedEntityStore<Product> store = new SimulatedEntityStore<>("products", Duration.ofMillis(20), registry);
+
+    @Test
+    void concurrentLoadsOfOneIdShareAFetch() {
+        store.putAll(List.of(product("p1"))).block();
+        BatchLoader<Product> loader = loader(Duration.ZERO);
+        long before = store.roundTrips();
+
+        List<Product> loaded = Flux.range(0, 100).flatMap(i -> loader.load("p1")).collectList().block();
+
+        assertThat(loaded).hasSize(100).allMatch(product -> product.getId().equals("p1"));
+        assertThat(store.roundTrips() - before).isEqualTo(1);
+    }
+
+    @Test
+    void distinctIdsWithinAWindowGoOutTogether() {
+        store.putAll(IntStream.range(0, 50).mapToObj(i -> product("p" + i)).toList()).block();
+        BatchLoader<Product> loader = loader(Duration.ofMillis(50));
+        long before = store.roundTrips();
+
+        // Ten of the ids are missing, and come back empty
+        List<String> found = Flux.range(0, 60).flatMap(i -> loader.load("p" + i)).map(Product::getId).collectList().block();
+
+        assertThat(found).hasSize(50);
+        assertThat(store.roundTrips() - before).isEqualTo(1);
+        assertThat(registry.get("store.batch.size").summary().max()).isEqualTo(60);
+    }
+
+    @Test
+    void aLoadAfterAWriteFetchesAfreshRatherThanJoiningAFetchThatReadBeforeIt() throws Exception {
+        List<Sinks.Empty<Void>> held = List.of(Sinks.empty(), Sinks.empty());
+        List<CountDownLatch> read = List.of(new CountDownLatch(1), new CountDownLatch(1));
+        AtomicInteger fetches = new AtomicInteger();
+        SimulatedEntityStore<Product> slow = new SimulatedEntityStore<>("products", Duration.ZERO, registry) {
+            // Reads at once, answers once released
+            @Override
+            public Flux<Product> getAll(Collection<String> ids) {
+                int fetch = fetches.getAndIncrement();
+                return super.getAll(ids).collectList()
+                        .doOnNext(found -> read.get(fetch).countDown())
+                        .flatMapMany(found -> held.get(fetch).asMono().thenMany(Flux.fromIterable(found)));
+            }
+        };
+        slow.put(product("p1")).block();
+        BatchLoader<Product> loader = new BatchLoader<>("products", slow, Duration.ZERO, 128, registry);
+
+        CompletableFuture<Product> before = loader.load("p1").toFuture();
+        assertThat(read.get(0).await(5, TimeUnit.SECONDS)).isTrue();
+        slow.put(product("p1").toBuilder().version(2L).build()).block();
+        loader.written("p1");
+        CompletableFuture<Product> after = loader.load("p1").toFuture();
+        assertThat(read.get(1).await(5, TimeUnit.SECONDS)).isTrue();
+
+        // The fetch from before the write completing leaves the one after it in flight for later loads to join
+        held.get(0).tryEmitEmpty();
+        assertThat(before.get(5, TimeUnit.SECONDS).getVersion()).isEqualTo(1L);
+        CompletableFuture<Product> joined = loader.load("p1").toFuture();
+        held.get(1).tryEmitEmpty();
+
+        assertThat(after.get(5, TimeUnit.SECONDS).getVersion()).isEqualTo(2L);
+        assertThat(joined.get(5, TimeUnit.SECONDS).getVersion()).isEqualTo(2L);
+        assertThat(fetches.get()).isEqualTo(2);
+    }
+
+    @Test
+    void repositoryReadsThroughToTheStore() {
+        ProductRepository repository = new ProductRepository(store, loader(Duration.ofMillis(20)));
+        long generation = repository.generation();
+
+        // Put by another writer after startup
+        store.put(product("remote")).block();
+
+        assertThat(repository.findById("remote").block().getName()).isEqualTo("Item remote");
+        assertThat(repository.findByCategory("Remote").map(Product::getId).collectList().block()).containsExactly("remote");
+        assertThat(repository.generation()).isGreaterThan(generation);
+        assertThat(repository.findById("missing").block()).isNull();
+
+        // Resident ids are answered from memory, the rest in one round trip
+        store.putAll(List.of(product("r1"), product("r2"))).block();
+        long before = store.roundTrips();
+        assertThat(repository.findAllById(List.of("r2", "remote", "gone", "r1")).map(Product::getId).collectList().block())
+                .containsExactly("r2", "remote", "r1");
+        assertThat(store.roundTrips() - before).isEqualTo(1);
+    }
+
+    @Test
+    void deleteAllAlsoRemovesWhatOnlyTheStoreHolds() {
+        ProductRepository repository = new ProductRepository(store, loader(Duration.ofMillis(20)));
+        // Put by another writer after startup, never read through this repository
+        store.putAll(List.of(product("remote"), product("other"))).block();
+
+        repository.deleteAll().block();
+
+        assertThat(store.scan().collectList().block()).isEmpty();
+        assertThat(repository.findAll().collectList().block()).isEmpty();
+    }
+
+    @Test
+    void lookupsAnsweredByTheStoreAreMetered() {
+        SimpleMeterRegistry metrics = new SimpleMeterRegistry();
+        PersistenceProperties persistence = new PersistenceProperties(false, "data", Duration.ofMinutes(5), 4096);
+        EntityStoreFactory stores = new EntityStoreFactory(
+                new StoreProperties(StoreProperties.Type.SIMULATED, Duration.ZERO, Duration.ofMillis(1), 128,
+                        StoreProperties.Reads.STORE, null),
+                persistence,
+                new CacheProperties(false, 1000, 1000, Duration.ofSeconds(30), Duration.ofMinutes(10)),
+                metrics, List.of(new ProductTable()), null, null);
+        ProductRepository repository = new ProductRepository(new DurableLogFactory(persistence, new ObjectMapper()),
+                stores, new MapProductStorage(), metrics);
+        String id = repository.findAll().blockFirst().getId();
+
+        for (int i = 0; i < 5; i++) {
+            repository.findById(id).block();
+        }
+        repository.findAllById(List.of(id)).blockLast();
+
+        assertThat(calls(metrics, "findById")).isEqualTo(5);
+        assertThat(calls(metrics, "findAllById")).isEqualTo(1);
+    }
+
+    private static double calls(SimpleMeterRegistry metrics, String operation) {
+        return metrics.get("repository.calls").tag("repository", "products").tag("operation", operation)
+                .functionCounter().count();
+    }
+
+    private BatchLoader<Product> loader(Duration window) {
+        return new BatchLoader<>("products", store, window, 128, registry);
+    }
+
+    private static Product product(String id) {
+        return new Product(id, "Item " + id, 10.0, "Remote", true, 1L);
+    }
+}
@@ -0,0 +1,107 @@
+package com.example.springbootwebfluxbasics.common;
+
+import com.example.springbootwebfluxbasics.functionalendpoints.Product;
+import com.example.springbootwebfluxbasics.functionalendpoints.ProductValidator;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.codec.DecodingException;
+import org.springframework.validation.beanvalidation.LocalValidatorFactoryBean;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Function;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class BulkIngestTests {
+
+    private static final LocalValidatorFactoryBean beanValidator = new LocalValidatorFactoryBean();
+
+    static {
+        beanValidator.afterPropertiesSet();
+    }
+
+    private final BulkIngest bulkIngest = new BulkIngest(
+            new EntityValidation(beanValidator, List.of(new ProductValidator()),
+                    new ValidationProperties(ValidationProperties.Engine.PRECOMPILED)),
+            new BulkProperties(3, 2));
+    private final List<List<String>> batches = new CopyOnWriteArrayList<>();
+
+    @AfterAll
+    static void close() {
+        beanValidator.close();
+    }
+
+    @Test
+    void itemsAreWrittenInBatchesOfTheConfiguredSize() {
+        List<BulkItemResult> results = ingest(products(0, 7), this::save);
+
+        assertThat(batches).containsExactly(List.of("p0", "p1", "p2"), List.of("p3", "p4", "p5"), List.of("p6"));
+        assertThat(results).extracting(BulkItemResult::index).containsExactly(0L, 1L, 2L, 3L, 4L, 5L, 6L);
+        assertThat(results).extracting(BulkItemResult::status).containsOnly(BulkItemResult.Status.CREATED);
+    }
+
+    @Test
+    void anInvalidItemMidBatchIsReportedAndTheRestOfItsBatchWritten() {
+        List<Product> items = products(0, 6);
+        items.set(4, new Product("p4", null, 10.0, "Kitchen", true, null));
+
+        List<BulkItemResult> results = ingest(items, this::save);
+
+        assertThat(batches).containsExactly(List.of("p0", "p1", "p2"), List.of("p3", "p5"));
+        assertThat(results).extracting(BulkItemResult::status).containsExactly(
+                BulkItemResult.Status.CREATED, BulkItemResult.Status.CREATED, BulkItemResult.Status.CREATED,
+                BulkItemResult.Status.CREATED, BulkItemResult.Status.INVALID, BulkItemResult.Status.CREATED);
+        assertThat(results.get(4).id()).isNull();
+        assertThat(results.get(4).error()).contains("name");
+        assertThat(results.get(5).id()).isEqualTo("p5");
+    }
+
+    @Test
+    void aBodyThatBreaksOffMidBatchKeepsWhatWasDecodedAndEndsWithAnAbort() {
+        Flux<Product> items = Flux.fromIterable(products(0, 5))
+                .concatWith(Flux.error(new DecodingException("Unexpected character ('}')")));
+
+        List<BulkItemResult> results = bulkIngest.ingest(items, this::save, Product::getId).collectList().block();
+
+        assertThat(batches).containsExactly(List.of("p0", "p1", "p2"), List.of("p3", "p4"));
+        assertThat(results).hasSize(6);
+        assertThat(results.subList(0, 5)).extracting(BulkItemResult::id).containsExactly("p0", "p1", "p2", "p3", "p4");
+        assertThat(results.get(5).status()).isEqualTo(BulkItemResult.Status.ABORTED);
+        assertThat(results.get(5).index()).isNull();
+        assertThat(results.get(5).error()).contains("Unexpected character");
+    }
+
+    @Test
+    void resultsKeepRequestOrderWhenLaterBatchesFinishFirst() {
+        // The first batch is the slowest to write, the others overtake it
+        List<BulkItemResult> results = ingest(products(0, 9), batch -> save(batch)
+                .delaySubscription(Duration.ofMillis(batch.get(0).getId().equals("p0") ? 200 : 0)));
+
+        assertThat(batches).hasSize(3).first().isNotEqualTo(List.of("p0", "p1", "p2"));
+        assertThat(results).extracting(BulkItemResult::id)
+                .containsExactly("p0", "p1", "p2", "p3", "p4", "p5", "p6", "p7", "p8");
+    }
+
+    private List<BulkItemResult> ingest(List<Product> items, Function<List<Product>, Flux<Product>> saveAll) {
+        return bulkIngest.ingest(Flux.fromIterable(items), saveAll, Product::getId).collectList().block();
+    }
+
+    private Flux<Product> save(List<Product> batch) {
+        return Flux.defer(() -> {
+            batches.add(batch.stream().map(Product::getId).toList());
+            return Flux.fromIterable(batch);
+        });
+    }
+
+    private static List<Product> products(int from, int to) {
+        List<Product> products = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            products.add(new Product("p" + i, "Product " + i, 10.0 + i, "Kitchen", true, null));
+        }
+        return products;
+    }
+}
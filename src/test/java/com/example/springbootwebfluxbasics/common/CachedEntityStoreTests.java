@@ -0,0 +1,221 @@
+package com.example.springbootwebfluxbasics.common;
+
+import com.example.springbootwebfluxbasics.functionalendpoints.MapProductStorage;
+import com.example.springbootwebfluxbasics.functionalendpoints.Product;
+import com.example.springbootwebfluxbasics.functionalendpoints.ProductRepository;
+import com.example.springbootwebfluxbasics.functionalendpoints.ProductTable;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.BufferOverflowStrategy;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+
+class CachedEntityStoreTests {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final ProductTable table = new ProductTable();
+    private final SimulatedEntityStore<Product> store = new SimulatedEntityStore<>("products", table, Duration.ofMillis(1),
+            new SimpleMeterRegistry());
+    private final CachedEntityStore<Product> cached = new CachedEntityStore<>("products", store, table,
+            new CacheProperties(true, 1_000, 10_000, Duration.ofMinutes(1), Duration.ofMinutes(10)), registry);
+
+    @Test
+    void repeatedLookupsAreAnsweredFromTheCache() {
+        store.putAll(List.of(product("p1", "Kitchen", 1L), product("p2", "Kitchen", 1L))).block();
+        long before = store.roundTrips();
+
+        // Concurrent misses on one id share a load
+        Flux.range(0, 50).flatMap(i -> cached.getAll(List.of("p1"))).blockLast();
+        cached.getAll(List.of("p1", "p2", "missing")).collectList().block();
+        assertThat(cached.getAll(List.of("p1", "p2")).map(Product::getId).collectList().block())
+                .containsExactlyInAnyOrder("p1", "p2");
+        cached.findBy(ProductTable.CATEGORY, "kitchen").blockLast();
+        cached.findBy(ProductTable.CATEGORY, "KITCHEN").blockLast();
+
+        // p1, then p2 and missing together, then the category once
+        assertThat(store.roundTrips() - before).isEqualTo(3);
+        assertThat(registry.get("cache.gets").tag("cache", "products").tag("result", "hit").counter().count())
+                .isGreaterThanOrEqualTo(51);
+        assertThat(registry.get("cache.hit.ratio").tag("cache", "products.queries").gauge().value()).isEqualTo(0.5);
+        assertThat(registry.get("cache.loads").tag("cache", "products").tag("result", "success").timer().count())
+                .isPositive();
+    }
+
+    @Test
+    void writesInvalidateTheEntityAndEveryResultItMovesBetween() {
+        store.putAll(List.of(product("p1", "Kitchen", 1L), product("p2", "Kitchen", 1L))).block();
+        assertThat(cached.findBy(ProductTable.CATEGORY, "Kitchen").count().block()).isEqualTo(2);
+        assertThat(cached.findBy(ProductTable.CATEGORY, "Garden").count().block()).isZero();
+        assertThat(cached.getAll(List.of("p1")).blockFirst().getVersion()).isEqualTo(1L);
+
+        cached.put(product("p1", "Garden", 2L)).block();
+
+        assertThat(cached.getAll(List.of("p1")).blockFirst().getVersion()).isEqualTo(2L);
+        assertThat(cached.findBy(ProductTable.CATEGORY, "Kitchen").map(Product::getId).collectList().block())
+                .containsExactly("p2");
+        assertThat(cached.findBy(ProductTable.CATEGORY, "Garden").map(Product::getId).collectList().block())
+                .containsExactly("p1");
+
+        cached.delete("p2", 1L).block();
+
+        assertThat(cached.getAll(List.of("p2")).collectList().block()).isEmpty();
+        assertThat(cached.findBy(ProductTable.CATEGORY, "Kitchen").collectList().block()).isEmpty();
+    }
+
+    @Test
+    void aDeleteIsNotUndoneByAnOlderPutReachingTheStoreAfterIt() {
+        cached.put(product("p1", "Kitchen", 2L)).block();
+        assertThat(cached.findBy(ProductTable.CATEGORY, "Kitchen").count().block()).isEqualTo(1);
+
+        cached.delete("p1", 2L).block();
+        cached.put(product("p1", "Kitchen", 2L)).block();
+        cached.put(product("p1", "Garden", 1L)).block();
+        store.delete("p2", 5L).block();
+        store.put(product("p2", "Kitchen", 4L)).block();
+
+        assertThat(cached.getAll(List.of("p1", "p2")).collectList().block()).isEmpty();
+        assertThat(cached.findBy(ProductTable.CATEGORY, "Kitchen").collectList().block()).isEmpty();
+        assertThat(store.scan().collectList().block()).isEmpty();
+
+        cached.put(product("p1", "Garden", 3L)).block();
+        assertThat(cached.getAll(List.of("p1")).blockFirst().getVersion()).isEqualTo(3L);
+    }
+
+    @Test
+    void aResultReadBeforeAWriteToOneOfItsEntitiesIsNotCachedOnceTheWriteHasInvalidated() throws Exception {
+        Sinks.Empty<Void> held = Sinks.empty();
+        CountDownLatch read = new CountDownLatch(1);
+        SimulatedEntityStore<Product> slow = new SimulatedEntityStore<>("products", table, Duration.ofMillis(1),
+                new SimpleMeterRegistry()) {
+            // Reads at once, answers once released
+            @Override
+            public Flux<Product> findBy(String field, String value) {
+                return super.findBy(field, value).collectList()
+                        .doOnNext(found -> read.countDown())
+                        .flatMapMany(found -> held.asMono().thenMany(Flux.fromIterable(found)));
+            }
+        };
+        CachedEntityStore<Product> behind = new CachedEntityStore<>("products", slow, table,
+                new CacheProperties(true, 1_000, 10_000, Duration.ofMinutes(1), Duration.ofMinutes(10)), registry);
+        slow.put(product("p1", "Kitchen", 1L)).block();
+
+        CompletableFuture<List<Product>> stale = behind.findBy(ProductTable.CATEGORY, "Kitchen").collectList().toFuture();
+        assertThat(read.await(5, TimeUnit.SECONDS)).isTrue();
+        behind.put(product("p1", "Garden", 2L)).block();
+        held.tryEmitEmpty();
+
+        assertThat(stale.join()).isEmpty();
+        assertThat(behind.findBy(ProductTable.CATEGORY, "Kitchen").collectList().block()).isEmpty();
+        assertThat(behind.findBy(ProductTable.CATEGORY, "Garden").map(Product::getId).collectList().block())
+                .containsExactly("p1");
+    }
+
+    @Test
+    void aRepositoryBehindTheCacheHoldsAtMostMaxEntitiesOfAStoreThatHoldsMore() {
+        SimpleMeterRegistry metrics = new SimpleMeterRegistry();
+        PersistenceProperties persistence = new PersistenceProperties(false, "data", Duration.ofMinutes(5), 4096);
+        EntityStoreFactory stores = new EntityStoreFactory(
+                new StoreProperties(StoreProperties.Type.SIMULATED, Duration.ZERO, Duration.ofMillis(1), 128,
+                        StoreProperties.Reads.MEMORY, null),
+                persistence,
+                new CacheProperties(true, 100, 1_000, Duration.ofMinutes(1), Duration.ofMinutes(10)),
+                metrics, List.of(new ProductTable()), null, null);
+        ProductRepository repository = new ProductRepository(new DurableLogFactory(persistence, new ObjectMapper()),
+                stores, new MapProductStorage(), metrics);
+        List<Product> catalog = IntStream.range(0, 3_000).mapToObj(i -> product("p" + i, "Kitchen", 1L)).toList();
+        repository.saveAll(catalog).blockLast();
+
+        // Every product read back, through a cache a thirtieth of the catalog
+        assertThat(Flux.fromIterable(catalog).flatMap(product -> repository.findById(product.getId())).count().block())
+                .isEqualTo(3_000);
+        assertThat(repository.stats().total().count()).isEqualTo(3_003);
+
+        // Memory holds no product, and the cache settles back to its bound once eviction has run
+        assertThat(metrics.get("repository.size").tag("repository", "products").tag("index", "primary").gauge().value())
+                .isZero();
+        await().atMost(Duration.ofSeconds(5)).untilAsserted(() -> assertThat(
+                metrics.get("cache.size").tag("cache", "products").gauge().value()).isLessThanOrEqualTo(100));
+    }
+
+    @Test
+    void aRepositoryBehindTheCacheIndexesTheStoreAndReadsWhatWritesReplaceThroughIt() {
+        store.putAll(IntStream.range(0, 50).mapToObj(i -> product("p" + (10 + i), i % 2 == 0 ? "Kitchen" : "Garden", 1L))
+                .toList()).block();
+        ProductRepository repository = new ProductRepository(cached,
+                new BatchLoader<>("products", cached, Duration.ofMillis(1), 128, registry));
+
+        assertThat(repository.stats().total().count()).isEqualTo(50);
+        assertThat(repository.findPage("p12", 3).map(Product::getId).collectList().block())
+                .containsExactly("p13", "p14", "p15");
+
+        // Moves from Kitchen to Garden, and from the cheapest to the dearest
+        Product moved = repository.update("p10", product("p10", "Garden", 1L).toBuilder().price(99.0).build()).block();
+        assertThat(repository.findByCategory("Kitchen").count().block()).isEqualTo(24);
+        assertThat(repository.findByCategory("Garden").count().block()).isEqualTo(26);
+        assertThat(repository.findCheapest("Garden", 50).map(Product::getId).collectList().block()).endsWith("p10");
+        assertThat(repository.stats().total().count()).isEqualTo(50);
+
+        StepVerifier.create(repository.replace("p10", moved, 1L))
+                .expectError(VersionConflictException.class)
+                .verify();
+        assertThat(repository.replace("p10", moved.toBuilder().name("Renamed").build(), moved.getVersion())
+                .block().getName()).isEqualTo("Renamed");
+
+        repository.deleteById("p11").block();
+        assertThat(repository.findById("p11").block()).isNull();
+        assertThat(repository.findPage("p10", 2).map(Product::getId).collectList().block()).containsExactly("p12", "p13");
+        assertThat(repository.stats().total().count()).isEqualTo(49);
+    }
+
+    @Test
+    void aWriteTheStoreRefusesLeavesTheIndexesAndSubscribersAsTheyWere() {
+        SimulatedEntityStore<Product> refusing = new SimulatedEntityStore<>("products", table, Duration.ofMillis(1),
+                new SimpleMeterRegistry()) {
+            @Override
+            public Mono<Void> put(Product product) {
+                return "Refused".equals(product.getCategory())
+                        ? Mono.error(new IllegalStateException("Refused by the store")) : super.put(product);
+            }
+        };
+        refusing.put(product("p1", "Kitchen", 1L)).block();
+        CachedEntityStore<Product> behind = new CachedEntityStore<>("products", refusing, table,
+                new CacheProperties(true, 1_000, 10_000, Duration.ofMinutes(1), Duration.ofMinutes(10)), registry);
+        ProductRepository repository = new ProductRepository(behind,
+                new BatchLoader<>("products", behind, Duration.ofMillis(1), 128, registry));
+        List<ChangeEvent<Product>> events = new CopyOnWriteArrayList<>();
+        repository.changes(16, BufferOverflowStrategy.ERROR).subscribe(events::add);
+        long generation = repository.generation();
+
+        StepVerifier.create(repository.update("p1", product("p1", "Refused", 1L)))
+                .expectError(IllegalStateException.class)
+                .verify();
+        StepVerifier.create(repository.save(product("p2", "Refused", 1L)))
+                .expectError(IllegalStateException.class)
+                .verify();
+
+        assertThat(repository.findByCategory("Kitchen").map(Product::getId).collectList().block()).containsExactly("p1");
+        assertThat(repository.findCheapest("Refused", 10).collectList().block()).isEmpty();
+        assertThat(repository.findPage(null, 10).map(Product::getId).collectList().block()).containsExactly("p1");
+        assertThat(repository.stats().total().count()).isEqualTo(1);
+        assertThat(repository.generation()).isEqualTo(generation);
+        assertThat(events).isEmpty();
+    }
+
+    private static Product product(String id, String category, long version) {
+        return new Product(id, "Item " + id, 10.0, category, true, version);
+    }
+}
@@ -0,0 +1,216 @@
+package com.example.springbootwebfluxbasics.common;
+
+import com.example.springbootwebfluxbasics.functionalendpoints.Product;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DurableLogTests {
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    // Snapshots are only taken when a test asks for one
+    private final PersistenceProperties properties = new PersistenceProperties(true, null, Duration.ofHours(1), 64);
+    private final List<DurableLog<Product>> opened = new ArrayList<>();
+
+    @TempDir
+    Path directory;
+
+    @AfterEach
+    void close() {
+        opened.forEach(DurableLog::close);
+    }
+
+    @Test
+    void recoveryReplaysPutsAndDeletesInOrder() throws IOException {
+        DurableLog<Product> log = open(new ConcurrentHashMap<>());
+        log.put(product("1", "Kettle", 1L)).join();
+        log.put(product("2", "Toaster", 2L)).join();
+        log.put(product("1", "Kettle", 3L)).join();
+        log.delete("2").join();
+        log.close();
+
+        Map<String, Product> recovered = new ConcurrentHashMap<>();
+        assertThat(recover(recovered)).isTrue();
+        assertThat(recovered).containsOnlyKeys("1");
+        assertThat(recovered.get("1").getVersion()).isEqualTo(3L);
+    }
+
+    @Test
+    void aTornTailIsTruncatedAndEverythingBeforeItKept() throws IOException {
+        DurableLog<Product> log = open(new ConcurrentHashMap<>());
+        log.put(product("1", "Kettle", 1L)).join();
+        log.put(product("2", "Toaster", 2L)).join();
+        log.close();
+        Path segment = segments().get(0);
+        long intact = Files.size(segment);
+        // A crash halfway through the next record: its length and part of its checksum reached the disk
+        Files.write(segment, new byte[]{0, 0, 0, 40, 1, 2}, StandardOpenOption.APPEND);
+
+        Map<String, Product> recovered = new ConcurrentHashMap<>();
+        recover(recovered);
+
+        assertThat(recovered).containsOnlyKeys("1", "2");
+        assertThat(Files.size(segment)).isEqualTo(intact);
+    }
+
+    @Test
+    void aRecordWithABadChecksumEndsTheReplay() throws IOException {
+        DurableLog<Product> log = open(new ConcurrentHashMap<>());
+        log.put(product("1", "Kettle", 1L)).join();
+        log.put(product("2", "Toaster", 2L)).join();
+        log.close();
+        Path segment = segments().get(0);
+        byte[] bytes = Files.readAllBytes(segment);
+        // Flip a byte in the last record's payload
+        bytes[bytes.length - 3] ^= 0x55;
+        Files.write(segment, bytes);
+
+        Map<String, Product> recovered = new ConcurrentHashMap<>();
+        recover(recovered);
+
+        assertThat(recovered).containsOnlyKeys("1");
+    }
+
+    @Test
+    void snapshotThenRecoverRestoresTheLiveSetAndTheTailAfterIt() throws IOException {
+        Map<String, Product> live = new ConcurrentHashMap<>();
+        DurableLog<Product> log = open(live);
+        for (int i = 0; i < 100; i++) {
+            write(log, live, product("p" + i, "Product " + i, i + 1L));
+        }
+        log.snapshot();
+        assertThat(segments()).hasSize(1);
+
+        write(log, live, product("p0", "Renamed", 200L));
+        log.delete("p1").join();
+        live.remove("p1");
+        write(log, live, product("p100", "Product 100", 201L));
+        log.close();
+
+        Map<String, Product> recovered = new ConcurrentHashMap<>();
+        recover(recovered);
+        assertThat(recovered).isEqualTo(live);
+        assertThat(recovered.get("p0").getName()).isEqualTo("Renamed");
+    }
+
+    @Test
+    void snapshotWaitsForAWriteWhoseRecordWasQueuedBeforeTheRotation() throws Exception {
+        Map<String, Product> live = new ConcurrentHashMap<>();
+        DurableLog<Product> log = open(live);
+        write(log, live, product("1", "Kettle", 1L));
+
+        // A writer inside its compute: the new version is queued, but not yet in the live set
+        int epoch = log.beginWrite();
+        CompletableFuture<Void> logged = log.put(product("1", "Kettle", 2L));
+        CompletableFuture<Void> snapshot = CompletableFuture.runAsync(() -> {
+            try {
+                log.snapshot();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        Thread.sleep(200);
+        assertThat(snapshot).isNotDone();
+
+        live.put("1", product("1", "Kettle", 2L));
+        log.endWrite(epoch);
+        snapshot.join();
+        logged.join();
+        log.close();
+
+        // The segment holding version 2 was dropped, so it has to be in the snapshot
+        Map<String, Product> recovered = new ConcurrentHashMap<>();
+        recover(recovered);
+        assertThat(recovered.get("1").getVersion()).isEqualTo(2L);
+    }
+
+    @Test
+    void concurrentWritesSurviveSnapshotsTakenWhileTheyRun() throws Exception {
+        Map<String, Product> live = new ConcurrentHashMap<>();
+        DurableLog<Product> log = open(live);
+        List<Thread> writers = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            int writer = t;
+            writers.add(new Thread(() -> {
+                for (int i = 0; i < 2_000; i++) {
+                    String id = "w" + writer + "-" + (i % 50);
+                    int epoch = log.beginWrite();
+                    try {
+                        live.compute(id, (key, existing) -> {
+                            Product next = product(key, "Product", existing == null ? 1L : existing.getVersion() + 1);
+                            log.put(next);
+                            return next;
+                        });
+                    } finally {
+                        log.endWrite(epoch);
+                    }
+                }
+            }));
+        }
+        writers.forEach(Thread::start);
+        for (int i = 0; i < 20; i++) {
+            log.snapshot();
+        }
+        for (Thread writer : writers) {
+            writer.join();
+        }
+        log.close();
+
+        Map<String, Product> recovered = new ConcurrentHashMap<>();
+        recover(recovered);
+        assertThat(recovered).hasSize(200).isEqualTo(live);
+    }
+
+    private DurableLog<Product> open(Map<String, Product> live) throws IOException {
+        DurableLog<Product> log = new DurableLog<>(directory, "products", Product.class, mapper, properties);
+        opened.add(log);
+        log.recover(product -> live.put(product.getId(), product), live::remove);
+        log.start(live::values);
+        return log;
+    }
+
+    private boolean recover(Map<String, Product> into) throws IOException {
+        DurableLog<Product> log = new DurableLog<>(directory, "products", Product.class, mapper, properties);
+        return log.recover(product -> into.put(product.getId(), product), into::remove);
+    }
+
+    // As the repositories do it: the record is queued inside the compute that makes the value visible
+    private static void write(DurableLog<Product> log, Map<String, Product> live, Product product) {
+        int epoch = log.beginWrite();
+        CompletableFuture<?>[] logged = new CompletableFuture<?>[1];
+        try {
+            live.compute(product.getId(), (id, existing) -> {
+                logged[0] = log.put(product);
+                return product;
+            });
+        } finally {
+            log.endWrite(epoch);
+        }
+        logged[0].join();
+    }
+
+    private List<Path> segments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(path -> path.getFileName().toString().endsWith(".log")).sorted().toList();
+        }
+    }
+
+    private static Product product(String id, String name, Long version) {
+        return new Product(id, name, 10.0, "Kitchen", true, version);
+    }
+}
@@ -0,0 +1,88 @@
+package com.example.springbootwebfluxbasics.common;
+
+import com.example.springbootwebfluxbasics.annotatedcontrollers.Book;
+import com.example.springbootwebfluxbasics.annotatedcontrollers.BookProtobuf;
+import com.example.springbootwebfluxbasics.functionalendpoints.Product;
+import com.example.springbootwebfluxbasics.functionalendpoints.ProductProtobuf;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.codec.DecodingException;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.MediaType;
+import org.springframework.util.unit.DataSize;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class EntityCodecsTests {
+
+    private final ObjectMapper cbor = new ObjectMapper(new CBORFactory());
+    private final ObjectMapper smile = new ObjectMapper(new SmileFactory());
+    private final ProtobufEntityCodec protobuf = new ProtobufEntityCodec(List.of(new ProductProtobuf(), new BookProtobuf()));
+    private final EntityCodecs codecs = new EntityCodecs(cbor, smile, protobuf);
+    private final JsonCache<Product> cache = new JsonCache<>("products", Product.class, new ObjectMapper(),
+            new JsonCacheProperties(true, DataSize.ofMegabytes(1)), new SimpleMeterRegistry());
+
+    @Test
+    void listsRoundTripInEveryBinaryEncoding() throws Exception {
+        // More than one chunk, and some properties null
+        List<Product> products = IntStream.range(0, 150)
+                .mapToObj(i -> new Product("p" + i, "Product " + i, i % 7 == 0 ? null : 10.0 + i, "Category " + i % 3,
+                        i % 2 == 0, (long) i))
+                .toList();
+
+        for (MediaType mediaType : EntityCodecs.BINARY) {
+            byte[] body = encode(codecs.encode(Flux.fromIterable(products), cache, mediaType,
+                    DefaultDataBufferFactory.sharedInstance));
+            List<Product> decoded = mediaType == EntityCodecs.PROTOBUF
+                    ? new ProductProtobuf().decodeDelimited(ByteBuffer.wrap(body))
+                    : (mediaType == EntityCodecs.SMILE ? smile : cbor).readValue(body, new TypeReference<List<Product>>() {
+                    });
+            assertThat(decoded).as(mediaType.toString()).isEqualTo(products);
+        }
+    }
+
+    @Test
+    void protobufRequestBodiesDecodeAndSkipUnknownFields() {
+        Book book = new Book("b1", "Dune", "Frank Herbert", 1965, "Science Fiction", null, 9.99, true, null);
+        byte[] encoded = protobuf.encode(book);
+        // Field 15 as a varint, from some newer schema
+        byte[] extended = Arrays.copyOf(encoded, encoded.length + 2);
+        extended[encoded.length] = (byte) (15 << 3);
+        extended[encoded.length + 1] = 42;
+
+        assertThat(decode(extended)).isEqualTo(book);
+        assertThatThrownBy(() -> decode(new byte[]{(byte) (2 << 3 | 2), 100})).isInstanceOf(DecodingException.class);
+        assertThat(EntityCodecs.negotiate(MediaType.parseMediaTypes("application/json, application/x-protobuf"),
+                MediaType.APPLICATION_JSON)).isEqualTo(EntityCodecs.PROTOBUF);
+        assertThat(EntityCodecs.negotiate(MediaType.parseMediaTypes("*/*"), MediaType.APPLICATION_JSON))
+                .isEqualTo(MediaType.APPLICATION_JSON);
+    }
+
+    private Object decode(byte[] body) {
+        return protobuf.decodeToMono(Mono.just(DefaultDataBufferFactory.sharedInstance.wrap(body)),
+                ResolvableType.forClass(Book.class), EntityCodecs.PROTOBUF, null).block();
+    }
+
+    private static byte[] encode(Flux<DataBuffer> buffers) {
+        return DataBufferUtils.join(buffers).map(buffer -> {
+            byte[] bytes = new byte[buffer.readableByteCount()];
+            buffer.read(bytes);
+            return bytes;
+        }).block();
+    }
+}
@@ -0,0 +1,78 @@
+package com.example.springbootwebfluxbasics.common;
+
+import com.example.springbootwebfluxbasics.annotatedcontrollers.Book;
+import com.example.springbootwebfluxbasics.annotatedcontrollers.BookValidator;
+import com.example.springbootwebfluxbasics.functionalendpoints.Product;
+import com.example.springbootwebfluxbasics.functionalendpoints.ProductValidator;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.validation.Errors;
+import org.springframework.validation.FieldError;
+import org.springframework.validation.beanvalidation.LocalValidatorFactoryBean;
+
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class EntityValidationTests {
+
+    private static final LocalValidatorFactoryBean beanValidator = new LocalValidatorFactoryBean();
+
+    static {
+        beanValidator.afterPropertiesSet();
+    }
+
+    private final EntityValidation precompiled = validation(ValidationProperties.Engine.PRECOMPILED);
+    private final EntityValidation beanValidation = validation(ValidationProperties.Engine.BEAN_VALIDATION);
+
+    @AfterAll
+    static void close() {
+        beanValidator.close();
+    }
+
+    @Test
+    void productErrorsMatchBeanValidation() {
+        List<Product> products = List.of(
+                new Product(null, "Lamp", 30.0, "Home", true, null),
+                new Product(null, null, null, null, null, null),
+                new Product(null, "  ", 30.0, null, null, null),
+                new Product(null, "ab", 30.0, null, null, null),
+                new Product(null, "x".repeat(101), null, null, null, null));
+
+        for (Product product : products) {
+            assertThat(errors(precompiled, product)).isEqualTo(errors(beanValidation, product));
+        }
+        assertThat(errors(precompiled, products.get(1))).hasSize(2);
+    }
+
+    @Test
+    void bookErrorsMatchBeanValidation() {
+        List<Book> books = List.of(
+                new Book(null, "Dune", "Frank Herbert", 1965, null, null, 9.99, true, null),
+                new Book(null, null, null, null, null, null, null, null, null),
+                new Book(null, "", " ", 999, null, null, -1.0, null, null),
+                new Book(null, "t".repeat(201), "Anonymous", 2000, null, null, Double.NaN, null, null));
+
+        for (Book book : books) {
+            assertThat(errors(precompiled, book)).isEqualTo(errors(beanValidation, book));
+        }
+        assertThat(errors(precompiled, books.get(2))).hasSize(5);
+    }
+
+    private static Set<String> errors(EntityValidation validation, Object target) {
+        Errors errors = validation.check(target, "item");
+        if (errors == null) {
+            return Set.of();
+        }
+        return errors.getFieldErrors().stream()
+                .map(FieldError::toString)
+                .collect(Collectors.toSet());
+    }
+
+    private static EntityValidation validation(ValidationProperties.Engine engine) {
+        return new EntityValidation(beanValidator, List.of(new ProductValidator(), new BookValidator()),
+                new ValidationProperties(engine));
+    }
+}
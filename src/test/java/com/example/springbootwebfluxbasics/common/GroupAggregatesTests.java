@@ -0,0 +1,66 @@
+package com.example.springbootwebfluxbasics.common;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class GroupAggregatesTests {
+
+    private final GroupAggregates aggregates = new GroupAggregates(null);
+
+    @Test
+    void anEmptiedGroupIsDroppedWithEverySpellingItWasWrittenUnder() {
+        for (int i = 0; i < 1_000; i++) {
+            aggregates.add("Category " + i, true, 10.0);
+            aggregates.add("CATEGORY " + i, false, 20.0);
+            aggregates.remove("Category " + i, true, 10.0);
+            aggregates.remove("CATEGORY " + i, false, 20.0);
+        }
+        aggregates.add("Kitchen", true, 5.0);
+
+        assertThat(aggregates.retained()).isEqualTo(2);
+        assertThat(aggregates.report().groups()).extracting(GroupAggregates.Snapshot::name).containsExactly("Kitchen");
+        assertThat(aggregates.report().total().count()).isEqualTo(1);
+    }
+
+    @Test
+    void onlyAFewSpellingsOfOneGroupAreRemembered() {
+        // Every case variant of the name, 64 in all
+        for (int variant = 0; variant < 64; variant++) {
+            StringBuilder name = new StringBuilder();
+            for (int c = 0; c < 6; c++) {
+                char letter = "garden".charAt(c);
+                name.append((variant >> c & 1) == 1 ? Character.toUpperCase(letter) : letter);
+            }
+            aggregates.add(name.toString(), false, 2.0);
+        }
+
+        assertThat(aggregates.retained()).isLessThanOrEqualTo(1 + 8);
+        assertThat(aggregates.report().groups()).extracting(GroupAggregates.Snapshot::count).containsExactly(64L);
+    }
+
+    @Test
+    void writersRacingTheLastRemovalNeverLoseAMember() throws Exception {
+        List<Thread> writers = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            writers.add(new Thread(() -> {
+                for (int i = 0; i < 20_000; i++) {
+                    aggregates.add("Kitchen", true, 1.0);
+                    aggregates.remove("kitchen", true, 1.0);
+                }
+                aggregates.add("KITCHEN", true, 1.0);
+            }));
+        }
+        writers.forEach(Thread::start);
+        for (Thread writer : writers) {
+            writer.join();
+        }
+
+        assertThat(aggregates.report().groups()).singleElement()
+                .satisfies(group -> assertThat(group.count()).isEqualTo(4));
+        assertThat(aggregates.retained()).isLessThanOrEqualTo(4);
+    }
+}
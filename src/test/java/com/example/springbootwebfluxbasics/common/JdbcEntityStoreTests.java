@@ -0,0 +1,58 @@
+package com.example.springbootwebfluxbasics.common;
+
+import com.example.springbootwebfluxbasics.annotatedcontrollers.Book;
+import com.example.springbootwebfluxbasics.annotatedcontrollers.BookTable;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class JdbcEntityStoreTests {
+
+    private final BlockingScheduler blocking = new BlockingScheduler(BlockingProperties.Kind.BOUNDED_ELASTIC);
+    private final JdbcEntityStore<Book> books = new JdbcEntityStore<>(dataSource(), new BookTable(), blocking,
+            new SimpleMeterRegistry());
+
+    JdbcEntityStoreTests() {
+        books.createSchema().block();
+    }
+
+    @Test
+    void runsCallsOnTheBlockingScheduler() {
+        books.putAll(IntStream.range(0, 300).mapToObj(i -> book("b" + i, i % 2 == 0 ? "Ursula Le Guin" : null, 1L))
+                .toList()).block();
+        books.put(book("b0", "Ursula K. Le Guin", 2L)).block();
+        books.put(book("b0", "Stale", 1L)).block();
+
+        List<String> threads = Flux.range(0, 20)
+                .flatMap(i -> books.findBy(BookTable.AUTHOR, "URSULA LE GUIN").count()
+                        .map(count -> Thread.currentThread().getName()))
+                .collectList()
+                .block();
+
+        assertThat(threads).allMatch(thread -> thread.startsWith("boundedElastic"));
+        assertThat(books.findBy(BookTable.AUTHOR, "ursula le guin").count().block()).isEqualTo(149);
+        assertThat(books.getAll(List.of("b0", "b1")).collectList().block())
+                .extracting(Book::getAuthor).containsExactlyInAnyOrder("Ursula K. Le Guin", null);
+        assertThat(blocking.inFlight()).isZero();
+
+        books.delete("b0", 2L).block();
+        assertThat(books.scan().count().block()).isEqualTo(299);
+    }
+
+    private static JdbcDataSource dataSource() {
+        JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1");
+        return dataSource;
+    }
+
+    private static Book book(String id, String author, long version) {
+        return new Book(id, "Title " + id, author, 1970, "Fantasy", null, null, true, version);
+    }
+}
@@ -0,0 +1,72 @@
+package com.example.springbootwebfluxbasics.common;
+
+import com.example.springbootwebfluxbasics.functionalendpoints.Product;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.MediaType;
+import org.springframework.util.unit.DataSize;
+import reactor.core.publisher.Flux;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class JsonCacheTests {
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    @Test
+    void bytesAreReusedUntilTheVersionChanges() throws Exception {
+        JsonCache<Product> cache = cache(DataSize.ofMegabytes(1));
+        Product product = new Product("p1", "Laptop", 1299.99, "Electronics", true, 1L);
+
+        byte[] first = cache.json(product);
+        assertThat(cache.json(product)).isSameAs(first);
+        assertThat(mapper.readValue(first, Product.class)).isEqualTo(product);
+
+        Product updated = new Product("p1", "Laptop Pro", 1499.99, "Electronics", true, 2L);
+        assertThat(mapper.readValue(cache.json(updated), Product.class)).isEqualTo(updated);
+        assertThat(registry.get("json.cache.requests").tag("result", "hit").functionCounter().count()).isEqualTo(1);
+    }
+
+    @Test
+    void staysWithinItsByteBudget() {
+        JsonCache<Product> cache = cache(DataSize.ofKilobytes(4));
+        for (int i = 0; i < 1000; i++) {
+            cache.json(new Product("p" + i, "Product " + i, (double) i, "Books", true, (long) i));
+        }
+
+        assertThat(registry.get("json.cache.size").gauge().value()).isLessThanOrEqualTo(4096);
+        assertThat(registry.get("json.cache.evictions").functionCounter().count()).isPositive();
+    }
+
+    @Test
+    void listsAreAssembledFromFragments() throws Exception {
+        JsonCache<Product> cache = cache(DataSize.ofMegabytes(1));
+        Flux<Product> products = Flux.range(0, 100)
+                .map(i -> new Product("p" + i, "Product " + i, (double) i, "Books", true, (long) i));
+
+        String array = join(cache.encode(products, MediaType.APPLICATION_JSON, DefaultDataBufferFactory.sharedInstance));
+        String ndjson = join(cache.encode(products, MediaType.APPLICATION_NDJSON, DefaultDataBufferFactory.sharedInstance));
+
+        assertThat(mapper.readValue(array, Product[].class)).hasSize(100);
+        assertThat(ndjson.lines()).hasSize(100);
+        assertThat(join(cache.encode(Flux.empty(), MediaType.APPLICATION_JSON, DefaultDataBufferFactory.sharedInstance)))
+                .isEqualTo("[]");
+    }
+
+    private JsonCache<Product> cache(DataSize maxBytes) {
+        return new JsonCache<>("products", Product.class, mapper, new JsonCacheProperties(true, maxBytes), registry);
+    }
+
+    private static String join(Flux<DataBuffer> buffers) {
+        return DataBufferUtils.join(buffers)
+                .map(buffer -> buffer.toString(StandardCharsets.UTF_8))
+                .block();
+    }
+}
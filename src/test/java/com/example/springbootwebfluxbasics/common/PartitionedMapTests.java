@@ -0,0 +1,262 @@
+package com.example.springbootwebfluxbasics.common;
+
+import com.example.springbootwebfluxbasics.annotatedcontrollers.Book;
+import com.example.springbootwebfluxbasics.annotatedcontrollers.BookRepository;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class PartitionedMapTests {
+
+    @Test
+    void persistentMapKeepsEveryVersion() {
+        Random random = new Random(7);
+        Map<Integer, Integer> expected = new HashMap<>();
+        PersistentMap<Integer, Integer> map = PersistentMap.empty();
+        PersistentMap<Integer, Integer> halfway = null;
+        Map<Integer, Integer> expectedHalfway = null;
+        for (int i = 0; i < 20_000; i++) {
+            int key = random.nextInt(2_000);
+            if (random.nextInt(3) == 0) {
+                map = map.remove(key);
+                expected.remove(key);
+            } else {
+                map = map.put(key, i);
+                expected.put(key, i);
+            }
+            if (i == 10_000) {
+                halfway = map;
+                expectedHalfway = new HashMap<>(expected);
+            }
+        }
+
+        assertThat(toMap(map)).isEqualTo(expected);
+        assertThat(map.size()).isEqualTo(expected.size());
+        assertThat(toMap(halfway)).isEqualTo(expectedHalfway);
+        assertThat(halfway.size()).isEqualTo(expectedHalfway.size());
+    }
+
+    @Test
+    void persistentMapSeparatesCollidingKeys() {
+        // "Aa" and "BB" share a hash code
+        PersistentMap<String, Integer> map = PersistentMap.<String, Integer>empty().put("Aa", 1).put("BB", 2).put("C#", 3);
+
+        assertThat(map.get("Aa")).isEqualTo(1);
+        assertThat(map.get("BB")).isEqualTo(2);
+        assertThat(map.remove("Aa").get("BB")).isEqualTo(2);
+        assertThat(map.remove("Aa").remove("BB").remove("C#").isEmpty()).isTrue();
+    }
+
+    @Test
+    void concurrentWritesAreAppliedOnceEach() throws Exception {
+        PartitionedMap<Integer> counters = new PartitionedMap<>(4, Map.of());
+        ExecutorService writers = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> done = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                done.add(writers.submit(() -> {
+                    for (int i = 0; i < 5_000; i++) {
+                        counters.compute("c" + (i % 16), (id, count) -> count == null ? 1 : count + 1);
+                    }
+                }));
+            }
+            for (Future<?> future : done) {
+                future.get();
+            }
+        } finally {
+            writers.shutdown();
+        }
+
+        assertThat(counters).hasSize(16);
+        assertThat(counters.values().stream().mapToInt(Integer::intValue).sum()).isEqualTo(40_000);
+    }
+
+    @Test
+    void contendingWritersOnOnePartitionEachRunTheirOwnRemapping() throws Exception {
+        PartitionedMap<Integer> counters = new PartitionedMap<>(1, Map.of());
+        AtomicInteger foreign = new AtomicInteger();
+        AtomicInteger effects = new AtomicInteger();
+        ExecutorService writers = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Integer>> failures = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                failures.add(writers.submit(() -> {
+                    Thread caller = Thread.currentThread();
+                    int failed = 0;
+                    for (int i = 0; i < 2_000; i++) {
+                        boolean fail = i % 10 == 0;
+                        try {
+                            counters.compute("c" + (i % 4), (id, count) -> {
+                                if (Thread.currentThread() != caller) {
+                                    foreign.incrementAndGet();
+                                }
+                                if (fail) {
+                                    throw new IllegalStateException("refused");
+                                }
+                                // A side effect, as the repositories' remappings have
+                                effects.incrementAndGet();
+                                return count == null ? 1 : count + 1;
+                            });
+                        } catch (IllegalStateException e) {
+                            failed++;
+                        }
+                    }
+                    return failed;
+                }));
+            }
+            for (Future<Integer> failed : failures) {
+                // Each caller sees exactly its own remappings' failures
+                assertThat(failed.get()).isEqualTo(200);
+            }
+        } finally {
+            writers.shutdown();
+        }
+
+        assertThat(foreign).hasValue(0);
+        assertThat(effects).hasValue(8 * 1_800);
+        assertThat(counters.values().stream().mapToInt(Integer::intValue).sum()).isEqualTo(8 * 1_800);
+    }
+
+    @Test
+    void indexesFollowWritesAndFailedWritesLeaveNoTrace() {
+        PartitionedMap<String> cities = new PartitionedMap<>(3, Map.<String, Function<String, String>>of(
+                "country", city -> city.substring(city.indexOf(',') + 1)));
+        cities.put("1", "Lyon,France");
+        cities.put("2", "Porto,Portugal");
+        cities.put("3", "Nice,FRANCE");
+
+        assertThat(cities.find("country", "france")).containsExactlyInAnyOrder("Lyon,France", "Nice,FRANCE");
+
+        cities.put("3", "Nice,Italy");
+        cities.remove("1");
+        assertThat(cities.find("country", "France")).isEmpty();
+        assertThat(cities.find("country", "Italy")).containsExactly("Nice,Italy");
+
+        assertThatThrownBy(() -> cities.compute("2", (id, city) -> {
+            throw new VersionConflictException(id, 1L, 2L);
+        })).isInstanceOf(VersionConflictException.class);
+        assertThat(cities.get("2")).isEqualTo("Porto,Portugal");
+        assertThat(cities.find("country", "portugal")).hasSize(1);
+    }
+
+    @Test
+    void snapshotsStayAtTheirPointInTime() {
+        PartitionedMap<String> map = new PartitionedMap<>(4, Map.of());
+        for (int i = 0; i < 100; i++) {
+            map.put("k" + i, "v1");
+        }
+        Iterable<String> before = map.snapshot();
+
+        for (int i = 0; i < 100; i++) {
+            map.put("k" + i, "v2");
+        }
+        map.remove("k0");
+        map.put("new", "v2");
+
+        assertThat(before).hasSize(100).containsOnly("v1");
+        assertThat(map.snapshot()).hasSize(100).containsOnly("v2");
+    }
+
+    @Test
+    void aSnapshotTakenWhileWritesRunHoldsEachPartitionAsOfTheSameCut() throws Exception {
+        PartitionedMap<Integer> rounds = new PartitionedMap<>(8, Map.of());
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < 64; i++) {
+            ids.add("k" + i);
+            rounds.put("k" + i, 0);
+        }
+        AtomicBoolean stop = new AtomicBoolean();
+        ExecutorService writer = Executors.newSingleThreadExecutor();
+        try {
+            // Round after round, each id in turn is set to the round number
+            Future<?> writes = writer.submit(() -> {
+                for (int round = 1; !stop.get(); round++) {
+                    for (String id : ids) {
+                        rounds.put(id, round);
+                    }
+                }
+            });
+            for (int i = 0; i < 2_000; i++) {
+                Map<Integer, Integer> seen = new HashMap<>();
+                rounds.snapshot().forEach(round -> seen.merge(round, 1, Integer::sum));
+                // Some ids at the round under way and the rest at the one before it
+                assertThat(seen.values().stream().mapToInt(Integer::intValue).sum()).isEqualTo(64);
+                assertThat(seen).hasSizeLessThanOrEqualTo(2);
+                if (seen.size() == 2) {
+                    int low = Collections.min(seen.keySet());
+                    assertThat(seen).containsKey(low + 1);
+                }
+            }
+            stop.set(true);
+            writes.get();
+        } finally {
+            writer.shutdown();
+        }
+    }
+
+    @Test
+    void remappingsMayTakeSnapshotsWhileOthersDo() throws Exception {
+        PartitionedMap<Integer> counters = new PartitionedMap<>(4, Map.of());
+        for (int i = 0; i < 16; i++) {
+            counters.put("c" + i, 0);
+        }
+        ExecutorService writers = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> done = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                done.add(writers.submit(() -> {
+                    for (int i = 0; i < 500; i++) {
+                        counters.compute("c" + (i % 16), (id, count) -> {
+                            int seen = 0;
+                            for (Integer ignored : counters.snapshot()) {
+                                seen++;
+                            }
+                            assertThat(seen).isEqualTo(16);
+                            return count + 1;
+                        });
+                    }
+                }));
+            }
+            for (Future<?> future : done) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            writers.shutdownNow();
+        }
+
+        assertThat(counters.values().stream().mapToInt(Integer::intValue).sum()).isEqualTo(4_000);
+    }
+
+    @Test
+    void repositoryAnswersAuthorQueriesFromThePartitions() {
+        BookRepository repository = new BookRepository(BookRepository.partitioned(4));
+        repository.save(Book.builder().title("Dune").author("Frank Herbert").genre("Science Fiction").build()).block();
+        Book messiah = repository.save(Book.builder().title("Dune Messiah").author("FRANK HERBERT").genre("Science Fiction").build()).block();
+
+        assertThat(repository.findByAuthor("frank herbert").count().block()).isEqualTo(2);
+        repository.deleteById(messiah.getId()).block();
+        assertThat(repository.findByAuthor("Frank Herbert").map(Book::getTitle).collectList().block()).containsExactly("Dune");
+        assertThat(repository.findByGenre("science fiction").count().block()).isEqualTo(1);
+    }
+
+    private static <K, V> Map<K, V> toMap(PersistentMap<K, V> map) {
+        Map<K, V> copy = new HashMap<>();
+        map.forEach(entry -> copy.put(entry.getKey(), entry.getValue()));
+        return copy;
+    }
+}
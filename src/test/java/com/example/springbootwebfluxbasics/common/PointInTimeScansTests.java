@@ -0,0 +1,53 @@
+package com.example.springbootwebfluxbasics.common;
+
+import org.junit.jupiter.api.Test;
+import reactor.test.StepVerifier;
+
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PointInTimeScansTests {
+
+    private final ConcurrentSkipListMap<String, String> storage = new ConcurrentSkipListMap<>();
+    private final PointInTimeScans<String> scans = new PointInTimeScans<>();
+
+    @Test
+    void writesBehindAnOpenScanRecordNothingWithItAndWritesAheadOnlyUntilItPasses() {
+        for (char id = 'a'; id <= 'j'; id++) {
+            storage.put(String.valueOf(id), "old " + id);
+        }
+
+        StepVerifier.create(scans.scan(storage.navigableKeySet(), storage::get), 5)
+                .expectNext("old a", "old b", "old c", "old d", "old e")
+                .then(() -> {
+                    for (int round = 0; round < 100; round++) {
+                        for (char id = 'a'; id <= 'e'; id++) {
+                            write(String.valueOf(id), "new " + id);
+                        }
+                        write("c" + round, "created " + round);
+                    }
+                    assertThat(scans.recorded()).isZero();
+
+                    write("h", "new h");
+                    write("h", "newer h");
+                    assertThat(scans.recorded()).isEqualTo(1);
+                })
+                .thenRequest(1)
+                .expectNext("old f")
+                .then(() -> assertThat(scans.recorded()).isEqualTo(1))
+                .thenRequest(2)
+                .expectNext("old g", "old h")
+                .then(() -> assertThat(scans.recorded()).isZero())
+                .thenRequest(Long.MAX_VALUE)
+                .expectNext("old i", "old j")
+                .verifyComplete();
+    }
+
+    private void write(String id, String value) {
+        storage.compute(id, (key, existing) -> {
+            scans.replacing(id, existing);
+            return value;
+        });
+    }
+}
@@ -0,0 +1,112 @@
+package com.example.springbootwebfluxbasics.common;
+
+import com.example.springbootwebfluxbasics.annotatedcontrollers.Book;
+import com.example.springbootwebfluxbasics.annotatedcontrollers.BookTable;
+import com.example.springbootwebfluxbasics.functionalendpoints.Product;
+import com.example.springbootwebfluxbasics.functionalendpoints.ProductTable;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.r2dbc.spi.ConnectionFactories;
+import org.junit.jupiter.api.Test;
+import org.springframework.r2dbc.core.DatabaseClient;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class R2dbcEntityStoreTests {
+
+    // A database per test class instance, so every test starts from empty tables
+    private final DatabaseClient client = DatabaseClient.create(ConnectionFactories.get(
+            "r2dbc:h2:mem:///" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1"));
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final R2dbcEntityStore<Product> products = new R2dbcEntityStore<>(client, new ProductTable(), registry);
+    private final R2dbcEntityStore<Book> books = new R2dbcEntityStore<>(client, new BookTable(), registry);
+
+    R2dbcEntityStoreTests() {
+        products.createSchema().block();
+        books.createSchema().block();
+    }
+
+    @Test
+    void keepsTheNewestVersionOfEachRow() {
+        products.put(product("p1", "Laptop", "Electronics", 2L)).block();
+        products.put(product("p1", "Old laptop", "Electronics", 1L)).block();
+        products.put(new Product("p2", "Kettle", null, null, null, 1L)).block();
+
+        assertThat(products.getAll(List.of("p1", "p2", "p1", "missing")).collectList().block())
+                .extracting(Product::getName).containsExactlyInAnyOrder("Laptop", "Kettle");
+
+        products.put(product("p1", "New laptop", "Computers", 3L)).block();
+        assertThat(products.getAll(List.of("p1")).blockFirst().getName()).isEqualTo("New laptop");
+        assertThat(products.findBy(ProductTable.CATEGORY, "electronics").collectList().block()).isEmpty();
+
+        // Only the version named, or an older one, is removed
+        products.delete("p1", 2L).block();
+        assertThat(products.getAll(List.of("p1")).collectList().block()).hasSize(1);
+        products.delete("p1", 3L).block();
+        assertThat(products.getAll(List.of("p1")).collectList().block()).isEmpty();
+    }
+
+    @Test
+    void aDeleteIsNotUndoneByAnOlderPutReachingTheStoreAfterIt() {
+        products.put(product("p1", "Laptop", "Electronics", 2L)).block();
+        products.delete("p1", 2L).block();
+        // Writes issued before the delete, arriving late
+        products.put(product("p1", "Laptop", "Electronics", 2L)).block();
+        products.putAll(List.of(product("p1", "Old laptop", "Electronics", 1L))).block();
+        // A delete reaching the store ahead of the write it deletes
+        products.delete("p2", 5L).block();
+        products.put(product("p2", "Kettle", "Kitchen", 5L)).block();
+
+        assertThat(products.getAll(List.of("p1", "p2")).collectList().block()).isEmpty();
+        assertThat(products.scan().collectList().block()).isEmpty();
+        assertThat(products.findBy(ProductTable.CATEGORY, "electronics").collectList().block()).isEmpty();
+
+        // A newer write brings the id back
+        products.put(product("p1", "New laptop", "Computers", 3L)).block();
+        assertThat(products.getAll(List.of("p1")).blockFirst().getName()).isEqualTo("New laptop");
+        assertThat(products.findBy(ProductTable.CATEGORY, "computers").count().block()).isEqualTo(1);
+    }
+
+    @Test
+    void batchesAreWrittenAFewStatementsAtATime() {
+        List<Product> batch = IntStream.range(0, 600)
+                .mapToObj(i -> product("p" + i, "Item " + i, i % 3 == 0 ? "Garden" : "Kitchen", 1L))
+                .toList();
+        long before = products.roundTrips();
+
+        products.putAll(batch).block();
+
+        // 600 rows in chunks of 256
+        assertThat(products.roundTrips() - before).isEqualTo(3);
+        assertThat(products.scan().count().block()).isEqualTo(600);
+        assertThat(products.findBy(ProductTable.CATEGORY, "GARDEN").count().block()).isEqualTo(200);
+        assertThat(products.getAll(List.of("p7")).blockFirst())
+                .usingRecursiveComparison().isEqualTo(product("p7", "Item 7", "Kitchen", 1L));
+    }
+
+    @Test
+    void looksBooksUpByAuthorAndGenreIgnoringCase() {
+        books.putAll(List.of(
+                book("b1", "Emma", "Jane Austen", "Fiction"),
+                book("b1", "Emma", "Jane Austen", "Classic"),
+                book("b2", "Persuasion", "Jane Austen", "Romance"),
+                book("b3", "Dune", "Frank Herbert", "Classic"))).block();
+
+        assertThat(books.findBy(BookTable.AUTHOR, "JANE AUSTEN").map(Book::getTitle).collectList().block())
+                .containsExactlyInAnyOrder("Emma", "Persuasion");
+        assertThat(books.findBy(BookTable.GENRE, "classic").map(Book::getId).collectList().block())
+                .containsExactlyInAnyOrder("b1", "b3");
+        assertThat(books.getAll(List.of("b3")).blockFirst().getYear()).isEqualTo(1965);
+    }
+
+    private static Product product(String id, String name, String category, long version) {
+        return new Product(id, name, 9.5, category, true, version);
+    }
+
+    private static Book book(String id, String title, String author, String genre) {
+        return new Book(id, title, author, 1965, genre, null, 12.0, true, 1L);
+    }
+}
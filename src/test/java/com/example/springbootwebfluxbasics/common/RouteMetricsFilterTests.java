@@ -0,0 +1,69 @@
+package com.example.springbootwebfluxbasics.common;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import org.springframework.web.reactive.function.server.RouterFunctions;
+import org.springframework.web.reactive.function.server.ServerResponse;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+
+class RouteMetricsFilterTests {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final Sinks.One<String> slow = Sinks.one();
+    private final WebTestClient client = WebTestClient
+            .bindToRouterFunction(RouterFunctions.route()
+                    .GET("/items/{id}", request -> ServerResponse.ok().bodyValue("item " + request.pathVariable("id")))
+                    .GET("/slow", request -> ServerResponse.ok().body(slow.asMono(), String.class))
+                    .GET("/broken", request -> Mono.error(new ResponseStatusException(HttpStatus.CONFLICT)))
+                    .build())
+            .webFilter(new RouteMetricsFilter(registry))
+            .build();
+
+    @Test
+    void requestsAreRecordedPerRoutePattern() {
+        client.get().uri("/items/1").exchange().expectStatus().isOk();
+        client.get().uri("/items/2").exchange().expectStatus().isOk();
+
+        assertThat(registry.get("http.route.requests")
+                .tags("route", "/items/{id}", "method", "GET", "outcome", "SUCCESS")
+                .timer().count()).isEqualTo(2);
+        assertThat(registry.get("http.route.response.size")
+                .tags("route", "/items/{id}")
+                .summary().totalAmount()).isEqualTo(12);
+        assertThat(registry.get("http.route.active").tags("route", "/items/{id}").gauge().value()).isZero();
+    }
+
+    @Test
+    void requestsInFlightAreCountedUnderTheirOwnRoute() {
+        client.get().uri("/items/1").exchange().expectStatus().isOk();
+        CompletableFuture<Void> waiting = CompletableFuture.runAsync(
+                () -> client.get().uri("/slow").exchange().expectBody(String.class).isEqualTo("done"));
+
+        await().atMost(Duration.ofSeconds(5)).untilAsserted(() -> assertThat(
+                registry.get("http.route.active").tags("route", "/slow", "method", "GET").gauge().value()).isEqualTo(1));
+        assertThat(registry.get("http.route.active").tags("route", "/items/{id}").gauge().value()).isZero();
+
+        slow.tryEmitValue("done");
+        waiting.join();
+        assertThat(registry.get("http.route.active").tags("route", "/slow").gauge().value()).isZero();
+    }
+
+    @Test
+    void errorsAreRecordedWithTheStatusTheyMapTo() {
+        client.get().uri("/broken").exchange().expectStatus().isEqualTo(HttpStatus.CONFLICT);
+
+        assertThat(registry.get("http.route.requests")
+                .tags("route", "/broken", "outcome", "CLIENT_ERROR")
+                .timer().count()).isEqualTo(1);
+    }
+}
@@ -0,0 +1,100 @@
+package com.example.springbootwebfluxbasics.common;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TextIndexTests {
+
+    private final TextIndex index = new TextIndex(2, 1);
+
+    @Test
+    void ranksTitleMatchesAboveDescriptionMatches() {
+        index.add("1", "Dune", "A desert planet and its spice");
+        index.add("2", "Children of Dune", "The desert planet, years later");
+        index.add("3", "Desert Solitaire", "A season in the wilderness");
+
+        assertThat(ids("desert")).containsExactly("3", "1", "2");
+        assertThat(ids("DUNE spice")).first().isEqualTo("1");
+        assertThat(ids("the of and")).isEmpty();
+    }
+
+    @Test
+    void lastWordMatchesAsAPrefix() {
+        index.add("1", "Foundation", null);
+        index.add("2", "Foundation and Empire", null);
+        index.add("3", "The Founders", null);
+
+        assertThat(ids("found")).containsExactlyInAnyOrder("1", "2", "3");
+        assertThat(ids("empire found")).first().isEqualTo("2");
+        assertThat(ids("found empire")).containsExactly("2");
+    }
+
+    @Test
+    void followsUpdatesAndRemovals() {
+        index.add("1", "Emma", "A novel about youthful hubris");
+        index.add("2", "Persuasion", "A novel about second chances");
+
+        index.remove("1", "Emma", "A novel about youthful hubris");
+        index.add("1", "Emma", "A comedy of manners");
+
+        assertThat(ids("novel")).containsExactly("2");
+        assertThat(ids("comedy")).containsExactly("1");
+
+        index.remove("2", "Persuasion", "A novel about second chances");
+        assertThat(ids("novel")).isEmpty();
+        assertThat(index.size()).isEqualTo(3);
+        assertThat(index.memoryBytes()).isPositive();
+    }
+
+    @Test
+    void aQueryNeverReportsOneEntitysPostingsUnderAnotherWhoseDocNumberItReused() throws Exception {
+        for (int i = 0; i < 200; i++) {
+            index.add("alpha-" + i, "alpha", null);
+        }
+        // Each id keeps moving between the two terms, freeing its doc number for an id of the other term
+        AtomicBoolean running = new AtomicBoolean(true);
+        Thread writer = new Thread(() -> {
+            for (int round = 0; running.get(); round++) {
+                int i = round % 200;
+                index.remove("alpha-" + i, "alpha", null);
+                index.add("beta-" + i, "beta", null);
+                index.remove("beta-" + i, "beta", null);
+                index.add("alpha-" + i, "alpha", null);
+            }
+        });
+        List<String> misattributed = new ArrayList<>();
+        List<Thread> readers = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            readers.add(new Thread(() -> {
+                for (int q = 0; q < 20_000; q++) {
+                    for (TextIndex.Hit hit : index.search("alpha", 200)) {
+                        if (!hit.id().startsWith("alpha-")) {
+                            synchronized (misattributed) {
+                                misattributed.add(hit.id());
+                            }
+                        }
+                    }
+                }
+            }));
+        }
+        writer.start();
+        readers.forEach(Thread::start);
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        running.set(false);
+        writer.join();
+
+        assertThat(misattributed).isEmpty();
+        assertThat(ids("alpha")).hasSize(10);
+    }
+
+    private List<String> ids(String query) {
+        return index.search(query, 10).stream().map(TextIndex.Hit::id).toList();
+    }
+}
@@ -0,0 +1,113 @@
+package com.example.springbootwebfluxbasics.functionalendpoints;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ColumnarProductStorageTests {
+
+    private final ColumnarProductStorage storage = new ColumnarProductStorage();
+
+    @Test
+    void roundTripsEveryField() {
+        String uuid = UUID.randomUUID().toString();
+        Product full = new Product(uuid, "Laptop", 1299.99, "Electronics", true, 7L);
+        Product sparse = new Product("SKU-1", "Näive Mug", null, null, null, null);
+
+        storage.compute(uuid, (id, existing) -> full);
+        storage.compute("SKU-1", (id, existing) -> sparse);
+
+        assertThat(storage.get(uuid)).isEqualTo(full);
+        assertThat(storage.get("SKU-1")).isEqualTo(sparse);
+        assertThat(storage.get(uuid.toUpperCase())).isNull();
+        assertThat(storage.size()).isEqualTo(2);
+    }
+
+    @Test
+    void matchesAMapUnderRandomWrites() {
+        Map<String, Product> expected = new HashMap<>();
+        List<String> ids = new ArrayList<>();
+        Random random = new Random(42);
+        for (int i = 0; i < 5000; i++) {
+            ids.add(i % 3 == 0 ? "id-" + i : UUID.randomUUID().toString());
+        }
+
+        for (int i = 0; i < 50_000; i++) {
+            String id = ids.get(random.nextInt(ids.size()));
+            if (random.nextInt(4) == 0) {
+                expected.remove(id);
+                storage.compute(id, (key, existing) -> null);
+            } else {
+                Product product = new Product(id, "Product " + i, (double) random.nextInt(500),
+                        "category-" + random.nextInt(20), random.nextBoolean(), i + 1L);
+                expected.put(id, product);
+                storage.compute(id, (key, existing) -> product);
+            }
+        }
+
+        assertThat(storage.size()).isEqualTo(expected.size());
+        for (String id : ids) {
+            assertThat(storage.get(id)).isEqualTo(expected.get(id));
+        }
+        assertThat(storage.values()).containsExactlyInAnyOrderElementsOf(expected.values());
+    }
+
+    @Test
+    void aProductTheArenaCannotHoldIsRejectedWithoutChangingAnything() {
+        Product kettle = new Product("SKU-1", "Kettle", 25.0, "Kitchen", true, 1L);
+        storage.compute("SKU-1", (id, existing) -> kettle);
+        Product oversized = new Product("SKU-1", "x".repeat(70_000), 25.0, "Kitchen", true, 2L);
+
+        assertThatThrownBy(() -> storage.check("SKU-1", oversized)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> storage.check("y".repeat(70_000), kettle)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> storage.compute("SKU-1", (id, existing) -> oversized))
+                .isInstanceOf(IllegalArgumentException.class);
+
+        assertThat(storage.get("SKU-1")).isEqualTo(kettle);
+        assertThat(storage.size()).isEqualTo(1);
+    }
+
+    @Test
+    void aRemappingInProgressHoldsUpNeitherReadsNorWritesToOtherIds() throws Exception {
+        storage.compute("held", (id, existing) -> new Product(id, "Held", 1.0, "Kitchen", true, 1L));
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<Product> held = CompletableFuture.supplyAsync(() -> storage.compute("held", (id, existing) -> {
+            entered.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return existing.toBuilder().name("Released").build();
+        }));
+        assertThat(entered.await(5, TimeUnit.SECONDS)).isTrue();
+
+        try {
+            assertThat(storage.get("held").getName()).isEqualTo("Held");
+            // Ids are spread over stripes, at most a few of these can share one with the held id
+            List<CompletableFuture<Product>> others = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                Product other = new Product("other-" + i, "Other", 2.0, "Kitchen", true, 1L);
+                others.add(CompletableFuture.supplyAsync(() -> storage.compute(other.getId(), (id, existing) -> other)));
+            }
+            CompletableFuture.anyOf(others.toArray(CompletableFuture[]::new)).get(5, TimeUnit.SECONDS);
+        } finally {
+            release.countDown();
+        }
+
+        assertThat(held.get(5, TimeUnit.SECONDS).getName()).isEqualTo("Released");
+        assertThat(storage.get("held").getName()).isEqualTo("Released");
+    }
+}
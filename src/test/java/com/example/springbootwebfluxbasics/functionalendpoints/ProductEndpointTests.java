@@ -0,0 +1,434 @@
+package com.example.springbootwebfluxbasics.functionalendpoints;
+
+import com.example.springbootwebfluxbasics.common.BulkItemResult;
+import com.example.springbootwebfluxbasics.common.ChangeEvent;
+import com.example.springbootwebfluxbasics.common.Cursor;
+import com.example.springbootwebfluxbasics.common.JsonMergePatch;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.reactive.AutoConfigureWebTestClient;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.test.web.reactive.server.EntityExchangeResult;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+
+@SpringBootTest(properties = "app.admission.enabled=false")
+@AutoConfigureWebTestClient
+class ProductEndpointTests {
+
+    private static final Pattern NEXT = Pattern.compile("<([^>]+)>; rel=\"next\"");
+
+    @Autowired
+    private WebTestClient client;
+    @Autowired
+    private ProductRepository repository;
+
+    @BeforeEach
+    void setUp() {
+        repository.deleteAll().block();
+        Flux.range(10, 25)
+                .concatMap(i -> repository.save(product("p" + i, "Product " + i, i, i % 2 == 0 ? "Kitchen" : "Garden")))
+                .blockLast();
+    }
+
+    @Test
+    void pagesFollowTheLinkHeaderThroughEveryProductInIdOrder() {
+        List<String> seen = new ArrayList<>();
+        String next = "/products?limit=10";
+        int pages = 0;
+        while (next != null) {
+            EntityExchangeResult<List<Product>> page = client.get().uri(next)
+                    .accept(MediaType.APPLICATION_JSON)
+                    .exchange()
+                    .expectStatus().isOk()
+                    .expectBodyList(Product.class).returnResult();
+            page.getResponseBody().forEach(product -> seen.add(product.getId()));
+            next = nextLink(page.getResponseHeaders());
+            pages++;
+        }
+
+        // 25 products: two full pages with a Link, the last one short and without
+        assertThat(pages).isEqualTo(3);
+        assertThat(seen).hasSize(25).isSorted().doesNotHaveDuplicates();
+    }
+
+    @Test
+    void cursorResumesStrictlyAfterTheLastIdOfThePage() {
+        client.get().uri("/products?limit=5&after={after}", Cursor.encode("p14"))
+                .accept(MediaType.APPLICATION_JSON)
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().value(HttpHeaders.LINK, link ->
+                        assertThat(link).contains("after=" + Cursor.encode("p19")).contains("limit=5"))
+                .expectBodyList(Product.class)
+                .value(page -> assertThat(page).extracting(Product::getId)
+                        .containsExactly("p15", "p16", "p17", "p18", "p19"));
+
+        // A page that reaches the end carries no Link
+        client.get().uri("/products?limit=5&after={after}", Cursor.encode("p30"))
+                .accept(MediaType.APPLICATION_JSON)
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().doesNotExist(HttpHeaders.LINK)
+                .expectBodyList(Product.class).hasSize(4);
+    }
+
+    @Test
+    void limitsOutsideTheAllowedRangeAndBrokenCursorsAreRejected() {
+        for (String query : List.of("limit=0", "limit=1001", "limit=ten", "after=%25%25")) {
+            client.get().uri("/products?" + query)
+                    .accept(MediaType.APPLICATION_JSON)
+                    .exchange()
+                    .expectStatus().isBadRequest();
+        }
+        client.get().uri("/products?limit=1000")
+                .accept(MediaType.APPLICATION_JSON)
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().doesNotExist(HttpHeaders.LINK)
+                .expectBodyList(Product.class).hasSize(25);
+    }
+
+    @Test
+    void listsAreStreamedAsNdjsonOneProductPerLine() {
+        List<Product> all = client.get().uri("/products")
+                .accept(MediaType.APPLICATION_NDJSON)
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentTypeCompatibleWith(MediaType.APPLICATION_NDJSON)
+                .returnResult(Product.class)
+                .getResponseBody()
+                .collectList().block();
+        assertThat(all).hasSize(25);
+
+        String body = client.get().uri("/products/category/kitchen")
+                .accept(MediaType.APPLICATION_NDJSON)
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentTypeCompatibleWith(MediaType.APPLICATION_NDJSON)
+                .expectBody(String.class).returnResult().getResponseBody();
+        // No enclosing array: one JSON object per line
+        assertThat(body).doesNotStartWith("[");
+        assertThat(body.split("\n")).hasSize(13).allSatisfy(line -> assertThat(line).startsWith("{").endsWith("}"));
+    }
+
+    @Test
+    void ndjsonPagesHonourLimitAndCursor() {
+        EntityExchangeResult<byte[]> first = client.get().uri("/products?limit=4")
+                .accept(MediaType.APPLICATION_NDJSON)
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentTypeCompatibleWith(MediaType.APPLICATION_NDJSON)
+                .expectBody().returnResult();
+        String next = nextLink(first.getResponseHeaders());
+        assertThat(next).contains("limit=4").contains("after=" + Cursor.encode("p13"));
+
+        List<String> second = client.get().uri(next)
+                .accept(MediaType.APPLICATION_NDJSON)
+                .exchange()
+                .expectStatus().isOk()
+                .returnResult(Product.class)
+                .getResponseBody()
+                .map(Product::getId)
+                .collectList().block();
+        assertThat(second).containsExactly("p14", "p15", "p16", "p17");
+    }
+
+    @Test
+    void ndjsonItemsCanBeReadOneAtATime() {
+        // Each line decodes on its own, so a client can take the first few items and cancel
+        Flux<Product> body = client.get().uri("/products")
+                .accept(MediaType.APPLICATION_NDJSON)
+                .exchange()
+                .expectStatus().isOk()
+                .returnResult(Product.class)
+                .getResponseBody();
+
+        StepVerifier.create(body, 3)
+                .expectNextCount(3)
+                .thenCancel()
+                .verify();
+    }
+
+    @Test
+    void streamSendsTheSnapshotThenLiveChanges() {
+        Flux<ServerSentEvent<ChangeEvent<Product>>> events = client.get().uri("/products/stream")
+                .accept(MediaType.TEXT_EVENT_STREAM)
+                .exchange()
+                .expectStatus().isOk()
+                .returnResult(new ParameterizedTypeReference<ServerSentEvent<ChangeEvent<Product>>>() { })
+                .getResponseBody();
+
+        StepVerifier.create(events)
+                .expectNextCount(25)
+                .then(() -> {
+                    repository.save(product("p99", "Lamp", 30.0, "Garden")).block();
+                    repository.update("p10", product(null, "Product 10", 11.0, "Kitchen")).block();
+                    repository.deleteById("p11").block();
+                })
+                .assertNext(event -> {
+                    assertThat(event.event()).isEqualTo("created");
+                    assertThat(event.data().entity().getName()).isEqualTo("Lamp");
+                })
+                .assertNext(event -> {
+                    assertThat(event.event()).isEqualTo("updated");
+                    assertThat(event.data().entity().getPrice()).isEqualTo(11.0);
+                })
+                .assertNext(event -> assertThat(event.data()).extracting(ChangeEvent::type, ChangeEvent::id)
+                        .containsExactly(ChangeEvent.Type.DELETED, "p11"))
+                .thenCancel()
+                .verify(Duration.ofSeconds(10));
+    }
+
+    @Test
+    void streamWithoutSnapshotStartsAtTheNextChange() {
+        // Nothing is sent, headers included, until the first change, so changes keep coming until the stream is open
+        Disposable writes = Flux.interval(Duration.ofMillis(200))
+                .concatMap(i -> repository.save(product("p98", "Rug", 80.0 + i, "Home")))
+                .subscribe();
+        Flux<ServerSentEvent<ChangeEvent<Product>>> events = client.get().uri("/products/stream?snapshot=false")
+                .accept(MediaType.TEXT_EVENT_STREAM)
+                .exchange()
+                .expectStatus().isOk()
+                .returnResult(new ParameterizedTypeReference<ServerSentEvent<ChangeEvent<Product>>>() { })
+                .getResponseBody();
+
+        try {
+            StepVerifier.create(events)
+                    .assertNext(event -> assertThat(event.data().id()).isEqualTo("p98"))
+                    .thenCancel()
+                    .verify(Duration.ofSeconds(10));
+        } finally {
+            writes.dispose();
+        }
+    }
+
+    @Test
+    void bulkNdjsonReportsEachLineInOrderAndStopsAtAMalformedOne() {
+        String body = """
+                {"id":"b1","name":"Lamp","price":30.0,"category":"Home","inStock":true}
+                {"id":"b2","name":"Rug","price":80.0,"category":"Home","inStock":true}
+                {"id":"b3","name":"","price":5.0,"category":"Home","inStock":true}
+                {"id":"b4","name":"Vase","price":25.0,"category":"Home","inStock":false}
+                {"id":"b5","name":"Mirror","price":
+                {"id":"b6","name":"Clock","price":40.0,"category":"Home","inStock":true}
+                """;
+
+        List<BulkItemResult> results = client.post().uri("/products/_bulk")
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .accept(MediaType.APPLICATION_NDJSON)
+                .bodyValue(body)
+                .exchange()
+                .expectStatus().isOk()
+                .returnResult(BulkItemResult.class)
+                .getResponseBody()
+                .collectList().block();
+
+        assertThat(results).extracting(BulkItemResult::index, BulkItemResult::id, BulkItemResult::status).containsExactly(
+                tuple(0L, "b1", BulkItemResult.Status.CREATED),
+                tuple(1L, "b2", BulkItemResult.Status.CREATED),
+                tuple(2L, null, BulkItemResult.Status.INVALID),
+                tuple(3L, "b4", BulkItemResult.Status.CREATED),
+                tuple(null, null, BulkItemResult.Status.ABORTED));
+        assertThat(repository.findAllById(List.of("b1", "b2", "b3", "b4", "b5", "b6")).map(Product::getId).collectList().block())
+                .containsExactly("b1", "b2", "b4");
+    }
+
+    @Test
+    void bulkJsonArrayIsWrittenInBatchesWithOneResultPerItem() {
+        List<Product> items = new ArrayList<>();
+        for (int i = 0; i < 1_200; i++) {
+            items.add(product(null, "Imported " + i, i, "Imports"));
+        }
+
+        List<BulkItemResult> results = client.post().uri("/products/_bulk")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(items)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBodyList(BulkItemResult.class).returnResult().getResponseBody();
+
+        // Three batches of the default 500 went through saveAll; the results still come back in request order
+        assertThat(results).hasSize(1_200);
+        assertThat(results).extracting(BulkItemResult::index).isSorted().doesNotHaveDuplicates();
+        assertThat(results).extracting(BulkItemResult::status).containsOnly(BulkItemResult.Status.CREATED);
+        assertThat(repository.findByCategory("imports").count().block()).isEqualTo(1_200);
+        assertThat(repository.findById(results.get(999).id()).block().getName()).isEqualTo("Imported 999");
+    }
+
+    @Test
+    void writesWithAStaleIfMatchAreRejectedWith412AndChangeNothing() {
+        String stale = client.get().uri("/products/p10")
+                .exchange()
+                .expectStatus().isOk()
+                .returnResult(Product.class).getResponseHeaders().getETag();
+        String current = client.patch().uri("/products/p10")
+                .contentType(JsonMergePatch.MEDIA_TYPE)
+                .header(HttpHeaders.IF_MATCH, stale)
+                .bodyValue("{\"price\":11.0}")
+                .exchange()
+                .expectStatus().isOk()
+                .returnResult(Product.class).getResponseHeaders().getETag();
+        assertThat(current).isNotEqualTo(stale);
+
+        client.put().uri("/products/p10")
+                .header(HttpHeaders.IF_MATCH, stale)
+                .bodyValue(product(null, "Overwritten", 99, "Garden"))
+                .exchange()
+                .expectStatus().isEqualTo(HttpStatus.PRECONDITION_FAILED);
+        client.patch().uri("/products/p10")
+                .contentType(JsonMergePatch.MEDIA_TYPE)
+                .header(HttpHeaders.IF_MATCH, stale)
+                .bodyValue("{\"price\":99.0}")
+                .exchange()
+                .expectStatus().isEqualTo(HttpStatus.PRECONDITION_FAILED);
+
+        Product stored = repository.findById("p10").block();
+        assertThat(stored.getName()).isEqualTo("Product 10");
+        assertThat(stored.getPrice()).isEqualTo(11.0);
+        client.put().uri("/products/p10")
+                .header(HttpHeaders.IF_MATCH, current)
+                .bodyValue(product(null, "Overwritten", 99, "Garden"))
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().value(HttpHeaders.ETAG, etag -> assertThat(etag).isNotEqualTo(current));
+    }
+
+    @Test
+    void eachEncodingOfAVersionHasItsOwnETag() {
+        String json = client.get().uri("/products/p13")
+                .exchange()
+                .expectStatus().isOk()
+                .returnResult(byte[].class).getResponseHeaders().getETag();
+        String cbor = client.get().uri("/products/p13")
+                .accept(MediaType.APPLICATION_CBOR)
+                .exchange()
+                .expectStatus().isOk()
+                .returnResult(byte[].class).getResponseHeaders().getETag();
+        assertThat(cbor).isNotEqualTo(json).endsWith("-cbor\"");
+
+        // A JSON copy never answers for the CBOR body, and each revalidates only itself
+        client.get().uri("/products/p13")
+                .accept(MediaType.APPLICATION_CBOR)
+                .header(HttpHeaders.IF_NONE_MATCH, json)
+                .exchange()
+                .expectStatus().isOk();
+        client.get().uri("/products/p13")
+                .accept(MediaType.APPLICATION_CBOR)
+                .header(HttpHeaders.IF_NONE_MATCH, cbor)
+                .exchange()
+                .expectStatus().isNotModified();
+        client.get().uri("/products")
+                .accept(MediaType.APPLICATION_CBOR)
+                .exchange()
+                .expectHeader().value(HttpHeaders.ETAG, etag -> assertThat(etag).startsWith("W/").endsWith("-cbor\""));
+
+        // Either tag still names the version a write is conditional on
+        client.put().uri("/products/p13")
+                .header(HttpHeaders.IF_MATCH, cbor)
+                .bodyValue(product(null, "Renamed", 13, "Kitchen"))
+                .exchange()
+                .expectStatus().isOk();
+    }
+
+    @Test
+    void mergePatchWithNullRemovesTheFieldAndKeepsTheRest() {
+        client.patch().uri("/products/p11")
+                .contentType(JsonMergePatch.MEDIA_TYPE)
+                .bodyValue("{\"category\":null,\"inStock\":false}")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(Product.class)
+                .value(patched -> {
+                    assertThat(patched.getCategory()).isNull();
+                    assertThat(patched.getInStock()).isFalse();
+                    assertThat(patched.getName()).isEqualTo("Product 11");
+                });
+
+        Product stored = repository.findById("p11").block();
+        assertThat(stored.getCategory()).isNull();
+        assertThat(stored.getPrice()).isEqualTo(11.0);
+        assertThat(repository.findByCategory("garden").map(Product::getId).collectList().block()).doesNotContain("p11");
+    }
+
+    @Test
+    void concurrentWritesAtTheSameIfMatchLetExactlyOneThrough() throws Exception {
+        String etag = client.get().uri("/products/p12")
+                .exchange()
+                .expectStatus().isOk()
+                .returnResult(Product.class).getResponseHeaders().getETag();
+        int writers = 8;
+        CountDownLatch start = new CountDownLatch(1);
+        List<CompletableFuture<HttpStatusCode>> statuses = new ArrayList<>();
+        for (int i = 0; i < writers; i++) {
+            int writer = i;
+            statuses.add(CompletableFuture.supplyAsync(() -> {
+                await(start);
+                return client.put().uri("/products/p12")
+                        .header(HttpHeaders.IF_MATCH, etag)
+                        .bodyValue(product(null, "Writer " + writer, writer, "Kitchen"))
+                        .exchange()
+                        .returnResult(Product.class).getStatus();
+            }));
+        }
+        start.countDown();
+
+        List<HttpStatusCode> results = new ArrayList<>();
+        for (CompletableFuture<HttpStatusCode> status : statuses) {
+            results.add(status.get(10, TimeUnit.SECONDS));
+        }
+        assertThat(results).filteredOn(HttpStatus.OK::equals).hasSize(1);
+        assertThat(results).filteredOn(HttpStatus.PRECONDITION_FAILED::equals).hasSize(writers - 1);
+        assertThat(repository.findById("p12").block().getName()).startsWith("Writer ");
+    }
+
+    static String nextLink(HttpHeaders headers) {
+        String link = headers.getFirst(HttpHeaders.LINK);
+        if (link == null) {
+            return null;
+        }
+        Matcher matcher = NEXT.matcher(link);
+        assertThat(matcher.find()).isTrue();
+        return matcher.group(1);
+    }
+
+    static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static Product product(String id, String name, double price, String category) {
+        return Product.builder()
+                .id(id)
+                .name(name)
+                .price(price)
+                .category(category)
+                .inStock(true)
+                .build();
+    }
+}
@@ -0,0 +1,307 @@
+package com.example.springbootwebfluxbasics.functionalendpoints;
+
+import com.example.springbootwebfluxbasics.common.ChangeEvent;
+import com.example.springbootwebfluxbasics.common.VersionConflictException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.Disposable;
+import reactor.core.publisher.BufferOverflowStrategy;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ProductRepositoryTests {
+
+    private ProductRepository repository;
+
+    @BeforeEach
+    void setUp() {
+        repository = new ProductRepository();
+        repository.deleteAll().block();
+        repository.save(product("1", "Kettle", 40.0, "Kitchen")).block();
+        repository.save(product("2", "Toaster", 25.0, "Kitchen")).block();
+        repository.save(product("3", "Monitor", 250.0, "Electronics")).block();
+        repository.save(product("4", "Blender", 60.0, "Kitchen")).block();
+    }
+
+    @Test
+    void priceRangeIsOrderedCheapestFirst() {
+        StepVerifier.create(repository.findByPriceRange("kitchen", 30.0, 100.0).map(Product::getId))
+                .expectNext("1", "4")
+                .verifyComplete();
+    }
+
+    @Test
+    void cheapestFollowsPriceUpdates() {
+        repository.update("3", product("3", "Monitor", 10.0, "Electronics")).block();
+
+        StepVerifier.create(repository.findCheapest(null, 2).map(Product::getId))
+                .expectNext("3", "2")
+                .verifyComplete();
+    }
+
+    @Test
+    void deletedProductsLeaveTheIndexes() {
+        repository.deleteById("2").block();
+
+        StepVerifier.create(repository.findByCategory("KITCHEN").map(Product::getId).sort())
+                .expectNext("1", "4")
+                .verifyComplete();
+        StepVerifier.create(repository.findCheapest("kitchen", 1).map(Product::getId))
+                .expectNext("1")
+                .verifyComplete();
+    }
+
+    @Test
+    void everyChangeMovesVersionsAndGenerationForward() {
+        long version = repository.findById("1").block().getVersion();
+        long generation = repository.generation();
+
+        repository.update("1", product("1", "Kettle", 45.0, "Kitchen")).block();
+        long updated = repository.findById("1").block().getVersion();
+        assertThat(updated).isGreaterThan(version);
+        assertThat(repository.generation()).isGreaterThan(generation);
+
+        generation = repository.generation();
+        repository.deleteById("1").block();
+        assertThat(repository.generation()).isGreaterThan(generation);
+
+        // Re-created after a delete, it still gets a version it never had before
+        repository.save(product("1", "Kettle", 45.0, "Kitchen")).block();
+        assertThat(repository.findById("1").block().getVersion()).isGreaterThan(updated);
+    }
+
+    @Test
+    void writesStoreANewInstanceAndLeaveTheCallersAlone() {
+        Product read = repository.findById("1").block();
+        Product update = product(null, "Kettle", 45.0, "Kitchen");
+
+        Product written = repository.update("1", update).block();
+
+        assertThat(update.getId()).isNull();
+        assertThat(update.getVersion()).isNull();
+        assertThat(written.getId()).isEqualTo("1");
+        assertThat(repository.findById("1").block()).isSameAs(written);
+        // Whoever still holds the old version sees it unchanged
+        assertThat(read.getPrice()).isEqualTo(40.0);
+    }
+
+    @Test
+    void replaceOnlyWritesOverTheExpectedVersion() {
+        long version = repository.findById("1").block().getVersion();
+
+        StepVerifier.create(repository.replace("1", product("1", "Kettle", 45.0, "Kitchen"), version - 1))
+                .expectError(VersionConflictException.class)
+                .verify();
+        assertThat(repository.findById("1").block().getPrice()).isEqualTo(40.0);
+
+        Product replaced = repository.replace("1", product("1", "Kettle", 45.0, "Kitchen"), version).block();
+        assertThat(replaced.getVersion()).isGreaterThan(version);
+        assertThat(repository.findByPriceRange(null, 45.0, 45.0).map(Product::getId).collectList().block())
+                .containsExactly("1");
+
+        // Never creates: a missing product stays missing
+        StepVerifier.create(repository.replace("9", product("9", "Lamp", 30.0, "Home"), null))
+                .verifyComplete();
+        assertThat(repository.findById("9").block()).isNull();
+    }
+
+    @Test
+    void pagesSeeEveryProductOnceWhileItIsBeingUpdated() throws Exception {
+        for (int i = 100; i < 600; i++) {
+            repository.save(product("p" + i, "Product " + i, i, "Kitchen")).block();
+        }
+        List<String> expected = repository.findPage(null, Integer.MAX_VALUE).map(Product::getId).collectList().block();
+
+        // Every product is rewritten over and over, moving between categories and prices, while the pages are read
+        AtomicBoolean reading = new AtomicBoolean(true);
+        Thread writer = new Thread(() -> {
+            for (int round = 0; reading.get(); round++) {
+                for (int i = 100; i < 600; i++) {
+                    repository.update("p" + i, product(null, "Product " + i, i + round, round % 2 == 0 ? "Garden" : "Kitchen")).block();
+                }
+            }
+        });
+        writer.start();
+        try {
+            for (int pass = 0; pass < 20; pass++) {
+                List<String> seen = new ArrayList<>();
+                String after = null;
+                List<String> page;
+                do {
+                    page = repository.findPage(after, 37).map(Product::getId).collectList().block();
+                    seen.addAll(page);
+                    after = page.isEmpty() ? null : page.get(page.size() - 1);
+                } while (page.size() == 37);
+                assertThat(seen).isEqualTo(expected);
+            }
+        } finally {
+            reading.set(false);
+            writer.join();
+        }
+    }
+
+    @Test
+    void changeEventsFollowWriteOrderAndArriveOnceTheWriteIsVisible() throws Exception {
+        List<ChangeEvent<Product>> events = new CopyOnWriteArrayList<>();
+        List<String> early = new CopyOnWriteArrayList<>();
+        Disposable subscription = repository.changes(100_000, BufferOverflowStrategy.ERROR)
+                .subscribe(event -> {
+                    events.add(event);
+                    if (repository.findById(event.id()).block().getVersion() < event.entity().getVersion()) {
+                        early.add(event.id());
+                    }
+                });
+        ExecutorService writers = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> done = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                done.add(writers.submit(() -> {
+                    for (int i = 0; i < 500; i++) {
+                        String id = String.valueOf(1 + i % 4);
+                        repository.update(id, product(id, "Product " + i, i, "Kitchen")).block();
+                    }
+                }));
+            }
+            for (Future<?> future : done) {
+                future.get();
+            }
+        } finally {
+            writers.shutdown();
+            subscription.dispose();
+        }
+
+        assertThat(events).hasSize(4_000);
+        assertThat(early).isEmpty();
+        for (String id : List.of("1", "2", "3", "4")) {
+            assertThat(events.stream().filter(event -> event.id().equals(id)).map(event -> event.entity().getVersion()).toList())
+                    .hasSize(1_000)
+                    .isSorted()
+                    .doesNotHaveDuplicates();
+        }
+    }
+
+    @Test
+    void aSubscriberHeldUpOnOneWriteDoesNotHoldUpTheOthers() throws Exception {
+        CountDownLatch delivering = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Disposable subscription = repository.changes(16, BufferOverflowStrategy.ERROR)
+                .subscribe(event -> {
+                    delivering.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+        Thread first = new Thread(() -> repository.update("1", product("1", "Kettle", 41.0, "Kitchen")).block());
+        first.start();
+        try {
+            assertThat(delivering.await(5, TimeUnit.SECONDS)).isTrue();
+
+            // The first writer is delivering its event; other writes still go through at once and leave consistent
+            // indexes behind, their events queued for whoever is delivering
+            long started = System.nanoTime();
+            repository.update("2", product("2", "Toaster", 26.0, "Garden")).block();
+            repository.deleteById("3").block();
+            assertThat(Duration.ofNanos(System.nanoTime() - started)).isLessThan(Duration.ofMillis(500));
+            assertThat(repository.findByCategory("garden").map(Product::getId).collectList().block()).containsExactly("2");
+            assertThat(repository.findById("3").block()).isNull();
+        } finally {
+            release.countDown();
+            first.join();
+            subscription.dispose();
+        }
+    }
+
+    @Test
+    void findAllByIdKeepsRequestOrderAndSkipsMissingIds() {
+        StepVerifier.create(repository.findAllById(List.of("4", "9", "1", "3")).map(Product::getId))
+                .expectNext("4", "1", "3")
+                .verifyComplete();
+    }
+
+    @Test
+    void statsFollowWritesAcrossCategories() {
+        // The blender moves to a new category, the toaster goes
+        repository.update("4", product("4", "Blender", 80.0, "Appliances")).block();
+        repository.deleteById("2").block();
+
+        ProductStats stats = repository.stats();
+        assertThat(stats.total()).isEqualTo(new ProductStats.Category(null, 3, 3, 40.0, 370.0 / 3, 250.0));
+        assertThat(stats.categories()).containsExactly(
+                new ProductStats.Category("Appliances", 1, 1, 80.0, 80.0, 80.0),
+                new ProductStats.Category("Electronics", 1, 1, 250.0, 250.0, 250.0),
+                new ProductStats.Category("Kitchen", 1, 1, 40.0, 40.0, 40.0));
+
+        // A category left empty is no longer listed
+        repository.deleteById("1").block();
+        assertThat(repository.stats().categories()).extracting(ProductStats.Category::category)
+                .containsExactly("Appliances", "Electronics");
+    }
+
+    @Test
+    void statsDeltasCarryOnlyTheChangedCategories() {
+        StepVerifier.create(repository.statsChanges(Duration.ofMillis(100)).take(1))
+                .then(() -> repository.update("2", product("2", "Toaster", 35.0, "Kitchen")).block())
+                .assertNext(delta -> {
+                    assertThat(delta.total().count()).isEqualTo(4);
+                    assertThat(delta.categories()).containsExactly(
+                            new ProductStats.Category("Kitchen", 3, 3, 35.0, 45.0, 60.0));
+                })
+                .verifyComplete();
+    }
+
+    @Test
+    void findAllStreamsOnePointInTimeOnEveryStorageWhileWritesLandMidScan() {
+        for (ProductStorage storage : List.of(new MapProductStorage(), new ColumnarProductStorage())) {
+            ProductRepository repository = new ProductRepository(storage);
+            repository.deleteAll().block();
+            for (int i = 10; i < 60; i++) {
+                repository.save(product("p" + i, "Product " + i, i, "Kitchen")).block();
+            }
+
+            Iterator<Product> scan = repository.findAll().toIterable(1).iterator();
+            List<Product> seen = new ArrayList<>();
+            for (int i = 0; i < 10; i++) {
+                seen.add(scan.next());
+            }
+            // Behind the scan, ahead of it, and ids it has not reached yet coming and going
+            repository.update("p12", product("p12", "Changed", 1.0, "Garden")).block();
+            repository.update("p40", product("p40", "Changed", 1.0, "Garden")).block();
+            repository.update("p40", product("p40", "Changed again", 2.0, "Garden")).block();
+            repository.deleteById("p45").block();
+            repository.save(product("p05", "Created", 1.0, "Garden")).block();
+            repository.save(product("p55x", "Created", 1.0, "Garden")).block();
+            scan.forEachRemaining(seen::add);
+
+            assertThat(seen).extracting(Product::getId).hasSize(50).isSorted().doesNotHaveDuplicates()
+                    .contains("p45").doesNotContain("p05", "p55x");
+            assertThat(seen).extracting(Product::getName).allMatch(name -> name.startsWith("Product "));
+            assertThat(repository.findAll().map(Product::getName).collectList().block())
+                    .hasSize(51).contains("Changed again", "Created").doesNotContain("Product 45");
+        }
+    }
+
+    private Product product(String id, String name, double price, String category) {
+        return Product.builder()
+                .id(id)
+                .name(name)
+                .price(price)
+                .category(category)
+                .inStock(true)
+                .build();
+    }
+}